@@ -0,0 +1,281 @@
+package com.thirds.qss.compiler;
+
+import com.github.jezza.Toml;
+import com.github.jezza.TomlTable;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+/**
+ * The bundles that a bundle depends on, either directly or through other dependency bundles, read from the
+ * "dependencies" table in each bundle's bundle.toml file.
+ *
+ * Building the graph reads and validates every bundle.toml file once. The compiler keeps the graph until the root
+ * bundle's bundle.toml is overwritten, or until a dependency bundle's bundle.toml is modified on disk
+ * (see {@link #isStale}).
+ *
+ * Each bundle is identified by its directory. If two bundles refer to the same directory by different names,
+ * the name it was first given is used.
+ */
+public class BundleGraph {
+    /**
+     * The name of the bundle being compiled.
+     */
+    public static final String ROOT = "bundle";
+
+    private static class Bundle {
+        private final String name;
+        /**
+         * The bundle root, relative to the root bundle's root.
+         */
+        private final ScriptPath path;
+        private final List<Bundle> dependencies = new ArrayList<>();
+        /**
+         * The number of bundles in the longest chain of dependencies below this one.
+         */
+        private int depth;
+
+        private Bundle(String name, ScriptPath path) {
+            this.name = name;
+            this.path = path;
+        }
+    }
+
+    private final Path bundleRoot;
+    private final Bundle root;
+    /**
+     * Maps the absolute, normalised root directory of each bundle onto the bundle.
+     */
+    private final Map<Path, Bundle> bundles = new HashMap<>();
+    /**
+     * Every bundle, with each bundle after the bundles it depends on. Where there is a cycle, the bundle that was
+     * reached first comes last.
+     */
+    private final List<Bundle> order = new ArrayList<>();
+    private final List<Message> messages = new ArrayList<>();
+    /**
+     * The modification times of the dependency bundles' bundle.toml files when they were read.
+     */
+    private final Map<Path, FileTime> bundleFiles = new HashMap<>();
+
+    /**
+     * @param bundleRoot The root directory of the bundle being compiled.
+     * @param bundleFile The bundle's parsed bundle.toml file.
+     */
+    public BundleGraph(Path bundleRoot, Messenger<TomlTable> bundleFile) {
+        this.bundleRoot = bundleRoot;
+        root = new Bundle(ROOT, new ScriptPath());
+        bundles.put(normalise(root.path), root);
+        bundleFile.getValue().ifPresent(table -> visit(root, table, "bundle.toml", new ArrayDeque<>()));
+        if (!order.contains(root))
+            order.add(root);
+    }
+
+    private Path normalise(ScriptPath path) {
+        return bundleRoot.resolve(path.toPath()).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Adds the dependencies listed in the given bundle's bundle.toml file to the graph, followed by the bundle itself.
+     * @param tomlName The bundle.toml file's path, as it should be displayed in messages.
+     * @param visiting The bundles whose dependencies are being visited, ending with this bundle.
+     */
+    private void visit(Bundle bundle, TomlTable table, String tomlName, Deque<Bundle> visiting) {
+        visiting.addLast(bundle);
+        for (Map.Entry<String, ScriptPath> dependency : getDependencies(bundle, table, tomlName).entrySet()) {
+            Path key = normalise(dependency.getValue());
+            Bundle existing = bundles.get(key);
+            if (existing != null) {
+                if (visiting.contains(existing)) {
+                    reportCycle(existing, visiting);
+                } else {
+                    bundle.dependencies.add(existing);
+                }
+                continue;
+            }
+
+            if (bundles.values().stream().anyMatch(other -> other.name.equals(dependency.getKey()))) {
+                messages.add(new Message(
+                        new Range(new Position(0, 0)),
+                        Message.MessageSeverity.ERROR,
+                        "Bundle " + dependency.getKey() + " in " + tomlName + " has the same name as a different bundle"
+                ).setSource("qss-bundle"));
+                continue;
+            }
+
+            Bundle dependencyBundle = new Bundle(dependency.getKey(), dependency.getValue());
+            bundles.put(key, dependencyBundle);
+            bundle.dependencies.add(dependencyBundle);
+            Path tomlFile = key.resolve("bundle.toml");
+            Optional<TomlTable> dependencyTable = readBundleFile(dependencyBundle, tomlFile);
+            if (dependencyTable.isPresent()) {
+                visit(dependencyBundle, dependencyTable.get(), dependencyBundle.path.toPath().resolve("bundle.toml").toString(), visiting);
+            } else {
+                order.add(dependencyBundle);
+            }
+        }
+        visiting.removeLast();
+
+        for (Bundle dependency : bundle.dependencies) {
+            bundle.depth = Math.max(bundle.depth, dependency.depth + 1);
+        }
+        order.add(bundle);
+    }
+
+    private void reportCycle(Bundle start, Deque<Bundle> visiting) {
+        StringBuilder cycle = new StringBuilder();
+        boolean inCycle = false;
+        for (Bundle bundle : visiting) {
+            if (bundle == start)
+                inCycle = true;
+            if (inCycle)
+                cycle.append(bundle.name).append(" -> ");
+        }
+        cycle.append(start.name);
+        messages.add(new Message(
+                new Range(new Position(0, 0)),
+                Message.MessageSeverity.ERROR,
+                "Bundle dependencies form a cycle: " + cycle
+        ).setSource("qss-bundle"));
+    }
+
+    private Optional<TomlTable> readBundleFile(Bundle bundle, Path tomlFile) {
+        try {
+            bundleFiles.put(tomlFile, Files.getLastModifiedTime(tomlFile));
+            return Optional.of(Toml.from(new StringReader(Files.readString(tomlFile))));
+        } catch (IOException e) {
+            messages.add(new Message(
+                    new Range(new Position(0, 0)),
+                    Message.MessageSeverity.ERROR,
+                    "Cannot parse bundle.toml file of bundle " + bundle.name
+            ).setSource("qss-bundle"));
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Scans the "dependencies" key in a bundle.toml file for dependency bundles.
+     * Errors in the dependencies table are added to the messages.
+     * @return Maps bundle names onto the path containing the bundle root, relative to the root bundle's root.
+     */
+    private Map<String, ScriptPath> getDependencies(Bundle bundle, TomlTable table, String tomlName) {
+        Map<String, ScriptPath> dependencies = new LinkedHashMap<>();
+        Object o = table.get("dependencies");
+        if (o instanceof TomlTable) {
+            TomlTable dependenciesTable = (TomlTable) o;
+            dependenciesTable.forEach((bundleName, value) -> {
+                if (value instanceof TomlTable) {
+                    TomlTable bundleInfo = (TomlTable) value;
+                    if (bundleInfo.get("path") instanceof String) {
+                        ScriptPath dependencyBundlePath = new ScriptPath((String) bundleInfo.get("path"));
+                        Path dependencyRoot = bundle.path.toPath().resolve(dependencyBundlePath.toPath()).normalize();
+                        if (bundleRoot.resolve(dependencyRoot).resolve("bundle.toml").toFile().isFile()) {
+                            dependencies.put(bundleName, new ScriptPath(dependencyRoot));
+                        } else {
+                            messages.add(new Message(
+                                    new Range(new Position(0, 0)),
+                                    Message.MessageSeverity.ERROR,
+                                    "Bundle " + bundleName + " in " + tomlName + " had an invalid \"path\" key; " + dependencyBundlePath + " was not a directory containing a Quest Sage bundle"
+                            ).setSource("qss-bundle"));
+                        }
+                    } else {
+                        messages.add(new Message(
+                                new Range(new Position(0, 0)),
+                                Message.MessageSeverity.ERROR,
+                                "Bundle " + bundleName + " in " + tomlName + " should have a \"path\" key that is the directory of the bundle root"
+                        ).setSource("qss-bundle"));
+                    }
+                } else {
+                    messages.add(new Message(
+                            new Range(new Position(0, 0)),
+                            Message.MessageSeverity.ERROR,
+                            "Bundle " + bundleName + " in " + tomlName + " should be a table containing the \"path\" key"
+                    ).setSource("qss-bundle"));
+                }
+            });
+        }
+        return dependencies;
+    }
+
+    /**
+     * @return The errors found in every bundle.toml file, including dependency cycles.
+     */
+    public List<Message> getMessages() {
+        return Collections.unmodifiableList(messages);
+    }
+
+    /**
+     * @return Maps the name of every bundle that the root bundle depends on, directly or indirectly, onto the path
+     * containing the bundle root. Each bundle comes after the bundles it depends on.
+     */
+    public Map<String, ScriptPath> getDependencies() {
+        Map<String, ScriptPath> dependencies = new LinkedHashMap<>();
+        for (Bundle bundle : order) {
+            if (bundle != root)
+                dependencies.put(bundle.name, bundle.path);
+        }
+        return dependencies;
+    }
+
+    /**
+     * @return The names of the given bundle and every bundle that it depends on, directly or indirectly.
+     * Empty if there is no bundle with the given name.
+     */
+    public Set<String> getClosure(String bundleName) {
+        Set<String> closure = new HashSet<>();
+        for (Bundle bundle : order) {
+            if (bundle.name.equals(bundleName))
+                addClosure(bundle, closure);
+        }
+        return closure;
+    }
+
+    private static void addClosure(Bundle bundle, Set<String> closure) {
+        if (closure.add(bundle.name)) {
+            for (Bundle dependency : bundle.dependencies) {
+                addClosure(dependency, closure);
+            }
+        }
+    }
+
+    /**
+     * Groups the bundles so that each bundle only depends on bundles in earlier groups (ignoring the dependencies
+     * that complete a cycle). The bundles in each group are independent of each other.
+     * @return The names of the bundles in each group, including the root bundle.
+     */
+    public List<List<String>> getLayers() {
+        List<List<String>> layers = new ArrayList<>();
+        for (Bundle bundle : order) {
+            while (layers.size() <= bundle.depth)
+                layers.add(new ArrayList<>());
+            layers.get(bundle.depth).add(bundle.name);
+        }
+        return layers;
+    }
+
+    /**
+     * @return True if a dependency bundle's bundle.toml file was modified or deleted since it was read.
+     * This only checks the files that were read while building the graph, so it is cheap enough to call before every
+     * compile.
+     */
+    public boolean isStale() {
+        for (Map.Entry<Path, FileTime> entry : bundleFiles.entrySet()) {
+            try {
+                if (!Files.getLastModifiedTime(entry.getKey()).equals(entry.getValue()))
+                    return true;
+            } catch (IOException e) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "BundleGraph" + getLayers();
+    }
+}
@@ -0,0 +1,37 @@
+package com.thirds.qss.compiler;
+
+/**
+ * Lets a running compile be stopped early, for example because the script it is compiling has been edited again and
+ * its result would be thrown away. The compiler checks the token at points where stopping leaves its caches in a
+ * state that the next compile of the same script will repair.
+ *
+ * Only cancel a compile if the same script is about to be compiled again.
+ */
+public class CancellationToken {
+    /**
+     * A token that is never cancelled.
+     */
+    public static final CancellationToken NONE = new CancellationToken();
+
+    private volatile boolean cancelled = false;
+
+    /**
+     * This may be called from any thread.
+     */
+    public void cancel() {
+        if (this != NONE)
+            cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @throws CompileCancelledException If this token has been cancelled.
+     */
+    public void checkCancelled() {
+        if (cancelled)
+            throw new CompileCancelledException();
+    }
+}
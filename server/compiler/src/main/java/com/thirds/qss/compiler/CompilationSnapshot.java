@@ -0,0 +1,63 @@
+package com.thirds.qss.compiler;
+
+import com.thirds.qss.compiler.tree.SymbolMap;
+
+import java.util.Map;
+
+/**
+ * The results of every compile up to a point in time, which never change once published.
+ * The compiler publishes a new snapshot after each compile (see {@link Compiler#getSnapshot}), so requests such as
+ * hover and jump-to-definition can read the latest results from any thread without locking, even while the next
+ * compile is running.
+ *
+ * Each snapshot shares every script that was not compiled again with the snapshot before it, so publishing a
+ * snapshot costs O(log n) in the number of scripts for each script that was compiled.
+ */
+public final class CompilationSnapshot {
+    public static final CompilationSnapshot EMPTY = new CompilationSnapshot(0, PersistentMap.empty());
+
+    private final long version;
+    private final PersistentMap<ScriptPath, SymbolMap> symbolMaps;
+
+    private CompilationSnapshot(long version, PersistentMap<ScriptPath, SymbolMap> symbolMaps) {
+        this.version = version;
+        this.symbolMaps = symbolMaps;
+    }
+
+    /**
+     * Increases by one each time a snapshot is published.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The symbol map of the script when it was last compiled, or null if it has not been compiled.
+     */
+    public SymbolMap getSymbolMap(ScriptPath filePath) {
+        return symbolMaps.get(filePath);
+    }
+
+    /**
+     * @return A snapshot with the given script's symbol map replaced.
+     */
+    CompilationSnapshot withSymbolMap(ScriptPath filePath, SymbolMap symbolMap) {
+        return new CompilationSnapshot(version + 1, symbolMaps.put(filePath, symbolMap));
+    }
+
+    /**
+     * @return A snapshot with each of the given scripts' symbol maps replaced.
+     */
+    CompilationSnapshot withSymbolMaps(Map<ScriptPath, SymbolMap> replaced) {
+        PersistentMap<ScriptPath, SymbolMap> result = symbolMaps;
+        for (Map.Entry<ScriptPath, SymbolMap> entry : replaced.entrySet()) {
+            result = result.put(entry.getKey(), entry.getValue());
+        }
+        return new CompilationSnapshot(version + 1, result);
+    }
+
+    @Override
+    public String toString() {
+        return "CompilationSnapshot{version=" + version + ", symbolMaps=" + symbolMaps.size() + "}";
+    }
+}
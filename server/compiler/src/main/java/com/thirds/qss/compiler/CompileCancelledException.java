@@ -0,0 +1,10 @@
+package com.thirds.qss.compiler;
+
+/**
+ * Thrown out of a compile when its {@link CancellationToken} is cancelled.
+ */
+public class CompileCancelledException extends RuntimeException {
+    public CompileCancelledException() {
+        super("The compile was cancelled");
+    }
+}
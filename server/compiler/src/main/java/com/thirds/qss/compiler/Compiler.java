@@ -2,26 +2,32 @@ package com.thirds.qss.compiler;
 
 import com.github.jezza.Toml;
 import com.github.jezza.TomlTable;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.MultimapBuilder;
-import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.thirds.qss.BundleQualifiedName;
 import com.thirds.qss.QssLogger;
 import com.thirds.qss.QualifiedName;
 import com.thirds.qss.compiler.indexer.Index;
+import com.thirds.qss.compiler.indexer.IndexCache;
 import com.thirds.qss.compiler.indexer.Indices;
 import com.thirds.qss.compiler.indexer.NameIndex;
 import com.thirds.qss.compiler.indexer.NameIndices;
+import com.thirds.qss.compiler.indexer.SharedIndices;
+import com.thirds.qss.compiler.lexer.LexedScript;
 import com.thirds.qss.compiler.lexer.Lexer;
-import com.thirds.qss.compiler.lexer.TokenStream;
+import com.thirds.qss.compiler.parser.ParsedItems;
 import com.thirds.qss.compiler.parser.Parser;
+import com.thirds.qss.compiler.resolve.DependencyGraph;
+import com.thirds.qss.compiler.resolve.Resolver;
 import com.thirds.qss.compiler.tree.Documentable;
 import com.thirds.qss.compiler.tree.Script;
 import com.thirds.qss.compiler.tree.SymbolMap;
 import com.thirds.qss.compiler.tree.script.*;
+import com.thirds.qss.compiler.type.FuncCheckCache;
 import com.thirds.qss.compiler.type.TypeDeducer;
 import com.thirds.qss.compiler.validator.Validator;
+import com.thirds.qss.protos.IndexProtos;
 
 import java.io.File;
 import java.io.IOException;
@@ -29,20 +35,28 @@ import java.io.StringReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
-import java.util.function.BiFunction;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * The Compiler class encapsulates the compilation process for a given bundle.
- * Create <i>one</i> instance of the Compiler class per resource bundle.
+ * Create <i>one</i> instance of the Compiler class per resource bundle. The indices of dependency bundles are shared
+ * between every compiler in the process (see {@link SharedIndices}), so compilers for bundles with common dependencies
+ * only build and store those dependencies once. Close a compiler once it is no longer needed to release them.
  *
  * This class caches file content so that it is not repeatedly read from disk.
  * You can overwrite the cached file content by using the {@link #overwriteCachedFileContent} method.
+ *
+ * The methods that compile scripts or change the cached content are synchronized, so only one of them runs at a time.
+ * Each compile publishes its results in a new {@link CompilationSnapshot}, which can be read from any thread without
+ * waiting for a compile that is running (see {@link #getSnapshot}).
  */
-public class Compiler {
+public class Compiler implements AutoCloseable {
     private final Path bundleRoot;
     private final Path indexRoot;
 
@@ -51,26 +65,46 @@ public class Compiler {
      *
      * TODO consider moving this to a guava Cache - making sure not to evict entries whose file content has been overwritten by overwriteCachedFileContent
      */
-    private final Map<ScriptPath, String> cachedFileContent = new HashMap<>();
+    private final Map<ScriptPath, Rope> cachedFileContent = new ConcurrentHashMap<>();
+
+    /**
+     * Maps the paths of files whose content was overwritten onto the edits that were made to them since they were
+     * last lexed, in the order they were made. Files that were never overwritten have no entry.
+     */
+    private final Map<ScriptPath, List<TextEdit>> editsSinceLex = new ConcurrentHashMap<>();
+
+    /**
+     * Maps the paths of files whose content was overwritten onto the lexer's output from when they were last lexed,
+     * so that after an edit only the changed part of the file needs to be lexed again. There is no entry if the
+     * content was replaced entirely since the file was last lexed.
+     */
+    private final Map<ScriptPath, LexedScript> lexedFiles = new ConcurrentHashMap<>();
+
+    /**
+     * Maps the paths of files that have an entry in {@link #lexedFiles} onto the top-level items that were parsed from
+     * that lexer output, so that after an edit only the items that changed need to be parsed again.
+     */
+    private final Map<ScriptPath, ParsedItems> parsedItems = new ConcurrentHashMap<>();
 
     /**
      * Maps folder paths (relative to the bundle root) to the list of children files (also relative to the bundle root).
      * This does NOT include subdirectories, only files.
+     * Guarded by itself, since indices that are built lazily may read it from any thread.
      */
     private final Multimap<ScriptPath, ScriptPath> folderChildren = MultimapBuilder.hashKeys().arrayListValues().build();
 
     /**
      * Maps script names to the parsed file content.
+     * This is concurrent so that scripts in different packages can be parsed and indexed in parallel by
+     * {@link #compileAll}.
      */
-    private final Map<ScriptPath, Script> parsedFiles = new HashMap<>();
+    private final Map<ScriptPath, Script> parsedFiles = new ConcurrentHashMap<>();
 
     /**
-     * Caches the locations of all the symbols in a given file so that we can do efficient hover and jump-to-definition.
+     * The results of the latest compile of each script, so that we can do efficient hover and jump-to-definition.
+     * Only replaced while holding the lock on this compiler.
      */
-    private final Cache<ScriptPath, SymbolMap> symbolMaps = CacheBuilder.newBuilder()
-            .expireAfterAccess(Duration.ofMinutes(1))
-            .maximumSize(25)
-            .build();
+    private volatile CompilationSnapshot snapshot = CompilationSnapshot.EMPTY;
 
     /**
      * Maps bundles and package paths to their name indices.
@@ -80,7 +114,67 @@ public class Compiler {
     /**
      * Maps bundles and package paths to their detailed indices.
      */
-    private final Indices indices = new Indices();
+    private final Indices indices = new Indices(typeNameIndices.getSimpleNames());
+
+    /**
+     * Reads and writes indices for packages in the index directory, so that they can be reused across sessions.
+     */
+    private final IndexCache indexCache;
+
+    /**
+     * Maps package folder paths (relative to the bundle root) to the hash of the contents of their scripts.
+     * This is concurrent since indices that are built lazily may compute hashes on any thread.
+     */
+    private final Map<ScriptPath, String> packageHashes = new ConcurrentHashMap<>();
+
+    /**
+     * The hash of the current name indices, which the indices of packages are resolved against. Indices that were
+     * declared but not built use the hash that is current when they are built.
+     */
+    private volatile Supplier<String> namesHash = () -> IndexCache.hashNames(typeNameIndices);
+
+    /**
+     * Records which packages each script resolved names into, so that we know what to invalidate when a
+     * package's definitions change.
+     */
+    private final DependencyGraph dependencyGraph = new DependencyGraph();
+
+    /**
+     * Scripts whose diagnostics may have changed since they were last compiled, because a definition they depend on
+     * changed.
+     */
+    private final Set<ScriptPath> staleScripts = new HashSet<>();
+
+    /**
+     * If true, the function bodies in each script are type checked concurrently. See {@link TypeDeducer#computeTypesIn(List, ArrayList, boolean)}.
+     */
+    private volatile boolean parallelTypeDeduction = false;
+
+    /**
+     * The messages from type checking each function body, reused while the function and the definitions it used are
+     * unchanged.
+     */
+    private final FuncCheckCache funcCheckCache = new FuncCheckCache();
+
+    /**
+     * The phases of the most recent call to {@link #compile}, which may still be running.
+     */
+    private volatile PhaseTimings lastCompileTimings = new PhaseTimings();
+
+    /**
+     * Maps each package of a dependency bundle onto the key of the shared name index or index that this compiler has
+     * acquired for it. When a newer version of a package is acquired, the previous one is released.
+     */
+    private final Map<BundleQualifiedName, SharedIndices.Key> sharedNameIndices = new ConcurrentHashMap<>();
+    private final Map<BundleQualifiedName, SharedIndices.Key> sharedIndices = new ConcurrentHashMap<>();
+
+    /**
+     * Maps the names of a dependency bundle and every bundle it depends on onto the hash of the names in those bundles.
+     * A shared index is resolved against only these names and identified by their hash rather than by
+     * {@link #namesHash}, since it must not depend on which bundle is being compiled. Cleared whenever the bundle
+     * graph is built again.
+     */
+    private final Map<Set<String>, String> dependencyNamesHashes = new ConcurrentHashMap<>();
 
     /**
      * @param bundleRoot The root directory of the bundle we're compiling. This should contain the bundle.toml file.
@@ -88,139 +182,359 @@ public class Compiler {
      *                   to access imported files.
      */
     public Compiler(Path bundleRoot) {
+        this(bundleRoot, true);
+    }
+
+    /**
+     * @param bundleRoot The root directory of the bundle we're compiling. This should contain the bundle.toml file.
+     *                   If this is null, no index files will be created or read, and the compiler will be unable
+     *                   to access imported files.
+     * @param useIndexCache If false, no index files will be created or read, even if there is a bundle root.
+     */
+    public Compiler(Path bundleRoot, boolean useIndexCache) {
         this.bundleRoot = bundleRoot;
 
         if (bundleRoot != null) {
             QssLogger.initialise(bundleRoot.resolve(".qss").resolve("logs"));
 
-            // Create the index directory, if it does not exist.
-            indexRoot = bundleRoot.resolve(".qss").resolve("index");
-            indexRoot.toFile().mkdirs();
+            if (useIndexCache) {
+                // Create the index directory, if it does not exist.
+                indexRoot = bundleRoot.resolve(".qss").resolve("index");
+                indexRoot.toFile().mkdirs();
+            } else {
+                indexRoot = null;
+            }
         } else {
             QssLogger.initialise(null);
             indexRoot = null;
         }
+
+        indexCache = new IndexCache(indexRoot);
     }
 
     /**
      * @return Null if the file could not be read.
      */
     public String getFileContent(ScriptPath filePath) {
-        return cachedFileContent.computeIfAbsent(filePath, k -> {
+        Rope contents = cachedFileContent.computeIfAbsent(filePath, k -> {
             try {
-                return Files.readString(bundleRoot.resolve(k.toPath()));
+                return Rope.of(Files.readString(bundleRoot.resolve(k.toPath())));
             } catch (IOException e) {
                 return null;
             }
         });
+        return contents == null ? null : contents.toString();
     }
 
     /**
      * @return The new, updated collection of child paths.
      */
     public Collection<ScriptPath> updateFolderChildren(ScriptPath folderPath) {
-        Collection<ScriptPath> paths = folderChildren.get(folderPath);
-        paths.clear();
-        File[] files = bundleRoot.resolve(folderPath.toPath()).toFile().listFiles();
-        if (files == null)
-            return paths;
-        for (File file : files) {
-            if (file.isFile() && file.getName().endsWith(".qss"))
-                paths.add(folderPath.appendSegment(file.getName()));
+        synchronized (folderChildren) {
+            Collection<ScriptPath> paths = folderChildren.get(folderPath);
+            paths.clear();
+            packageHashes.remove(folderPath);
+            File[] files = bundleRoot.resolve(folderPath.toPath()).toFile().listFiles();
+            if (files == null)
+                return new ArrayList<>(paths);
+            for (File file : files) {
+                if (file.isFile() && file.getName().endsWith(".qss"))
+                    paths.add(folderPath.appendSegment(file.getName()));
+            }
+            return new ArrayList<>(paths);
         }
-        return paths;
     }
 
     public Collection<ScriptPath> getFolderChildren(ScriptPath folderPath) {
-        Collection<ScriptPath> paths = folderChildren.get(folderPath);
-        if (paths.isEmpty()) {
-            return updateFolderChildren(folderPath);
+        synchronized (folderChildren) {
+            Collection<ScriptPath> paths = folderChildren.get(folderPath);
+            if (paths.isEmpty()) {
+                return updateFolderChildren(folderPath);
+            }
+            return new ArrayList<>(paths);
         }
-        return paths;
     }
 
     public void overwriteCachedFileContent(ScriptPath filePath, String fileContents) {
+        overwriteCachedFileContent(filePath, Rope.of(fileContents), null);
+    }
+
+    /**
+     * @param edits The edits that turned the previously cached contents into the new contents, in order.
+     *              If null, the contents were replaced entirely.
+     */
+    public synchronized void overwriteCachedFileContent(ScriptPath filePath, Rope fileContents, List<TextEdit> edits) {
         cachedFileContent.put(filePath, fileContents);
+        if (edits == null) {
+            lexedFiles.remove(filePath);
+            parsedItems.remove(filePath);
+            editsSinceLex.put(filePath, new ArrayList<>());
+        } else {
+            editsSinceLex.computeIfAbsent(filePath, k -> new ArrayList<>()).addAll(edits);
+        }
+        packageHashes.remove(filePath.trimLastSegment());
         // Reparse the file.
         deleteCachedContent(filePath);
     }
 
     private void deleteCachedContent(ScriptPath filePath) {
         parsedFiles.remove(filePath);
-        refreshSymbolMap(filePath);
     }
 
     /**
      * Parses the file, if the parsed result is not yet cached.
      * This does not perform any validation checks or produce any index output.
      * This discards any messages emitted by the lexer and parser.
+     *
+     * Scripts that have not been compiled are only parsed as skeletons (see {@link Parser#parseSkeleton}), since this
+     * is only used to index them; their func blocks are parsed if they are ever needed.
      */
     public Script getParsed(ScriptPath filePath) {
-        return parsedFiles.computeIfAbsent(filePath, k -> {
-            String fileContents = getFileContent(filePath);
-            Messenger<TokenStream> tokens = new Lexer().process(fileContents);
-            return tokens.map(t -> new Parser(filePath).parse(t)).getValue().orElse(null);
-        });
+        Script parsed = parsedFiles.get(filePath);
+        if (parsed != null)
+            return parsed;
+
+        // Parse outside the map so that other scripts can be parsed at the same time.
+        parsed = parseSkeleton(filePath).getValue().orElse(null);
+        if (parsed == null)
+            return null;
+        Script existing = parsedFiles.putIfAbsent(filePath, parsed);
+        return existing == null ? parsed : existing;
     }
 
     /**
-     * Computes (if not cached) the symbol map for the given script.
+     * Lexes the given script and parses it as a skeleton, without touching the parsed file cache.
      */
-    public SymbolMap getSymbolMap(ScriptPath filePath) {
-        try {
-            return symbolMaps.get(filePath, () -> {
-                Script script = getParsed(filePath);
-                if (script == null)
-                    throw new UnsupportedOperationException();
-                try {
-                    return new SymbolMap(script);
-                } catch (Exception e) {
-                    QssLogger.logger.atSevere().withCause(e).log("Symbol map could not be generated");
-                    throw e;
-                }
-            });
-        } catch (ExecutionException | UncheckedExecutionException e) {
-            return null;
+    private Messenger<Script> parseSkeleton(ScriptPath filePath) {
+        String fileContents = getFileContent(filePath);
+        if (fileContents == null)
+            fileContents = "";
+
+        Parser parser = new Parser(filePath, bundleRoot == null ? Paths.get("") : bundleRoot);
+        return new Lexer().lex(fileContents).toMessenger().map(parser::parseSkeleton);
+    }
+
+    /**
+     * Lexes and parses the given script, without touching the parsed file cache.
+     * @param incremental If true, and the file is being edited, only the edited part of the file is lexed again, and
+     *                    only the top-level items that changed are parsed again.
+     *                    This must only be used by {@link #compile}, since it updates the lexer's saved output.
+     */
+    private Messenger<Script> parse(ScriptPath filePath, boolean incremental) {
+        String fileContents = getFileContent(filePath);
+        if (fileContents == null)
+            fileContents = "";
+
+        Parser parser = new Parser(filePath, bundleRoot == null ? Paths.get("") : bundleRoot);
+        List<TextEdit> edits = incremental ? editsSinceLex.get(filePath) : null;
+        if (edits == null) {
+            // Don't keep the lexer's or parser's output for files that are not being edited.
+            return new Lexer().lex(fileContents).toMessenger().map(parser::parse);
         }
+
+        LexedScript previous = lexedFiles.get(filePath);
+        LexedScript lexed = previous == null ? new Lexer().lex(fileContents) : new Lexer().relex(previous, fileContents, edits);
+        Messenger<Script> script = parser.parseIncrementally(lexed, previous == null ? null : parsedItems.get(filePath));
+        lexedFiles.put(filePath, lexed);
+        parsedItems.put(filePath, parser.getItems());
+        editsSinceLex.put(filePath, new ArrayList<>());
+        return script;
     }
 
-    public void refreshSymbolMap(ScriptPath filePath) {
-        symbolMaps.invalidate(filePath);
+    /**
+     * @return The results of every compile that has finished so far. This never waits for a compile that is running.
+     */
+    public CompilationSnapshot getSnapshot() {
+        return snapshot;
     }
 
     /**
-     * Executes the given function on each of the script's neighbours in its package, then on the script itself.
-     *
-     * This discards messages that came from different source files.
+     * Publishes the symbol map of a script that was just compiled.
      */
-    private <T> Messenger<T> forNeighbours(ScriptPath filePath, Script scriptParsed, Messenger<T> initial, BiFunction<Script, T, Messenger<T>> func) {
-        Messenger<T> result = initial;
-        for (ScriptPath folderChild : getFolderChildren(filePath.trimLastSegment())) {
-            if (folderChild.equals(filePath))
+    private void publish(ScriptPath filePath, Script script) {
+        try {
+            snapshot = snapshot.withSymbolMap(filePath, new SymbolMap(script));
+        } catch (Exception e) {
+            QssLogger.logger.atSevere().withCause(e).log("Symbol map could not be generated");
+        }
+    }
+
+    /**
+     * Makes sure that an index contains exactly the scripts that are currently in the given package folder.
+     * Scripts that have already been indexed are not parsed or indexed again.
+     * This discards messages that came from the newly indexed scripts.
+     * @param indexedScripts The scripts that have been added to the index.
+     */
+    private void syncScripts(ScriptPath packageFolder, Set<ScriptPath> indexedScripts, Consumer<Script> add, Consumer<ScriptPath> remove) {
+        Set<ScriptPath> folderChildren = new HashSet<>(getFolderChildren(packageFolder));
+        for (ScriptPath indexedScript : new ArrayList<>(indexedScripts)) {
+            if (!folderChildren.contains(indexedScript))
+                remove.accept(indexedScript);
+        }
+        for (ScriptPath folderChild : folderChildren) {
+            if (indexedScripts.contains(folderChild))
                 continue;
             Script parsed = getParsed(folderChild);
             if (parsed != null) {
-                // Ignore error messages from outside this file.
-                result = result.map(value -> func.apply(parsed, value).getValue()
-                        .map(Messenger::success).orElseGet(() -> Messenger.fail(new ArrayList<>(0))));
+                add.accept(parsed);
             }
         }
-        result = result.map(value -> func.apply(scriptParsed, value));
-        return result;
     }
 
     /**
-     * Executes the given function on each of the scripts in this package.
+     * Executes the given function on each of the given scripts that could be parsed.
      */
-    private void forScriptsIn(ScriptPath thePackage, Consumer<Script> func) {
-        for (ScriptPath folderChild : getFolderChildren(thePackage)) {
-            Script parsed = getParsed(folderChild);
+    private void forScripts(Collection<ScriptPath> scripts, Consumer<Script> func) {
+        for (ScriptPath script : scripts) {
+            Script parsed = getParsed(script);
             if (parsed != null) {
                 func.accept(parsed);
             }
         }
     }
 
+    /**
+     * Computes (if not cached) the hash of the contents of every script in the given package folder.
+     */
+    private String getPackageHash(ScriptPath packageFolder) {
+        // This is not computed inside the map, since listing the folder may remove the folder's hash from the map.
+        String hash = packageHashes.get(packageFolder);
+        if (hash != null)
+            return hash;
+        Map<String, String> contents = new HashMap<>();
+        for (ScriptPath folderChild : getFolderChildren(packageFolder)) {
+            contents.put(folderChild.lastSegment(), getFileContent(folderChild));
+        }
+        hash = IndexCache.hashContents(contents);
+        String existing = packageHashes.putIfAbsent(packageFolder, hash);
+        return existing == null ? hash : existing;
+    }
+
+    /**
+     * Reads the name index for the given package from the index cache, or builds it from the scripts in the package
+     * if it was not cached or is out of date.
+     */
+    private NameIndex loadNameIndex(String bundleName, QualifiedName packageName, ScriptPath packageFolder) {
+        return loadNameIndex(bundleName, packageName, new ArrayList<>(getFolderChildren(packageFolder)), getPackageHash(packageFolder));
+    }
+
+    /**
+     * This does not touch the folder or package hash caches, so it may be called from any thread.
+     * @param scripts The scripts in the package.
+     * @param contentHash The hash of the package, computed with {@link #getPackageHash}.
+     */
+    private NameIndex loadNameIndex(String bundleName, QualifiedName packageName, List<ScriptPath> scripts, String contentHash) {
+        return indexCache.readNameIndex(bundleName, packageName, contentHash).orElseGet(() -> {
+            NameIndex index = new NameIndex(bundleName, packageName);
+            forScripts(scripts, index::addFrom);
+            indexCache.writeNameIndex(bundleName, packageName, contentHash, index);
+            return index;
+        });
+    }
+
+    /**
+     * Reads the index for the given package from the index cache, or builds it from the scripts in the package
+     * if it was not cached or is out of date.
+     * This may be called from any thread (for example, to build a declared index), as long as the name indices are
+     * not being modified.
+     * @param namesHash The hash of the name indices that the index should be resolved against.
+     */
+    private Index loadIndex(String bundleName, QualifiedName packageName, ScriptPath packageFolder, String namesHash) {
+        return loadIndex(bundleName, packageName, new ArrayList<>(getFolderChildren(packageFolder)), getPackageHash(packageFolder), namesHash, null);
+    }
+
+    /**
+     * This does not touch the folder or package hash caches, so it may be called from any thread, as long as the
+     * name indices are not being modified.
+     * @param scripts The scripts in the package.
+     * @param contentHash The hash of the package, computed with {@link #getPackageHash}.
+     * @param visibleBundles The bundles whose names the index is resolved against, or null for every bundle.
+     */
+    private Index loadIndex(String bundleName, QualifiedName packageName, List<ScriptPath> scripts, String contentHash, String namesHash, Set<String> visibleBundles) {
+        return indexCache.readIndex(this, bundleName, packageName, contentHash, namesHash).orElseGet(() -> {
+            Index index = new Index(this, packageName);
+            Resolver.withinBundles(visibleBundles, () -> {
+                forScripts(scripts, index::addFrom);
+                return null;
+            });
+            indexCache.writeIndex(bundleName, packageName, contentHash, namesHash, index, dependencyGraph);
+            return index;
+        });
+    }
+
+    /**
+     * Acquires the shared name index for the given package of a dependency bundle, loading it if no compiler holds it.
+     */
+    private NameIndex loadSharedNameIndex(String bundleName, QualifiedName packageName, ScriptPath packageFolder) {
+        return loadSharedNameIndex(bundleName, packageName, packageFolder, new ArrayList<>(getFolderChildren(packageFolder)), getPackageHash(packageFolder));
+    }
+
+    /**
+     * This does not touch the folder or package hash caches, so it may be called from any thread.
+     */
+    private NameIndex loadSharedNameIndex(String bundleName, QualifiedName packageName, ScriptPath packageFolder, List<ScriptPath> scripts, String contentHash) {
+        SharedIndices.Key key = new SharedIndices.Key(getCanonicalPath(packageFolder), packageFolder, bundleName, packageName, contentHash, null);
+        NameIndex nameIndex = SharedIndices.acquireNameIndex(key, () -> loadNameIndex(bundleName, packageName, scripts, contentHash));
+        SharedIndices.Key previous = sharedNameIndices.put(new BundleQualifiedName(bundleName, packageName), key);
+        if (previous != null)
+            SharedIndices.releaseNameIndex(previous);
+        return nameIndex;
+    }
+
+    /**
+     * Acquires the shared index for the given package of a dependency bundle, loading it if no compiler holds it.
+     * This may be called from any thread (for example, to build a declared index), as long as the name indices are
+     * not being modified.
+     * @param bundleGraph The bundle graph that was current when the index was asked for. The index is only resolved
+     *                    against the names in its own bundle and the bundles that it depends on in this graph.
+     */
+    private Index loadSharedIndex(BundleGraph bundleGraph, String bundleName, QualifiedName packageName, ScriptPath packageFolder) {
+        return loadSharedIndex(bundleGraph, bundleName, packageName, packageFolder, new ArrayList<>(getFolderChildren(packageFolder)), getPackageHash(packageFolder));
+    }
+
+    /**
+     * This does not touch the folder or package hash caches, so it may be called from any thread, as long as the
+     * name indices are not being modified.
+     */
+    private Index loadSharedIndex(BundleGraph bundleGraph, String bundleName, QualifiedName packageName, ScriptPath packageFolder, List<ScriptPath> scripts, String contentHash) {
+        Set<String> closure = bundleGraph.getClosure(bundleName);
+        String dependencyNamesHash = dependencyNamesHashes.computeIfAbsent(closure, k -> IndexCache.hashNames(typeNameIndices, k));
+        SharedIndices.Key key = new SharedIndices.Key(getCanonicalPath(packageFolder), packageFolder, bundleName, packageName, contentHash, dependencyNamesHash);
+        Index index = SharedIndices.acquireIndex(key, () -> loadIndex(bundleName, packageName, scripts, contentHash, dependencyNamesHash, closure));
+        SharedIndices.Key previous = sharedIndices.put(new BundleQualifiedName(bundleName, packageName), key);
+        if (previous != null)
+            SharedIndices.releaseIndex(previous);
+        return index;
+    }
+
+    /**
+     * @return The real path of the given file or folder, so that it is the same whichever bundle it is reached from.
+     */
+    private Path getCanonicalPath(ScriptPath path) {
+        Path absolute = bundleRoot.resolve(path.toPath()).toAbsolutePath().normalize();
+        try {
+            return absolute.toRealPath();
+        } catch (IOException e) {
+            return absolute;
+        }
+    }
+
+    /**
+     * Releases the indices of dependency bundles that this compiler shares with other compilers.
+     * The compiler should not be used afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        releaseSharedIndices();
+    }
+
+    private void releaseSharedIndices() {
+        sharedNameIndices.values().forEach(SharedIndices::releaseNameIndex);
+        sharedNameIndices.clear();
+        sharedIndices.values().forEach(SharedIndices::releaseIndex);
+        sharedIndices.clear();
+    }
+
     public NameIndices getNameIndices() {
         return typeNameIndices;
     }
@@ -229,10 +543,119 @@ public class Compiler {
         return indices;
     }
 
+    public DependencyGraph getDependencyGraph() {
+        return dependencyGraph;
+    }
+
+    public FuncCheckCache getFuncCheckCache() {
+        return funcCheckCache;
+    }
+
+    /**
+     * Returns (and forgets) the scripts whose diagnostics may have changed since they were last compiled, because a
+     * definition they depend on changed. If their diagnostics are being displayed, they should be compiled again.
+     */
+    public synchronized Set<ScriptPath> takeStaleScripts() {
+        Set<ScriptPath> result = new HashSet<>(staleScripts);
+        staleScripts.clear();
+        return result;
+    }
+
+    /**
+     * Invalidates everything that was resolved against the definitions in the given package, because the definitions
+     * that the given script contributed to it changed. The index fragments of dependent scripts are resolved again
+     * straight away, and if that changes their definitions, their own dependents are invalidated in turn.
+     * Dependent scripts are parsed again; their diagnostics, symbol maps and dependencies are recomputed when they are
+     * next compiled (see {@link #takeStaleScripts}).
+     * @param namesChanged True if a name was added to or removed from the package.
+     */
+    private void invalidateDependents(BundleQualifiedName changedPackage, ScriptPath changedScript, boolean namesChanged) {
+        Set<ScriptPath> visited = new HashSet<>();
+        visited.add(changedScript);
+        ArrayDeque<BundleQualifiedName> changedPackages = new ArrayDeque<>();
+        changedPackages.add(changedPackage);
+
+        while (!changedPackages.isEmpty()) {
+            BundleQualifiedName thePackage = changedPackages.poll();
+            // Only the first package had names added or removed; the rest only had their types re-resolved.
+            for (ScriptPath dependent : dependencyGraph.getDependents(thePackage, namesChanged && thePackage == changedPackage)) {
+                if (!visited.add(dependent))
+                    continue;
+
+                // The names and types in this script's syntax tree were resolved against the old definitions.
+                parsedFiles.remove(dependent);
+                staleScripts.add(dependent);
+
+                BundleQualifiedName dependentPackage = getIndexedPackage(dependent);
+                Script parsed = getParsed(dependent);
+                if (dependentPackage == null || parsed == null)
+                    continue;
+
+                Index index = indices.get(dependentPackage.getBundle()).getPackages().get(dependentPackage.getName());
+                // Shared indices of dependency bundles are never resolved against the bundle being compiled.
+                if (index.isFrozen())
+                    continue;
+                IndexProtos.Index before = index.serialiseFragment(dependent);
+                // The dependent's edges are kept rather than cleared: the names in its function bodies are only
+                // resolved again when it is next compiled, and until then a change to a package that only those
+                // bodies refer to must still invalidate it. Re-indexing only adds edges, so the graph may keep some
+                // edges that are no longer needed until then, which at worst invalidates the script once too often.
+                index.addFrom(parsed);
+                if (!before.equals(index.serialiseFragment(dependent)))
+                    changedPackages.add(dependentPackage);
+            }
+        }
+    }
+
+    /**
+     * @return The bundle and package of the index that contains the given script, or null if it is not indexed.
+     */
+    private BundleQualifiedName getIndexedPackage(ScriptPath filePath) {
+        for (Map.Entry<String, Indices.Bundle> bundle : indices.getBundles().entrySet()) {
+            for (Map.Entry<QualifiedName, Index> thePackage : bundle.getValue().getPackages().entrySet()) {
+                if (thePackage.getValue().getScripts().contains(filePath))
+                    return new BundleQualifiedName(bundle.getKey(), thePackage.getKey());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets whether the function bodies in each script are type checked concurrently. The messages are the same either
+     * way. Scripts with many functions are checked much faster in parallel, but this uses more threads.
+     */
+    public void setParallelTypeDeduction(boolean parallelTypeDeduction) {
+        this.parallelTypeDeduction = parallelTypeDeduction;
+    }
+
     public Messenger<Script> compile(ScriptPath filePath) {
-        String fileContents = getFileContent(filePath);
-        Messenger<TokenStream> tokens = new Lexer().process(fileContents);
-        Messenger<Script> script = tokens.map(t -> new Parser(filePath).parse(t));
+        return compile(filePath, CancellationToken.NONE);
+    }
+
+    /**
+     * @return How long each phase of the most recent call to {@link #compile} took, and how often the counted
+     * operations happened. A single compile does not separate the name index phase from the index phase. If that
+     * compile is still running, the phases it has not finished are missing.
+     */
+    public PhaseTimings getLastCompileTimings() {
+        return lastCompileTimings;
+    }
+
+    /**
+     * Compiles the given script, stopping early if the token is cancelled.
+     *
+     * The token is only checked before this script's entries in the caches and indices are replaced, and while the
+     * bodies of its functions are being type checked and validated. Stopping at these points can leave this script's
+     * dependencies and deduced types incomplete, but they are rebuilt the next time the script is compiled.
+     * @throws CompileCancelledException If the token was cancelled.
+     */
+    public synchronized Messenger<Script> compile(ScriptPath filePath, CancellationToken cancellationToken) {
+        PhaseTimings timings = new PhaseTimings();
+        lastCompileTimings = timings;
+        long phaseStart = System.nanoTime();
+        Messenger<Script> script = parse(filePath, true);
+        phaseStart = timings.record(PhaseTimings.PARSE, phaseStart);
+        cancellationToken.checkCancelled();
 
         if (script.getValue().isEmpty()) {
             return script;
@@ -242,62 +665,39 @@ public class Compiler {
             Script scriptParsed = script.getValue().get();
             deleteCachedContent(filePath);
             parsedFiles.put(filePath, scriptParsed);
+            // This script's dependencies will be recorded again as it is resolved.
+            dependencyGraph.clear(filePath);
+            staleScripts.remove(filePath);
 
             // Now, parse the bundle.toml file at the bundle root.
             Messenger<TomlTable> bundleFile = getBundleFile();
             allMessages.addAll(bundleFile.getMessages());
 
-            // This maps bundle names onto the path containing the bundle root.
-            Map<String, ScriptPath> dependencies = new HashMap<>();
-            bundleFile.getValue().ifPresent(table -> {
-                // Scan the "dependencies" key in bundle.toml for dependencies.
-                Object o = table.get("dependencies");
-                if (o instanceof TomlTable) {
-                    TomlTable dependenciesTable = (TomlTable) o;
-                    dependenciesTable.forEach((bundleName, value) -> {
-                        if (value instanceof TomlTable) {
-                            TomlTable bundleInfo = (TomlTable) value;
-                            if (bundleInfo.get("path") instanceof String) {
-                                ScriptPath dependencyBundlePath = new ScriptPath((String) bundleInfo.get("path"));
-                                if (bundleRoot.resolve(dependencyBundlePath.toPath()).resolve("bundle.toml").toFile().isFile()) {
-                                    dependencies.put(bundleName, dependencyBundlePath);
-                                } else {
-                                    allMessages.add(new Message(
-                                            new Range(new Position(0, 0)),
-                                            Message.MessageSeverity.ERROR,
-                                            "Bundle " + bundleName + " in bundle.toml had an invalid \"path\" key; " + dependencyBundlePath + " was not a directory containing a Quest Sage bundle"
-                                    ));
-                                }
-                            } else {
-                                allMessages.add(new Message(
-                                        new Range(new Position(0, 0)),
-                                        Message.MessageSeverity.ERROR,
-                                        "Bundle " + bundleName + " in bundle.toml should have a \"path\" key that is the directory of the bundle root"
-                                ));
-                            }
-                        } else {
-                            allMessages.add(new Message(
-                                    new Range(new Position(0, 0)),
-                                    Message.MessageSeverity.ERROR,
-                                    "Bundle " + bundleName + " in bundle.toml should be a table containing the \"path\" key"
-                            ));
-                        }
-                    });
-                }
-            });
+            BundleGraph bundleGraph = getBundleGraph();
+            allMessages.addAll(bundleGraph.getMessages());
+            Map<String, ScriptPath> dependencies = bundleGraph.getDependencies();
 
-            // Fill the index with each script in the package, making sure to do this script last.
-            // If it's last, any name collisions will be reported in this file's error messages.
-            Messenger<NameIndex> typeNameIndex = forNeighbours(filePath, scriptParsed,
-                    Messenger.success(new NameIndex("bundle", scriptParsed.getPackageName())),
-                    (script2, index) -> index.addFrom(script2));
-            typeNameIndex.getValue().ifPresent(idx -> typeNameIndices
+            // Replace this script's fragment of the package's name index. The other scripts in the package are only
+            // indexed if they have not been indexed already, so the cost of an edit does not depend on the size of
+            // the package. Name collisions with other scripts are reported in this file's error messages.
+            ScriptPath packageFolder = filePath.trimLastSegment();
+            NameIndex packageNameIndex = typeNameIndices
                     .computeIfAbsent("bundle", new ScriptPath())
-                    .put(scriptParsed.getPackageName(), idx));
+                    .computeIfAbsent(scriptParsed.getPackageName(), k -> loadNameIndex("bundle", k, packageFolder));
+            BundleQualifiedName thePackage = new BundleQualifiedName("bundle", scriptParsed.getPackageName());
+            int generation = packageNameIndex.getGeneration();
+            syncScripts(packageFolder, packageNameIndex.getScripts(), packageNameIndex::addFrom, packageNameIndex::remove);
+            Messenger<NameIndex> typeNameIndex = packageNameIndex.addFrom(scriptParsed);
+            // If a name in this package was added or removed, anything that was resolved against this package
+            // needs to be resolved again.
+            boolean namesChanged = packageNameIndex.getGeneration() != generation;
 
             // If there were no errors up to this point, we're OK to generate the index for the package.
             if (typeNameIndex.hasErrors()) {
+                if (namesChanged)
+                    invalidateDependents(thePackage, filePath, true);
                 allMessages.addAll(typeNameIndex.getMessages());
+                publish(filePath, scriptParsed);
                 return Messenger.success(scriptParsed, allMessages);
             }
 
@@ -306,11 +706,7 @@ public class Compiler {
             for (QualifiedName packageName : getPackagesInBundle(bundleRoot.resolve("src"))) {
                 typeNameIndices
                         .computeIfAbsent("bundle", new ScriptPath())
-                        .computeIfAbsent(packageName, k -> {
-                            NameIndex index = new NameIndex("bundle", k);
-                            forScriptsIn(new ScriptPath(Paths.get("src").resolve(k.toPath())), index::addFrom);
-                            return index;
-                        });
+                        .computeIfAbsent(packageName, k -> loadNameIndex("bundle", k, new ScriptPath(Paths.get("src").resolve(k.toPath()))));
             }
 
             dependencies.forEach((dependencyBundle, dependencyBundlePath) -> {
@@ -318,89 +714,327 @@ public class Compiler {
                 for (QualifiedName packageName : getPackagesInBundle(bundleRoot.resolve(dependencyBundlePath.toPath()).resolve("src"))) {
                     typeNameIndices
                             .computeIfAbsent(dependencyBundle, dependencyBundlePath)
-                            .computeIfAbsent(packageName, k -> {
-                                NameIndex index = new NameIndex(dependencyBundle, k);
-                                forScriptsIn(new ScriptPath(dependencyBundlePath.toPath().resolve("src").resolve(k.toPath())), index::addFrom);
-                                return index;
-                            });
+                            .computeIfAbsent(packageName, k -> loadSharedNameIndex(dependencyBundle, k, new ScriptPath(dependencyBundlePath.toPath().resolve("src").resolve(k.toPath()))));
                 }
             });
 
             QssLogger.logger.atInfo().log("Type Name Indices:\n%s", typeNameIndices);
 
+            // Cached indices are only valid if they were resolved against the same set of names.
+            // This is only computed if an index actually needs to be loaded.
+            namesHash = Suppliers.memoize(() -> IndexCache.hashNames(typeNameIndices));
+
             // We will go ahead and generate the index. There might be errors when we do this
             // (e.g. field of undeclared type) but we'll just generate the index anyway.
             // The addFrom method uses the typeNameIndices we just generated.
-            // We'll do the same thing where we generate this script last.
-            Messenger<Index> index = forNeighbours(filePath, scriptParsed,
-                    typeNameIndex.map(idx -> Messenger.success(new Index(this, scriptParsed.getPackageName()))),
-                    (script2, index2) -> index2.addFrom(script2));
-            index.getValue().ifPresent(idx -> indices
+            // Like the name index, only this script's fragment of the package's index is replaced.
+            Index packageIndex = indices
                     .computeIfAbsent("bundle", new ScriptPath())
-                    .put(scriptParsed.getPackageName(), idx));
+                    .computeIfAbsent(scriptParsed.getPackageName(), k -> loadIndex("bundle", k, packageFolder, namesHash.get()));
+            syncScripts(packageFolder, packageIndex.getScripts(), packageIndex::addFrom, packageIndex::remove);
+            IndexProtos.Index definitionsBefore = packageIndex.serialiseFragment(filePath);
+            Messenger<Index> index = packageIndex.addFrom(scriptParsed);
+            boolean definitionsChanged = namesChanged || !definitionsBefore.equals(packageIndex.serialiseFragment(filePath));
 
-            // Now, let's build the index for the whole bundle.
+            // Declare the indices of every other package in the bundle and its dependency bundles. They are only built
+            // when the resolver first searches them, using the names that are current at that point. The name
+            // indices list every package's names, so packages are found before their indices are built.
             for (QualifiedName packageName : getPackagesInBundle(bundleRoot.resolve("src"))) {
+                ScriptPath folder = new ScriptPath(Paths.get("src").resolve(packageName.toPath()));
                 indices
                         .computeIfAbsent("bundle", new ScriptPath())
-                        .computeIfAbsent(packageName, k -> {
-                            Index index2 = new Index(this, k);
-                            forScriptsIn(new ScriptPath(Paths.get("src").resolve(k.toPath())), index2::addFrom);
-                            return index2;
-                        });
+                        .declare(packageName, () -> loadIndex("bundle", packageName, folder, namesHash.get()));
             }
 
             dependencies.forEach((dependencyBundle, dependencyBundlePath) -> {
-                // Compute the indices for each dependency bundle.
                 for (QualifiedName packageName : getPackagesInBundle(bundleRoot.resolve(dependencyBundlePath.toPath()).resolve("src"))) {
+                    ScriptPath folder = new ScriptPath(dependencyBundlePath.toPath().resolve("src").resolve(packageName.toPath()));
                     indices
                             .computeIfAbsent(dependencyBundle, dependencyBundlePath)
-                            .computeIfAbsent(packageName, k -> {
-                                Index index2 = new Index(this, k);
-                                forScriptsIn(new ScriptPath(dependencyBundlePath.toPath().resolve("src").resolve(k.toPath())), index2::addFrom);
-                                return index2;
-                            });
+                            .declare(packageName, () -> loadSharedIndex(bundleGraph, dependencyBundle, packageName, folder));
                 }
             });
 
+            // The script will almost certainly need the packages it imports, so build them now rather than while its
+            // functions are being type checked. Other packages are only built if a name is not found in these, to
+            // suggest which package to import.
+            for (QualifiedName importedPackage : scriptParsed.getImportedPackages()) {
+                for (Indices.Bundle bundle : indices.getBundles().values()) {
+                    bundle.getIndex(importedPackage);
+                }
+            }
+
             QssLogger.logger.atInfo().log("Indices:\n%s", indices);
 
+            // Now that every index is loaded, re-resolve anything that depended on this script's old definitions.
+            if (definitionsChanged)
+                invalidateDependents(thePackage, filePath, namesChanged);
+
             allMessages.addAll(index.getMessages());
 
-            // Now that all the indices have been created, we can start deducing the types of everything inside
-            // function bodies.
-            TypeDeducer typeDeducer = new TypeDeducer(this, scriptParsed, filePath);
-            for (Documentable<Func> func : scriptParsed.getFuncs()) {
-                typeDeducer.computeTypesIn(func.getContent(), allMessages);
-            }
-            for (Documentable<FuncHook> funcHook : scriptParsed.getFuncHooks()) {
-                typeDeducer.computeTypesIn(funcHook.getContent(), allMessages);
-            }
-            for (Documentable<GetHook> getHook : scriptParsed.getGetHooks()) {
-                typeDeducer.computeTypesIn(getHook.getContent(), allMessages);
-            }
-            for (Documentable<SetHook> setHook : scriptParsed.getSetHooks()) {
-                typeDeducer.computeTypesIn(setHook.getContent(), allMessages);
+            phaseStart = timings.record(PhaseTimings.INDEX, phaseStart);
+            check(scriptParsed, filePath, allMessages, cancellationToken, timings);
+            timings.record(PhaseTimings.CHECK, phaseStart);
+            publish(filePath, scriptParsed);
+
+            // Return the parsed script.
+            return Messenger.success(scriptParsed, allMessages);
+        }
+    }
+
+    /**
+     * Compiles every script in the bundle on the common fork-join pool.
+     * @see #compileAll(ForkJoinPool)
+     */
+    public Map<ScriptPath, Messenger<Script>> compileAll() {
+        return compileAll(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Compiles every script in the bundle, lexing, parsing, indexing, type checking and validating them in parallel
+     * on the given pool. Each phase finishes for every package before the next phase starts: every name index must
+     * exist before any index is built, and every index must exist before any types are deduced. The results of each
+     * phase are stored in the compiler's caches on this thread, so that the pool only ever reads shared state.
+     *
+     * The name indices and indices of this bundle's packages are rebuilt from the scripts on disk (or their
+     * overwritten contents). The packages of dependency bundles are only loaded if they have not been loaded already.
+     * This includes every bundle that a dependency bundle depends on in turn (see {@link BundleGraph}). Each package's
+     * index only depends on the name indices, so the packages of every bundle are indexed at once; they are submitted
+     * to the pool in topological order, so that the bundles deepest in the graph are indexed first.
+     * @return Maps each script in the bundle onto the result of compiling it, as {@link #compile} would return it,
+     * except that problems with bundle.toml files are not repeated in every script's messages. They are returned by
+     * {@link #getBundleMessages} instead.
+     */
+    public Map<ScriptPath, Messenger<Script>> compileAll(ForkJoinPool pool) {
+        return compileAll(pool, new PhaseTimings());
+    }
+
+    /**
+     * @param timings The time spent in each phase, and the number of times each counted operation happened, is added
+     *                to this.
+     * @see #compileAll(ForkJoinPool)
+     */
+    public synchronized Map<ScriptPath, Messenger<Script>> compileAll(ForkJoinPool pool, PhaseTimings timings) {
+        long phaseStart = System.nanoTime();
+        BundleGraph bundleGraph = getBundleGraph();
+        Map<String, ScriptPath> dependencies = bundleGraph.getDependencies();
+
+        // Find the scripts in every package. This touches the folder and package hash caches, so it is done before
+        // any work is handed to the pool.
+        List<PackageSource> ownPackages = new ArrayList<>();
+        for (QualifiedName packageName : getPackagesInBundle(bundleRoot.resolve("src"))) {
+            ScriptPath packageFolder = new ScriptPath(Paths.get("src").resolve(packageName.toPath()));
+            updateFolderChildren(packageFolder);
+            ownPackages.add(new PackageSource("bundle", new ScriptPath(), packageName, packageFolder));
+        }
+        List<PackageSource> dependencyPackages = new ArrayList<>();
+        dependencies.forEach((dependencyBundle, dependencyBundlePath) -> {
+            for (QualifiedName packageName : getPackagesInBundle(bundleRoot.resolve(dependencyBundlePath.toPath()).resolve("src"))) {
+                ScriptPath packageFolder = new ScriptPath(dependencyBundlePath.toPath().resolve("src").resolve(packageName.toPath()));
+                dependencyPackages.add(new PackageSource(dependencyBundle, dependencyBundlePath, packageName, packageFolder));
             }
-            for (Documentable<NewStructHook> newStructHook : scriptParsed.getNewStructHooks()) {
-                typeDeducer.computeTypesIn(newStructHook.getContent(), allMessages);
+        });
+
+        // Lex and parse every script in the bundle.
+        List<ScriptPath> ownScripts = new ArrayList<>();
+        ownPackages.forEach(thePackage -> ownScripts.addAll(thePackage.scripts));
+        Map<ScriptPath, Messenger<Script>> parsed = join(fork(pool, ownScripts, filePath -> parse(filePath, false)));
+        parsed.forEach((filePath, script) -> {
+            deleteCachedContent(filePath);
+            script.getValue().ifPresent(scriptParsed -> parsedFiles.put(filePath, scriptParsed));
+            // This script's dependencies will be recorded again as it is resolved.
+            dependencyGraph.clear(filePath);
+            staleScripts.remove(filePath);
+        });
+        phaseStart = timings.record(PhaseTimings.PARSE, phaseStart);
+
+        // Build the name indices for this bundle, and load any that are missing from dependency bundles.
+        List<PackageSource> dependencyNamesToLoad = new ArrayList<>();
+        for (PackageSource thePackage : dependencyPackages) {
+            NameIndices.Bundle bundle = typeNameIndices.get(thePackage.bundleName);
+            if (bundle == null || !bundle.getPackages().containsKey(thePackage.packageName))
+                dependencyNamesToLoad.add(thePackage);
+        }
+        Map<PackageSource, NameIndex> ownNameIndices = new HashMap<>();
+        ownPackages.forEach(thePackage -> ownNameIndices.put(thePackage, new NameIndex(thePackage.bundleName, thePackage.packageName)));
+        Map<PackageSource, ForkJoinTask<Map<ScriptPath, Messenger<NameIndex>>>> ownNameTasks = fork(pool, ownPackages, thePackage -> {
+            NameIndex nameIndex = ownNameIndices.get(thePackage);
+            List<Script> scripts = new ArrayList<>();
+            forParsed(thePackage, parsed, scripts::add);
+            Map<ScriptPath, Messenger<NameIndex>> messages = nameIndex.addFromAll(scripts);
+            indexCache.writeNameIndex(thePackage.bundleName, thePackage.packageName, thePackage.contentHash, nameIndex);
+            return messages;
+        });
+        Map<PackageSource, ForkJoinTask<NameIndex>> dependencyNameTasks = fork(pool, dependencyNamesToLoad,
+                thePackage -> loadSharedNameIndex(thePackage.bundleName, thePackage.packageName, thePackage.packageFolder, thePackage.scripts, thePackage.contentHash));
+
+        Map<ScriptPath, Messenger<NameIndex>> nameMessages = new HashMap<>();
+        join(ownNameTasks).forEach((thePackage, messages) -> {
+            nameMessages.putAll(messages);
+            typeNameIndices.computeIfAbsent(thePackage.bundleName, thePackage.pathToBundleRoot)
+                    .put(thePackage.packageName, ownNameIndices.get(thePackage));
+        });
+        join(dependencyNameTasks).forEach((thePackage, nameIndex) -> typeNameIndices
+                .computeIfAbsent(thePackage.bundleName, thePackage.pathToBundleRoot)
+                .put(thePackage.packageName, nameIndex));
+        phaseStart = timings.record(PhaseTimings.NAME_INDEX, phaseStart);
+
+        // Build the indices for this bundle, and load any that are missing from dependency bundles.
+        // The pool only reads the name indices, which are not modified until every index has been built.
+        String namesHash = IndexCache.hashNames(typeNameIndices);
+        this.namesHash = Suppliers.ofInstance(namesHash);
+        List<PackageSource> dependencyIndicesToLoad = new ArrayList<>();
+        for (PackageSource thePackage : dependencyPackages) {
+            Indices.Bundle bundle = indices.get(thePackage.bundleName);
+            if (bundle == null || !bundle.getPackages().containsKey(thePackage.packageName))
+                dependencyIndicesToLoad.add(thePackage);
+        }
+        Map<PackageSource, Index> ownIndices = new HashMap<>();
+        ownPackages.forEach(thePackage -> ownIndices.put(thePackage, new Index(this, thePackage.packageName)));
+        Map<PackageSource, ForkJoinTask<Map<ScriptPath, Messenger<Index>>>> ownIndexTasks = fork(pool, ownPackages, thePackage -> {
+            Index index = ownIndices.get(thePackage);
+            Map<ScriptPath, Messenger<Index>> messages = new HashMap<>();
+            forParsed(thePackage, parsed, script -> messages.put(script.getFilePath(), index.addFrom(script)));
+            indexCache.writeIndex(thePackage.bundleName, thePackage.packageName, thePackage.contentHash, namesHash, index, dependencyGraph);
+            return messages;
+        });
+        Map<PackageSource, ForkJoinTask<Index>> dependencyIndexTasks = fork(pool, dependencyIndicesToLoad,
+                thePackage -> loadSharedIndex(bundleGraph, thePackage.bundleName, thePackage.packageName, thePackage.packageFolder, thePackage.scripts, thePackage.contentHash));
+
+        Map<ScriptPath, Messenger<Index>> indexMessages = new HashMap<>();
+        join(ownIndexTasks).forEach((thePackage, messages) -> {
+            indexMessages.putAll(messages);
+            indices.computeIfAbsent(thePackage.bundleName, thePackage.pathToBundleRoot)
+                    .put(thePackage.packageName, ownIndices.get(thePackage));
+        });
+        join(dependencyIndexTasks).forEach((thePackage, index) -> indices
+                .computeIfAbsent(thePackage.bundleName, thePackage.pathToBundleRoot)
+                .put(thePackage.packageName, index));
+        phaseStart = timings.record(PhaseTimings.INDEX, phaseStart);
+
+        // Finally, deduce types and validate each script. The pool only reads the indices from now on.
+        Map<ScriptPath, ForkJoinTask<Messenger<Script>>> checkTasks = fork(pool, ownScripts, filePath -> {
+            Messenger<Script> script = parsed.get(filePath);
+            if (script.getValue().isEmpty())
+                return script;
+
+            Script scriptParsed = script.getValue().get();
+            ArrayList<Message> allMessages = new ArrayList<>(script.getMessages());
+            Messenger<NameIndex> typeNameIndex = nameMessages.get(filePath);
+            if (typeNameIndex.hasErrors()) {
+                allMessages.addAll(typeNameIndex.getMessages());
+                return Messenger.success(scriptParsed, allMessages);
             }
-            for (Documentable<TraitImpl> traitImpl : scriptParsed.getTraitImpls()) {
-                for (Documentable<Func> funcImpl : traitImpl.getContent().getFuncImpls()) {
-                    typeDeducer.computeTypesIn(funcImpl.getContent(), allMessages);
-                }
+            allMessages.addAll(indexMessages.get(filePath).getMessages());
+            check(scriptParsed, filePath, allMessages, CancellationToken.NONE, timings);
+            return Messenger.success(scriptParsed, allMessages);
+        });
+        Map<ScriptPath, Messenger<Script>> results = join(checkTasks);
+
+        // Publish every script's symbol map at once, so that readers never see a partly compiled bundle.
+        Map<ScriptPath, SymbolMap> symbolMaps = new HashMap<>();
+        results.forEach((filePath, script) -> script.getValue().ifPresent(scriptParsed -> {
+            try {
+                symbolMaps.put(filePath, new SymbolMap(scriptParsed));
+            } catch (Exception e) {
+                QssLogger.logger.atSevere().withCause(e).log("Symbol map could not be generated");
             }
+        }));
+        snapshot = snapshot.withSymbolMaps(symbolMaps);
+        timings.record(PhaseTimings.CHECK, phaseStart);
+        return results;
+    }
 
-            // Now for the last step, we're going to execute some extra validation checks to ensure that the script
-            // is valid QSS.
-            Validator validator = new Validator(this, scriptParsed, filePath);
-            allMessages.addAll(validator.validate());
+    /**
+     * The scripts in a package, found before compiling a whole bundle with {@link #compileAll}.
+     */
+    private class PackageSource {
+        private final String bundleName;
+        private final ScriptPath pathToBundleRoot;
+        private final QualifiedName packageName;
+        private final ScriptPath packageFolder;
+        private final List<ScriptPath> scripts;
+        private final String contentHash;
 
-            // Return the parsed script.
-            return Messenger.success(scriptParsed, allMessages);
+        private PackageSource(String bundleName, ScriptPath pathToBundleRoot, QualifiedName packageName, ScriptPath packageFolder) {
+            this.bundleName = bundleName;
+            this.pathToBundleRoot = pathToBundleRoot;
+            this.packageName = packageName;
+            this.packageFolder = packageFolder;
+            this.scripts = new ArrayList<>(getFolderChildren(packageFolder));
+            this.contentHash = getPackageHash(packageFolder);
+        }
+    }
+
+    /**
+     * Executes the given function on each script in the package that was parsed successfully.
+     */
+    private static void forParsed(PackageSource thePackage, Map<ScriptPath, Messenger<Script>> parsed, Consumer<Script> func) {
+        for (ScriptPath script : thePackage.scripts) {
+            parsed.get(script).getValue().ifPresent(func);
         }
     }
 
+    /**
+     * Submits a task to the pool for each key.
+     * @return The tasks, in the same order as the keys.
+     */
+    private static <K, V> Map<K, ForkJoinTask<V>> fork(ForkJoinPool pool, Collection<K> keys, Function<K, V> func) {
+        Map<K, ForkJoinTask<V>> tasks = new LinkedHashMap<>();
+        for (K key : keys) {
+            tasks.put(key, pool.submit(() -> func.apply(key)));
+        }
+        return tasks;
+    }
+
+    /**
+     * Waits for every task to complete, rethrowing any exception that a task threw.
+     */
+    private static <K, V> Map<K, V> join(Map<K, ForkJoinTask<V>> tasks) {
+        Map<K, V> results = new LinkedHashMap<>();
+        tasks.forEach((key, task) -> results.put(key, task.join()));
+        return results;
+    }
+
+    /**
+     * Deduces the types of everything inside the function bodies of the given script, then validates it.
+     * The indices for the script's package and everything it imports must already be built.
+     * @param timings The number of identifiers resolved is added to this.
+     */
+    private void check(Script scriptParsed, ScriptPath filePath, ArrayList<Message> allMessages, CancellationToken cancellationToken, PhaseTimings timings) {
+        // Now that all the indices have been created, we can start deducing the types of everything inside
+        // function bodies.
+        List<FuncOrHook> funcs = new ArrayList<>();
+        for (Documentable<Func> func : scriptParsed.getFuncs()) {
+            funcs.add(func.getContent());
+        }
+        for (Documentable<FuncHook> funcHook : scriptParsed.getFuncHooks()) {
+            funcs.add(funcHook.getContent());
+        }
+        for (Documentable<GetHook> getHook : scriptParsed.getGetHooks()) {
+            funcs.add(getHook.getContent());
+        }
+        for (Documentable<SetHook> setHook : scriptParsed.getSetHooks()) {
+            funcs.add(setHook.getContent());
+        }
+        for (Documentable<NewStructHook> newStructHook : scriptParsed.getNewStructHooks()) {
+            funcs.add(newStructHook.getContent());
+        }
+        for (Documentable<TraitImpl> traitImpl : scriptParsed.getTraitImpls()) {
+            for (Documentable<Func> funcImpl : traitImpl.getContent().getFuncImpls()) {
+                funcs.add(funcImpl.getContent());
+            }
+        }
+        TypeDeducer typeDeducer = new TypeDeducer(this, scriptParsed, filePath, cancellationToken);
+        typeDeducer.computeTypesIn(funcs, allMessages, parallelTypeDeduction);
+        timings.count(PhaseTimings.IDENTIFIER_LOOKUPS, typeDeducer.getIdentifierLookups());
+
+        // Now for the last step, we're going to execute some extra validation checks to ensure that the script
+        // is valid QSS.
+        Validator validator = new Validator(this, scriptParsed, filePath, cancellationToken);
+        allMessages.addAll(validator.validate());
+    }
+
     /**
      * Recursively finds the names of all the packages in the bundle.
      * @param srcRoot The ABSOLUTE (not relative) root directory of the QSS source in the bundle.
@@ -431,12 +1065,53 @@ public class Compiler {
 
     private String bundleFileContents = null;
 
+    /**
+     * The bundles that this bundle depends on, directly or indirectly. If null, it will be built when getBundleGraph
+     * is called.
+     */
+    private volatile BundleGraph bundleGraph;
+
     /**
      * Call this when the bundle.toml file is changed.
      */
-    public void overwriteBundleFileContents(String contents) {
+    public synchronized void overwriteBundleFileContents(String contents) {
         bundleFile = null;
         bundleFileContents = contents;
+        bundleGraph = null;
+    }
+
+    /**
+     * @return The problems with the bundle's bundle.toml file and the bundle.toml files of its dependency bundles.
+     * {@link #compile} adds these to the messages of the script it compiles, but {@link #compileAll} does not.
+     */
+    public synchronized List<Message> getBundleMessages() {
+        List<Message> messages = new ArrayList<>(getBundleFile().getMessages());
+        messages.addAll(getBundleGraph().getMessages());
+        return messages;
+    }
+
+    /**
+     * Builds the graph of dependency bundles, unless it was built already and no bundle.toml file has changed since.
+     * When the graph is built again, the indices of the dependency bundles are forgotten and released, since the
+     * bundles may have moved or depend on different bundles. They are loaded again when they are next needed.
+     */
+    private BundleGraph getBundleGraph() {
+        Messenger<TomlTable> bundleFile = getBundleFile();
+        // A bundle.toml file that could not be read is not cached, so neither is a graph built from it.
+        if (bundleGraph == null || this.bundleFile == null || bundleGraph.isStale()) {
+            bundleGraph = new BundleGraph(bundleRoot, bundleFile);
+            for (String bundleName : new ArrayList<>(typeNameIndices.getBundles().keySet())) {
+                if (!bundleName.equals(BundleGraph.ROOT))
+                    typeNameIndices.removeBundle(bundleName);
+            }
+            for (String bundleName : new ArrayList<>(indices.getBundles().keySet())) {
+                if (!bundleName.equals(BundleGraph.ROOT))
+                    indices.removeBundle(bundleName);
+            }
+            releaseSharedIndices();
+            dependencyNamesHashes.clear();
+        }
+        return bundleGraph;
     }
 
     private Messenger<TomlTable> getBundleFile() {
@@ -1,5 +1,7 @@
 package com.thirds.qss.compiler;
 
+import com.thirds.qss.protos.IndexProtos;
+
 /**
  * Represents a location inside any text file - not necessarily the one currently being validated/parsed.
  */
@@ -12,6 +14,17 @@ public class Location {
         this.range = range;
     }
 
+    public static Location from(IndexProtos.Location location) {
+        return new Location(new ScriptPath(location.getFilePath()), Range.from(location.getRange()));
+    }
+
+    public IndexProtos.Location serialise() {
+        return IndexProtos.Location.newBuilder()
+                .setFilePath(filePath.toString())
+                .setRange(range.serialise())
+                .build();
+    }
+
     public ScriptPath getFilePath() {
         return filePath;
     }
@@ -47,6 +47,13 @@ public class Message {
         return this;
     }
 
+    /**
+     * @return The part of the compiler that produced this message, e.g. "qss-bundle" for problems with bundle.toml files.
+     */
+    public String getSource() {
+        return source;
+    }
+
     /**
      * Represents a related location to a message. Useful for linking to places that may have caused an error, e.g.
      * name clashes.
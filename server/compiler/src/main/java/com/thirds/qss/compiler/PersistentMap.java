@@ -0,0 +1,400 @@
+package com.thirds.qss.compiler;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable hash map (a hash array mapped trie). Putting or removing a key returns a new map that shares every
+ * part of the trie that did not change with the old map, so copying a map is free and changing it costs
+ * O(log n) regardless of how many maps share it.
+ *
+ * Because unchanged parts of the trie are shared, {@link #forEachDifference} can compare two maps derived from the
+ * same map in time proportional to the number of keys that were changed, rather than to the size of the maps.
+ *
+ * Null keys and values are not permitted.
+ */
+public final class PersistentMap<K, V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    /**
+     * Deeper than this, every bit of the hash has been used, so keys with equal hashes are stored in a collision node.
+     */
+    private static final int MAX_SHIFT = 30;
+
+    private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(Node.EMPTY, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        return (V) root.get(key, key.hashCode(), 0);
+    }
+
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return A map with the given key mapped to the given value. If the key was already mapped to this exact value,
+     * returns this map.
+     */
+    public PersistentMap<K, V> put(K key, V value) {
+        Objects.requireNonNull(value);
+        int[] sizeChange = new int[1];
+        Node newRoot = root.put(key, key.hashCode(), 0, value, sizeChange);
+        if (newRoot == root)
+            return this;
+        return new PersistentMap<>(newRoot, size + sizeChange[0]);
+    }
+
+    /**
+     * @return A map without the given key. If the key was not in this map, returns this map.
+     */
+    public PersistentMap<K, V> remove(K key) {
+        Node newRoot = root.remove(key, key.hashCode(), 0);
+        if (newRoot == root)
+            return this;
+        return new PersistentMap<>(newRoot, size - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> consumer) {
+        root.forEach((BiConsumer<Object, Object>) consumer);
+    }
+
+    /**
+     * Calls the consumer with each key whose value is not the same object in this map and in the other map.
+     * The consumer is given the key, the value in this map and the value in the other map; a value is null if the key
+     * is not in that map.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachDifference(PersistentMap<K, V> other, DifferenceConsumer<? super K, ? super V> consumer) {
+        if (root != other.root)
+            diff(root, other.root, 0, (DifferenceConsumer<Object, Object>) consumer);
+    }
+
+    @FunctionalInterface
+    public interface DifferenceConsumer<K, V> {
+        void accept(K key, V left, V right);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        forEach((k, v) -> {
+            if (sb.length() > 1)
+                sb.append(", ");
+            sb.append(k).append('=').append(v);
+        });
+        return sb.append('}').toString();
+    }
+
+    private static void diff(Node left, Node right, int shift, DifferenceConsumer<Object, Object> consumer) {
+        if (left == right)
+            return;
+        if (left instanceof BitmapNode && right instanceof BitmapNode) {
+            BitmapNode a = (BitmapNode) left, b = (BitmapNode) right;
+            int bits = a.bitmap | b.bitmap;
+            while (bits != 0) {
+                int bit = Integer.lowestOneBit(bits);
+                bits &= ~bit;
+                Object entryA = (a.bitmap & bit) == 0 ? null : a.entries[a.index(bit)];
+                Object entryB = (b.bitmap & bit) == 0 ? null : b.entries[b.index(bit)];
+                if (entryA == entryB)
+                    continue;
+                if (entryA instanceof Node && entryB instanceof Node) {
+                    diff((Node) entryA, (Node) entryB, shift + BITS, consumer);
+                } else {
+                    diffSlow(entryA, entryB, shift + BITS, consumer);
+                }
+            }
+        } else {
+            diffSlow(left, right, shift, consumer);
+        }
+    }
+
+    /**
+     * Compares two entries of a trie that have different shapes by listing their keys.
+     */
+    private static void diffSlow(Object left, Object right, int shift, DifferenceConsumer<Object, Object> consumer) {
+        Node a = asNode(left), b = asNode(right);
+        a.forEach((k, v) -> {
+            Object other = b.get(k, k.hashCode(), shift);
+            if (other != v)
+                consumer.accept(k, v, other);
+        });
+        b.forEach((k, v) -> {
+            if (a.get(k, k.hashCode(), shift) == null)
+                consumer.accept(k, null, v);
+        });
+    }
+
+    /**
+     * Entries are either nodes or single key-value pairs; this wraps a pair in a collision node so that it can be
+     * searched like any other node.
+     */
+    private static Node asNode(Object entry) {
+        if (entry == null)
+            return Node.EMPTY;
+        if (entry instanceof Node)
+            return (Node) entry;
+        Leaf leaf = (Leaf) entry;
+        return new CollisionNode(leaf.hash, new Leaf[]{leaf});
+    }
+
+    private static final class Leaf {
+        final Object key;
+        final int hash;
+        final Object value;
+
+        Leaf(Object key, int hash, Object value) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+        }
+    }
+
+    private static abstract class Node {
+        static final Node EMPTY = new BitmapNode(0, new Object[0]);
+
+        /**
+         * @return The value of the key, or null if it is not present. The shift is ignored by collision nodes, which
+         * are always searched in full.
+         */
+        abstract Object get(Object key, int hash, int shift);
+
+        /**
+         * @param sizeChange Set to 1 if a new key was added.
+         * @return This node, if nothing changed.
+         */
+        abstract Node put(Object key, int hash, int shift, Object value, int[] sizeChange);
+
+        /**
+         * @return This node, if the key was not present.
+         */
+        abstract Node remove(Object key, int hash, int shift);
+
+        abstract void forEach(BiConsumer<Object, Object> consumer);
+
+        abstract boolean isEmpty();
+    }
+
+    /**
+     * A node with up to 32 entries, each either a leaf or a child node, indexed by five bits of the key's hash.
+     */
+    private static final class BitmapNode extends Node {
+        final int bitmap;
+        final Object[] entries;
+
+        BitmapNode(int bitmap, Object[] entries) {
+            this.bitmap = bitmap;
+            this.entries = entries;
+        }
+
+        int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        Object get(Object key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0)
+                return null;
+            Object entry = entries[index(bit)];
+            if (entry instanceof Node)
+                return ((Node) entry).get(key, hash, shift + BITS);
+            Leaf leaf = (Leaf) entry;
+            return leaf.hash == hash && leaf.key.equals(key) ? leaf.value : null;
+        }
+
+        @Override
+        Node put(Object key, int hash, int shift, Object value, int[] sizeChange) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] newEntries = new Object[entries.length + 1];
+                System.arraycopy(entries, 0, newEntries, 0, index);
+                newEntries[index] = new Leaf(key, hash, value);
+                System.arraycopy(entries, index, newEntries, index + 1, entries.length - index);
+                sizeChange[0] = 1;
+                return new BitmapNode(bitmap | bit, newEntries);
+            }
+
+            Object entry = entries[index];
+            Object newEntry;
+            if (entry instanceof Node) {
+                newEntry = ((Node) entry).put(key, hash, shift + BITS, value, sizeChange);
+            } else {
+                Leaf leaf = (Leaf) entry;
+                if (leaf.hash == hash && leaf.key.equals(key)) {
+                    newEntry = leaf.value == value ? leaf : new Leaf(leaf.key, hash, value);
+                } else {
+                    sizeChange[0] = 1;
+                    newEntry = split(leaf, new Leaf(key, hash, value), shift + BITS);
+                }
+            }
+            if (newEntry == entry)
+                return this;
+            Object[] newEntries = entries.clone();
+            newEntries[index] = newEntry;
+            return new BitmapNode(bitmap, newEntries);
+        }
+
+        /**
+         * Creates a node containing two leaves that fell into the same slot.
+         */
+        private static Node split(Leaf a, Leaf b, int shift) {
+            if (shift > MAX_SHIFT || a.hash == b.hash)
+                return new CollisionNode(a.hash, new Leaf[]{a, b});
+            int bitA = 1 << ((a.hash >>> shift) & MASK);
+            int bitB = 1 << ((b.hash >>> shift) & MASK);
+            if (bitA == bitB)
+                return new BitmapNode(bitA, new Object[]{split(a, b, shift + BITS)});
+            return new BitmapNode(bitA | bitB, Integer.compareUnsigned(bitA, bitB) < 0 ? new Object[]{a, b} : new Object[]{b, a});
+        }
+
+        @Override
+        Node remove(Object key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0)
+                return this;
+            int index = index(bit);
+            Object entry = entries[index];
+            Object newEntry;
+            if (entry instanceof Node) {
+                Node child = ((Node) entry).remove(key, hash, shift + BITS);
+                if (child == entry)
+                    return this;
+                newEntry = child.isEmpty() ? null : child;
+            } else {
+                Leaf leaf = (Leaf) entry;
+                if (leaf.hash != hash || !leaf.key.equals(key))
+                    return this;
+                newEntry = null;
+            }
+
+            if (newEntry != null) {
+                Object[] newEntries = entries.clone();
+                newEntries[index] = newEntry;
+                return new BitmapNode(bitmap, newEntries);
+            }
+            Object[] newEntries = new Object[entries.length - 1];
+            System.arraycopy(entries, 0, newEntries, 0, index);
+            System.arraycopy(entries, index + 1, newEntries, index, entries.length - index - 1);
+            return new BitmapNode(bitmap & ~bit, newEntries);
+        }
+
+        @Override
+        boolean isEmpty() {
+            return bitmap == 0;
+        }
+
+        @Override
+        void forEach(BiConsumer<Object, Object> consumer) {
+            for (Object entry : entries) {
+                if (entry instanceof Node) {
+                    ((Node) entry).forEach(consumer);
+                } else {
+                    Leaf leaf = (Leaf) entry;
+                    consumer.accept(leaf.key, leaf.value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Holds keys whose hashes are entirely equal.
+     */
+    private static final class CollisionNode extends Node {
+        final int hash;
+        final Leaf[] leaves;
+
+        CollisionNode(int hash, Leaf[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < leaves.length; i++)
+                if (leaves[i].key.equals(key))
+                    return i;
+            return -1;
+        }
+
+        @Override
+        Object get(Object key, int hash, int shift) {
+            if (hash != this.hash)
+                return null;
+            int i = indexOf(key);
+            return i < 0 ? null : leaves[i].value;
+        }
+
+        @Override
+        Node put(Object key, int hash, int shift, Object value, int[] sizeChange) {
+            if (hash != this.hash) {
+                // The new key only shares part of its hash with the keys here, so this node must move down a level.
+                int bitA = 1 << ((this.hash >>> shift) & MASK);
+                int bitB = 1 << ((hash >>> shift) & MASK);
+                if (bitA == bitB)
+                    return new BitmapNode(bitA, new Object[]{put(key, hash, shift + BITS, value, sizeChange)});
+                sizeChange[0] = 1;
+                Leaf leaf = new Leaf(key, hash, value);
+                return new BitmapNode(bitA | bitB, Integer.compareUnsigned(bitA, bitB) < 0 ? new Object[]{this, leaf} : new Object[]{leaf, this});
+            }
+            int i = indexOf(key);
+            if (i >= 0) {
+                if (leaves[i].value == value)
+                    return this;
+                Leaf[] newLeaves = leaves.clone();
+                newLeaves[i] = new Leaf(key, hash, value);
+                return new CollisionNode(hash, newLeaves);
+            }
+            Leaf[] newLeaves = Arrays.copyOf(leaves, leaves.length + 1);
+            newLeaves[leaves.length] = new Leaf(key, hash, value);
+            sizeChange[0] = 1;
+            return new CollisionNode(hash, newLeaves);
+        }
+
+        @Override
+        Node remove(Object key, int hash, int shift) {
+            int i = indexOf(key);
+            if (i < 0)
+                return this;
+            Leaf[] newLeaves = new Leaf[leaves.length - 1];
+            System.arraycopy(leaves, 0, newLeaves, 0, i);
+            System.arraycopy(leaves, i + 1, newLeaves, i, leaves.length - i - 1);
+            return new CollisionNode(hash, newLeaves);
+        }
+
+        @Override
+        boolean isEmpty() {
+            return leaves.length == 0;
+        }
+
+        @Override
+        void forEach(BiConsumer<Object, Object> consumer) {
+            for (Leaf leaf : leaves)
+                consumer.accept(leaf.key, leaf.value);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.thirds.qss.compiler;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records how long each phase of {@link Compiler#compileAll} took, and counts how often certain operations
+ * happened. If the same instance is passed to several calls, the times and counts are summed, so one instance can
+ * measure a whole batch of bundles. Each call to {@link Compiler#compile} is measured separately, see
+ * {@link Compiler#getLastCompileTimings}.
+ */
+public class PhaseTimings {
+    public static final String PARSE = "parse";
+    public static final String NAME_INDEX = "name index";
+    public static final String INDEX = "index";
+    public static final String CHECK = "check";
+
+    /**
+     * The number of identifiers in function bodies that were resolved while deducing types.
+     */
+    public static final String IDENTIFIER_LOOKUPS = "identifier lookups";
+
+    /**
+     * Maps phase names onto the total time spent in that phase, in nanoseconds, in the order the phases first ran.
+     */
+    private final Map<String, Long> nanos = new LinkedHashMap<>();
+    /**
+     * Maps counter names onto their totals, in the order the counters were first incremented.
+     */
+    private final Map<String, Long> counts = new LinkedHashMap<>();
+
+    /**
+     * @param startNanos The value of {@link System#nanoTime()} when the phase started.
+     * @return The current value of {@link System#nanoTime()}, which can be used as the start of the next phase.
+     */
+    synchronized long record(String phase, long startNanos) {
+        long now = System.nanoTime();
+        nanos.merge(phase, now - startNanos, Long::sum);
+        return now;
+    }
+
+    synchronized void count(String counter, long amount) {
+        counts.merge(counter, amount, Long::sum);
+    }
+
+    public synchronized Map<String, Duration> getDurations() {
+        Map<String, Duration> result = new LinkedHashMap<>();
+        nanos.forEach((phase, time) -> result.put(phase, Duration.ofNanos(time)));
+        return Collections.unmodifiableMap(result);
+    }
+
+    public synchronized Map<String, Long> getCounts() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(counts));
+    }
+}
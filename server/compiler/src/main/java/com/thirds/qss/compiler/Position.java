@@ -1,27 +1,47 @@
 package com.thirds.qss.compiler;
 
-import java.util.Objects;
-
 public final class Position implements Comparable<Position> {
     /**
      * Zero-indexed line and column numbers.
      */
-    public int line, character;
+    public final int line, character;
 
     public Position(int line, int character) {
         this.line = line;
         this.character = character;
     }
 
+    /**
+     * Packs a position into a single long, with the line in the upper half and the character in the lower half.
+     * Packed positions are ordered in the same way as {@link #compareTo}, so they can be compared directly.
+     * The compiler stores positions like this (see {@link Range}), and only creates position objects when they
+     * are needed, e.g. to send to the client.
+     */
+    public static long pack(int line, int character) {
+        return ((long) line << 32) | (character & 0xFFFFFFFFL);
+    }
+
+    public static int line(long position) {
+        return (int) (position >>> 32);
+    }
+
+    public static int character(long position) {
+        return (int) position;
+    }
+
+    public static Position unpack(long position) {
+        return new Position(line(position), character(position));
+    }
+
+    public long pack() {
+        return pack(line, character);
+    }
+
     @Override
     public String toString() {
         return (line+1) + ":" + (character+1);
     }
 
-    public Position copy() {
-        return new Position(line, character);
-    }
-
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -33,14 +53,11 @@ public final class Position implements Comparable<Position> {
 
     @Override
     public int hashCode() {
-        return Objects.hash(line, character);
+        return Long.hashCode(pack());
     }
 
     @Override
     public int compareTo(Position o) {
-        int compare = Integer.compare(line, o.line);
-        if (compare != 0)
-            return compare;
-        return Integer.compare(character, o.character);
+        return Long.compare(pack(), o.pack());
     }
 }
@@ -1,44 +1,105 @@
 package com.thirds.qss.compiler;
 
-import java.util.Objects;
+import com.thirds.qss.protos.IndexProtos;
 
+/**
+ * The start and end positions are stored packed into longs (see {@link Position#pack}), since every node and token
+ * has a range. Position objects are only created when they are asked for.
+ */
 public final class Range {
-    public final Position start, end;
+    private final long start, end;
 
     public Range(Position where) {
-        this.start = where.copy();
-        this.end = where.copy();
-        this.end.character++;
+        this(where.pack());
     }
 
     public Range(Position start, Position end) {
-        this.start = start.copy();
-        this.end = end.copy();
+        this(start.pack(), end.pack());
+    }
+
+    public Range(int startLine, int startCharacter, int endLine, int endCharacter) {
+        this(Position.pack(startLine, startCharacter), Position.pack(endLine, endCharacter));
     }
 
     /**
-     * Returns a range encompassing both ranges. This may be larger than the union of both ranges, if there is space
-     * in between the two ranges.
+     * Creates a range one character long, starting at the given packed position.
      */
-    public static Range combine(Range a, Range b) {
-        Position newStart, newEnd;
+    public Range(long where) {
+        this(where, where + 1);
+    }
 
-        if (a.start.compareTo(b.start) < 0)
-            newStart = a.start;
-        else
-            newStart = b.start;
+    /**
+     * Creates a range between two packed positions.
+     */
+    public Range(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
 
-        if (a.end.compareTo(b.end) > 0)
-            newEnd = a.end;
-        else
-            newEnd = b.end;
+    public static Range from(IndexProtos.Range range) {
+        return new Range(range.getStartLine(), range.getStartCharacter(), range.getEndLine(), range.getEndCharacter());
+    }
 
-        return new Range(newStart, newEnd);
+    public IndexProtos.Range serialise() {
+        return IndexProtos.Range.newBuilder()
+                .setStartLine(getStartLine())
+                .setStartCharacter(getStartCharacter())
+                .setEndLine(getEndLine())
+                .setEndCharacter(getEndCharacter())
+                .build();
+    }
+
+    public Position getStart() {
+        return Position.unpack(start);
+    }
+
+    public Position getEnd() {
+        return Position.unpack(end);
+    }
+
+    public long getPackedStart() {
+        return start;
+    }
+
+    public long getPackedEnd() {
+        return end;
+    }
+
+    public int getStartLine() {
+        return Position.line(start);
+    }
+
+    public int getStartCharacter() {
+        return Position.character(start);
+    }
+
+    public int getEndLine() {
+        return Position.line(end);
+    }
+
+    public int getEndCharacter() {
+        return Position.character(end);
+    }
+
+    /**
+     * @return This range, moved down by the given number of lines.
+     */
+    public Range moveLines(int lineDelta) {
+        long delta = (long) lineDelta << 32;
+        return new Range(start + delta, end + delta);
+    }
+
+    /**
+     * Returns a range encompassing both ranges. This may be larger than the union of both ranges, if there is space
+     * in between the two ranges.
+     */
+    public static Range combine(Range a, Range b) {
+        return new Range(Math.min(a.start, b.start), Math.max(a.end, b.end));
     }
 
     @Override
     public String toString() {
-        return start + "-" + end;
+        return getStart() + "-" + getEnd();
     }
 
     @Override
@@ -46,16 +107,23 @@ public final class Range {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Range range = (Range) o;
-        return start.equals(range.start) &&
-                end.equals(range.end);
+        return start == range.start &&
+                end == range.end;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(start, end);
+        return 31 * Long.hashCode(start) + Long.hashCode(end);
     }
 
     public boolean contains(Position position) {
-        return start.compareTo(position) <= 0 && end.compareTo(position) >= 0;
+        return contains(position.pack());
+    }
+
+    /**
+     * @param position A packed position.
+     */
+    public boolean contains(long position) {
+        return start <= position && end >= position;
     }
 }
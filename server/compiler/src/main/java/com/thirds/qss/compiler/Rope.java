@@ -0,0 +1,374 @@
+package com.thirds.qss.compiler;
+
+/**
+ * An immutable piece of text stored as a balanced tree of chunks, so that a range of text can be replaced in
+ * O(log n) time without copying the rest of the text. This is used to store the contents of scripts that are being
+ * edited in the client, which sends each keystroke as a small edit.
+ *
+ * Each chunk is a view onto a string, so creating a rope from a string does not copy it. The contiguous text is
+ * only built when {@link #toString} is called, and is then cached.
+ *
+ * Offsets and characters are measured in UTF-16 code units, like the positions sent by the client.
+ */
+public final class Rope {
+    /**
+     * Text is split into chunks of at most this many characters, so that splitting a chunk is cheap.
+     */
+    private static final int MAX_CHUNK = 1024;
+
+    /**
+     * When two chunks are joined and their total length is at most this, they are copied into a single chunk, so that
+     * edits spanning several chunks do not leave lots of tiny chunks behind.
+     */
+    private static final int MERGE_CHUNK = 64;
+
+    public static final Rope EMPTY = new Rope(null);
+
+    /**
+     * Null if the rope is empty.
+     */
+    private final Node root;
+
+    /**
+     * The contiguous text, built the first time it is needed.
+     */
+    private volatile String text;
+
+    private Rope(Node root) {
+        this.root = root;
+        if (root == null)
+            text = "";
+    }
+
+    public static Rope of(String text) {
+        if (text.isEmpty())
+            return EMPTY;
+        Rope rope = new Rope(build(text, 0, text.length()));
+        rope.text = text;
+        return rope;
+    }
+
+    public int length() {
+        return root == null ? 0 : root.length;
+    }
+
+    /**
+     * @return The number of line breaks in the text. The text has one more line than this.
+     */
+    public int lineBreaks() {
+        return root == null ? 0 : root.lineBreaks;
+    }
+
+    public char charAt(int offset) {
+        if (offset < 0 || offset >= length())
+            throw new IndexOutOfBoundsException(offset);
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            if (offset < branch.left.length) {
+                node = branch.left;
+            } else {
+                offset -= branch.left.length;
+                node = branch.right;
+            }
+        }
+        Leaf leaf = (Leaf) node;
+        return leaf.base.charAt(leaf.start + offset);
+    }
+
+    /**
+     * Converts a (zero-indexed) line and character into an offset into the text. Positions past the end of a line
+     * are clamped to the end of that line (before its line break, which may be CRLF), and positions past the end of
+     * the text are clamped to the end of the text, since clients are allowed to send such positions.
+     */
+    public int offsetOf(Position position) {
+        if (position.line > lineBreaks())
+            return length();
+        int lineStart = lineStart(position.line);
+        int lineEnd = length();
+        if (position.line < lineBreaks()) {
+            lineEnd = lineStart(position.line + 1) - 1;
+            if (lineEnd > lineStart && charAt(lineEnd - 1) == '\r')
+                lineEnd--;
+        }
+        return Math.min(lineStart + Math.max(position.character, 0), lineEnd);
+    }
+
+    /**
+     * Converts an offset into the text into a (zero-indexed) line and character.
+     */
+    public Position positionOf(int offset) {
+        offset = Math.max(0, Math.min(offset, length()));
+        int line = lineBreaksBefore(offset);
+        return new Position(line, offset - lineStart(line));
+    }
+
+    /**
+     * @return The offset of the first character of the given line.
+     */
+    private int lineStart(int line) {
+        if (line == 0)
+            return 0;
+        // Find the line break that ends the previous line.
+        int breaks = line;
+        int offset = 0;
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            if (breaks <= branch.left.lineBreaks) {
+                node = branch.left;
+            } else {
+                breaks -= branch.left.lineBreaks;
+                offset += branch.left.length;
+                node = branch.right;
+            }
+        }
+        Leaf leaf = (Leaf) node;
+        for (int i = leaf.start; i < leaf.end; i++) {
+            if (leaf.base.charAt(i) == '\n' && --breaks == 0)
+                return offset + i - leaf.start + 1;
+        }
+        throw new IllegalStateException("Line break count was inconsistent");
+    }
+
+    private int lineBreaksBefore(int offset) {
+        int breaks = 0;
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            if (offset <= branch.left.length) {
+                node = branch.left;
+            } else {
+                offset -= branch.left.length;
+                breaks += branch.left.lineBreaks;
+                node = branch.right;
+            }
+        }
+        if (node != null) {
+            Leaf leaf = (Leaf) node;
+            breaks += countLineBreaks(leaf.base, leaf.start, leaf.start + offset);
+        }
+        return breaks;
+    }
+
+    /**
+     * Replaces the text between the given offsets with some new text.
+     * @return A new rope; this rope is unchanged.
+     */
+    public Rope replace(int start, int end, String replacement) {
+        if (start < 0 || end < start || end > length())
+            throw new IndexOutOfBoundsException(start + "-" + end + " in " + length());
+
+        // Most edits are small and inside a single chunk, so just copy that chunk.
+        Node replaced = replaceInLeaf(root, start, end, replacement);
+        if (replaced != null)
+            return new Rope(replaced);
+
+        Node[] before = split(root, start);
+        Node[] after = split(before[1], end - start);
+        Node middle = replacement.isEmpty() ? null : build(replacement, 0, replacement.length());
+        return new Rope(join(join(before[0], middle), after[1]));
+    }
+
+    /**
+     * Applies an edit that was created from the text of this rope.
+     */
+    public Rope apply(TextEdit edit) {
+        return replace(edit.startOffset, edit.oldEndOffset, edit.text);
+    }
+
+    public String substring(int start, int end) {
+        if (start < 0 || end < start || end > length())
+            throw new IndexOutOfBoundsException(start + "-" + end + " in " + length());
+        StringBuilder sb = new StringBuilder(end - start);
+        appendTo(sb, root, start, end);
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        String result = text;
+        if (result == null) {
+            StringBuilder sb = new StringBuilder(length());
+            appendTo(sb, root, 0, length());
+            text = result = sb.toString();
+        }
+        return result;
+    }
+
+    private static void appendTo(StringBuilder sb, Node node, int start, int end) {
+        if (node == null || start >= end)
+            return;
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            sb.append(leaf.base, leaf.start + start, leaf.start + end);
+        } else {
+            Branch branch = (Branch) node;
+            int leftLength = branch.left.length;
+            appendTo(sb, branch.left, start, Math.min(end, leftLength));
+            appendTo(sb, branch.right, Math.max(start - leftLength, 0), end - leftLength);
+        }
+    }
+
+    private static int countLineBreaks(String s, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i) == '\n')
+                count++;
+        }
+        return count;
+    }
+
+    //////////////////////////////////////////////////////////////////////
+    // Tree operations
+    //////////////////////////////////////////////////////////////////////
+
+    private static abstract class Node {
+        final int length, lineBreaks, height;
+
+        Node(int length, int lineBreaks, int height) {
+            this.length = length;
+            this.lineBreaks = lineBreaks;
+            this.height = height;
+        }
+    }
+
+    private static final class Leaf extends Node {
+        final String base;
+        final int start, end;
+
+        Leaf(String base, int start, int end) {
+            super(end - start, countLineBreaks(base, start, end), 0);
+            this.base = base;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static final class Branch extends Node {
+        final Node left, right;
+
+        Branch(Node left, Node right) {
+            super(left.length + right.length, left.lineBreaks + right.lineBreaks, Math.max(left.height, right.height) + 1);
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    private static int height(Node node) {
+        return node == null ? -1 : node.height;
+    }
+
+    /**
+     * Builds a balanced tree of chunks viewing the given part of a string.
+     */
+    private static Node build(String s, int start, int end) {
+        if (end - start <= MAX_CHUNK)
+            return new Leaf(s, start, end);
+        int mid = start + (end - start) / 2;
+        // Don't split a surrogate pair across two chunks.
+        if (Character.isLowSurrogate(s.charAt(mid)))
+            mid++;
+        return new Branch(build(s, start, mid), build(s, mid, end));
+    }
+
+    /**
+     * Replaces text inside a single chunk with a copy of that chunk containing the new text.
+     * @return Null if the text to replace is not inside a single chunk, or if the new chunk would be too long or empty.
+     */
+    private static Node replaceInLeaf(Node node, int start, int end, String replacement) {
+        if (node == null)
+            return null;
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int newLength = leaf.length - (end - start) + replacement.length();
+            if (end > leaf.length || newLength == 0 || newLength > MAX_CHUNK)
+                return null;
+            String s = leaf.base.substring(leaf.start, leaf.start + start)
+                    + replacement
+                    + leaf.base.substring(leaf.start + end, leaf.end);
+            return new Leaf(s, 0, s.length());
+        }
+        Branch branch = (Branch) node;
+        int leftLength = branch.left.length;
+        if (start < leftLength) {
+            Node left = replaceInLeaf(branch.left, start, end, replacement);
+            return left == null ? null : new Branch(left, branch.right);
+        } else {
+            Node right = replaceInLeaf(branch.right, start - leftLength, end - leftLength, replacement);
+            return right == null ? null : new Branch(branch.left, right);
+        }
+    }
+
+    /**
+     * Splits a tree into the text before and after the given offset. Either half may be null if it is empty.
+     */
+    private static Node[] split(Node node, int offset) {
+        if (node == null)
+            return new Node[] {null, null};
+        if (offset <= 0)
+            return new Node[] {null, node};
+        if (offset >= node.length)
+            return new Node[] {node, null};
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            return new Node[] {
+                    new Leaf(leaf.base, leaf.start, leaf.start + offset),
+                    new Leaf(leaf.base, leaf.start + offset, leaf.end)
+            };
+        }
+        Branch branch = (Branch) node;
+        if (offset < branch.left.length) {
+            Node[] parts = split(branch.left, offset);
+            return new Node[] {parts[0], join(parts[1], branch.right)};
+        } else {
+            Node[] parts = split(branch.right, offset - branch.left.length);
+            return new Node[] {join(branch.left, parts[0]), parts[1]};
+        }
+    }
+
+    /**
+     * Concatenates two trees, keeping the result balanced like an AVL tree.
+     */
+    private static Node join(Node left, Node right) {
+        if (left == null)
+            return right;
+        if (right == null)
+            return left;
+        if (left instanceof Leaf && right instanceof Leaf && left.length + right.length <= MERGE_CHUNK) {
+            Leaf l = (Leaf) left, r = (Leaf) right;
+            String merged = l.base.substring(l.start, l.end) + r.base.substring(r.start, r.end);
+            return new Leaf(merged, 0, merged.length());
+        }
+        if (left.height > right.height + 1) {
+            Branch l = (Branch) left;
+            return balance(l.left, join(l.right, right));
+        }
+        if (right.height > left.height + 1) {
+            Branch r = (Branch) right;
+            return balance(join(left, r.left), r.right);
+        }
+        return new Branch(left, right);
+    }
+
+    /**
+     * Creates a branch from two subtrees whose heights differ by at most two, rotating if necessary.
+     */
+    private static Node balance(Node left, Node right) {
+        if (height(left) > height(right) + 1) {
+            Branch l = (Branch) left;
+            if (height(l.left) >= height(l.right))
+                return new Branch(l.left, new Branch(l.right, right));
+            Branch lr = (Branch) l.right;
+            return new Branch(new Branch(l.left, lr.left), new Branch(lr.right, right));
+        }
+        if (height(right) > height(left) + 1) {
+            Branch r = (Branch) right;
+            if (height(r.right) >= height(r.left))
+                return new Branch(new Branch(left, r.left), r.right);
+            Branch rl = (Branch) r.left;
+            return new Branch(new Branch(left, rl.left), new Branch(rl.right, r.right));
+        }
+        return new Branch(left, right);
+    }
+}
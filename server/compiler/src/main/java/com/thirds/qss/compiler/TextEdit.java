@@ -0,0 +1,70 @@
+package com.thirds.qss.compiler;
+
+/**
+ * A change to the text of a script: the text in a range was replaced with some new text.
+ * Edits record both the old and new extent of the changed text, so that later stages (such as the lexer) can tell
+ * which parts of their previous output are unaffected, and how far the text after the edit moved.
+ */
+public final class TextEdit {
+    /**
+     * The range of text that was replaced, in the text before the edit.
+     */
+    public final Range oldRange;
+    /**
+     * The end of the new text, in the text after the edit. The new text starts at <code>oldRange.start</code>.
+     */
+    public final Position newEnd;
+    /**
+     * Offsets (in UTF-16 code units) of the start of the edit, and of the end of the edit before and after the edit.
+     */
+    public final int startOffset, oldEndOffset, newEndOffset;
+    /**
+     * The text that replaced the old range.
+     */
+    public final String text;
+
+    private TextEdit(Range oldRange, Position newEnd, int startOffset, int oldEndOffset, String text) {
+        this.oldRange = oldRange;
+        this.newEnd = newEnd;
+        this.startOffset = startOffset;
+        this.oldEndOffset = oldEndOffset;
+        this.newEndOffset = startOffset + text.length();
+        this.text = text;
+    }
+
+    /**
+     * Creates an edit that replaces the given range of the given text. The range is clamped to the text.
+     */
+    public static TextEdit of(Rope before, Range range, String text) {
+        int startOffset = before.offsetOf(range.getStart());
+        int oldEndOffset = Math.max(startOffset, before.offsetOf(range.getEnd()));
+        Position start = before.positionOf(startOffset);
+        Position oldEnd = before.positionOf(oldEndOffset);
+
+        // Work out where the new text ends.
+        int lineBreaks = 0, lastLineStart = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lineBreaks++;
+                lastLineStart = i + 1;
+            }
+        }
+        Position newEnd = lineBreaks == 0
+                ? new Position(start.line, start.character + text.length())
+                : new Position(start.line + lineBreaks, text.length() - lastLineStart);
+
+        return new TextEdit(new Range(start, oldEnd), newEnd, startOffset, oldEndOffset, text);
+    }
+
+    /**
+     * @return How far text after the edit moved.
+     */
+    public int offsetDelta() {
+        return newEndOffset - oldEndOffset;
+    }
+
+    @Override
+    public String toString() {
+        return oldRange + "->" + newEnd + " \"" + text + "\"";
+    }
+}
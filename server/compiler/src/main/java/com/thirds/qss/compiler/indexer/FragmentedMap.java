@@ -0,0 +1,153 @@
+package com.thirds.qss.compiler.indexer;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.collect.SetMultimap;
+import com.thirds.qss.compiler.ScriptPath;
+
+import java.util.*;
+
+/**
+ * A map that is the union of several fragments, one per script in a package.
+ * Each fragment can be replaced independently without touching the definitions contributed by other scripts,
+ * so re-indexing a single script costs time proportional to the size of that script, not the size of its package.
+ *
+ * If several scripts define the same key, the merged view contains the definition from the script that was
+ * most recently added. The other definitions are kept so that they can be restored if that script is removed.
+ */
+class FragmentedMap<K, V> {
+    /**
+     * Maps scripts onto the definitions they contributed.
+     */
+    private final Map<ScriptPath, Map<K, V>> fragments = new HashMap<>();
+
+    /**
+     * Maps keys onto the scripts that define them.
+     */
+    private final SetMultimap<K, ScriptPath> owners = MultimapBuilder.hashKeys().linkedHashSetValues().build();
+
+    /**
+     * The union of all fragments.
+     */
+    private final Map<K, V> merged = new HashMap<>();
+
+    /**
+     * Called whenever the merged view changes, or null if nothing is listening.
+     */
+    private Listener<K, V> listener = null;
+
+    interface Listener<K, V> {
+        /**
+         * @param oldValue The value that was previously in the merged view, or null if the key was absent.
+         * @param newValue The value that is now in the merged view, or null if the key was removed.
+         */
+        void mergedChanged(K key, V oldValue, V newValue);
+    }
+
+    void setListener(Listener<K, V> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Replaces the definitions contributed by the given script.
+     * @return True if the set of keys in the merged view changed.
+     */
+    boolean replace(ScriptPath script, Map<K, V> fragment) {
+        Map<K, V> old = remove0(script);
+        fragments.put(script, fragment);
+
+        boolean keysChanged = false;
+        for (Map.Entry<K, V> entry : fragment.entrySet()) {
+            // Removing the old fragment only touched keys that were in the old fragment.
+            if ((old == null || !old.containsKey(entry.getKey())) && !merged.containsKey(entry.getKey()))
+                keysChanged = true;
+            owners.put(entry.getKey(), script);
+            putMerged(entry.getKey(), entry.getValue());
+        }
+
+        if (old != null) {
+            for (K key : old.keySet()) {
+                if (!merged.containsKey(key))
+                    keysChanged = true;
+            }
+        }
+        return keysChanged;
+    }
+
+    /**
+     * Removes the definitions contributed by the given script.
+     * @return True if the set of keys in the merged view changed.
+     */
+    boolean remove(ScriptPath script) {
+        Map<K, V> old = remove0(script);
+        if (old == null)
+            return false;
+        for (K key : old.keySet()) {
+            if (!merged.containsKey(key))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The fragment that was removed, or null if the script had no fragment.
+     */
+    private Map<K, V> remove0(ScriptPath script) {
+        Map<K, V> old = fragments.remove(script);
+        if (old == null)
+            return null;
+
+        for (Map.Entry<K, V> entry : old.entrySet()) {
+            K key = entry.getKey();
+            owners.remove(key, script);
+            // Only touch the merged view if it was showing this script's definition.
+            if (merged.get(key) == entry.getValue()) {
+                // The owners of each key are in the order they were added, so the last one was added most recently.
+                Set<ScriptPath> remaining = owners.get(key);
+                if (remaining.isEmpty())
+                    putMerged(key, null);
+                else
+                    putMerged(key, fragments.get(Iterables.getLast(remaining)).get(key));
+            }
+        }
+        return old;
+    }
+
+    /**
+     * Updates the merged view, notifying the listener if there is one.
+     * @param value If null, the key is removed from the merged view.
+     */
+    private void putMerged(K key, V value) {
+        V oldValue = value == null ? merged.remove(key) : merged.put(key, value);
+        if (listener != null && oldValue != value)
+            listener.mergedChanged(key, oldValue, value);
+    }
+
+    /**
+     * @return The scripts other than the given script that define the given key.
+     */
+    List<ScriptPath> getOtherOwners(K key, ScriptPath script) {
+        List<ScriptPath> result = new ArrayList<>(0);
+        for (ScriptPath owner : owners.get(key)) {
+            if (!owner.equals(script))
+                result.add(owner);
+        }
+        return result;
+    }
+
+    /**
+     * @return The definition of the given key contributed by the given script, or null if there was none.
+     */
+    V get(ScriptPath script, K key) {
+        Map<K, V> fragment = fragments.get(script);
+        return fragment == null ? null : fragment.get(key);
+    }
+
+    Map<K, V> getMerged() {
+        return merged;
+    }
+
+    Map<ScriptPath, Map<K, V>> getFragments() {
+        return fragments;
+    }
+}
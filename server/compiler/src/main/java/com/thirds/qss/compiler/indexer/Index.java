@@ -1,5 +1,8 @@
 package com.thirds.qss.compiler.indexer;
 
+import com.google.protobuf.MessageLite;
+import com.thirds.qss.BundleQualifiedName;
+import com.thirds.qss.Identifiers;
 import com.thirds.qss.QssLogger;
 import com.thirds.qss.QualifiedName;
 import com.thirds.qss.VariableType;
@@ -7,49 +10,144 @@ import com.thirds.qss.compiler.Compiler;
 import com.thirds.qss.compiler.Location;
 import com.thirds.qss.compiler.Message;
 import com.thirds.qss.compiler.Messenger;
+import com.thirds.qss.compiler.ScriptPath;
 import com.thirds.qss.compiler.resolve.ResolveResult;
 import com.thirds.qss.compiler.resolve.Resolver;
 import com.thirds.qss.compiler.tree.Documentable;
 import com.thirds.qss.compiler.tree.NameLiteral;
 import com.thirds.qss.compiler.tree.Script;
 import com.thirds.qss.compiler.tree.script.*;
+import com.thirds.qss.protos.IndexProtos;
+import com.thirds.qss.protos.TypeProtos;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
  * The index is an index used to store the names and fields of each type in a given package.
  */
 public class Index {
-    private final Map<String, StructDefinition> structDefinitions = new HashMap<>();
-    private final Map<String, FuncDefinition> funcDefinitions = new HashMap<>();
-    private final Map<String, TraitDefinition> traitDefinitions = new HashMap<>();
+    private final FragmentedMap<String, StructDefinition> structDefinitions = new FragmentedMap<>();
+    private final FragmentedMap<String, FuncDefinition> funcDefinitions = new FragmentedMap<>();
+    private final FragmentedMap<String, TraitDefinition> traitDefinitions = new FragmentedMap<>();
+    private final FragmentedMap<TraitImplKey, TraitImplDefinition> traitImpls = new FragmentedMap<>();
     /**
      * Maps trait names -> variable types that they're implemented for -> the implementation.
+     * This is built from {@link #traitImpls} when it is first requested, and is null if it needs to be rebuilt.
+     * It is volatile because several scripts may be type checked against this index at once.
      */
-    private final Map<QualifiedName, Map<VariableType, TraitImplDefinition>> traitImplDefinitions = new HashMap<>();
+    private volatile Map<QualifiedName, Map<VariableType, TraitImplDefinition>> traitImplDefinitions = null;
+    /**
+     * The scripts whose definitions are in this index.
+     */
+    private final Set<ScriptPath> scripts = new HashSet<>();
 
-    private final Compiler compiler;
+    /**
+     * Versions are unique across every index, so that an index that was replaced by a new one never appears unchanged.
+     */
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    /**
+     * Changes whenever the trait impls in this index change. See {@link #getTraitImplsVersion()}.
+     */
+    private volatile long traitImplsVersion = VERSIONS.incrementAndGet();
+
+    /**
+     * Null once this index is frozen, since it is only needed to resolve the scripts that are added.
+     */
+    private volatile Compiler compiler;
+    private volatile boolean frozen = false;
     private final QualifiedName thePackage;
 
+    /**
+     * Maps the simple name indices that this index's names are listed in onto the name this index is listed under in
+     * each. An index is listed in more than one if it is shared between compilers (see {@link SharedIndices}).
+     */
+    private final Map<SimpleNameIndex, BundleQualifiedName> attachments = new ConcurrentHashMap<>();
+
     public QualifiedName getPackage() {
         return thePackage;
     }
 
     public Map<String, StructDefinition> getStructDefinitions() {
-        return structDefinitions;
+        return structDefinitions.getMerged();
     }
 
     public Map<String, FuncDefinition> getFuncDefinitions() {
-        return funcDefinitions;
+        return funcDefinitions.getMerged();
     }
 
     public Map<String, TraitDefinition> getTraitDefinitions() {
-        return traitDefinitions;
+        return traitDefinitions.getMerged();
     }
 
     public Map<QualifiedName, Map<VariableType, TraitImplDefinition>> getTraitImplDefinitions() {
-        return traitImplDefinitions;
+        Map<QualifiedName, Map<VariableType, TraitImplDefinition>> result = traitImplDefinitions;
+        if (result == null) {
+            // Only publish the map once it is complete.
+            Map<QualifiedName, Map<VariableType, TraitImplDefinition>> built = new HashMap<>();
+            traitImpls.getMerged().forEach((key, def) -> built
+                    .computeIfAbsent(key.trait, k -> new HashMap<>())
+                    .put(key.implType, def));
+            traitImplDefinitions = result = built;
+        }
+        return result;
+    }
+
+    /**
+     * @return The scripts whose definitions have been added to this index.
+     */
+    public Set<ScriptPath> getScripts() {
+        return scripts;
+    }
+
+    /**
+     * If this is the same as it was earlier, the trait impls in this index are the same as they were then (including
+     * their locations). Re-adding a script with exactly the same trait impls does not change the version.
+     */
+    public long getTraitImplsVersion() {
+        return traitImplsVersion;
+    }
+
+    /**
+     * Lists the definitions in this index that a lookup of the given simple name could find, in a form that can be
+     * compared. If the result is equal to an earlier result, the same definitions are still here, in the same places.
+     */
+    public List<MessageLite> describeDefinitions(SimpleNameIndex.Kind kind, String name) {
+        switch (kind) {
+            case STRUCT: {
+                StructDefinition def = structDefinitions.getMerged().get(name);
+                return def == null ? List.of() : List.of(serialiseStruct(name, def));
+            }
+            case FUNC: {
+                FuncDefinition def = funcDefinitions.getMerged().get(name);
+                return def == null ? List.of() : List.of(serialiseFunc(name, def));
+            }
+            case TRAIT: {
+                TraitDefinition def = traitDefinitions.getMerged().get(name);
+                return def == null ? List.of() : List.of(serialiseTrait(name, def));
+            }
+            case TRAIT_FUNC: {
+                List<MessageLite> result = new ArrayList<>(0);
+                new TreeMap<>(traitDefinitions.getMerged()).forEach((traitName, def) -> {
+                    if (def.traitFuncDefinitions.containsKey(name))
+                        result.add(serialiseTrait(traitName, def));
+                });
+                return result;
+            }
+            case TRAIT_IMPL: {
+                // Order the impls by their trait and type, so that equal sets of impls are described equally.
+                Map<String, MessageLite> result = new TreeMap<>();
+                traitImpls.getMerged().forEach((key, def) -> {
+                    if (key.trait.lastSegment().equals(name))
+                        result.put(key.trait + " for " + key.implType, serialiseTraitImpl(key, def));
+                });
+                return new ArrayList<>(result.values());
+            }
+            default:
+                throw new IllegalArgumentException(kind.toString());
+        }
     }
 
     /**
@@ -58,6 +156,81 @@ public class Index {
     public Index(Compiler compiler, QualifiedName thePackage) {
         this.compiler = compiler;
         this.thePackage = thePackage;
+        structDefinitions.setListener((name, oldDef, newDef) -> updateSimpleName(SimpleNameIndex.Kind.STRUCT, name, oldDef, newDef));
+        funcDefinitions.setListener((name, oldDef, newDef) -> updateSimpleName(SimpleNameIndex.Kind.FUNC, name, oldDef, newDef));
+        traitDefinitions.setListener((name, oldDef, newDef) -> {
+            updateSimpleName(SimpleNameIndex.Kind.TRAIT, name, oldDef, newDef);
+            attachments.forEach((simpleNames, bundleQualifiedName) -> {
+                if (oldDef != null)
+                    oldDef.traitFuncDefinitions.keySet().forEach(func -> simpleNames.remove(SimpleNameIndex.Kind.TRAIT_FUNC, func, bundleQualifiedName));
+                if (newDef != null)
+                    newDef.traitFuncDefinitions.keySet().forEach(func -> simpleNames.add(SimpleNameIndex.Kind.TRAIT_FUNC, func, bundleQualifiedName));
+            });
+        });
+        // A package is listed once for each of its impls of a trait with the given name.
+        traitImpls.setListener((key, oldDef, newDef) -> updateSimpleName(SimpleNameIndex.Kind.TRAIT_IMPL, key.trait.lastSegment(), oldDef, newDef));
+    }
+
+    private void updateSimpleName(SimpleNameIndex.Kind kind, String name, Object oldDef, Object newDef) {
+        attachments.forEach((simpleNames, bundleQualifiedName) -> {
+            if (oldDef == null)
+                simpleNames.add(kind, name, bundleQualifiedName);
+            else if (newDef == null)
+                simpleNames.remove(kind, name, bundleQualifiedName);
+        });
+    }
+
+    /**
+     * Prevents any more scripts from being added to or removed from this index, so that it can be shared between
+     * compilers. This also forgets the compiler that the index was built by.
+     */
+    void freeze() {
+        frozen = true;
+        compiler = null;
+    }
+
+    /**
+     * @return True if this index can no longer be changed, because it may be shared between compilers.
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (isFrozen())
+            throw new IllegalStateException("Index of package " + thePackage + " is frozen");
+    }
+
+    /**
+     * Lists every name in this index in the given simple name index, and keeps it up to date until
+     * {@link #detach(SimpleNameIndex)}.
+     * @param bundleQualifiedName The bundle and package that this index is stored under.
+     */
+    void attach(SimpleNameIndex simpleNames, BundleQualifiedName bundleQualifiedName) {
+        structDefinitions.getMerged().keySet().forEach(struct -> simpleNames.add(SimpleNameIndex.Kind.STRUCT, struct, bundleQualifiedName));
+        funcDefinitions.getMerged().keySet().forEach(func -> simpleNames.add(SimpleNameIndex.Kind.FUNC, func, bundleQualifiedName));
+        traitDefinitions.getMerged().forEach((trait, def) -> {
+            simpleNames.add(SimpleNameIndex.Kind.TRAIT, trait, bundleQualifiedName);
+            def.traitFuncDefinitions.keySet().forEach(func -> simpleNames.add(SimpleNameIndex.Kind.TRAIT_FUNC, func, bundleQualifiedName));
+        });
+        traitImpls.getMerged().keySet().forEach(key -> simpleNames.add(SimpleNameIndex.Kind.TRAIT_IMPL, key.trait.lastSegment(), bundleQualifiedName));
+        attachments.put(simpleNames, bundleQualifiedName);
+    }
+
+    /**
+     * Removes every name in this index from the given simple name index, if it was attached to it.
+     */
+    void detach(SimpleNameIndex simpleNames) {
+        BundleQualifiedName bundleQualifiedName = attachments.remove(simpleNames);
+        if (bundleQualifiedName == null)
+            return;
+        structDefinitions.getMerged().keySet().forEach(struct -> simpleNames.remove(SimpleNameIndex.Kind.STRUCT, struct, bundleQualifiedName));
+        funcDefinitions.getMerged().keySet().forEach(func -> simpleNames.remove(SimpleNameIndex.Kind.FUNC, func, bundleQualifiedName));
+        traitDefinitions.getMerged().forEach((trait, def) -> {
+            simpleNames.remove(SimpleNameIndex.Kind.TRAIT, trait, bundleQualifiedName);
+            def.traitFuncDefinitions.keySet().forEach(func -> simpleNames.remove(SimpleNameIndex.Kind.TRAIT_FUNC, func, bundleQualifiedName));
+        });
+        traitImpls.getMerged().keySet().forEach(key -> simpleNames.remove(SimpleNameIndex.Kind.TRAIT_IMPL, key.trait.lastSegment(), bundleQualifiedName));
     }
 
     public static class FieldDefinition {
@@ -239,14 +412,12 @@ public class Index {
                     receiverStyle = true;
             }
 
-            type = new VariableType.Function(
+            type = VariableType.Function.of(
                     receiverStyle,
-                    new ArrayList<>(paramTypes),
-                    returnType == null ? null : returnType.variableType
-            );
-
-            type.setContainerTrait(containerTrait);
-            type.setPurity(purity);
+                    paramTypes,
+                    returnType == null ? null : returnType.variableType,
+                    purity
+            ).withContainerTrait(containerTrait);
         }
     }
 
@@ -299,12 +470,256 @@ public class Index {
     }
 
     /**
-     * Adds types to this index from the given script.
+     * Identifies a trait implementation by the trait and the type that it is implemented for.
+     */
+    private static class TraitImplKey {
+        private final QualifiedName trait;
+        private final VariableType implType;
+
+        private TraitImplKey(QualifiedName trait, VariableType implType) {
+            this.trait = trait;
+            this.implType = implType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            TraitImplKey that = (TraitImplKey) o;
+            return trait.equals(that.trait) &&
+                    implType.equals(that.implType);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(trait, implType);
+        }
+    }
+
+    //#region Serialisation
+
+    /**
+     * Reconstructs an index that was cached using {@link #serialise()}.
+     */
+    public static Index from(Compiler compiler, QualifiedName thePackage, IndexProtos.Index index) {
+        Map<ScriptPath, Map<String, StructDefinition>> structs = new HashMap<>();
+        Map<ScriptPath, Map<String, FuncDefinition>> funcs = new HashMap<>();
+        Map<ScriptPath, Map<String, TraitDefinition>> traits = new HashMap<>();
+        Map<ScriptPath, Map<TraitImplKey, TraitImplDefinition>> traitImpls = new HashMap<>();
+
+        for (IndexProtos.Struct struct : index.getStructsList()) {
+            StructDefinition def = new StructDefinition(fromDocs(struct.getDocs()), Location.from(struct.getLocation()));
+            for (IndexProtos.Field field : struct.getFieldsList()) {
+                def.fields.put(Identifiers.intern(field.getName()), new FieldDefinition(
+                        fromDocs(field.getDocs()),
+                        Location.from(field.getLocation()),
+                        VariableType.from(field.getType())
+                ));
+            }
+            structs.computeIfAbsent(def.location.getFilePath(), k -> new HashMap<>()).put(Identifiers.intern(struct.getName()), def);
+        }
+
+        for (IndexProtos.Func func : index.getFuncsList()) {
+            FuncDefinition def = fromFunc(func);
+            funcs.computeIfAbsent(def.location.getFilePath(), k -> new HashMap<>()).put(Identifiers.intern(func.getName()), def);
+        }
+
+        for (IndexProtos.Trait trait : index.getTraitsList()) {
+            Map<String, FuncDefinition> traitFuncDefinitions = new TreeMap<>();
+            for (IndexProtos.Func func : trait.getFuncsList()) {
+                traitFuncDefinitions.put(Identifiers.intern(func.getName()), fromFunc(func));
+            }
+            TraitDefinition def = new TraitDefinition(
+                    fromDocs(trait.getDocs()),
+                    Location.from(trait.getLocation()),
+                    traitFuncDefinitions
+            );
+            traits.computeIfAbsent(def.location.getFilePath(), k -> new HashMap<>()).put(Identifiers.intern(trait.getName()), def);
+        }
+
+        for (IndexProtos.TraitImpl traitImpl : index.getTraitImplsList()) {
+            Map<String, FuncDefinition> funcImplDefinitions = new TreeMap<>();
+            for (IndexProtos.Func func : traitImpl.getFuncsList()) {
+                funcImplDefinitions.put(Identifiers.intern(func.getName()), fromFunc(func));
+            }
+            TraitImplDefinition def = new TraitImplDefinition(
+                    fromDocs(traitImpl.getDocs()),
+                    Location.from(traitImpl.getLocation()),
+                    funcImplDefinitions
+            );
+            traitImpls.computeIfAbsent(def.location.getFilePath(), k -> new HashMap<>()).put(
+                    new TraitImplKey(new QualifiedName(traitImpl.getTrait()), VariableType.from(traitImpl.getImplType())), def);
+        }
+
+        Set<ScriptPath> scripts = new HashSet<>();
+        index.getScriptsList().forEach(script -> scripts.add(new ScriptPath(script)));
+        scripts.addAll(structs.keySet());
+        scripts.addAll(funcs.keySet());
+        scripts.addAll(traits.keySet());
+        scripts.addAll(traitImpls.keySet());
+
+        Index result = new Index(compiler, thePackage);
+        for (ScriptPath filePath : scripts) {
+            result.replace(filePath,
+                    structs.getOrDefault(filePath, new HashMap<>()),
+                    funcs.getOrDefault(filePath, new HashMap<>()),
+                    traits.getOrDefault(filePath, new HashMap<>()),
+                    traitImpls.getOrDefault(filePath, new HashMap<>()));
+        }
+        return result;
+    }
+
+    private static FuncDefinition fromFunc(IndexProtos.Func func) {
+        FuncDefinition def = new FuncDefinition(fromDocs(func.getDocs()), Location.from(func.getLocation()));
+        for (IndexProtos.Param param : func.getParamsList()) {
+            def.params.add(new ParamDefinition(
+                    Location.from(param.getLocation()),
+                    Identifiers.intern(param.getName()),
+                    VariableType.from(param.getType())
+            ));
+        }
+        if (func.hasReturnType()) {
+            def.returnType = new ReturnTypeDefinition(
+                    Location.from(func.getReturnType().getLocation()),
+                    VariableType.from(func.getReturnType().getType())
+            );
+        }
+        if (func.hasContainerTrait())
+            def.containerTrait = new QualifiedName(func.getContainerTrait());
+        def.purity = VariableType.Function.Purity.from(func.getPurity());
+        def.computeType();
+        return def;
+    }
+
+    private static String fromDocs(String docs) {
+        return docs.isEmpty() ? null : docs;
+    }
+
+    /**
+     * Converts this index into a form that can be cached on disk.
+     */
+    public IndexProtos.Index serialise() {
+        IndexProtos.Index.Builder b = IndexProtos.Index.newBuilder();
+        // Serialise every fragment, not just the merged view, so that duplicate definitions are not lost.
+        for (ScriptPath script : scripts) {
+            serialiseFragment(b, script);
+        }
+        return b.build();
+    }
+
+    /**
+     * Converts the definitions that were added from the given script into a form that can be cached on disk.
+     * Definitions are ordered by name, so this can also be used to check whether a script's definitions changed.
+     */
+    public IndexProtos.Index serialiseFragment(ScriptPath script) {
+        IndexProtos.Index.Builder b = IndexProtos.Index.newBuilder();
+        serialiseFragment(b, script);
+        return b.build();
+    }
+
+    private void serialiseFragment(IndexProtos.Index.Builder b, ScriptPath script) {
+        if (!scripts.contains(script))
+            return;
+
+        new TreeMap<>(structDefinitions.getFragments().get(script)).forEach((name, def) -> b.addStructs(serialiseStruct(name, def)));
+        new TreeMap<>(funcDefinitions.getFragments().get(script)).forEach((name, def) -> b.addFuncs(serialiseFunc(name, def)));
+        new TreeMap<>(traitDefinitions.getFragments().get(script)).forEach((name, def) -> b.addTraits(serialiseTrait(name, def)));
+        b.addAllTraitImpls(serialiseTraitImpls(script));
+        b.addScripts(script.toString());
+    }
+
+    private static IndexProtos.Struct serialiseStruct(String name, StructDefinition def) {
+        IndexProtos.Struct.Builder struct = IndexProtos.Struct.newBuilder()
+                .setName(name)
+                .setDocs(serialiseDocs(def.documentation))
+                .setLocation(def.location.serialise());
+        def.fields.forEach((fieldName, field) -> struct.addFields(IndexProtos.Field.newBuilder()
+                .setName(fieldName)
+                .setDocs(serialiseDocs(field.documentation))
+                .setLocation(field.location.serialise())
+                .setType(serialiseType(field.variableType))));
+        return struct.build();
+    }
+
+    private static IndexProtos.Trait serialiseTrait(String name, TraitDefinition def) {
+        IndexProtos.Trait.Builder trait = IndexProtos.Trait.newBuilder()
+                .setName(name)
+                .setDocs(serialiseDocs(def.documentation))
+                .setLocation(def.location.serialise());
+        def.traitFuncDefinitions.forEach((funcName, func) -> trait.addFuncs(serialiseFunc(funcName, func)));
+        return trait.build();
+    }
+
+    /**
+     * Trait impls are ordered by where they were written in the script.
+     */
+    private List<IndexProtos.TraitImpl> serialiseTraitImpls(ScriptPath script) {
+        return traitImpls.getFragments().get(script).entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<TraitImplKey, TraitImplDefinition> entry) -> entry.getValue().location.getRange().getPackedStart()))
+                .map(entry -> serialiseTraitImpl(entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList());
+    }
+
+    private static IndexProtos.TraitImpl serialiseTraitImpl(TraitImplKey key, TraitImplDefinition def) {
+        IndexProtos.TraitImpl.Builder traitImpl = IndexProtos.TraitImpl.newBuilder()
+                .setTrait(key.trait.toProtobufName())
+                .setImplType(serialiseType(key.implType))
+                .setDocs(serialiseDocs(def.documentation))
+                .setLocation(def.location.serialise());
+        def.funcImplDefinitions.forEach((funcName, func) -> traitImpl.addFuncs(serialiseFunc(funcName, func)));
+        return traitImpl.build();
+    }
+
+    private static IndexProtos.Func serialiseFunc(String name, FuncDefinition def) {
+        IndexProtos.Func.Builder func = IndexProtos.Func.newBuilder()
+                .setName(name)
+                .setDocs(serialiseDocs(def.documentation))
+                .setLocation(def.location.serialise())
+                .setPurity(def.purity.serialise());
+        for (ParamDefinition param : def.params) {
+            func.addParams(IndexProtos.Param.newBuilder()
+                    .setName(param.name)
+                    .setLocation(param.location.serialise())
+                    .setType(serialiseType(param.variableType)));
+        }
+        if (def.returnType != null) {
+            func.setReturnType(IndexProtos.Func.ReturnType.newBuilder()
+                    .setLocation(def.returnType.location.serialise())
+                    .setType(serialiseType(def.returnType.variableType)));
+        }
+        if (def.containerTrait != null)
+            func.setContainerTrait(def.containerTrait.toProtobufName());
+        return func.build();
+    }
+
+    private static String serialiseDocs(String docs) {
+        return docs == null ? "" : docs;
+    }
+
+    /**
+     * Types that could not be resolved are cached as unknown types.
+     */
+    private static TypeProtos.Type serialiseType(VariableType type) {
+        if (type == null)
+            return VariableType.Primitive.TYPE_UNKNOWN.serialise();
+        return type.serialise();
+    }
+
+    //#endregion
+
+    /**
+     * Adds types to this index from the given script, replacing any types that were previously added from
+     * the same script. Types defined in other scripts in the package are left untouched.
      * @param script The package of this script must match the package of the index itself.
      * @return <code>this</code> for chaining.
      */
     public Messenger<Index> addFrom(Script script) {
+        checkNotFrozen();
         ArrayList<Message> messages = new ArrayList<>();
+        Map<String, StructDefinition> structs = new HashMap<>();
+        Map<String, FuncDefinition> funcs = new HashMap<>();
+        Map<String, TraitDefinition> traits = new HashMap<>();
+        Map<TraitImplKey, TraitImplDefinition> impls = new HashMap<>();
 
         for (Documentable<Struct> struct : script.getStructs()) {
             StructDefinition def = new StructDefinition(
@@ -334,12 +749,12 @@ public class Index {
                 }
             }
 
-            structDefinitions.put(struct.getContent().getName().contents, def);
+            structs.put(struct.getContent().getName().contents, def);
         }
 
         for (Documentable<Func> func : script.getFuncs()) {
             FuncDefinition def = generateFuncDefinition(script, messages, null, func);
-            funcDefinitions.put(func.getContent().getName().contents, def);
+            funcs.put(func.getContent().getName().contents, def);
         }
 
         // We don't index hooks here, but we do resolve things like their parameter and return types.
@@ -380,7 +795,7 @@ public class Index {
                 traitFuncDefinitions.put(name, def);
             }
 
-            traitDefinitions.put(traitName, new TraitDefinition(
+            traits.put(traitName, new TraitDefinition(
                     trait.getDocumentation().map(tk -> tk.contents).orElse(null),
                     new Location(script.getFilePath(), trait.getRange()),
                     traitFuncDefinitions
@@ -413,20 +828,20 @@ public class Index {
             }
 
             if (traitName.getTargetQualifiedName() != null) {
-                Map<VariableType, TraitImplDefinition> implMap = traitImplDefinitions.computeIfAbsent(traitName.getTargetQualifiedName(), k -> new HashMap<>());
                 VariableType implType = traitImpl.getContent().getType().getResolvedType();
                 if (implType != null) {
-                    if (implMap.containsKey(implType)) {
+                    TraitImplKey key = new TraitImplKey(traitName.getTargetQualifiedName(), implType);
+                    if (impls.containsKey(key)) {
                         messages.add(new Message(
                                 traitImpl.getContent().getType().getRange(),
                                 Message.MessageSeverity.ERROR,
                                 "Trait " + traitName.getTargetQualifiedName() + " was already implemented for " + implType
                         ).addInfo(new Message.MessageRelatedInformation(
-                                implMap.get(implType).getLocation(),
+                                impls.get(key).getLocation(),
                                 "Previously implemented here"
                         )));
                     } else {
-                        implMap.put(implType, new TraitImplDefinition(
+                        impls.put(key, new TraitImplDefinition(
                                 traitImpl.getDocumentation().map(tk -> tk.contents).orElse(null),
                                 new Location(script.getFilePath(), traitImpl.getRange()),
                                 traitFuncDefinitions
@@ -436,9 +851,65 @@ public class Index {
             }
         }
 
+        replace(script.getFilePath(), structs, funcs, traits, impls);
+
+        // Now that this script's fragment is in the index, check for trait impls that other scripts in the package
+        // also define. Duplicate names are checked by the name index.
+        for (Documentable<TraitImpl> traitImpl : script.getTraitImpls()) {
+            QualifiedName traitName = traitImpl.getContent().getTrait().getTargetQualifiedName();
+            VariableType implType = traitImpl.getContent().getType().getResolvedType();
+            if (traitName == null || implType == null)
+                continue;
+
+            TraitImplKey key = new TraitImplKey(traitName, implType);
+            List<ScriptPath> otherScripts = traitImpls.getOtherOwners(key, script.getFilePath());
+            if (otherScripts.isEmpty())
+                continue;
+
+            Message message = new Message(
+                    traitImpl.getContent().getType().getRange(),
+                    Message.MessageSeverity.ERROR,
+                    "Trait " + traitName + " was already implemented for " + implType
+            );
+            for (ScriptPath otherScript : otherScripts) {
+                message.addInfo(new Message.MessageRelatedInformation(
+                        traitImpls.get(otherScript, key).getLocation(),
+                        "Also implemented here"
+                ));
+            }
+            messages.add(message);
+        }
+
         return Messenger.success(this, messages);
     }
 
+    private void replace(ScriptPath filePath, Map<String, StructDefinition> structs, Map<String, FuncDefinition> funcs,
+                         Map<String, TraitDefinition> traits, Map<TraitImplKey, TraitImplDefinition> impls) {
+        List<IndexProtos.TraitImpl> implsBefore = scripts.contains(filePath) ? serialiseTraitImpls(filePath) : null;
+        scripts.add(filePath);
+        structDefinitions.replace(filePath, structs);
+        funcDefinitions.replace(filePath, funcs);
+        traitDefinitions.replace(filePath, traits);
+        traitImpls.replace(filePath, impls);
+        traitImplDefinitions = null;
+        if (implsBefore == null || !implsBefore.equals(serialiseTraitImpls(filePath)))
+            traitImplsVersion = VERSIONS.incrementAndGet();
+    }
+
+    /**
+     * Removes the definitions that were added from the given script, for example if the script was deleted.
+     */
+    public void remove(ScriptPath filePath) {
+        checkNotFrozen();
+        if (scripts.remove(filePath) && !traitImpls.getFragments().get(filePath).isEmpty())
+            traitImplsVersion = VERSIONS.incrementAndGet();
+        structDefinitions.remove(filePath);
+        funcDefinitions.remove(filePath);
+        traitDefinitions.remove(filePath);
+        traitImpls.remove(filePath);
+        traitImplDefinitions = null;
+    }
+
     private FuncDefinition generateFuncDefinition(Script script, ArrayList<Message> messages, QualifiedName containerTrait, Documentable<? extends FuncOrHook> func) {
         FuncDefinition def = new FuncDefinition(
                 func.getDocumentation().map(tk -> tk.contents).orElse(null),
@@ -491,8 +962,8 @@ public class Index {
     @Override
     public String toString() {
         return "Index{" +
-                "\n    structDefinitions=" + structDefinitions +
-                "\n    funcDefinitions=" + funcDefinitions +
+                "\n    structDefinitions=" + structDefinitions.getMerged() +
+                "\n    funcDefinitions=" + funcDefinitions.getMerged() +
                 "\n  }";
     }
 }
@@ -0,0 +1,247 @@
+package com.thirds.qss.compiler.indexer;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+import com.thirds.qss.QssLogger;
+import com.thirds.qss.QualifiedName;
+import com.thirds.qss.compiler.Compiler;
+import com.thirds.qss.compiler.resolve.DependencyGraph;
+import com.thirds.qss.protos.IndexProtos;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Caches the name indices and indices of each package in the index directory of a bundle
+ * (<code>.qss/index</code>), so that they do not have to be rebuilt every time the language server starts.
+ *
+ * Each cached index is keyed by a hash of the contents of the scripts in its package. Indices (but not name indices)
+ * are also keyed by a hash of every name that was loaded when the index was built, since the types in the index are
+ * resolved against these names.
+ *
+ * Several processes may use the same bundle at once (for example, the language server and qssc), so each file is
+ * written to a temporary file that is then moved into place, and ends with a checksum of its contents.
+ */
+public class IndexCache {
+    /**
+     * Increment this whenever the format of the cached indices changes, so that old caches are not read.
+     */
+    private static final int FORMAT_VERSION = 5;
+
+    /**
+     * The number of the checksum field in both <code>CachedNameIndex</code> and <code>CachedIndex</code>.
+     */
+    private static final int CHECKSUM_FIELD = 15;
+
+    /**
+     * If null, nothing is cached.
+     */
+    private final Path indexRoot;
+
+    /**
+     * @param indexRoot The directory to store the cached indices in. If null, nothing will be read or written.
+     */
+    public IndexCache(Path indexRoot) {
+        this.indexRoot = indexRoot;
+    }
+
+    /**
+     * @param contentHash The hash of the package, computed with {@link #hashContents}.
+     * @return Empty if there was no cached name index matching the given hash.
+     */
+    public Optional<NameIndex> readNameIndex(String bundle, QualifiedName thePackage, String contentHash) {
+        if (indexRoot == null)
+            return Optional.empty();
+
+        Path path = getPath(bundle, thePackage, "names");
+        if (!path.toFile().isFile())
+            return Optional.empty();
+
+        try {
+            byte[] bytes = Files.readAllBytes(path);
+            IndexProtos.CachedNameIndex cached = IndexProtos.CachedNameIndex.parseFrom(bytes);
+            if (!isComplete(path, bytes, cached.getChecksum()) || !cached.getContentHash().equals(contentHash))
+                return Optional.empty();
+            return Optional.of(NameIndex.from(bundle, thePackage, cached.getNameIndex()));
+        } catch (IOException | RuntimeException e) {
+            QssLogger.logger.atWarning().withCause(e).log("Could not read cached name index %s", path);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @param contentHash The hash of the package, computed with {@link #hashContents}.
+     * @param namesHash The hash of all the loaded name indices, computed with {@link #hashNames}.
+     * @return Empty if there was no cached index matching the given hashes.
+     */
+    public Optional<Index> readIndex(Compiler compiler, String bundle, QualifiedName thePackage, String contentHash, String namesHash) {
+        if (indexRoot == null)
+            return Optional.empty();
+
+        Path path = getPath(bundle, thePackage, "index");
+        if (!path.toFile().isFile())
+            return Optional.empty();
+
+        try {
+            byte[] bytes = Files.readAllBytes(path);
+            IndexProtos.CachedIndex cached = IndexProtos.CachedIndex.parseFrom(bytes);
+            if (!isComplete(path, bytes, cached.getChecksum()) || !cached.getContentHash().equals(contentHash) || !cached.getNamesHash().equals(namesHash))
+                return Optional.empty();
+            Index index = Index.from(compiler, thePackage, cached.getIndex());
+            compiler.getDependencyGraph().restore(cached.getDependenciesList());
+            return Optional.of(index);
+        } catch (IOException | RuntimeException e) {
+            QssLogger.logger.atWarning().withCause(e).log("Could not read cached index %s", path);
+            return Optional.empty();
+        }
+    }
+
+    public void writeNameIndex(String bundle, QualifiedName thePackage, String contentHash, NameIndex nameIndex) {
+        if (indexRoot == null)
+            return;
+
+        write(getPath(bundle, thePackage, "names"), IndexProtos.CachedNameIndex.newBuilder()
+                .setContentHash(contentHash)
+                .setNameIndex(nameIndex.serialise())
+                .build());
+    }
+
+    /**
+     * @param dependencyGraph The dependencies of the scripts in the index are cached alongside it.
+     */
+    public void writeIndex(String bundle, QualifiedName thePackage, String contentHash, String namesHash, Index index, DependencyGraph dependencyGraph) {
+        if (indexRoot == null)
+            return;
+
+        write(getPath(bundle, thePackage, "index"), IndexProtos.CachedIndex.newBuilder()
+                .setContentHash(contentHash)
+                .setNamesHash(namesHash)
+                .setIndex(index.serialise())
+                .addAllDependencies(dependencyGraph.serialise(index.getScripts()))
+                .build());
+    }
+
+    /**
+     * Writes the message followed by its checksum field. Readers only ever see the old file or the complete new one.
+     * @param message The message to write, without its checksum.
+     */
+    private void write(Path path, MessageLite message) {
+        Path temporary = null;
+        try {
+            Files.createDirectories(path.getParent());
+            temporary = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+            byte[] bytes = message.toByteArray();
+            try (OutputStream out = Files.newOutputStream(temporary)) {
+                out.write(bytes);
+                // Fields may be written in any order, so appending the checksum field is the same as setting it.
+                CodedOutputStream coded = CodedOutputStream.newInstance(out);
+                coded.writeString(CHECKSUM_FIELD, checksum(bytes, bytes.length));
+                coded.flush();
+            }
+            try {
+                Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temporary = null;
+        } catch (IOException | RuntimeException e) {
+            // This is only a cache, so failing to write it is not fatal.
+            QssLogger.logger.atWarning().withCause(e).log("Could not write cached index %s", path);
+        } finally {
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException e) {
+                    QssLogger.logger.atWarning().withCause(e).log("Could not delete %s", temporary);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param checksum The checksum field that was read from the file, which must be the last field in it.
+     * @return True if the checksum matches the rest of the file.
+     */
+    private static boolean isComplete(Path path, byte[] bytes, String checksum) {
+        int checksumSize = CodedOutputStream.computeStringSize(CHECKSUM_FIELD, checksum);
+        if (checksum.isEmpty() || checksumSize > bytes.length || !checksum.equals(checksum(bytes, bytes.length - checksumSize))) {
+            QssLogger.logger.atWarning().log("Cached index %s is incomplete", path);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return A hash of the first <code>length</code> bytes.
+     */
+    private static String checksum(byte[] bytes, int length) {
+        return Hashing.sha256().hashBytes(bytes, 0, length).toString();
+    }
+
+    /**
+     * Package names are joined with dots instead of being converted into directories, so that the cache file for
+     * package <code>a</code> does not clash with the directory for package <code>a::b</code>.
+     */
+    private Path getPath(String bundle, QualifiedName thePackage, String extension) {
+        return indexRoot.resolve(bundle).resolve(String.join(".", thePackage.getSegments()) + "." + extension);
+    }
+
+    /**
+     * Computes a hash of the contents of every script in a package.
+     * @param fileContents Maps script file names onto the contents of the script. Null contents are allowed, and
+     *                     represent scripts that could not be read.
+     */
+    public static String hashContents(Map<String, String> fileContents) {
+        Hasher hasher = Hashing.sha256().newHasher().putInt(FORMAT_VERSION);
+        // Sort the files so that the order in which they were listed does not change the hash.
+        new TreeMap<>(fileContents).forEach((fileName, contents) -> {
+            hasher.putString(fileName, StandardCharsets.UTF_8).putByte((byte) 0);
+            if (contents != null)
+                hasher.putString(contents, StandardCharsets.UTF_8);
+            hasher.putByte((byte) 0);
+        });
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Computes a hash of every struct, func and trait name in the given name indices.
+     */
+    public static String hashNames(NameIndices nameIndices) {
+        return hashNames(nameIndices, nameIndices.getBundles().keySet());
+    }
+
+    /**
+     * Computes a hash of every struct, func and trait name in the given bundles of the name indices.
+     */
+    public static String hashNames(NameIndices nameIndices, Collection<String> bundleNames) {
+        TreeSet<String> names = new TreeSet<>();
+        nameIndices.getBundles().forEach((bundleName, bundle) -> {
+            if (!bundleNames.contains(bundleName))
+                return;
+            bundle.getPackages().forEach((packageName, nameIndex) -> {
+                String prefix = bundleName + "$" + packageName + "::";
+                nameIndex.getStructDefinitions().keySet().forEach(name -> names.add(prefix + "struct " + name));
+                nameIndex.getFuncDefinitions().keySet().forEach(name -> names.add(prefix + "func " + name));
+                nameIndex.getTraitDefinitions().keySet().forEach(name -> names.add(prefix + "trait " + name));
+            });
+        });
+
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (String name : names) {
+            hasher.putString(name, StandardCharsets.UTF_8).putByte((byte) 0);
+        }
+        return hasher.hash().toString();
+    }
+}
@@ -1,18 +1,34 @@
 package com.thirds.qss.compiler.indexer;
 
+import com.google.common.base.Suppliers;
+import com.thirds.qss.BundleQualifiedName;
 import com.thirds.qss.QualifiedName;
 import com.thirds.qss.compiler.ScriptPath;
+import com.thirds.qss.compiler.resolve.UsedDefinitions;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Represents a cached version of the indices for all loaded packages.
+ *
+ * A package's index may be declared before it is built (see {@link Bundle#declare}), in which case it is built the
+ * first time it is asked for. Until then, the package's names are found in the name indices instead, so that
+ * {@link #getCandidates} still lists it.
  */
 public class Indices {
+    /**
+     * @param allNames The simple names in the name index of every package, including packages whose indices have
+     *                 not been built yet.
+     */
+    public Indices(SimpleNameIndex allNames) {
+        this.allNames = allNames;
+    }
+
     public Bundle computeIfAbsent(String bundle, ScriptPath pathToBundleRoot) {
-        return bundles.computeIfAbsent(bundle, k -> new Bundle(pathToBundleRoot));
+        return bundles.computeIfAbsent(bundle, k -> new Bundle(bundle, pathToBundleRoot, simpleNames));
     }
 
     /**
@@ -26,38 +42,164 @@ public class Indices {
         return bundles;
     }
 
+    /**
+     * Returns the index of the given package, building it first if it was declared but not built.
+     * Returns null if the package was neither built nor declared.
+     */
+    public Index getIndex(BundleQualifiedName thePackage) {
+        Bundle bundle = bundles.get(thePackage.getBundle());
+        return bundle == null ? null : bundle.getIndex(thePackage.getName());
+    }
+
+    /**
+     * @return Every package whose index has been built or declared.
+     */
+    public List<BundleQualifiedName> getPackageNames() {
+        List<BundleQualifiedName> result = new ArrayList<>();
+        bundles.forEach((bundleName, bundle) -> bundle.getPackageNames().forEach(
+                packageName -> result.add(new BundleQualifiedName(bundleName, packageName))));
+        return result;
+    }
+
+    /**
+     * Like {@link SimpleNameIndex#get}, but also lists the declared packages whose indices have not been built yet,
+     * if their name indices define the given name. Packages that have been built come first.
+     */
+    public Set<BundleQualifiedName> getCandidates(SimpleNameIndex.Kind kind, String name) {
+        Set<BundleQualifiedName> candidates = simpleNames.get(kind, name);
+        for (BundleQualifiedName thePackage : allNames.get(kind, name)) {
+            Bundle bundle = bundles.get(thePackage.getBundle());
+            if (bundle != null && bundle.isDeclared(thePackage.getName()))
+                candidates.add(thePackage);
+        }
+        return candidates;
+    }
+
     /**
      * The bundle of name "bundle" is the resource bundle we're currently compiling.
      * This is like the crate of name "crate" in Rust.
      */
     public static class Bundle {
+        private final String bundleName;
         private final ScriptPath pathToBundleRoot;
+        private final SimpleNameIndex simpleNames;
 
         /**
          * Maps package names -> corresponding indices.
+         * This is concurrent so that it can be read while another thread builds a declared index.
+         */
+        private final Map<QualifiedName, Index> packages = new ConcurrentHashMap<>();
+
+        /**
+         * Maps the names of packages whose indices have been declared but not built onto the functions that build
+         * them. Each function is memoized, so that threads asking for the same package at once build it only once.
          */
-        private final Map<QualifiedName, Index> packages = new HashMap<>();
+        private final Map<QualifiedName, Supplier<Index>> declared = new ConcurrentHashMap<>();
 
-        public Bundle(ScriptPath pathToBundleRoot) {
+        /**
+         * @param simpleNames The names of every package in this bundle will be listed in this simple name index.
+         */
+        public Bundle(String bundleName, ScriptPath pathToBundleRoot, SimpleNameIndex simpleNames) {
+            this.bundleName = bundleName;
             this.pathToBundleRoot = pathToBundleRoot;
+            this.simpleNames = simpleNames;
         }
 
-        public void remove(QualifiedName packageName) {
-            packages.remove(packageName);
+        public synchronized void remove(QualifiedName packageName) {
+            declared.remove(packageName);
+            Index removed = packages.remove(packageName);
+            if (removed != null)
+                removed.detach(simpleNames);
         }
 
-        public Index put(QualifiedName packageName, Index index) {
-            return packages.put(packageName, index);
+        public synchronized Index put(QualifiedName packageName, Index index) {
+            index.attach(simpleNames, new BundleQualifiedName(bundleName, packageName));
+            Index previous = packages.put(packageName, index);
+            declared.remove(packageName);
+            if (previous != null)
+                previous.detach(simpleNames);
+            return previous;
         }
 
         public Index computeIfAbsent(QualifiedName packageName, Function<QualifiedName, Index> func) {
-            return packages.computeIfAbsent(packageName, func);
+            Index index = getIndex(packageName);
+            if (index != null)
+                return index;
+            // Like declared indices, the index is built without holding this bundle's lock.
+            index = func.apply(packageName);
+            synchronized (this) {
+                Index existing = packages.get(packageName);
+                if (existing != null)
+                    return existing;
+                index.attach(simpleNames, new BundleQualifiedName(bundleName, packageName));
+                packages.put(packageName, index);
+                declared.remove(packageName);
+                return index;
+            }
+        }
+
+        /**
+         * Declares a package whose index will be built by the given function the first time it is asked for, unless
+         * it has already been built. The function may be called on any thread.
+         */
+        public void declare(QualifiedName packageName, Supplier<Index> func) {
+            if (!packages.containsKey(packageName))
+                declared.putIfAbsent(packageName, Suppliers.memoize(func::get));
         }
 
+        /**
+         * @return True if the package was declared, and its index has not been built yet.
+         */
+        public boolean isDeclared(QualifiedName packageName) {
+            return declared.containsKey(packageName);
+        }
+
+        /**
+         * Returns the index of the given package, building it first if it was declared but not built.
+         * Returns null if the package was neither built nor declared.
+         */
+        public Index getIndex(QualifiedName packageName) {
+            Index index = packages.get(packageName);
+            if (index != null || !declared.containsKey(packageName))
+                return index;
+
+            Supplier<Index> func = declared.get(packageName);
+            if (func == null)
+                return packages.get(packageName);
+            // The index is built without holding this bundle's lock. Building it resolves names in other bundles, and
+            // another thread could be holding their locks while waiting for this one. If another thread is already
+            // building this index, the memoized function waits for it instead of building it again.
+            // Building the index is not a use of the definitions that the index's own scripts refer to.
+            index = UsedDefinitions.untracked(func);
+
+            synchronized (this) {
+                // The package may have been built by another thread, replaced or removed in the meantime.
+                if (declared.get(packageName) != func)
+                    return packages.get(packageName);
+                // List the names before removing the declaration, so that the package is always a candidate.
+                index.attach(simpleNames, new BundleQualifiedName(bundleName, packageName));
+                packages.put(packageName, index);
+                declared.remove(packageName);
+                return index;
+            }
+        }
+
+        /**
+         * @return The packages whose indices have been built. Use {@link #getIndex} to also build declared packages.
+         */
         public Map<QualifiedName, Index> getPackages() {
             return packages;
         }
 
+        /**
+         * @return Every package whose index has been built or declared.
+         */
+        public Set<QualifiedName> getPackageNames() {
+            Set<QualifiedName> result = new LinkedHashSet<>(packages.keySet());
+            result.addAll(declared.keySet());
+            return result;
+        }
+
         @Override
         public String toString() {
             StringBuilder sb = new StringBuilder();
@@ -69,12 +211,36 @@ public class Indices {
     /**
      * Maps bundle names -> bundle indices.
      */
-    private final Map<String, Bundle> bundles = new HashMap<>();
+    private final Map<String, Bundle> bundles = new ConcurrentHashMap<>();
+
+    /**
+     * Maps the last segment of each name in every bundle onto the packages that define it.
+     */
+    private final SimpleNameIndex simpleNames = new SimpleNameIndex();
+
+    /**
+     * Maps the last segment of each name in every package's name index onto the packages that define it. This lists
+     * packages whose indices have not been built yet.
+     */
+    private final SimpleNameIndex allNames;
+
+    public SimpleNameIndex getSimpleNames() {
+        return simpleNames;
+    }
 
     public void addBundle(String bundleName, Bundle bundle) {
         bundles.put(bundleName, bundle);
     }
 
+    /**
+     * Removes the given bundle and every package in it, including packages that were declared but not built.
+     */
+    public void removeBundle(String bundleName) {
+        Bundle bundle = bundles.remove(bundleName);
+        if (bundle != null)
+            new ArrayList<>(bundle.getPackageNames()).forEach(bundle::remove);
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -1,22 +1,32 @@
 package com.thirds.qss.compiler.indexer;
 
+import com.thirds.qss.BundleQualifiedName;
+import com.thirds.qss.Identifiers;
 import com.thirds.qss.QualifiedName;
 import com.thirds.qss.compiler.Location;
 import com.thirds.qss.compiler.Message;
 import com.thirds.qss.compiler.Messenger;
+import com.thirds.qss.compiler.ScriptPath;
+import com.thirds.qss.compiler.lexer.Token;
 import com.thirds.qss.compiler.tree.Documentable;
 import com.thirds.qss.compiler.tree.Script;
 import com.thirds.qss.compiler.tree.script.Func;
 import com.thirds.qss.compiler.tree.script.Struct;
 import com.thirds.qss.compiler.tree.script.Trait;
+import com.thirds.qss.compiler.tree.script.TraitFunc;
+import com.thirds.qss.compiler.tree.script.TraitImpl;
+import com.thirds.qss.protos.IndexProtos;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * The name index is an intermediate index used to cache the names of each item in a given package.
- * This does not cache, for example, the fields of structs or the functions of traits.
+ * This does not cache, for example, the fields of structs or the types of the functions of traits; only the names of
+ * the functions of traits are cached, so that the name indices list every name that the {@link Index} of a package
+ * would list, before that index is built.
  *
  * TODO maybe unify this with Index and just have certain fields be nullable? This would remove duplicate code
  */
@@ -67,10 +77,15 @@ public class NameIndex {
     public static class TraitDefinition {
         private final String documentation;
         private final Location location;
+        /**
+         * The names of the funcs that the trait declares.
+         */
+        private final List<String> traitFuncs;
 
-        private TraitDefinition(String documentation, Location location) {
+        private TraitDefinition(String documentation, Location location, List<String> traitFuncs) {
             this.documentation = documentation;
             this.location = location;
+            this.traitFuncs = traitFuncs;
         }
 
         public String getDocumentation() {
@@ -80,102 +95,402 @@ public class NameIndex {
         public Location getLocation() {
             return location;
         }
+
+        public List<String> getTraitFuncs() {
+            return traitFuncs;
+        }
     }
 
     /**
      * Maps names of structs onto the struct itself.
      */
-    private final Map<String, StructDefinition> structDefinitions = new HashMap<>();
+    private final FragmentedMap<String, StructDefinition> structDefinitions = new FragmentedMap<>();
 
     /**
      * Maps names of funcs onto the func itself.
      */
-    private final Map<String, FuncDefinition> funcDefinitions = new HashMap<>();
+    private final FragmentedMap<String, FuncDefinition> funcDefinitions = new FragmentedMap<>();
 
     /**
      * Maps names of traits onto the func itself.
      */
-    private final Map<String, TraitDefinition> traitDefinitions = new HashMap<>();
+    private final FragmentedMap<String, TraitDefinition> traitDefinitions = new FragmentedMap<>();
+
+    /**
+     * Maps the last segment of the trait name in each trait impl onto the location of an impl of that trait. Trait
+     * names in impls are not resolved here, so this only tells the resolver which packages might implement a trait.
+     */
+    private final FragmentedMap<String, Location> traitImpls = new FragmentedMap<>();
+
+    /**
+     * The scripts whose definitions are in this index.
+     */
+    private final Set<ScriptPath> scripts = new HashSet<>();
+
+    /**
+     * Incremented whenever the set of names defined in this package changes.
+     */
+    private int generation = 0;
+
+    /**
+     * The simple name indices that this name index's names are listed in. A name index is listed in more than one if
+     * it is shared between compilers (see {@link SharedIndices}).
+     */
+    private final Set<SimpleNameIndex> attachments = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean frozen = false;
 
     public NameIndex(String bundleName, QualifiedName thePackage) {
         this.bundleName = bundleName;
         this.thePackage = thePackage;
+        structDefinitions.setListener((name, oldDef, newDef) -> updateSimpleName(SimpleNameIndex.Kind.STRUCT, name, oldDef, newDef));
+        funcDefinitions.setListener((name, oldDef, newDef) -> updateSimpleName(SimpleNameIndex.Kind.FUNC, name, oldDef, newDef));
+        traitDefinitions.setListener((name, oldDef, newDef) -> {
+            updateSimpleName(SimpleNameIndex.Kind.TRAIT, name, oldDef, newDef);
+            BundleQualifiedName bundleQualifiedName = new BundleQualifiedName(bundleName, thePackage);
+            for (SimpleNameIndex simpleNames : attachments) {
+                if (oldDef != null)
+                    oldDef.traitFuncs.forEach(func -> simpleNames.remove(SimpleNameIndex.Kind.TRAIT_FUNC, func, bundleQualifiedName));
+                if (newDef != null)
+                    newDef.traitFuncs.forEach(func -> simpleNames.add(SimpleNameIndex.Kind.TRAIT_FUNC, func, bundleQualifiedName));
+            }
+        });
+        traitImpls.setListener((name, oldDef, newDef) -> updateSimpleName(SimpleNameIndex.Kind.TRAIT_IMPL, name, oldDef, newDef));
+    }
+
+    private void updateSimpleName(SimpleNameIndex.Kind kind, String name, Object oldDef, Object newDef) {
+        for (SimpleNameIndex simpleNames : attachments) {
+            if (oldDef == null)
+                simpleNames.add(kind, name, new BundleQualifiedName(bundleName, thePackage));
+            else if (newDef == null)
+                simpleNames.remove(kind, name, new BundleQualifiedName(bundleName, thePackage));
+        }
     }
 
     /**
-     * Adds types to this index from the given script.
+     * Prevents any more scripts from being added to or removed from this name index, so that it can be shared between
+     * compilers.
+     */
+    void freeze() {
+        frozen = true;
+    }
+
+    /**
+     * @return True if this name index can no longer be changed, because it may be shared between compilers.
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen)
+            throw new IllegalStateException("Name index of package " + thePackage + " is frozen");
+    }
+
+    /**
+     * Lists every name in this index in the given simple name index, and keeps it up to date until
+     * {@link #detach(SimpleNameIndex)}.
+     */
+    void attach(SimpleNameIndex simpleNames) {
+        BundleQualifiedName name = new BundleQualifiedName(bundleName, thePackage);
+        structDefinitions.getMerged().keySet().forEach(struct -> simpleNames.add(SimpleNameIndex.Kind.STRUCT, struct, name));
+        funcDefinitions.getMerged().keySet().forEach(func -> simpleNames.add(SimpleNameIndex.Kind.FUNC, func, name));
+        traitDefinitions.getMerged().forEach((trait, def) -> {
+            simpleNames.add(SimpleNameIndex.Kind.TRAIT, trait, name);
+            def.traitFuncs.forEach(func -> simpleNames.add(SimpleNameIndex.Kind.TRAIT_FUNC, func, name));
+        });
+        traitImpls.getMerged().keySet().forEach(trait -> simpleNames.add(SimpleNameIndex.Kind.TRAIT_IMPL, trait, name));
+        attachments.add(simpleNames);
+    }
+
+    /**
+     * Removes every name in this index from the given simple name index, if it was attached to it.
+     */
+    void detach(SimpleNameIndex simpleNames) {
+        if (!attachments.remove(simpleNames))
+            return;
+        BundleQualifiedName name = new BundleQualifiedName(bundleName, thePackage);
+        structDefinitions.getMerged().keySet().forEach(struct -> simpleNames.remove(SimpleNameIndex.Kind.STRUCT, struct, name));
+        funcDefinitions.getMerged().keySet().forEach(func -> simpleNames.remove(SimpleNameIndex.Kind.FUNC, func, name));
+        traitDefinitions.getMerged().forEach((trait, def) -> {
+            simpleNames.remove(SimpleNameIndex.Kind.TRAIT, trait, name);
+            def.traitFuncs.forEach(func -> simpleNames.remove(SimpleNameIndex.Kind.TRAIT_FUNC, func, name));
+        });
+        traitImpls.getMerged().keySet().forEach(trait -> simpleNames.remove(SimpleNameIndex.Kind.TRAIT_IMPL, trait, name));
+    }
+
+    /**
+     * Reconstructs a name index that was cached using {@link #serialise()}.
+     */
+    public static NameIndex from(String bundleName, QualifiedName thePackage, IndexProtos.NameIndex nameIndex) {
+        Map<ScriptPath, Map<String, StructDefinition>> structs = new HashMap<>();
+        Map<ScriptPath, Map<String, FuncDefinition>> funcs = new HashMap<>();
+        Map<ScriptPath, Map<String, TraitDefinition>> traits = new HashMap<>();
+        Map<ScriptPath, Map<String, Location>> impls = new HashMap<>();
+
+        for (IndexProtos.NamedItem item : nameIndex.getStructsList()) {
+            Location location = Location.from(item.getLocation());
+            structs.computeIfAbsent(location.getFilePath(), k -> new HashMap<>())
+                    .put(Identifiers.intern(item.getName()), new StructDefinition(item.getDocs().isEmpty() ? null : item.getDocs(), location));
+        }
+        for (IndexProtos.NamedItem item : nameIndex.getFuncsList()) {
+            Location location = Location.from(item.getLocation());
+            funcs.computeIfAbsent(location.getFilePath(), k -> new HashMap<>())
+                    .put(Identifiers.intern(item.getName()), new FuncDefinition(item.getDocs().isEmpty() ? null : item.getDocs(), location));
+        }
+        for (IndexProtos.NamedItem item : nameIndex.getTraitsList()) {
+            Location location = Location.from(item.getLocation());
+            traits.computeIfAbsent(location.getFilePath(), k -> new HashMap<>())
+                    .put(Identifiers.intern(item.getName()), new TraitDefinition(item.getDocs().isEmpty() ? null : item.getDocs(), location,
+                            item.getTraitFuncsList().stream().map(Identifiers::intern).collect(Collectors.toList())));
+        }
+        for (IndexProtos.NamedItem item : nameIndex.getTraitImplsList()) {
+            Location location = Location.from(item.getLocation());
+            impls.computeIfAbsent(location.getFilePath(), k -> new HashMap<>())
+                    .put(Identifiers.intern(item.getName()), location);
+        }
+
+        Set<ScriptPath> scripts = new HashSet<>();
+        nameIndex.getScriptsList().forEach(script -> scripts.add(new ScriptPath(script)));
+        scripts.addAll(structs.keySet());
+        scripts.addAll(funcs.keySet());
+        scripts.addAll(traits.keySet());
+        scripts.addAll(impls.keySet());
+
+        NameIndex result = new NameIndex(bundleName, thePackage);
+        for (ScriptPath filePath : scripts) {
+            result.replace(filePath,
+                    structs.getOrDefault(filePath, new HashMap<>()),
+                    funcs.getOrDefault(filePath, new HashMap<>()),
+                    traits.getOrDefault(filePath, new HashMap<>()),
+                    impls.getOrDefault(filePath, new HashMap<>()));
+        }
+        return result;
+    }
+
+    public IndexProtos.NameIndex serialise() {
+        IndexProtos.NameIndex.Builder b = IndexProtos.NameIndex.newBuilder();
+        // Serialise every fragment, not just the merged view, so that duplicate definitions are not lost.
+        structDefinitions.getFragments().values().forEach(fragment -> fragment.forEach((name, def) -> b.addStructs(serialiseItem(name, def.documentation, def.location))));
+        funcDefinitions.getFragments().values().forEach(fragment -> fragment.forEach((name, def) -> b.addFuncs(serialiseItem(name, def.documentation, def.location))));
+        traitDefinitions.getFragments().values().forEach(fragment -> fragment.forEach((name, def) -> b.addTraits(serialiseItem(name, def.documentation, def.location).toBuilder()
+                .addAllTraitFuncs(def.traitFuncs))));
+        traitImpls.getFragments().values().forEach(fragment -> fragment.forEach((name, location) -> b.addTraitImpls(serialiseItem(name, null, location))));
+        scripts.forEach(script -> b.addScripts(script.toString()));
+        return b.build();
+    }
+
+    private static IndexProtos.NamedItem serialiseItem(String name, String documentation, Location location) {
+        return IndexProtos.NamedItem.newBuilder()
+                .setName(name)
+                .setDocs(documentation == null ? "" : documentation)
+                .setLocation(location.serialise())
+                .build();
+    }
+
+    /**
+     * Adds types to this index from the given script, replacing any types that were previously added from
+     * the same script. Types defined in other scripts in the package are left untouched.
      * @param script The package of this script must match the package of the index itself.
      * @return <code>this</code> for chaining.
      */
     public Messenger<NameIndex> addFrom(Script script) {
+        checkNotFrozen();
+        ArrayList<Message> messages = replaceFrom(script);
+        checkOtherScripts(messages, script);
+        return Messenger.success(this, messages);
+    }
+
+    /**
+     * Adds types to this index from each of the given scripts, as {@link #addFrom} would, but only checks for names
+     * that other scripts in the package define once every script has been added. This way, each script reports every
+     * name that it shares with another script, not just the ones in scripts that were added before it.
+     * @return Maps the path of each script onto the messages that {@link #addFrom} would return if it were added last.
+     */
+    public Map<ScriptPath, Messenger<NameIndex>> addFromAll(Collection<Script> scripts) {
+        checkNotFrozen();
+        Map<ScriptPath, ArrayList<Message>> messages = new HashMap<>();
+        for (Script script : scripts) {
+            messages.put(script.getFilePath(), replaceFrom(script));
+        }
+        Map<ScriptPath, Messenger<NameIndex>> result = new HashMap<>();
+        for (Script script : scripts) {
+            ArrayList<Message> scriptMessages = messages.get(script.getFilePath());
+            checkOtherScripts(scriptMessages, script);
+            result.put(script.getFilePath(), Messenger.success(this, scriptMessages));
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the types that were previously added from the given script with the types it defines now.
+     * @return Errors for names that are defined more than once in the script itself.
+     */
+    private ArrayList<Message> replaceFrom(Script script) {
         ArrayList<Message> messages = new ArrayList<>();
+        ScriptPath filePath = script.getFilePath();
+
+        Map<String, StructDefinition> structs = new HashMap<>();
         for (Documentable<Struct> struct : script.getStructs()) {
             String name = struct.getContent().getName().contents;
-            if (structDefinitions.containsKey(name)) {
+            if (structs.containsKey(name)) {
                 messages.add(new Message(
                         struct.getContent().getName().getRange(),
                         Message.MessageSeverity.ERROR,
                         "Struct " + name + " was already defined"
                 ).addInfo(new Message.MessageRelatedInformation(
-                        structDefinitions.get(name).location,
+                        structs.get(name).location,
                         "Previously defined here"
                 )));
             }
 
-            structDefinitions.put(name, new StructDefinition(
+            structs.put(name, new StructDefinition(
                     struct.getDocumentation().map(tk -> tk.contents).orElse(null),
-                    new Location(script.getFilePath(), struct.getContent().getRange())
+                    new Location(filePath, struct.getContent().getRange())
             ));
         }
+
+        Map<String, FuncDefinition> funcs = new HashMap<>();
         for (Documentable<Func> func : script.getFuncs()) {
             String name = func.getContent().getName().contents;
-            if (funcDefinitions.containsKey(name)) {
+            if (funcs.containsKey(name)) {
                 messages.add(new Message(
                         func.getContent().getName().getRange(),
                         Message.MessageSeverity.ERROR,
                         "Func " + name + " was already defined"
                 ).addInfo(new Message.MessageRelatedInformation(
-                        funcDefinitions.get(name).location,
+                        funcs.get(name).location,
                         "Previously defined here"
                 )));
             }
 
-            funcDefinitions.put(name, new FuncDefinition(
+            funcs.put(name, new FuncDefinition(
                     func.getDocumentation().map(tk -> tk.contents).orElse(null),
-                    new Location(script.getFilePath(), func.getContent().getRange())
+                    new Location(filePath, func.getContent().getRange())
             ));
         }
+
+        Map<String, TraitDefinition> traits = new HashMap<>();
         for (Documentable<Trait> trait : script.getTraits()) {
             String name = trait.getContent().getName().contents;
-            if (traitDefinitions.containsKey(name)) {
+            if (traits.containsKey(name)) {
                 messages.add(new Message(
                         trait.getContent().getName().getRange(),
                         Message.MessageSeverity.ERROR,
                         "Trait " + name + " was already defined"
                 ).addInfo(new Message.MessageRelatedInformation(
-                        traitDefinitions.get(name).location,
+                        traits.get(name).location,
                         "Previously defined here"
                 )));
             }
 
-            traitDefinitions.put(name, new TraitDefinition(
+            List<String> traitFuncs = new ArrayList<>();
+            for (Documentable<TraitFunc> traitFunc : trait.getContent().getTraitFuncs()) {
+                traitFuncs.add(traitFunc.getContent().getName().contents);
+            }
+            traits.put(name, new TraitDefinition(
                     trait.getDocumentation().map(tk -> tk.contents).orElse(null),
-                    new Location(script.getFilePath(), trait.getContent().getRange())
+                    new Location(filePath, trait.getContent().getRange()),
+                    traitFuncs
             ));
         }
-        return Messenger.success(this, messages);
+
+        // Several impls of the same trait only need to be listed once.
+        Map<String, Location> impls = new HashMap<>();
+        for (Documentable<TraitImpl> traitImpl : script.getTraitImpls()) {
+            impls.putIfAbsent(traitImpl.getContent().getTrait().lastSegment(),
+                    new Location(filePath, traitImpl.getContent().getRange()));
+        }
+
+        replace(filePath, structs, funcs, traits, impls);
+        return messages;
+    }
+
+    /**
+     * Once the given script's fragment is in the index, adds errors for names that other scripts in the package define.
+     */
+    private void checkOtherScripts(ArrayList<Message> messages, Script script) {
+        ScriptPath filePath = script.getFilePath();
+        for (Documentable<Struct> struct : script.getStructs()) {
+            checkOtherScripts(messages, "Struct", structDefinitions, def -> def.location, filePath, struct.getContent().getName());
+        }
+        for (Documentable<Func> func : script.getFuncs()) {
+            checkOtherScripts(messages, "Func", funcDefinitions, def -> def.location, filePath, func.getContent().getName());
+        }
+        for (Documentable<Trait> trait : script.getTraits()) {
+            checkOtherScripts(messages, "Trait", traitDefinitions, def -> def.location, filePath, trait.getContent().getName());
+        }
+    }
+
+    private static <T> void checkOtherScripts(ArrayList<Message> messages, String kind, FragmentedMap<String, T> definitions,
+                                              Function<T, Location> getLocation, ScriptPath filePath, Token name) {
+        List<ScriptPath> otherScripts = definitions.getOtherOwners(name.contents, filePath);
+        if (otherScripts.isEmpty())
+            return;
+
+        Message message = new Message(
+                name.getRange(),
+                Message.MessageSeverity.ERROR,
+                kind + " " + name.contents + " was already defined"
+        );
+        for (ScriptPath otherScript : otherScripts) {
+            message.addInfo(new Message.MessageRelatedInformation(
+                    getLocation.apply(definitions.get(otherScript, name.contents)),
+                    "Also defined here"
+            ));
+        }
+        messages.add(message);
+    }
+
+    private void replace(ScriptPath filePath, Map<String, StructDefinition> structs, Map<String, FuncDefinition> funcs,
+                         Map<String, TraitDefinition> traits, Map<String, Location> impls) {
+        scripts.add(filePath);
+        // Use the non-short-circuiting operator so that every map is updated.
+        if (structDefinitions.replace(filePath, structs)
+                | funcDefinitions.replace(filePath, funcs)
+                | traitDefinitions.replace(filePath, traits)
+                | traitImpls.replace(filePath, impls))
+            generation++;
+    }
+
+    /**
+     * Removes the types that were added from the given script, for example if the script was deleted.
+     */
+    public void remove(ScriptPath filePath) {
+        checkNotFrozen();
+        scripts.remove(filePath);
+        if (structDefinitions.remove(filePath)
+                | funcDefinitions.remove(filePath)
+                | traitDefinitions.remove(filePath)
+                | traitImpls.remove(filePath))
+            generation++;
+    }
+
+    /**
+     * @return The scripts whose types have been added to this index.
+     */
+    public Set<ScriptPath> getScripts() {
+        return scripts;
+    }
+
+    /**
+     * This changes whenever a name is added to or removed from this package, but not when a definition is
+     * merely moved or edited. If it changes, anything resolved against this package may need to be resolved again.
+     */
+    public int getGeneration() {
+        return generation;
     }
 
     public Map<String, StructDefinition> getStructDefinitions() {
-        return structDefinitions;
+        return structDefinitions.getMerged();
     }
 
     public Map<String, FuncDefinition> getFuncDefinitions() {
-        return funcDefinitions;
+        return funcDefinitions.getMerged();
     }
 
     public Map<String, TraitDefinition> getTraitDefinitions() {
-        return traitDefinitions;
+        return traitDefinitions.getMerged();
     }
 
     @Override
@@ -183,8 +498,8 @@ public class NameIndex {
         return "NameIndex{" +
                 "bundleName='" + bundleName + '\'' +
                 ", thePackage=" + thePackage +
-                ", structDefinitions=" + structDefinitions +
-                ", funcDefinitions=" + funcDefinitions +
+                ", structDefinitions=" + structDefinitions.getMerged() +
+                ", funcDefinitions=" + funcDefinitions.getMerged() +
                 '}';
     }
 }
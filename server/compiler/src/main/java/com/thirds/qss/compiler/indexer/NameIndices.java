@@ -3,6 +3,7 @@ package com.thirds.qss.compiler.indexer;
 import com.thirds.qss.QualifiedName;
 import com.thirds.qss.compiler.ScriptPath;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Function;
@@ -13,7 +14,7 @@ import java.util.function.Function;
  */
 public class NameIndices {
     public Bundle computeIfAbsent(String bundle, ScriptPath pathToBundleRoot) {
-        return bundles.computeIfAbsent(bundle, k -> new Bundle(pathToBundleRoot));
+        return bundles.computeIfAbsent(bundle, k -> new Bundle(bundle, pathToBundleRoot, simpleNames));
     }
 
     /**
@@ -32,27 +33,44 @@ public class NameIndices {
      * This is like the crate of name "crate" in Rust.
      */
     public static class Bundle {
+        private final String bundleName;
         private final ScriptPath pathToBundleRoot;
+        private final SimpleNameIndex simpleNames;
 
         /**
          * Maps package names -> corresponding name indices.
          */
         private final Map<QualifiedName, NameIndex> packages = new HashMap<>();
 
-        public Bundle(ScriptPath pathToBundleRoot) {
+        /**
+         * @param simpleNames The names of every package in this bundle will be listed in this simple name index.
+         */
+        public Bundle(String bundleName, ScriptPath pathToBundleRoot, SimpleNameIndex simpleNames) {
+            this.bundleName = bundleName;
             this.pathToBundleRoot = pathToBundleRoot;
+            this.simpleNames = simpleNames;
         }
 
         public void remove(QualifiedName packageName) {
-            packages.remove(packageName);
+            NameIndex removed = packages.remove(packageName);
+            if (removed != null)
+                removed.detach(simpleNames);
         }
 
         public NameIndex put(QualifiedName packageName, NameIndex index) {
-            return packages.put(packageName, index);
+            NameIndex previous = packages.put(packageName, index);
+            if (previous != null)
+                previous.detach(simpleNames);
+            index.attach(simpleNames);
+            return previous;
         }
 
         public NameIndex computeIfAbsent(QualifiedName packageName, Function<QualifiedName, NameIndex> func) {
-            return packages.computeIfAbsent(packageName, func);
+            return packages.computeIfAbsent(packageName, k -> {
+                NameIndex index = func.apply(k);
+                index.attach(simpleNames);
+                return index;
+            });
         }
 
         public Map<QualifiedName, NameIndex> getPackages() {
@@ -72,10 +90,28 @@ public class NameIndices {
      */
     private final Map<String, Bundle> bundles = new HashMap<>();
 
+    /**
+     * Maps the last segment of each name in every bundle onto the packages that define it.
+     */
+    private final SimpleNameIndex simpleNames = new SimpleNameIndex();
+
+    public SimpleNameIndex getSimpleNames() {
+        return simpleNames;
+    }
+
     public void addBundle(String bundleName, Bundle bundle) {
         bundles.put(bundleName, bundle);
     }
 
+    /**
+     * Removes the given bundle and every package in it.
+     */
+    public void removeBundle(String bundleName) {
+        Bundle bundle = bundles.remove(bundleName);
+        if (bundle != null)
+            new ArrayList<>(bundle.getPackages().keySet()).forEach(bundle::remove);
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
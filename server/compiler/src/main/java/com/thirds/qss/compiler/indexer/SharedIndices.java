@@ -0,0 +1,159 @@
+package com.thirds.qss.compiler.indexer;
+
+import com.google.common.base.Suppliers;
+import com.thirds.qss.QualifiedName;
+import com.thirds.qss.compiler.ScriptPath;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * A process-wide registry of the name indices and indices of dependency bundles, so that compilers for several bundles
+ * that depend on the same bundle share one copy of its indices, and only one of them builds it. Indices refer to
+ * scripts by their paths relative to the bundle being compiled, so they are only shared between compilers whose
+ * bundle roots reach the dependency by the same relative path, such as sibling bundles.
+ *
+ * Shared indices are frozen, so that no compiler can change them. Each compiler acquires the indices it uses, and
+ * releases them when it acquires a newer version of the same package or when it is closed (see
+ * {@link com.thirds.qss.compiler.Compiler#close}); an index is forgotten once every compiler that acquired it has
+ * released it.
+ */
+public final class SharedIndices {
+    private SharedIndices() {
+    }
+
+    /**
+     * Identifies a version of a package in a dependency bundle.
+     */
+    public static final class Key {
+        private final Path canonicalFolder;
+        private final ScriptPath packageFolder;
+        private final String bundleName;
+        private final QualifiedName packageName;
+        private final String contentHash;
+        private final String namesHash;
+
+        /**
+         * @param canonicalFolder The canonical path of the package's folder.
+         * @param packageFolder The path of the package's folder, relative to the root of the bundle being compiled.
+         *                      Indices store the paths of their scripts in this form, so they are only shared between
+         *                      compilers that reach the package by the same relative path.
+         * @param bundleName The name that the bundle is known by. This is part of the key, since it is stored in
+         *                   the index.
+         * @param contentHash The hash of the contents of the package's scripts.
+         * @param namesHash For an index, the hash of the names that the index was resolved against. Null for a name
+         *                  index, which does not depend on any other package.
+         */
+        public Key(Path canonicalFolder, ScriptPath packageFolder, String bundleName, QualifiedName packageName, String contentHash, String namesHash) {
+            this.canonicalFolder = canonicalFolder;
+            this.packageFolder = packageFolder;
+            this.bundleName = bundleName;
+            this.packageName = packageName;
+            this.contentHash = contentHash;
+            this.namesHash = namesHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return canonicalFolder.equals(key.canonicalFolder) &&
+                    packageFolder.equals(key.packageFolder) &&
+                    bundleName.equals(key.bundleName) &&
+                    packageName.equals(key.packageName) &&
+                    contentHash.equals(key.contentHash) &&
+                    Objects.equals(namesHash, key.namesHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(canonicalFolder, packageFolder, bundleName, packageName, contentHash, namesHash);
+        }
+
+        @Override
+        public String toString() {
+            return bundleName + "::" + packageName + " at " + canonicalFolder + " (" + packageFolder + ")";
+        }
+    }
+
+    private static class Entry<T> {
+        /**
+         * Memoized, so that the index is only built once even if several compilers acquire it at the same time.
+         */
+        private final Supplier<T> value;
+        private int references = 0;
+
+        private Entry(Supplier<T> value) {
+            this.value = value;
+        }
+    }
+
+    private static final Map<Key, Entry<NameIndex>> nameIndices = new HashMap<>();
+    private static final Map<Key, Entry<Index>> indices = new HashMap<>();
+
+    /**
+     * Returns the shared name index with the given key, building it with the given function if no compiler holds it.
+     * The returned name index is frozen. Each call must be matched with a call to {@link #releaseNameIndex}.
+     */
+    public static NameIndex acquireNameIndex(Key key, Supplier<NameIndex> func) {
+        return acquire(nameIndices, key, () -> {
+            NameIndex nameIndex = func.get();
+            nameIndex.freeze();
+            return nameIndex;
+        });
+    }
+
+    /**
+     * Returns the shared index with the given key, building it with the given function if no compiler holds it.
+     * The returned index is frozen. Each call must be matched with a call to {@link #releaseIndex}.
+     */
+    public static Index acquireIndex(Key key, Supplier<Index> func) {
+        return acquire(indices, key, () -> {
+            Index index = func.get();
+            index.freeze();
+            return index;
+        });
+    }
+
+    public static void releaseNameIndex(Key key) {
+        release(nameIndices, key);
+    }
+
+    public static void releaseIndex(Key key) {
+        release(indices, key);
+    }
+
+    /**
+     * @return The number of distinct name indices and indices that are currently held by at least one compiler.
+     */
+    public static synchronized int size() {
+        return nameIndices.size() + indices.size();
+    }
+
+    private static <T> T acquire(Map<Key, Entry<T>> entries, Key key, Supplier<T> func) {
+        Entry<T> entry;
+        synchronized (SharedIndices.class) {
+            entry = entries.computeIfAbsent(key, k -> new Entry<>(Suppliers.memoize(func::get)));
+            entry.references++;
+        }
+        // Build the index outside the lock, so that other packages can be built at the same time.
+        try {
+            return entry.value.get();
+        } catch (RuntimeException e) {
+            release(entries, key);
+            throw e;
+        }
+    }
+
+    private static <T> void release(Map<Key, Entry<T>> entries, Key key) {
+        synchronized (SharedIndices.class) {
+            Entry<T> entry = entries.get(key);
+            if (entry != null && --entry.references == 0)
+                entries.remove(key);
+        }
+    }
+}
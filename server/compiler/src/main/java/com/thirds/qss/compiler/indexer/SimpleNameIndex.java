@@ -0,0 +1,69 @@
+package com.thirds.qss.compiler.indexer;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.thirds.qss.BundleQualifiedName;
+import com.thirds.qss.compiler.resolve.UsedDefinitions;
+
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps the last segment of every globally scoped name onto the packages that define an item with that name.
+ * This lets the {@link com.thirds.qss.compiler.resolve.Resolver} search only the packages that could possibly
+ * contain a given name, instead of every package that has been loaded.
+ *
+ * The name indices and indices in a {@link NameIndices} or {@link Indices} keep this up to date as their names change.
+ * Since indices may be built lazily while other threads are resolving names (see {@link Indices.Bundle#declare}),
+ * every method is synchronized.
+ */
+public class SimpleNameIndex {
+    public enum Kind {
+        STRUCT,
+        FUNC,
+        TRAIT,
+        /**
+         * Functions declared inside a trait. These are named like functions in the trait's package.
+         */
+        TRAIT_FUNC,
+        /**
+         * Trait impls, named by the last segment of the name of the trait they implement.
+         */
+        TRAIT_IMPL
+    }
+
+    /**
+     * Maps kinds -> simple names -> the packages that define them. A package may be listed more than once for the same
+     * name, for example if two traits in the package both declare a trait func with that name.
+     */
+    private final Map<Kind, ListMultimap<String, BundleQualifiedName>> packages = new EnumMap<>(Kind.class);
+
+    public SimpleNameIndex() {
+        for (Kind kind : Kind.values()) {
+            packages.put(kind, ArrayListMultimap.create());
+        }
+    }
+
+    synchronized void add(Kind kind, String name, BundleQualifiedName thePackage) {
+        packages.get(kind).put(name, thePackage);
+    }
+
+    synchronized void remove(Kind kind, String name, BundleQualifiedName thePackage) {
+        packages.get(kind).remove(name, thePackage);
+    }
+
+    /**
+     * @return The packages that define an item of the given kind whose name ends with the given segment.
+     */
+    public synchronized Set<BundleQualifiedName> get(Kind kind, String name) {
+        UsedDefinitions.lookedUp(kind, name);
+        return new LinkedHashSet<>(packages.get(kind).get(name));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SimpleNameIndex" + packages;
+    }
+}
@@ -0,0 +1,107 @@
+package com.thirds.qss.compiler.lexer;
+
+import com.thirds.qss.compiler.Message;
+import com.thirds.qss.compiler.Messenger;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * The output of the lexer for a whole script. This is kept for scripts that are being edited, so that after an edit
+ * only the lines around the edit need to be lexed again (see {@link Lexer#relex}).
+ */
+public class LexedScript {
+    final TokenBuffer tokens;
+    final ArrayList<Message> messages;
+    /**
+     * The UTF-16 offset of the start of each line of the text.
+     */
+    final int[] lineOffsets;
+    final int lineCount;
+    /**
+     * Lines that start inside a block comment or documentation comment. The lexer cannot restart at the start of
+     * these lines.
+     */
+    final BitSet linesInComments;
+    /**
+     * The length of the text, in UTF-16 code units.
+     */
+    final int length;
+
+    /**
+     * If this script was relexed, the tokens before this index are the same as in the previous output.
+     */
+    private final int unchangedPrefix;
+    /**
+     * If this script was relexed, the tokens from this index onwards (and the end of the file) are the same as the
+     * tokens from {@link #previousSuffixStart} onwards in the previous output, moved by {@link #lineDelta} lines.
+     * This is {@link Integer#MAX_VALUE} if the lexer had to lex the rest of the script again.
+     */
+    private final int unchangedSuffixStart;
+    private final int previousSuffixStart;
+    private final int lineDelta;
+
+    LexedScript(TokenBuffer tokens, ArrayList<Message> messages, int[] lineOffsets, int lineCount, BitSet linesInComments, int length,
+                int unchangedPrefix, int unchangedSuffixStart, int previousSuffixStart, int lineDelta) {
+        this.tokens = tokens;
+        this.messages = messages;
+        this.lineOffsets = lineOffsets;
+        this.lineCount = lineCount;
+        this.linesInComments = linesInComments;
+        this.length = length;
+        this.unchangedPrefix = unchangedPrefix;
+        this.unchangedSuffixStart = unchangedSuffixStart;
+        this.previousSuffixStart = previousSuffixStart;
+        this.lineDelta = lineDelta;
+    }
+
+    /**
+     * @return This output, as if it were the result of relexing the script after no edits.
+     */
+    LexedScript unchanged() {
+        return new LexedScript(tokens, messages, lineOffsets, lineCount, linesInComments, length, 0, 0, 0, 0);
+    }
+
+    public Messenger<TokenStream> toMessenger() {
+        return Messenger.success(new TokenStream(tokens), new ArrayList<>(messages));
+    }
+
+    /**
+     * Maps a range of tokens in this output onto the same tokens in the output this script was relexed from.
+     * @param start The index of the first token.
+     * @param end The index of the last token, inclusive. This may be the number of tokens, which represents the end of
+     *            the file.
+     * @return The index of the first token in the previous output, or -1 if any of the tokens were lexed again rather
+     * than reused (or if this script was not relexed).
+     */
+    public int previousIndexOf(int start, int end) {
+        if (end < unchangedPrefix)
+            return start;
+        if (start >= unchangedSuffixStart)
+            return start - unchangedSuffixStart + previousSuffixStart;
+        return -1;
+    }
+
+    /**
+     * @return How many lines the token at the given index moved by since the output this script was relexed from, if
+     * the token was reused from that output.
+     */
+    public int lineDeltaAt(int index) {
+        return index >= unchangedSuffixStart ? lineDelta : 0;
+    }
+
+    /**
+     * @return The index of the first token that starts on or after the given line.
+     */
+    int firstTokenOnOrAfter(int line) {
+        int low = 0, high = tokens.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tokens.startLine(mid) < line)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+}
@@ -1,154 +1,421 @@
 package com.thirds.qss.compiler.lexer;
 
+import com.thirds.qss.Identifiers;
 import com.thirds.qss.compiler.Message;
 import com.thirds.qss.compiler.Messenger;
-import com.thirds.qss.compiler.Position;
 import com.thirds.qss.compiler.Range;
+import com.thirds.qss.compiler.TextEdit;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
 
 public class Lexer {
+    private static final Map<String, TokenType> KEYWORDS = Map.ofEntries(
+            Map.entry("struct", TokenType.KW_STRUCT),
+            Map.entry("func", TokenType.KW_FUNC),
+            Map.entry("before", TokenType.KW_BEFORE),
+            Map.entry("after", TokenType.KW_AFTER),
+            Map.entry("native", TokenType.KW_NATIVE),
+            Map.entry("pure", TokenType.KW_PURE),
+            Map.entry("ui", TokenType.KW_UI),
+            Map.entry("get", TokenType.KW_GET),
+            Map.entry("set", TokenType.KW_SET),
+            Map.entry("trait", TokenType.KW_TRAIT),
+            Map.entry("impl", TokenType.KW_IMPL),
+            Map.entry("action", TokenType.KW_ACTION),
+            Map.entry("shortcut", TokenType.KW_SHORTCUT),
+            Map.entry("menu", TokenType.KW_MENU),
+            Map.entry("import", TokenType.KW_IMPORT),
+            Map.entry("let", TokenType.KW_LET),
+            Map.entry("return", TokenType.KW_RETURN),
+            Map.entry("new", TokenType.KW_NEW),
+            Map.entry("break", TokenType.KW_BREAK),
+            Map.entry("continue", TokenType.KW_CONTINUE),
+            Map.entry("result", TokenType.KW_RESULT),
+            Map.entry("this", TokenType.KW_THIS),
+            Map.entry("Int", TokenType.T_INT),
+            Map.entry("Bool", TokenType.T_BOOL),
+            Map.entry("String", TokenType.T_STRING),
+            Map.entry("Text", TokenType.T_TEXT),
+            Map.entry("Entity", TokenType.T_ENTITY),
+            Map.entry("Ratio", TokenType.T_RATIO),
+            Map.entry("Col", TokenType.T_COL),
+            Map.entry("Pos", TokenType.T_POS),
+            Map.entry("Texture", TokenType.T_TEXTURE),
+            Map.entry("Player", TokenType.T_PLAYER),
+            Map.entry("This", TokenType.T_THIS),
+            Map.entry("Func", TokenType.T_FUNC),
+            Map.entry("true", TokenType.KW_TRUE),
+            Map.entry("false", TokenType.KW_FALSE),
+            Map.entry("just", TokenType.KW_JUST),
+            Map.entry("null", TokenType.KW_NULL),
+            Map.entry("if", TokenType.KW_IF),
+            Map.entry("else", TokenType.KW_ELSE),
+            Map.entry("for", TokenType.KW_FOR),
+            Map.entry("in", TokenType.KW_IN),
+            Map.entry("while", TokenType.KW_WHILE)
+    );
+
+    /**
+     * The keywords, grouped by length, so that a keyword can be looked up without copying it out of the text.
+     */
+    private static final String[][] KEYWORDS_BY_LENGTH;
+
+    static {
+        int maxLength = KEYWORDS.keySet().stream().mapToInt(String::length).max().orElse(0);
+        KEYWORDS_BY_LENGTH = new String[maxLength + 1][];
+        for (int length = 0; length <= maxLength; length++) {
+            int finalLength = length;
+            KEYWORDS_BY_LENGTH[length] = KEYWORDS.keySet().stream().filter(keyword -> keyword.length() == finalLength).toArray(String[]::new);
+        }
+    }
 
     public Lexer() {
     }
 
     public Messenger<TokenStream> process(String input) {
-        // Implicitly make a newline at the end of the file so that we can make implicit semicolons work right at
-        // the end of the file.
-        input = input + "\n";
+        return lex(input).toMessenger();
+    }
+
+    /**
+     * Lexes the whole of the given text.
+     */
+    public LexedScript lex(String input) {
+        Output output = new Output();
+        output.startLine(0, 0);
+        lex(input, 0, 0, output, Integer.MAX_VALUE, line -> false);
+        return output.finish(input.length());
+    }
+
+    /**
+     * Lexes a script again after it was edited. Only the lines from the nearest line before the edits that does not
+     * start inside a comment, up to the first line after the edits where the lexer's state matches the previous
+     * output again, are lexed; the tokens and messages from the rest of the previous output are reused, with their lines
+     * shifted to match the new text.
+     * @param previous The output of the lexer before the edits.
+     * @param input The text after the edits.
+     * @param edits The edits that turned the previous text into the new text, in the order they were made.
+     * @return The same output that {@link #lex} would give for the new text.
+     */
+    public LexedScript relex(LexedScript previous, String input, List<TextEdit> edits) {
+        if (edits.isEmpty())
+            return previous.unchanged();
+
+        // Work out which lines of the previous text were changed, and which lines of the new text replaced them.
+        // Lines after the damaged lines are unchanged, but may have moved.
+        int damagedStart = 0, damagedEndOld = -1, damagedEndNew = -1;
+        for (TextEdit edit : edits) {
+            int start = edit.oldRange.getStartLine();
+            int oldEnd = edit.oldRange.getEndLine();
+            int newEnd = edit.newEnd.line;
+            if (damagedEndNew == -1) {
+                damagedStart = start;
+                damagedEndOld = oldEnd;
+                damagedEndNew = newEnd;
+            } else {
+                // The lines of this edit are numbered according to the text after the previous edits.
+                damagedStart = Math.min(damagedStart, start);
+                damagedEndOld += Math.max(0, oldEnd - damagedEndNew);
+                damagedEndNew = Math.max(damagedEndNew, oldEnd) + newEnd - oldEnd;
+            }
+        }
+        int lineDelta = damagedEndNew - damagedEndOld;
+
+        // Restart at the start of a line where the lexer was not inside a comment.
+        int restartLine = Math.min(damagedStart, previous.lineCount - 1);
+        while (restartLine > 0 && previous.linesInComments.get(restartLine))
+            restartLine--;
+
+        // Everything before the restart line is unchanged.
+        Output output = new Output();
+        output.tokens.addAll(previous.tokens, 0, previous.firstTokenOnOrAfter(restartLine), 0);
+        output.unchangedPrefix = output.tokens.size();
+        output.lineDelta = lineDelta;
+        for (Message message : previous.messages) {
+            if (message.range.getStartLine() < restartLine)
+                output.messages.add(message);
+        }
+        for (int line = 0; line <= restartLine; line++) {
+            output.startLine(line, previous.lineOffsets[line]);
+        }
+        output.linesInComments.or(previous.linesInComments.get(0, restartLine));
+
+        int resumedLine = lex(
+                input,
+                previous.lineOffsets[restartLine],
+                restartLine,
+                output,
+                damagedEndNew,
+                line -> {
+                    int oldLine = line - lineDelta;
+                    if (oldLine >= previous.lineCount || previous.linesInComments.get(oldLine))
+                        return false;
+                    // When a line starts with a semicolon, the lexer looks back at the token before it to see if
+                    // the semicolon is unnecessary. That token can be on an earlier line if the newlines in between
+                    // were inside a comment, so it must match too.
+                    return implicitSemicolonAfterLast(previous.tokens, previous.firstTokenOnOrAfter(oldLine))
+                            == implicitSemicolonAfterLast(output.tokens, output.tokens.size());
+                }
+        );
+
+        if (resumedLine >= 0) {
+            // The rest of the text is the same as before, so reuse the previous output.
+            int oldLine = resumedLine - lineDelta;
+            output.unchangedSuffixStart = output.tokens.size();
+            output.previousSuffixStart = previous.firstTokenOnOrAfter(oldLine);
+            output.tokens.addAll(previous.tokens, output.previousSuffixStart, previous.tokens.size(), lineDelta);
+            for (Message message : previous.messages) {
+                if (message.range.getStartLine() >= oldLine)
+                    output.messages.add(lineDelta == 0 ? message : new Message(message.range.moveLines(lineDelta), message.severity, message.message));
+            }
+            int offsetDelta = input.length() - previous.length;
+            for (int line = oldLine + 1; line < previous.lineCount; line++) {
+                output.startLine(line + lineDelta, previous.lineOffsets[line] + offsetDelta);
+            }
+            for (int line = previous.linesInComments.nextSetBit(oldLine); line >= 0; line = previous.linesInComments.nextSetBit(line + 1)) {
+                output.linesInComments.set(line + lineDelta);
+            }
+        }
+
+        return output.finish(input.length());
+    }
 
-        ArrayList<Token> tokens = new ArrayList<>();
-        ArrayList<Message> messages = new ArrayList<>();
+    /**
+     * Collects the output of the lexer.
+     */
+    private static class Output {
+        private final TokenBuffer tokens = new TokenBuffer();
+        /**
+         * Maps the contents of tokens that have been lexed onto themselves, so that equal contents are only stored
+         * once.
+         */
+        private final HashMap<String, String> strings = new HashMap<>();
+        /**
+         * Maps identifiers that have been lexed onto their canonical strings.
+         */
+        private final HashMap<String, String> identifiers = new HashMap<>();
+        private final ArrayList<Message> messages = new ArrayList<>();
+        private int[] lineOffsets = new int[64];
+        private int lineCount = 0;
+        private final BitSet linesInComments = new BitSet();
+        /**
+         * Which tokens were reused from the previous output; see {@link LexedScript#previousIndexOf}.
+         * By default, no tokens were reused, not even the end of the file.
+         */
+        private int unchangedPrefix = 0, unchangedSuffixStart = Integer.MAX_VALUE, previousSuffixStart = 0, lineDelta = 0;
+
+        /**
+         * Records where a line starts. Lines must be started in order.
+         */
+        private void startLine(int line, int offset) {
+            if (line >= lineOffsets.length) {
+                int[] newLineOffsets = new int[Math.max(line + 1, lineOffsets.length * 2)];
+                System.arraycopy(lineOffsets, 0, newLineOffsets, 0, lineCount);
+                lineOffsets = newLineOffsets;
+            }
+            lineOffsets[line] = offset;
+            lineCount = line + 1;
+        }
 
-        CodePointIterator codePoints = new CodePointIterator(input);
+        private String intern(String contents) {
+            String existing = strings.putIfAbsent(contents, contents);
+            return existing == null ? contents : existing;
+        }
+
+        /**
+         * Like {@link #intern}, but gives the identifier's canonical string from {@link Identifiers}, so that it can
+         * be compared quickly with names from other scripts and from the indices. This only looks in the shared table
+         * once for each distinct identifier in the script.
+         */
+        private String identifier(String contents) {
+            return identifiers.computeIfAbsent(contents, Identifiers::intern);
+        }
 
-        Position position = new Position(0, 0);
+        private LexedScript finish(int length) {
+            return new LexedScript(tokens, messages, lineOffsets, lineCount, linesInComments, length,
+                    unchangedPrefix, unchangedSuffixStart, previousSuffixStart, lineDelta);
+        }
+    }
 
-        while (codePoints.hasNext()) {
-            int peek = codePoints.peek();
+    /**
+     * Lexes text until the end of the input, or until the lexer reaches the start of a line after the given line
+     * where it may resume using previous output.
+     *
+     * The text is scanned directly by index, so that the only objects created are the tokens and messages themselves.
+     * Positions count code points, so surrogate pairs are handled inline.
+     * @param index The UTF-16 index to start lexing at. This must be the start of the given line.
+     * @param line The line to start lexing at.
+     * @param resumeAfterLine The lexer can only stop at lines after this line.
+     * @param canResumeAt Tests whether the lexer can stop at the start of the given line, if it is not inside a
+     *                    comment.
+     * @return The line the lexer stopped at, or -1 if it reached the end of the input.
+     */
+    private int lex(String input, int index, int line, Output output, int resumeAfterLine, IntPredicate canResumeAt) {
+        TokenBuffer tokens = output.tokens;
+        ArrayList<Message> messages = output.messages;
+        int length = input.length();
+        int character = 0;
+
+        // The end of the file implicitly has a newline (at index == length), so that we can make implicit semicolons
+        // work right at the end of the file, without copying the whole file just to add a newline to the end.
+        while (index <= length) {
+            // The lexer can only be at the start of a line here if it has just read a newline outside any comment.
+            if (character == 0 && line > resumeAfterLine && canResumeAt.test(line))
+                return line;
+
+            char peek = index < length ? input.charAt(index) : '\n';
+            char next = index + 1 < length ? input.charAt(index + 1) : '\n';
 
             switch (peek) {
                 case '(':
-                    oneCharacter(tokens, codePoints, codePoints.next(), TokenType.LPARENTH, position);
+                    oneCharacter(tokens, TokenType.LPARENTH, "(", line, character++);
+                    index++;
                     break;
                 case ')':
-                    oneCharacter(tokens, codePoints, codePoints.next(), TokenType.RPARENTH, position);
+                    oneCharacter(tokens, TokenType.RPARENTH, ")", line, character++);
+                    index++;
                     break;
                 case '{':
-                    oneCharacter(tokens, codePoints, codePoints.next(), TokenType.LBRACE, position);
+                    oneCharacter(tokens, TokenType.LBRACE, "{", line, character++);
+                    index++;
                     break;
                 case '}':
-                    oneCharacter(tokens, codePoints, codePoints.next(), TokenType.RBRACE, position);
+                    oneCharacter(tokens, TokenType.RBRACE, "}", line, character++);
+                    index++;
                     break;
                 case '[':
-                    oneCharacter(tokens, codePoints, codePoints.next(), TokenType.LSQUARE, position);
+                    oneCharacter(tokens, TokenType.LSQUARE, "[", line, character++);
+                    index++;
                     break;
                 case ']':
-                    oneCharacter(tokens, codePoints, codePoints.next(), TokenType.RSQUARE, position);
+                    oneCharacter(tokens, TokenType.RSQUARE, "]", line, character++);
+                    index++;
                     break;
                 case '+':
-                    oneCharacter(tokens, codePoints, codePoints.next(), TokenType.PLUS, position);
+                    oneCharacter(tokens, TokenType.PLUS, "+", line, character++);
+                    index++;
                     break;
-                case '-': {
-                    int firstCodePoint = codePoints.next();
-                    if (codePoints.peek() == '>') {
-                        twoCharacters(tokens, codePoints, firstCodePoint, codePoints.next(), TokenType.RETURNS, position);
+                case '-':
+                    if (next == '>') {
+                        twoCharacters(tokens, TokenType.RETURNS, "->", line, character);
+                        character += 2;
+                        index += 2;
                     } else {
-                        oneCharacter(tokens, codePoints, firstCodePoint, TokenType.MINUS, position);
+                        oneCharacter(tokens, TokenType.MINUS, "-", line, character++);
+                        index++;
                     }
                     break;
-                }
                 case '.':
-                    oneCharacter(tokens, codePoints, codePoints.next(), TokenType.DOT, position);
+                    oneCharacter(tokens, TokenType.DOT, ".", line, character++);
+                    index++;
                     break;
                 case ',':
-                    oneCharacter(tokens, codePoints, codePoints.next(), TokenType.COMMA, position);
+                    oneCharacter(tokens, TokenType.COMMA, ",", line, character++);
+                    index++;
                     break;
                 case '?':
-                    oneCharacter(tokens, codePoints, codePoints.next(), TokenType.TYPE_MAYBE, position);
+                    oneCharacter(tokens, TokenType.TYPE_MAYBE, "?", line, character++);
+                    index++;
                     break;
-                case '=': {
-                    int firstCodePoint = codePoints.next();
-                    if (codePoints.peek() == '=') {
-                        twoCharacters(tokens, codePoints, firstCodePoint, codePoints.next(), TokenType.EQUAL, position);
-                    } else if (codePoints.peek() == '>') {
-                        twoCharacters(tokens, codePoints, firstCodePoint, codePoints.next(), TokenType.TYPE_MAPS_TO, position);
+                case '=':
+                    if (next == '=') {
+                        twoCharacters(tokens, TokenType.EQUAL, "==", line, character);
+                        character += 2;
+                        index += 2;
+                    } else if (next == '>') {
+                        twoCharacters(tokens, TokenType.TYPE_MAPS_TO, "=>", line, character);
+                        character += 2;
+                        index += 2;
                     } else {
-                        oneCharacter(tokens, codePoints, firstCodePoint, TokenType.ASSIGN, position);
+                        oneCharacter(tokens, TokenType.ASSIGN, "=", line, character++);
+                        index++;
                     }
                     break;
-                }
-                case '!': {
-                    int firstCodePoint = codePoints.next();
-                    if (codePoints.peek() == '=') {
-                        twoCharacters(tokens, codePoints, firstCodePoint, codePoints.next(), TokenType.NOT_EQUAL, position);
+                case '!':
+                    if (next == '=') {
+                        twoCharacters(tokens, TokenType.NOT_EQUAL, "!=", line, character);
+                        character += 2;
+                        index += 2;
                     } else {
-                        oneCharacter(tokens, codePoints, firstCodePoint, TokenType.NOT, position);
+                        oneCharacter(tokens, TokenType.NOT, "!", line, character++);
+                        index++;
                     }
                     break;
-                }
-                case '>': {
-                    int firstCodePoint = codePoints.next();
-                    if (codePoints.peek() == '=') {
-                        twoCharacters(tokens, codePoints, firstCodePoint, codePoints.next(), TokenType.GREATER_EQUAL, position);
+                case '>':
+                    if (next == '=') {
+                        twoCharacters(tokens, TokenType.GREATER_EQUAL, ">=", line, character);
+                        character += 2;
+                        index += 2;
                     } else {
-                        oneCharacter(tokens, codePoints, firstCodePoint, TokenType.GREATER, position);
+                        oneCharacter(tokens, TokenType.GREATER, ">", line, character++);
+                        index++;
                     }
                     break;
-                }
-                case '<': {
-                    int firstCodePoint = codePoints.next();
-                    if (codePoints.peek() == '=') {
-                        twoCharacters(tokens, codePoints, firstCodePoint, codePoints.next(), TokenType.LESS_EQUAL, position);
+                case '<':
+                    if (next == '=') {
+                        twoCharacters(tokens, TokenType.LESS_EQUAL, "<=", line, character);
+                        character += 2;
+                        index += 2;
                     } else {
-                        oneCharacter(tokens, codePoints, firstCodePoint, TokenType.LESS, position);
+                        oneCharacter(tokens, TokenType.LESS, "<", line, character++);
+                        index++;
                     }
                     break;
-                }
-                case '&': {
-                    int firstCodePoint = codePoints.next();
-                    if (codePoints.peek() == '&') {
-                        twoCharacters(tokens, codePoints, firstCodePoint, codePoints.next(), TokenType.LOGICAL_AND, position);
+                case '&':
+                    if (next == '&') {
+                        twoCharacters(tokens, TokenType.LOGICAL_AND, "&&", line, character);
+                        character += 2;
+                        index += 2;
                     } else {
-                        oneCharacter(tokens, codePoints, firstCodePoint, TokenType.TYPE_AND, position);
+                        oneCharacter(tokens, TokenType.TYPE_AND, "&", line, character++);
+                        index++;
                     }
                     break;
-                }
-                case '|': {
-                    int firstCodePoint = codePoints.next();
-                    if (codePoints.peek() == '|') {
-                        twoCharacters(tokens, codePoints, firstCodePoint, codePoints.next(), TokenType.LOGICAL_OR, position);
+                case '|':
+                    if (next == '|') {
+                        twoCharacters(tokens, TokenType.LOGICAL_OR, "||", line, character);
+                        character += 2;
+                        index += 2;
                     } else {
-                        oneCharacter(tokens, codePoints, firstCodePoint, TokenType.TYPE_OR, position);
+                        oneCharacter(tokens, TokenType.TYPE_OR, "|", line, character++);
+                        index++;
                     }
                     break;
-                }
-                case ':': {
-                    int firstCodePoint = codePoints.next();
-                    if (codePoints.peek() == ':') {
-                        twoCharacters(tokens, codePoints, firstCodePoint, codePoints.next(), TokenType.SCOPE_RESOLUTION, position);
+                case ':':
+                    if (next == ':') {
+                        twoCharacters(tokens, TokenType.SCOPE_RESOLUTION, "::", line, character);
+                        character += 2;
+                        index += 2;
                     } else {
-                        oneCharacter(tokens, codePoints, firstCodePoint, TokenType.TYPE, position);
+                        oneCharacter(tokens, TokenType.TYPE, ":", line, character++);
+                        index++;
                     }
                     break;
-                }
                 case ';':
-                    oneCharacter(tokens, codePoints, codePoints.next(), TokenType.SEMICOLON, position);
+                    oneCharacter(tokens, TokenType.SEMICOLON, ";", line, character++);
+                    index++;
                     break;
                 case '"':
                 {
                     // This is a string literal.
-                    Position start = position.copy();
-                    codePoints.next();
-                    position.character++;
+                    int startCharacter = character;
+                    index++;
+                    character++;
 
-                    StringBuilder content = new StringBuilder();
+                    int contentStart = index;
+                    boolean escaped = false;
                     boolean failed = false;
-                    int codePoint;
-                    while ((codePoint = codePoints.peek()) != '"') {
-                        if (codePoint == -1 || codePoint == '\n') {
+                    while (true) {
+                        char c = index < length ? input.charAt(index) : '\n';
+                        if (c == '"')
+                            break;
+                        if (c == '\n') {
                             messages.add(new Message(
-                                    new Range(start, position),
+                                    new Range(line, startCharacter, line, character),
                                     Message.MessageSeverity.ERROR,
                                     "Unclosed string literal"
                             ));
@@ -156,93 +423,90 @@ public class Lexer {
                             break;
                         }
 
-                        codePoints.next();
-                        position.character++;
-                        if (codePoint == '\\') {
+                        index += charCount(input, index);
+                        character++;
+                        if (c == '\\') {
                             // This is an escape sequence.
                             // TODO parse this
-                        } else {
-                            content.append(Character.toString(codePoint));
+                            escaped = true;
                         }
                     }
 
+                    String content = input.substring(contentStart, index);
+                    if (escaped)
+                        content = content.replace("\\", "");
+
                     if (!failed) {
-                        codePoints.next();  // Consume the end quote character.
-                        position.character++;
+                        index++;  // Consume the end quote character.
+                        character++;
                     }
 
-                    tokens.add(new Token(TokenType.STRING_LITERAL, content.toString(), new Range(start, position)));
+                    tokens.add(TokenType.STRING_LITERAL, output.intern(content), line, startCharacter, line, character);
                     break;
                 }
                 case '*':
-                {
-                    int firstCodePoint = codePoints.next();
-                    if (codePoints.peek() == '*') {
-                        codePoints.next();
-
+                    if (next == '*') {
                         // This is a documentation comment.
-                        Position start = position.copy();
-                        position.character += 2;
+                        int startLine = line, startCharacter = character;
+                        index += 2;
+                        character += 2;
 
-                        StringBuilder content = new StringBuilder();
+                        int contentStart = index;
+                        int contentEnd;
                         boolean failed = false;
-                        int codePoint;
                         while (true) {
-                            codePoint = codePoints.peek();
-
-                            if (codePoint == -1) {
+                            if (index > length) {
                                 messages.add(new Message(
-                                        new Range(start, position),
+                                        new Range(startLine, startCharacter, line, character),
                                         Message.MessageSeverity.ERROR,
                                         "Unclosed documentation comment"
                                 ));
+                                contentEnd = index;
                                 failed = true;
                                 break;
                             }
 
-                            codePoints.next();
-                            if (codePoint == '\n') {
-                                position.character = 0;
-                                position.line++;
+                            char c = index < length ? input.charAt(index) : '\n';
+                            index += charCount(input, index);
+                            if (c == '\n') {
+                                character = 0;
+                                line++;
+                                startLineInComment(output, index, length, line);
                             } else {
-                                position.character++;
+                                character++;
                             }
-                            if (codePoint == '*' && codePoints.peek() == '*') {
+                            if (c == '*' && index < length && input.charAt(index) == '*') {
+                                contentEnd = index - 1;
                                 break;
-                            } else {
-                                content.append(Character.toString(codePoint));
                             }
                         }
 
+                        // The content includes the implicit newline at the end of the file if the comment was unclosed.
+                        String content = contentEnd > length ? input.substring(contentStart) + "\n" : input.substring(contentStart, contentEnd);
+
                         if (!failed) {
-                            codePoints.next();  // Consume the end star character.
-                            position.character++;
+                            index++;  // Consume the end star character.
+                            character++;
                         }
 
-                        tokens.add(new Token(TokenType.DOCUMENTATION_COMMENT, content.toString(), new Range(start, position)));
+                        tokens.add(TokenType.DOCUMENTATION_COMMENT, content, startLine, startCharacter, line, character);
                     } else {
-                        oneCharacter(tokens, codePoints, firstCodePoint, TokenType.STAR, position);
+                        oneCharacter(tokens, TokenType.STAR, "*", line, character++);
+                        index++;
                     }
                     break;
-                }
                 case '/':
-                {
-                    int firstCodePoint = codePoints.next();
-                    if (codePoints.peek() == '*') {
-                        codePoints.next();
-
+                    if (next == '*') {
                         // This is a block comment.
-                        Position start = position.copy();
-                        position.character += 2;
+                        int startLine = line, startCharacter = character;
+                        index += 2;
+                        character += 2;
 
                         boolean failed = false;
-                        int codePoint;
                         while (true) {
-                            codePoint = codePoints.peek();
-
-                            if (codePoint == -1) {
+                            if (index > length) {
                                 messages.add(new Message(
-                                        new Range(start, position),
+                                        new Range(startLine, startCharacter, line, character),
                                         Message.MessageSeverity.ERROR,
                                         "Unclosed block comment"
                                 ));
@@ -250,72 +514,56 @@ public class Lexer {
                                 break;
                             }
 
-                            codePoints.next();
-                            if (codePoint == '\n') {
-                                position.character = 0;
-                                position.line++;
+                            char c = index < length ? input.charAt(index) : '\n';
+                            index += charCount(input, index);
+                            if (c == '\n') {
+                                character = 0;
+                                line++;
+                                startLineInComment(output, index, length, line);
                             } else {
-                                position.character++;
+                                character++;
                             }
-                            if (codePoint == '*' && codePoints.peek() == '/') {
+                            if (c == '*' && index < length && input.charAt(index) == '/') {
                                 break;
                             }
                         }
 
                         if (!failed) {
-                            codePoints.next();  // Consume the end star character.
-                            position.character++;
+                            index++;  // Consume the end slash character.
+                            character++;
                         }
-                    } else if (codePoints.peek() == '/') {
-                        codePoints.next();
-
-                        // This is a line comment.
-                        Position start = position.copy();
-                        position.character += 2;
-                        codePoints.next();
-
-                        int codePoint;
-                        while (codePoints.peek() != '\n') {
-                            codePoint = codePoints.next();
-
-                            if (codePoint == -1) {
-                                messages.add(new Message(
-                                        new Range(start, position),
-                                        Message.MessageSeverity.ERROR,
-                                        "Unclosed block comment"
-                                ));
-                                break;
-                            }
-
-                            position.character++;
+                    } else if (next == '/') {
+                        // This is a line comment. It ends at the next newline, which is always found because of the
+                        // implicit newline at the end of the file.
+                        index += 2;
+                        character += 2;
+                        while (index < length && input.charAt(index) != '\n') {
+                            index += charCount(input, index);
+                            character++;
                         }
                     } else {
-                        oneCharacter(tokens, codePoints, firstCodePoint, TokenType.SLASH, position);
+                        oneCharacter(tokens, TokenType.SLASH, "/", line, character++);
+                        index++;
                     }
                     break;
-                }
                 case '\n':
                     // Check to see if we need to input an implicit semicolon (using rules from https://golang.org/doc/effective_go.html#semicolons).
                     if (!tokens.isEmpty()) {
-                        Token previousToken = tokens.get(tokens.size() - 1);
+                        int previousToken = tokens.size() - 1;
                         // Ensure the token we're checking is on the same line as this newline character.
                         // This stops multiple semicolons being added when multiple newlines are used after a token.
-                        if (previousToken.getRange().end.line == position.line) {
-                            if (implicitSemicolonAfter(previousToken.type)) {
+                        if (tokens.endLine(previousToken) == line) {
+                            if (implicitSemicolonAfter(tokens.type(previousToken))) {
                                 // We should add an implicit semicolon.
-                                tokens.add(new Token(
-                                        TokenType.IMPLICIT_SEMICOLON,
-                                        "<end of line>",
-                                        new Range(position)
-                                ));
+                                tokens.add(TokenType.IMPLICIT_SEMICOLON, "<end of line>", line, character, line, character + 1);
                             }
-                            if (previousToken.type == TokenType.SEMICOLON) {
+                            if (tokens.type(previousToken) == TokenType.SEMICOLON) {
                                 // We should check if this semicolon is required or not.
                                 // Then, if it is unnecessary, we can alert the programmer.
                                 if (tokens.size() >= 2) {
-                                    if (implicitSemicolonAfter(tokens.get(tokens.size() - 2).type)) {
+                                    if (implicitSemicolonAfter(tokens.type(previousToken - 1))) {
                                         messages.add(new Message(
-                                                previousToken.getRange(),
+                                                tokens.range(previousToken),
                                                 Message.MessageSeverity.INFORMATION,
                                                 "This semicolon is unnecessary"
                                         ));
@@ -324,182 +572,63 @@ public class Lexer {
                             }
                         }
                     }
-                    position.line++;
-                    position.character = 0;
-                    codePoints.next();
+                    line++;
+                    character = 0;
+                    index++;
+                    if (index <= length)
+                        output.startLine(line, index);
                     break;
                 default:
                 {
                     // The character must be a keyword, identifier, whitespace character or number.
-                    if (Character.isWhitespace(peek)) {
-                        codePoints.next();
-                        position.character++;
-                    } else if (isIdentifierStart(peek)) {
+                    int codePoint = Character.isHighSurrogate(peek) ? input.codePointAt(index) : peek;
+                    if (Character.isWhitespace(codePoint)) {
+                        index += Character.charCount(codePoint);
+                        character++;
+                    } else if (isIdentifierStart(codePoint)) {
                         // This is an identifier.
-                        StringBuilder identifier = new StringBuilder();
-                        Position start = position.copy();
+                        int start = index, startCharacter = character;
                         do {
-                            identifier.append(Character.toString(codePoints.next()));
-                            position.character++;
-                        } while (codePoints.peek() != -1 && isIdentifierPart(codePoints.peek()));
-                        TokenType type;
-                        switch (identifier.toString()) {
-                            case "struct":
-                                type = TokenType.KW_STRUCT;
-                                break;
-                            case "func":
-                                type = TokenType.KW_FUNC;
-                                break;
-                            case "before":
-                                type = TokenType.KW_BEFORE;
-                                break;
-                            case "after":
-                                type = TokenType.KW_AFTER;
-                                break;
-                            case "native":
-                                type = TokenType.KW_NATIVE;
-                                break;
-                            case "pure":
-                                type = TokenType.KW_PURE;
-                                break;
-                            case "ui":
-                                type = TokenType.KW_UI;
-                                break;
-                            case "get":
-                                type = TokenType.KW_GET;
-                                break;
-                            case "set":
-                                type = TokenType.KW_SET;
-                                break;
-                            case "trait":
-                                type = TokenType.KW_TRAIT;
-                                break;
-                            case "impl":
-                                type = TokenType.KW_IMPL;
-                                break;
-                            case "action":
-                                type = TokenType.KW_ACTION;
-                                break;
-                            case "shortcut":
-                                type = TokenType.KW_SHORTCUT;
-                                break;
-                            case "menu":
-                                type = TokenType.KW_MENU;
-                                break;
-                            case "import":
-                                type = TokenType.KW_IMPORT;
-                                break;
-                            case "let":
-                                type = TokenType.KW_LET;
-                                break;
-                            case "return":
-                                type = TokenType.KW_RETURN;
-                                break;
-                            case "new":
-                                type = TokenType.KW_NEW;
-                                break;
-                            case "break":
-                                type = TokenType.KW_BREAK;
-                                break;
-                            case "continue":
-                                type = TokenType.KW_CONTINUE;
-                                break;
-                            case "result":
-                                type = TokenType.KW_RESULT;
-                                break;
-                            case "this":
-                                type = TokenType.KW_THIS;
-                                break;
-                            case "Int":
-                                type = TokenType.T_INT;
-                                break;
-                            case "Bool":
-                                type = TokenType.T_BOOL;
-                                break;
-                            case "String":
-                                type = TokenType.T_STRING;
-                                break;
-                            case "Text":
-                                type = TokenType.T_TEXT;
-                                break;
-                            case "Entity":
-                                type = TokenType.T_ENTITY;
-                                break;
-                            case "Ratio":
-                                type = TokenType.T_RATIO;
-                                break;
-                            case "Col":
-                                type = TokenType.T_COL;
-                                break;
-                            case "Pos":
-                                type = TokenType.T_POS;
-                                break;
-                            case "Texture":
-                                type = TokenType.T_TEXTURE;
-                                break;
-                            case "Player":
-                                type = TokenType.T_PLAYER;
-                                break;
-                            case "This":
-                                type = TokenType.T_THIS;
-                                break;
-                            case "Func":
-                                type = TokenType.T_FUNC;
-                                break;
-                            case "true":
-                                type = TokenType.KW_TRUE;
-                                break;
-                            case "false":
-                                type = TokenType.KW_FALSE;
-                                break;
-                            case "just":
-                                type = TokenType.KW_JUST;
-                                break;
-                            case "null":
-                                type = TokenType.KW_NULL;
-                                break;
-                            case "if":
-                                type = TokenType.KW_IF;
-                                break;
-                            case "else":
-                                type = TokenType.KW_ELSE;
-                                break;
-                            case "for":
-                                type = TokenType.KW_FOR;
-                                break;
-                            case "in":
-                                type = TokenType.KW_IN;
-                                break;
-                            case "while":
-                                type = TokenType.KW_WHILE;
-                                break;
-                            default:
-                                type = TokenType.IDENTIFIER;
-                        }
-                        tokens.add(new Token(type, identifier.toString(), new Range(start, position)));
-                    } else if (Character.isDigit(peek)) {
+                            index += charCount(input, index);
+                            character++;
+                        } while (index < length && isIdentifierPart(input.codePointAt(index)));
+                        String keyword = keyword(input, start, index);
+                        if (keyword != null)
+                            tokens.add(KEYWORDS.get(keyword), keyword, line, startCharacter, line, character);
+                        else
+                            tokens.add(TokenType.IDENTIFIER, output.identifier(input.substring(start, index)), line, startCharacter, line, character);
+                    } else if (Character.isDigit(codePoint)) {
                         // This is a number.
-                        StringBuilder identifier = new StringBuilder();
-                        Position start = position.copy();
+                        int start = index, startCharacter = character;
                         do {
-                            identifier.append(Character.toString(codePoints.next()));
-                            position.character++;
-                        } while (codePoints.peek() != -1 && Character.isDigit(codePoints.peek()));
-                        tokens.add(new Token(TokenType.INTEGER_LITERAL, identifier.toString(), new Range(start, position)));
+                            index += charCount(input, index);
+                            character++;
+                        } while (index < length && Character.isDigit(input.codePointAt(index)));
+                        tokens.add(TokenType.INTEGER_LITERAL, output.intern(input.substring(start, index)), line, startCharacter, line, character);
                     } else {
                         messages.add(new Message(
-                                new Range(position),
+                                new Range(line, character, line, character + 1),
                                 Message.MessageSeverity.ERROR,
-                                "Character '" + Character.toString(peek) + "' (U+" + String.format("%04x", peek) + ") not recognised"
+                                "Character '" + Character.toString(codePoint) + "' (U+" + String.format("%04x", codePoint) + ") not recognised"
                         ));
-                        position.character++;
-                        codePoints.next();
+                        character++;
+                        index += Character.charCount(codePoint);
                     }
                 }
             }
         }
 
-        return Messenger.success(new TokenStream(tokens), messages);
+        return -1;
+    }
+
+    /**
+     * Records that a newline was read inside a comment.
+     */
+    private void startLineInComment(Output output, int index, int length, int line) {
+        if (index <= length) {
+            output.startLine(line, index);
+            output.linesInComments.set(line);
+        }
     }
 
     /**
@@ -540,6 +669,14 @@ public class Lexer {
         }
     }
 
+    /**
+     * @param end The number of tokens to consider.
+     * @return True if there is an implicit semicolon after the last of the first <code>end</code> tokens.
+     */
+    private boolean implicitSemicolonAfterLast(TokenBuffer tokens, int end) {
+        return end > 0 && implicitSemicolonAfter(tokens.type(end - 1));
+    }
+
     private boolean isIdentifierStart(int codePoint) {
         return Character.isLetter(codePoint);
     }
@@ -548,17 +685,32 @@ public class Lexer {
         return Character.isLetter(codePoint) || Character.isDigit(codePoint) || codePoint == '_';
     }
 
-    private void oneCharacter(ArrayList<Token> tokens, CodePointIterator codePoints, int codePoint, TokenType type, Position position) {
-        tokens.add(new Token(type,
-                Character.toString(codePoint),
-                new Range(position)));
-        position.character++;
+    /**
+     * @return The number of UTF-16 code units in the code point at the given index.
+     */
+    private static int charCount(String input, int index) {
+        return index + 1 < input.length() && Character.isHighSurrogate(input.charAt(index)) && Character.isLowSurrogate(input.charAt(index + 1)) ? 2 : 1;
+    }
+
+    /**
+     * @return The keyword in the given part of the input, or null if it is not a keyword.
+     */
+    private static String keyword(String input, int start, int end) {
+        int length = end - start;
+        if (length >= KEYWORDS_BY_LENGTH.length)
+            return null;
+        for (String keyword : KEYWORDS_BY_LENGTH[length]) {
+            if (input.startsWith(keyword, start))
+                return keyword;
+        }
+        return null;
+    }
+
+    private void oneCharacter(TokenBuffer tokens, TokenType type, String contents, int line, int character) {
+        tokens.add(type, contents, line, character, line, character + 1);
     }
 
-    private void twoCharacters(ArrayList<Token> tokens, CodePointIterator codePoints, int codePoint1, int codePoint2, TokenType type, Position position) {
-        tokens.add(new Token(type,
-                Character.toString(codePoint1) + Character.toString(codePoint2),
-                new Range(position)));
-        position.character += 2;
+    private void twoCharacters(TokenBuffer tokens, TokenType type, String contents, int line, int character) {
+        tokens.add(type, contents, line, character, line, character + 1);
     }
 }
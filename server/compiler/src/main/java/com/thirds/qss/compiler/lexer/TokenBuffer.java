@@ -0,0 +1,125 @@
+package com.thirds.qss.compiler.lexer;
+
+import com.thirds.qss.compiler.Position;
+import com.thirds.qss.compiler.Range;
+
+import java.util.Arrays;
+
+/**
+ * A list of tokens stored as parallel arrays rather than as {@link Token} objects. The lexer's output is kept for
+ * every script that is being edited, and this takes several times less memory than a list of tokens (each of which
+ * holds a range and two positions). Token objects are only created when the parser asks for them, see
+ * {@link TokenStream}.
+ *
+ * Each position is packed into a long, see {@link Position#pack}.
+ */
+public class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private byte[] types;
+    private long[] starts, ends;
+    /**
+     * The lexer gives equal contents the same string, so this acts as a table of the distinct strings in the script.
+     */
+    private String[] contents;
+    private int size;
+
+    public TokenBuffer() {
+        this(64);
+    }
+
+    public TokenBuffer(int initialCapacity) {
+        types = new byte[initialCapacity];
+        starts = new long[initialCapacity];
+        ends = new long[initialCapacity];
+        contents = new String[initialCapacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void add(TokenType type, String contents, int startLine, int startCharacter, int endLine, int endCharacter) {
+        ensureCapacity(size + 1);
+        types[size] = (byte) type.ordinal();
+        starts[size] = Position.pack(startLine, startCharacter);
+        ends[size] = Position.pack(endLine, endCharacter);
+        this.contents[size] = contents;
+        size++;
+    }
+
+    /**
+     * Copies some tokens from another buffer onto the end of this buffer.
+     * @param start The index of the first token to copy.
+     * @param end The index after the last token to copy.
+     * @param lineDelta How many lines to move the copied tokens by.
+     */
+    public void addAll(TokenBuffer other, int start, int end, int lineDelta) {
+        int count = end - start;
+        ensureCapacity(size + count);
+        System.arraycopy(other.types, start, types, size, count);
+        System.arraycopy(other.starts, start, starts, size, count);
+        System.arraycopy(other.ends, start, ends, size, count);
+        System.arraycopy(other.contents, start, contents, size, count);
+        if (lineDelta != 0) {
+            long delta = (long) lineDelta << 32;
+            for (int i = size; i < size + count; i++) {
+                starts[i] += delta;
+                ends[i] += delta;
+            }
+        }
+        size += count;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > types.length) {
+            int newCapacity = Math.max(capacity, types.length * 2);
+            types = Arrays.copyOf(types, newCapacity);
+            starts = Arrays.copyOf(starts, newCapacity);
+            ends = Arrays.copyOf(ends, newCapacity);
+            contents = Arrays.copyOf(contents, newCapacity);
+        }
+    }
+
+    public TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    public String contents(int index) {
+        return contents[index];
+    }
+
+    public int startLine(int index) {
+        return Position.line(starts[index]);
+    }
+
+    public int endLine(int index) {
+        return Position.line(ends[index]);
+    }
+
+    public Range range(int index) {
+        return new Range(starts[index], ends[index]);
+    }
+
+    /**
+     * Creates a new token object for the token at the given index.
+     */
+    public Token get(int index) {
+        return new Token(type(index), contents[index], range(index));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(get(i));
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -3,20 +3,37 @@ package com.thirds.qss.compiler.lexer;
 import com.thirds.qss.QssLogger;
 import com.thirds.qss.compiler.Position;
 
-import java.util.ArrayList;
 import java.util.Optional;
 
 public class TokenStream {
-    private final ArrayList<Token> tokens;
+    private final TokenBuffer tokens;
+    /**
+     * The token objects that have been created so far, so that the same token is returned each time it is read.
+     */
+    private final Token[] views;
     private int currentIndex = -1;
+    /**
+     * The index of the furthest token that has been looked at, or the number of tokens if the parser has looked past
+     * the end of the file. The parser uses this to tell which tokens a node depended on.
+     */
+    private int furthestExamined = -1;
 
-    public TokenStream(ArrayList<Token> tokens) {
+    public TokenStream(TokenBuffer tokens) {
         this.tokens = tokens;
+        this.views = new Token[tokens.size()];
+    }
+
+    private Token get(int index) {
+        Token token = views[index];
+        if (token == null)
+            views[index] = token = tokens.get(index);
+        return token;
     }
 
     public Optional<Token> peek() {
+        examine(currentIndex + 1);
         if (hasNext())
-            return Optional.of(tokens.get(currentIndex + 1));
+            return Optional.of(get(currentIndex + 1));
         return Optional.empty();
     }
 
@@ -24,14 +41,83 @@ public class TokenStream {
      * @param peekAmount How many tokens to peek ahead?
      */
     public Optional<Token> peek(int peekAmount) {
+        examine(currentIndex + peekAmount);
         if (currentIndex + peekAmount < tokens.size())
-            return Optional.of(tokens.get(currentIndex + peekAmount));
+            return Optional.of(get(currentIndex + peekAmount));
         return Optional.empty();
     }
 
     public Token next() {
         currentIndex++;
-        return tokens.get(currentIndex);
+        examine(currentIndex);
+        return get(currentIndex);
+    }
+
+    private void examine(int index) {
+        if (index > furthestExamined)
+            furthestExamined = Math.min(index, tokens.size());
+    }
+
+    /**
+     * @return The index of the next token to be read.
+     */
+    public int index() {
+        return currentIndex + 1;
+    }
+
+    /**
+     * @return The index of the furthest token that has been looked at, or the number of tokens if the stream has been
+     * looked at past its end.
+     */
+    public int furthestExamined() {
+        return furthestExamined;
+    }
+
+    /**
+     * Skips tokens that have already been parsed, e.g. when a node is reused from a previous parse.
+     * @param index The index of the next token to be read.
+     * @param furthestExamined The furthest token looked at while parsing the skipped tokens.
+     */
+    public void skipTo(int index, int furthestExamined) {
+        currentIndex = index - 1;
+        examine(furthestExamined);
+    }
+
+    /**
+     * Skips the next token, which must be of the given opening type, and every token up to and including the closing
+     * token that balances it. No token objects are created for the skipped tokens.
+     * @return The index after the closing token, or -1 if the next token is not an opening token or the tokens did not
+     * balance before the end of the stream, in which case nothing is skipped.
+     */
+    public int skipBalanced(TokenType open, TokenType close) {
+        if (!hasNext() || tokens.type(currentIndex + 1) != open)
+            return -1;
+        int depth = 0;
+        for (int i = currentIndex + 1; i < tokens.size(); i++) {
+            TokenType type = tokens.type(i);
+            if (type == open) {
+                depth++;
+            } else if (type == close) {
+                depth--;
+            }
+            if (depth == 0) {
+                currentIndex = i;
+                examine(i);
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param start The index of the first token to include.
+     * @param end The index after the last token to include.
+     * @return A new stream of the given tokens, which keep their positions in the script.
+     */
+    public TokenStream slice(int start, int end) {
+        TokenBuffer slice = new TokenBuffer(Math.max(end - start, 1));
+        slice.addAll(tokens, start, end, 0);
+        return new TokenStream(slice);
     }
 
     public boolean hasNext() {
@@ -39,23 +125,29 @@ public class TokenStream {
     }
 
     /**
-     * Retrieves the start position of the next token to be read.
+     * Retrieves the start position of the next token to be read, packed as in {@link Position#pack}.
      */
-    public Position currentPosition() {
+    public long currentPosition() {
         if (tokens.isEmpty()) {
-            return new Position(0, 0);
+            return Position.pack(0, 0);
         }
-        return peek().map(tk -> tk.getRange().start).orElseGet(() -> tokens.get(tokens.size() - 1).getRange().end);
+        examine(currentIndex + 1);
+        if (hasNext())
+            return get(currentIndex + 1).getRange().getPackedStart();
+        return get(tokens.size() - 1).getRange().getPackedEnd();
     }
 
     /**
-     * Retrieves the end position of the previous token that was read.
+     * Retrieves the end position of the previous token that was read, packed as in {@link Position#pack}.
      */
-    public Position currentEndPosition() {
+    public long currentEndPosition() {
         if (tokens.size() < 2) {
-            return new Position(0, 0);
+            return Position.pack(0, 0);
         }
-        return peek(0).map(tk -> tk.getRange().end).orElseGet(() -> tokens.get(tokens.size() - 1).getRange().end);
+        examine(currentIndex);
+        if (currentIndex < tokens.size())
+            return get(currentIndex).getRange().getPackedEnd();
+        return get(tokens.size() - 1).getRange().getPackedEnd();
     }
 
     public void rewind() {
@@ -0,0 +1,80 @@
+package com.thirds.qss.compiler.parser;
+
+import com.thirds.qss.compiler.Message;
+import com.thirds.qss.compiler.lexer.LexedScript;
+import com.thirds.qss.compiler.tree.Documentable;
+
+import java.util.ArrayList;
+
+/**
+ * The top-level items (structs, funcs, hooks, traits, impls and actions) that were parsed from a script, along with the
+ * range of tokens they were parsed from. This is kept for scripts that are being edited, so that after an edit only the items
+ * whose tokens changed need to be parsed again (see {@link Parser#parseIncrementally}).
+ */
+public class ParsedItems {
+    static class Item {
+        /**
+         * The index of the item's first token, and the index after its last token.
+         */
+        final int start, end;
+        /**
+         * The index of the furthest token the parser looked at while parsing this item. If that token changes,
+         * the item might be parsed differently.
+         */
+        final int furthestExamined;
+        /**
+         * Null if the item could not be parsed.
+         */
+        final Documentable<?> documentable;
+        final ArrayList<Message> messages;
+
+        Item(int start, int end, int furthestExamined, Documentable<?> documentable, ArrayList<Message> messages) {
+            this.start = start;
+            this.end = end;
+            this.furthestExamined = furthestExamined;
+            this.documentable = documentable;
+            this.messages = messages;
+        }
+    }
+
+    /**
+     * In order of their start index.
+     */
+    final ArrayList<Item> items = new ArrayList<>();
+    /**
+     * The parser that parses the script next must not generate variable names that are used by the items it reuses.
+     */
+    int nextUniqueVariableID;
+
+    /**
+     * Finds an item that can be reused at the given token index, after the script was relexed.
+     *
+     * Items whose tokens only moved to different lines are still reused. The caller must move the item by
+     * {@link LexedScript#lineDeltaAt} lines (see {@link com.thirds.qss.compiler.tree.Node#moveLines}).
+     * @return Null if no item in this previous parse started at the same token, or if any of the tokens the item
+     * depended on were changed.
+     */
+    Item find(LexedScript lexed, int index) {
+        int previousIndex = lexed.previousIndexOf(index, index);
+        if (previousIndex < 0)
+            return null;
+
+        int low = 0, high = items.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (items.get(mid).start < previousIndex)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        if (low == items.size())
+            return null;
+
+        Item item = items.get(low);
+        if (item.start != previousIndex || item.documentable == null)
+            return null;
+        if (lexed.previousIndexOf(index, index + item.furthestExamined - item.start) != previousIndex)
+            return null;
+        return item;
+    }
+}
@@ -5,6 +5,7 @@ import com.thirds.qss.QualifiedName;
 import com.thirds.qss.ShortcutKey;
 import com.thirds.qss.VariableType;
 import com.thirds.qss.compiler.*;
+import com.thirds.qss.compiler.lexer.LexedScript;
 import com.thirds.qss.compiler.lexer.Token;
 import com.thirds.qss.compiler.lexer.TokenStream;
 import com.thirds.qss.compiler.lexer.TokenType;
@@ -14,6 +15,8 @@ import com.thirds.qss.compiler.tree.script.*;
 import com.thirds.qss.compiler.tree.statement.*;
 import com.thirds.qss.compiler.type.FuncType;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -31,8 +34,40 @@ public class Parser {
     private int nextUniqueVariableID;
     private final ScriptPath filePath;
 
+    /**
+     * The directory that the file path is relative to. This is used to find the bundle.toml file that the script
+     * belongs to.
+     */
+    private final Path baseDir;
+
+    /**
+     * When parsing incrementally, the lexer's output for the script, and the items from the previous parse that may
+     * be reused. The previous items are null if the script was not parsed before.
+     */
+    private LexedScript lexed;
+    private ParsedItems previousItems;
+    /**
+     * When parsing incrementally, the items that were parsed (or reused) this time. Null otherwise.
+     */
+    private ParsedItems items;
+    /**
+     * True while parsing a skeleton, see {@link #parseSkeleton}.
+     */
+    private boolean skeleton;
+
+    /**
+     * @param filePath The script's path, relative to the current working directory.
+     */
     public Parser(ScriptPath filePath) {
+        this(filePath, Paths.get(""));
+    }
+
+    /**
+     * @param filePath The script's path, relative to the base directory (usually the root of the bundle being compiled).
+     */
+    public Parser(ScriptPath filePath, Path baseDir) {
         this.filePath = filePath;
+        this.baseDir = baseDir;
     }
 
     public Messenger<Script> parse(TokenStream tokens) {
@@ -47,6 +82,51 @@ public class Parser {
         return script;
     }
 
+    /**
+     * Parses a script that is being edited, reusing the top-level items from the previous parse whose tokens (and the
+     * tokens the parser looked ahead at) did not change or move.
+     * After this, {@link #getItems} returns the items to give to the next incremental parse.
+     * Reused items are shared with the previous parse's script, and that script should not be used afterwards.
+     * @param lexed The lexer's output. If this was relexed, the previous items must be from parsing the output it was
+     *              relexed from.
+     * @param previousItems Null if the script was not parsed before.
+     */
+    public Messenger<Script> parseIncrementally(LexedScript lexed, ParsedItems previousItems) {
+        this.lexed = lexed;
+        this.previousItems = previousItems;
+        if (previousItems != null)
+            nextUniqueVariableID = previousItems.nextUniqueVariableID;
+        items = new ParsedItems();
+        Messenger<Script> script = lexed.toMessenger().map(this::parse);
+        items.nextUniqueVariableID = nextUniqueVariableID;
+        return script;
+    }
+
+    /**
+     * Parses only the parts of a script that can be indexed: imports, and the signatures of every item.
+     * The tokens of each func block are skipped (only checking that the braces balance), and the block is parsed the
+     * first time {@link FuncBlock#getBlock} is called. This is several times faster than {@link #parse}, and the
+     * skipped blocks take far less memory than their syntax trees, so it is used for scripts that are only indexed.
+     *
+     * A script whose func blocks contain syntax errors still parses successfully, since the errors are not found until
+     * the block is parsed. The messages from parsing a skipped block are discarded.
+     */
+    public Messenger<Script> parseSkeleton(TokenStream tokens) {
+        skeleton = true;
+        try {
+            return parse(tokens);
+        } finally {
+            skeleton = false;
+        }
+    }
+
+    /**
+     * @return The items from the last call to {@link #parseIncrementally}.
+     */
+    public ParsedItems getItems() {
+        return items;
+    }
+
     private String generateUniqueVariableName() {
         nextUniqueVariableID++;
         return "__unique" + nextUniqueVariableID + "__";
@@ -56,11 +136,11 @@ public class Parser {
 
     @SuppressWarnings("unchecked")
     private Messenger<Script> parseScript(TokenStream tokens) {
-        Position start = tokens.currentPosition();
+        long start = tokens.currentPosition();
 
         ListMessenger<Import> imports = parseGreedy(() -> parseImport(tokens));
 
-        ListMessenger<Documentable<?>> items = parseGreedy(() -> parseItem(tokens));
+        ListMessenger<Documentable<?>> items = parseGreedy(() -> parseOrReuseItem(tokens));
 
         return imports.map(imports2 -> items.map(items2 -> {
             ArrayList<Documentable<Struct>> structs = new ArrayList<>();
@@ -104,7 +184,7 @@ public class Parser {
                 String lastSegment = packagePath.lastSegment();
                 packagePath = packagePath.trimLastSegment();
 
-                if (packagePath.toPath().resolve("bundle.toml").toFile().isFile()) {
+                if (baseDir.resolve(packagePath.toPath()).resolve("bundle.toml").toFile().isFile()) {
                     packageNameResolved = true;
                     break;
                 }
@@ -139,6 +219,45 @@ public class Parser {
         return Optional.empty();
     }
 
+    /**
+     * When parsing incrementally, reuses the item from the previous parse that starts at the next token if possible,
+     * and records the item that was parsed.
+     */
+    private Optional<Messenger<Documentable<?>>> parseOrReuseItem(TokenStream tokens) {
+        if (items == null)
+            return parseItem(tokens);
+
+        int start = tokens.index();
+        if (previousItems != null && tokens.hasNext()) {
+            ParsedItems.Item previous = previousItems.find(lexed, start);
+            if (previous != null) {
+                int indexDelta = start - previous.start;
+                tokens.skipTo(previous.end + indexDelta, previous.furthestExamined + indexDelta);
+                ArrayList<Message> messages = previous.messages;
+                int lineDelta = lexed.lineDeltaAt(start);
+                if (lineDelta != 0) {
+                    // Lines were inserted or removed above the item, so move it rather than parsing it again.
+                    LineMove move = new LineMove(filePath, previous.documentable.getRange(), lineDelta);
+                    previous.documentable.moveLines(move);
+                    messages = new ArrayList<>(messages.size());
+                    for (Message message : previous.messages) {
+                        messages.add(move.apply(message));
+                    }
+                }
+                items.items.add(new ParsedItems.Item(start, previous.end + indexDelta, previous.furthestExamined + indexDelta,
+                        previous.documentable, messages));
+                return Optional.of(Messenger.success(previous.documentable, new ArrayList<>(messages)));
+            }
+        }
+
+        Optional<Messenger<Documentable<?>>> item = parseItem(tokens);
+        item.ifPresent(parsed -> items.items.add(new ParsedItems.Item(
+                start, tokens.index(), tokens.furthestExamined(),
+                parsed.getValue().orElse(null), new ArrayList<>(parsed.getMessages())
+        )));
+        return item;
+    }
+
     private Optional<Messenger<Documentable<?>>> parseItem(TokenStream tokens) {
         Token docs;
         if (tokens.peek().isPresent() && tokens.peek().get().type == TokenType.DOCUMENTATION_COMMENT) {
@@ -191,7 +310,7 @@ public class Parser {
         if (tokens.peek().isEmpty() || tokens.peek().get().type != TokenType.KW_STRUCT)
             return Optional.empty();
 
-        Position start = tokens.currentPosition();
+        long start = tokens.currentPosition();
 
         return Optional.of(parseMulti(List.of(
                 () -> consumeToken(tokens, TokenType.KW_STRUCT),    // 0
@@ -247,7 +366,7 @@ public class Parser {
         if (tokens.peek().isEmpty() || tokens.peek().get().type != TokenType.KW_FUNC)
             return Optional.empty();
 
-        Position start = tokens.currentPosition();
+        long start = tokens.currentPosition();
 
         return Optional.of(parseMulti(List.of(
                 () -> consumeToken(tokens, TokenType.KW_FUNC),      // 0
@@ -277,7 +396,7 @@ public class Parser {
         if (tokens.peek().isEmpty() || (tokens.peek().get().type != TokenType.KW_BEFORE && tokens.peek().get().type != TokenType.KW_AFTER))
             return Optional.empty();
 
-        Position start = tokens.currentPosition();
+        long start = tokens.currentPosition();
 
         Token time = tokens.next();
 
@@ -472,7 +591,7 @@ public class Parser {
 
     @SuppressWarnings("unchecked")
     private Messenger<ParamList> parseParamList(TokenStream tokens) {
-        Position start = tokens.currentPosition();
+        long start = tokens.currentPosition();
         return parseMulti(List.of(
                 () -> consumeToken(tokens, TokenType.LPARENTH),     // 0
                 () -> parseParamListInternal(tokens),               // 1
@@ -506,9 +625,33 @@ public class Parser {
                 return Messenger.success(new FuncBlock(totalRange, null));
             });
         }
+        if (skeleton) {
+            long blockStart = tokens.currentPosition();
+            int start = tokens.index();
+            int end = tokens.skipBalanced(TokenType.LBRACE, TokenType.RBRACE);
+            // If the braces don't balance, parse the block now so that it fails just as it would have.
+            if (end >= 0) {
+                // Copy the block's tokens, so that the rest of the script's tokens can be discarded.
+                TokenStream block = tokens.slice(start, end);
+                Range blockRange = new Range(blockStart, tokens.currentEndPosition());
+                return Messenger.success(FuncBlock.unparsed(new Range(tokens.currentPosition()),
+                        () -> parseSkippedBlock(block, blockRange)));
+            }
+        }
         return parseCompoundStatement(tokens).map(block -> Messenger.success(new FuncBlock(new Range(tokens.currentPosition()), block)));
     }
 
+    /**
+     * Parses a func block that was skipped by {@link #parseSkeleton}. This may be called from any thread.
+     * Messages are discarded, since the script they belong to has already been parsed.
+     * @param block The block's tokens, from its opening brace to its closing brace.
+     * @return An empty block if the block could not be parsed.
+     */
+    private synchronized CompoundStatement parseSkippedBlock(TokenStream block, Range blockRange) {
+        return parseCompoundStatement(block).getValue()
+                .orElseGet(() -> new CompoundStatement(blockRange, new ArrayList<>()));
+    }
+
     /**
      * <code>Trait := "trait" Identifier "{" Func* "}"</code>
      * @return Null if the token stream did not represent a trait.
@@ -518,7 +661,7 @@ public class Parser {
         if (tokens.peek().isEmpty() || tokens.peek().get().type != TokenType.KW_TRAIT)
             return Optional.empty();
 
-        Position start = tokens.currentPosition();
+        long start = tokens.currentPosition();
 
         return Optional.of(parseMulti(List.of(
                 () -> consumeToken(tokens, TokenType.KW_TRAIT),     // 0
@@ -558,7 +701,7 @@ public class Parser {
         if (tokens.peek().isEmpty() || tokens.peek().get().type != TokenType.KW_FUNC)
             return Optional.empty();
 
-        Position start = tokens.currentPosition();
+        long start = tokens.currentPosition();
 
         return Optional.of(parseMulti(List.of(
                 () -> consumeToken(tokens, TokenType.KW_FUNC),      // 0
@@ -591,7 +734,7 @@ public class Parser {
         if (tokens.peek().isEmpty() || tokens.peek().get().type != TokenType.KW_IMPL)
             return Optional.empty();
 
-        Position start = tokens.currentPosition();
+        long start = tokens.currentPosition();
 
         return Optional.of(parseMulti(List.of(
                 () -> consumeToken(tokens, TokenType.KW_IMPL),      // 0
@@ -639,7 +782,7 @@ public class Parser {
         if (tokens.peek().isEmpty() || tokens.peek().get().type != TokenType.KW_ACTION)
             return Optional.empty();
 
-        Position start = tokens.currentPosition();
+        long start = tokens.currentPosition();
 
         return Optional.of(parseMulti(List.of(
                 () -> consumeToken(tokens, TokenType.KW_ACTION),    // 0
@@ -1592,7 +1735,7 @@ public class Parser {
      * Must start with an IDENTIFIER token.
      */
     private Messenger<NameLiteral> parseName(TokenStream tokens) {
-        Position start = tokens.currentPosition();
+        long start = tokens.currentPosition();
         ListMessenger<Token> segments = new ListMessenger<>();
         segments.add(consumeToken(tokens, TokenType.IDENTIFIER));
         while (segments.getValue().isPresent()  // ensure we haven't already errored by consuming the wrong token
@@ -0,0 +1,99 @@
+package com.thirds.qss.compiler.resolve;
+
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.collect.SetMultimap;
+import com.thirds.qss.BundleQualifiedName;
+import com.thirds.qss.QualifiedName;
+import com.thirds.qss.compiler.ScriptPath;
+import com.thirds.qss.protos.IndexProtos;
+
+import java.util.*;
+
+/**
+ * Records which packages each script resolved names into. The {@link Resolver} adds an edge whenever it
+ * successfully resolves a name, so when the definitions in a package change, the compiler can find exactly the
+ * scripts whose indices, symbol maps and deduced types might be out of date.
+ *
+ * Scripts may be resolved on several threads at once (see {@link com.thirds.qss.compiler.Compiler#compileAll}),
+ * so every method is synchronized.
+ */
+public class DependencyGraph {
+    /**
+     * Maps scripts onto the packages they resolved names into.
+     */
+    private final SetMultimap<ScriptPath, BundleQualifiedName> dependencies = MultimapBuilder.hashKeys().hashSetValues().build();
+
+    /**
+     * Maps packages onto the scripts that resolved names into them. This is the reverse of {@link #dependencies}.
+     */
+    private final SetMultimap<BundleQualifiedName, ScriptPath> dependents = MultimapBuilder.hashKeys().hashSetValues().build();
+
+    /**
+     * Scripts that referred to a name that could not be resolved. Any name added to any package might resolve it.
+     */
+    private final Set<ScriptPath> unresolved = new HashSet<>();
+
+    public synchronized void recordResolved(ScriptPath script, BundleQualifiedName thePackage) {
+        if (dependencies.put(script, thePackage))
+            dependents.put(thePackage, script);
+    }
+
+    public synchronized void recordUnresolved(ScriptPath script) {
+        unresolved.add(script);
+    }
+
+    /**
+     * Forgets every dependency of the given script. Call this before the script is resolved again from scratch.
+     */
+    public synchronized void clear(ScriptPath script) {
+        for (BundleQualifiedName thePackage : dependencies.removeAll(script)) {
+            dependents.remove(thePackage, script);
+        }
+        unresolved.remove(script);
+    }
+
+    /**
+     * @param namesChanged True if a name was added to or removed from the package. If so, scripts with unresolved
+     *                     names are also returned.
+     * @return The scripts that may need to be resolved again because the definitions in the given package changed.
+     */
+    public synchronized Set<ScriptPath> getDependents(BundleQualifiedName thePackage, boolean namesChanged) {
+        Set<ScriptPath> result = new HashSet<>(dependents.get(thePackage));
+        if (namesChanged)
+            result.addAll(unresolved);
+        return result;
+    }
+
+    /**
+     * Converts the dependencies of the given scripts into a form that can be cached alongside their index.
+     */
+    public synchronized List<IndexProtos.ScriptDependencies> serialise(Collection<ScriptPath> scripts) {
+        List<IndexProtos.ScriptDependencies> result = new ArrayList<>(scripts.size());
+        for (ScriptPath script : scripts) {
+            IndexProtos.ScriptDependencies.Builder b = IndexProtos.ScriptDependencies.newBuilder()
+                    .setScript(script.toString())
+                    .setUnresolved(unresolved.contains(script));
+            for (BundleQualifiedName thePackage : dependencies.get(script)) {
+                b.addPackages(IndexProtos.ScriptDependencies.Package.newBuilder()
+                        .setBundle(thePackage.getBundle())
+                        .setName(thePackage.getName().toProtobufName()));
+            }
+            result.add(b.build());
+        }
+        return result;
+    }
+
+    /**
+     * Restores dependencies that were cached using {@link #serialise}.
+     */
+    public synchronized void restore(List<IndexProtos.ScriptDependencies> cached) {
+        for (IndexProtos.ScriptDependencies scriptDependencies : cached) {
+            ScriptPath script = new ScriptPath(scriptDependencies.getScript());
+            for (IndexProtos.ScriptDependencies.Package thePackage : scriptDependencies.getPackagesList()) {
+                recordResolved(script, new BundleQualifiedName(thePackage.getBundle(), new QualifiedName(thePackage.getName())));
+            }
+            if (scriptDependencies.getUnresolved())
+                recordUnresolved(script);
+        }
+    }
+}
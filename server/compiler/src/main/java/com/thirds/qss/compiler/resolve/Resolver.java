@@ -10,6 +10,7 @@ import com.thirds.qss.compiler.indexer.Index;
 import com.thirds.qss.compiler.indexer.Indices;
 import com.thirds.qss.compiler.indexer.NameIndex;
 import com.thirds.qss.compiler.indexer.NameIndices;
+import com.thirds.qss.compiler.indexer.SimpleNameIndex;
 import com.thirds.qss.compiler.tree.NameLiteral;
 import com.thirds.qss.compiler.tree.Node;
 import com.thirds.qss.compiler.tree.Script;
@@ -18,16 +19,39 @@ import com.thirds.qss.compiler.tree.expr.Identifier;
 import com.thirds.qss.compiler.tree.script.Trait;
 import com.thirds.qss.compiler.tree.script.TraitImpl;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class Resolver {
     /**
-     * Resolves a name in global scope. Essentially, it loops through all the packages we've loaded searching for the
-     * qualified name that matches a name written in QSS. For example, writing <code>spawn_entity</code> with the
+     * The bundles that global names may be resolved into on the current thread. Null if every bundle may be searched.
+     */
+    private static final ThreadLocal<Set<String>> visibleBundles = new ThreadLocal<>();
+
+    /**
+     * Runs the given action, only resolving global names into packages of the given bundles. If the bundles are null,
+     * every bundle is searched. The index of a dependency bundle is built like this, so that it does not depend on
+     * which bundle is being compiled.
+     */
+    public static <T> T withinBundles(Set<String> bundles, Supplier<T> action) {
+        Set<String> previous = visibleBundles.get();
+        visibleBundles.set(bundles);
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) {
+                visibleBundles.remove();
+            } else {
+                visibleBundles.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Resolves a name in global scope. Essentially, it searches the packages we've loaded for the qualified name that
+     * matches a name written in QSS. For example, writing <code>spawn_entity</code> with the
      * <code>std::entity</code> package imported equates to the <code>std::entity::spawn_entity</code> function. This
      * function works out which globally scoped name you're referring to when you write a given name in QSS code.
      *
@@ -39,6 +63,8 @@ public class Resolver {
      *                 we can search the dependencies for names.
      * @param script The script we're currently compiling. This is used for finding the list of import statements so
      *               that we can tell what alternatives we have for the given name.
+     * @param candidates The packages that might contain the name, usually found using the compiler's
+     *                   {@link SimpleNameIndex}. Only these packages are searched.
      * @param resolver This function will be called for each name index we're searching in. It must return a
      *                 list of items that match the name we're querying. For example, we're searching for a struct
      *                 with a given name. For each name index it's given, this function will return a list of all
@@ -46,107 +72,87 @@ public class Resolver {
      * @param <T> The type of item we're searching for. E.g. Struct (if we're searching for a struct that matches a
      *           given name), Func (if we're searching for a Func).
      */
-    public static <T> ResolveResult<T> resolveGlobalScopeName(Compiler compiler, Script script, Function<NameIndex, List<T>> resolver) {
-        ArrayList<ResolveAlternative<T>> alternatives = new ArrayList<>();
-
-        // TODO we might want to speed up this nested for loop. Maybe we can cache a HashSet/HashMap of last segments of qualified names?
-
-        // First, we do a run through just checking imported packages.
-        for (Map.Entry<String, NameIndices.Bundle> bundleEntry : compiler.getNameIndices().getBundles().entrySet()) {
-            for (Map.Entry<QualifiedName, NameIndex> indexEntry : bundleEntry.getValue().getPackages().entrySet()) {
-                boolean packageWasImported = script.getImportedPackages().contains(indexEntry.getKey());
-                if (!packageWasImported)
-                    continue;
-
-                NameIndex index = indexEntry.getValue();
-                List<T> result = resolver.apply(index);
-                for (T t : result) {
-                    alternatives.add(new ResolveAlternative<>(t, List.of(new BundleQualifiedName(bundleEntry.getKey(), indexEntry.getKey()))));
-                }
-            }
-        }
-
-        if (!alternatives.isEmpty()) {
-            // We found at least one matching name.
-            return ResolveResult.success(alternatives);
-        }
-
-        // If we didn't find a matching name, redo the whole process looking in every single package, regardless
-        // if it's imported. We need to tell the user which package it's actually in.
-        for (Map.Entry<String, NameIndices.Bundle> bundleEntry : compiler.getNameIndices().getBundles().entrySet()) {
-            for (Map.Entry<QualifiedName, NameIndex> indexEntry : bundleEntry.getValue().getPackages().entrySet()) {
-                NameIndex index = indexEntry.getValue();
-                List<T> result = resolver.apply(index);
-                for (T t : result) {
-                    alternatives.add(new ResolveAlternative<>(t, List.of(new BundleQualifiedName(bundleEntry.getKey(), indexEntry.getKey()))));
-                }
-            }
-        }
-
-        return ResolveResult.nonImported(alternatives);
+    public static <T> ResolveResult<T> resolveGlobalScopeName(Compiler compiler, Script script, Collection<BundleQualifiedName> candidates, Function<NameIndex, List<T>> resolver) {
+        NameIndices nameIndices = compiler.getNameIndices();
+        return resolveIn(compiler, script, candidates, name -> nameIndices.get(name.getBundle()).getPackages().get(name.getName()), resolver);
     }
 
     /**
-     * Resolves an item in global scope. Essentially, it loops through all the packages we've loaded searching for the
-     * qualified name that matches a name written in QSS. For example, writing <code>spawn_entity</code> with the
-     * <code>std::entity</code> package imported equates to the <code>std::entity::spawn_entity</code> function. This
-     * function works out which globally scoped name you're referring to when you write a given name in QSS code.
+     * Resolves an item in global scope, searching only the given candidate packages. See
+     * {@link #resolveGlobalScopeName(Compiler, Script, Collection, Function)}.
      *
-     * This "given name" is encapsulated by the resolver parameter; the resolver makes its own deduction about whether
-     * any item in the index matches.
-     *
-     * This automatically deduces what alternatives are valid based on the list of imports declared by the script.
-     * @param compiler The compiler we're using. By this point, we need to have generated the indices so
+     * The indices of candidate packages that were declared but not built yet are built when they are searched, so
+     * the indices of packages that are not imported are only built if the item is not found in an imported package.
+     * @param compiler The compiler we're using. By this point, we need to have generated or declared the indices so
      *                 we can search the dependencies for items.
-     * @param script The script we're currently compiling. This is used for finding the list of import statements so
-     *               that we can tell what alternatives we have for the given name.
-     * @param resolver This function will be called for each name index we're searching in. It must return a
-     *                 list of items that match the name we're querying. For example, we're searching for a struct
-     *                 with a given name. For each name index it's given, this function will return a list of all
-     *                 structs that match the given name.
-     * @param <T> The type of item we're searching for. E.g. Struct (if we're searching for a struct that matches a
-     *           given name), Func (if we're searching for a Func).
+     * @param candidates The packages that might contain the item, usually found using {@link Indices#getCandidates}.
+     */
+    public static <T> ResolveResult<T> resolveGlobalScope(Compiler compiler, Script script, Collection<BundleQualifiedName> candidates, Function<Index, List<T>> resolver) {
+        Indices indices = compiler.getIndices();
+        return resolveIn(compiler, script, candidates, indices::getIndex, resolver);
+    }
+
+    /**
+     * Resolves an item in global scope, searching every package we've loaded or declared. Prefer
+     * {@link #resolveGlobalScope(Compiler, Script, Collection, Function)} if the item can be found by its name.
      */
     public static <T> ResolveResult<T> resolveGlobalScope(Compiler compiler, Script script, Function<Index, List<T>> resolver) {
-        ArrayList<ResolveAlternative<T>> alternatives = new ArrayList<>();
+        return resolveGlobalScope(compiler, script, compiler.getIndices().getPackageNames(), resolver);
+    }
 
-        // TODO we might want to speed up this nested for loop. Maybe we can cache a HashSet/HashMap of last segments of qualified names?
+    private static <I, T> ResolveResult<T> resolveIn(Compiler compiler, Script script, Collection<BundleQualifiedName> candidates,
+                                                     Function<BundleQualifiedName, I> getIndex, Function<I, List<T>> resolver) {
+        Set<String> bundles = visibleBundles.get();
+        if (bundles != null)
+            candidates = candidates.stream().filter(candidate -> bundles.contains(candidate.getBundle())).collect(Collectors.toList());
+        ArrayList<ResolveAlternative<T>> alternatives = new ArrayList<>();
 
         // First, we do a run through just checking imported packages.
-        for (Map.Entry<String, Indices.Bundle> bundleEntry : compiler.getIndices().getBundles().entrySet()) {
-            for (Map.Entry<QualifiedName, Index> indexEntry : bundleEntry.getValue().getPackages().entrySet()) {
-                boolean packageWasImported = script.getImportedPackages().contains(indexEntry.getKey());
-                if (!packageWasImported)
-                    continue;
-
-                Index index = indexEntry.getValue();
-                List<T> result = resolver.apply(index);
-                for (T t : result) {
-                    alternatives.add(new ResolveAlternative<>(t, List.of(new BundleQualifiedName(bundleEntry.getKey(), indexEntry.getKey()))));
-                }
+        for (BundleQualifiedName candidate : candidates) {
+            boolean packageWasImported = script.getImportedPackages().contains(candidate.getName());
+            if (!packageWasImported)
+                continue;
+
+            List<T> result = resolver.apply(getIndex.apply(candidate));
+            for (T t : result) {
+                alternatives.add(new ResolveAlternative<>(t, List.of(candidate)));
             }
         }
 
         if (!alternatives.isEmpty()) {
             // We found at least one matching name.
+            recordResolved(compiler, script, alternatives);
             return ResolveResult.success(alternatives);
         }
 
-        // If we didn't find a matching name, redo the whole process looking in every single package, regardless
+        // The name might be resolved later if it's added to an imported package.
+        compiler.getDependencyGraph().recordUnresolved(script.getFilePath());
+        UsedDefinitions.unresolved();
+
+        // If we didn't find a matching name, redo the whole process looking in every candidate package, regardless
         // if it's imported. We need to tell the user which package it's actually in.
-        for (Map.Entry<String, Indices.Bundle> bundleEntry : compiler.getIndices().getBundles().entrySet()) {
-            for (Map.Entry<QualifiedName, Index> indexEntry : bundleEntry.getValue().getPackages().entrySet()) {
-                Index index = indexEntry.getValue();
-                List<T> result = resolver.apply(index);
-                for (T t : result) {
-                    alternatives.add(new ResolveAlternative<>(t, List.of(new BundleQualifiedName(bundleEntry.getKey(), indexEntry.getKey()))));
-                }
+        for (BundleQualifiedName candidate : candidates) {
+            List<T> result = resolver.apply(getIndex.apply(candidate));
+            for (T t : result) {
+                alternatives.add(new ResolveAlternative<>(t, List.of(candidate)));
             }
         }
 
         return ResolveResult.nonImported(alternatives);
     }
 
+    /**
+     * Records that the given script depends on the packages that each alternative was found in.
+     */
+    private static <T> void recordResolved(Compiler compiler, Script script, List<ResolveAlternative<T>> alternatives) {
+        for (ResolveAlternative<T> alternative : alternatives) {
+            for (BundleQualifiedName thePackage : alternative.imports) {
+                compiler.getDependencyGraph().recordResolved(script.getFilePath(), thePackage);
+                UsedDefinitions.resolved(thePackage);
+            }
+        }
+    }
+
     /**
      * @param variableName The name of the variable we're deducing the type of (will be used in error messages).
      * @param messages An output array that will contain the messages if there were any.
@@ -216,15 +222,13 @@ public class Resolver {
      * @param compiler The name index must be built.
      */
     public static ResolveResult<StructNameAlternative> resolveStructName(Compiler compiler, Script script, ArrayList<Message> messages, NameLiteral funcName) {
-        ResolveResult<StructNameAlternative> structResolved = resolveGlobalScopeName(compiler, script, nameIndex -> {
-            ArrayList<StructNameAlternative> alternatives = new ArrayList<>(0);
-            nameIndex.getStructDefinitions().forEach((name, func) -> {
-                QualifiedName qualifiedName = nameIndex.getPackage().appendSegment(name);
-                if (funcName.matches(qualifiedName)) {
-                    alternatives.add(new StructNameAlternative(qualifiedName, func));
-                }
-            });
-            return alternatives;
+        String simpleName = funcName.lastSegment();
+        Set<BundleQualifiedName> candidates = compiler.getNameIndices().getSimpleNames().get(SimpleNameIndex.Kind.STRUCT, simpleName);
+        ResolveResult<StructNameAlternative> structResolved = resolveGlobalScopeName(compiler, script, candidates, nameIndex -> {
+            NameIndex.StructDefinition struct = nameIndex.getStructDefinitions().get(simpleName);
+            if (struct != null && funcName.matches(nameIndex.getPackage(), simpleName))
+                return List.of(new StructNameAlternative(nameIndex.getPackage().appendSegment(simpleName), struct));
+            return List.of();
         });
 
         if (structResolved.alternatives.isEmpty()) {
@@ -273,15 +277,13 @@ public class Resolver {
      * @param compiler The name index must be built.
      */
     public static ResolveResult<TraitNameAlternative> resolveTraitName(Compiler compiler, Script script, ArrayList<Message> messages, NameLiteral funcName) {
-        ResolveResult<TraitNameAlternative> traitResolved = resolveGlobalScopeName(compiler, script, nameIndex -> {
-            ArrayList<TraitNameAlternative> alternatives = new ArrayList<>(0);
-            nameIndex.getTraitDefinitions().forEach((name, trait) -> {
-                QualifiedName qualifiedName = nameIndex.getPackage().appendSegment(name);
-                if (funcName.matches(qualifiedName)) {
-                    alternatives.add(new TraitNameAlternative(qualifiedName, trait));
-                }
-            });
-            return alternatives;
+        String simpleName = funcName.lastSegment();
+        Set<BundleQualifiedName> candidates = compiler.getNameIndices().getSimpleNames().get(SimpleNameIndex.Kind.TRAIT, simpleName);
+        ResolveResult<TraitNameAlternative> traitResolved = resolveGlobalScopeName(compiler, script, candidates, nameIndex -> {
+            NameIndex.TraitDefinition trait = nameIndex.getTraitDefinitions().get(simpleName);
+            if (trait != null && funcName.matches(nameIndex.getPackage(), simpleName))
+                return List.of(new TraitNameAlternative(nameIndex.getPackage().appendSegment(simpleName), trait));
+            return List.of();
         });
 
         if (traitResolved.alternatives.isEmpty()) {
@@ -330,15 +332,13 @@ public class Resolver {
      * @param compiler The index must be built.
      */
     public static ResolveResult<TraitAlternative> resolveTrait(Compiler compiler, Script script, ArrayList<Message> messages, NameLiteral funcName) {
-        ResolveResult<TraitAlternative> traitResolved = resolveGlobalScope(compiler, script, nameIndex -> {
-            ArrayList<TraitAlternative> alternatives = new ArrayList<>(0);
-            nameIndex.getTraitDefinitions().forEach((name, trait) -> {
-                QualifiedName qualifiedName = nameIndex.getPackage().appendSegment(name);
-                if (funcName.matches(qualifiedName)) {
-                    alternatives.add(new TraitAlternative(qualifiedName, trait));
-                }
-            });
-            return alternatives;
+        String simpleName = funcName.lastSegment();
+        Set<BundleQualifiedName> candidates = compiler.getIndices().getCandidates(SimpleNameIndex.Kind.TRAIT, simpleName);
+        ResolveResult<TraitAlternative> traitResolved = resolveGlobalScope(compiler, script, candidates, index -> {
+            Index.TraitDefinition trait = index.getTraitDefinitions().get(simpleName);
+            if (trait != null && funcName.matches(index.getPackage(), simpleName))
+                return List.of(new TraitAlternative(index.getPackage().appendSegment(simpleName), trait));
+            return List.of();
         });
 
         if (traitResolved.alternatives.isEmpty()) {
@@ -390,22 +390,25 @@ public class Resolver {
      *                         "func" (we're specifically looking for a function)
      */
     public static ResolveResult<FuncAlternative> resolveFunc(Compiler compiler, Script script, ArrayList<Message> messages, Identifier funcName, String whatSearchingFor) {
-        ResolveResult<FuncAlternative> funcResolved = resolveGlobalScope(compiler, script, index -> {
+        String simpleName = funcName.getName().lastSegment();
+        Indices indices = compiler.getIndices();
+        Set<BundleQualifiedName> candidates = indices.getCandidates(SimpleNameIndex.Kind.FUNC, simpleName);
+        candidates.addAll(indices.getCandidates(SimpleNameIndex.Kind.TRAIT_FUNC, simpleName));
+        ResolveResult<FuncAlternative> funcResolved = resolveGlobalScope(compiler, script, candidates, index -> {
             ArrayList<FuncAlternative> alternatives = new ArrayList<>(0);
-            index.getFuncDefinitions().forEach((name, func) -> {
-                QualifiedName qualifiedName = index.getPackage().appendSegment(name);
-                if (funcName.getName().matches(qualifiedName)) {
-                    alternatives.add(new FuncAlternative(qualifiedName, func));
-                }
-            });
+            if (!funcName.getName().matches(index.getPackage(), simpleName))
+                return alternatives;
+
+            QualifiedName qualifiedName = index.getPackage().appendSegment(simpleName);
+
+            Index.FuncDefinition func = index.getFuncDefinitions().get(simpleName);
+            if (func != null)
+                alternatives.add(new FuncAlternative(qualifiedName, func));
             index.getTraitDefinitions().forEach((name, trait) -> {
                 // TODO should the qualified name include the trait name? e.g. std::Trait::foo vs std::foo?
-                trait.getTraitFuncDefinitions().forEach((traitFuncName, func) -> {
-                    QualifiedName qualifiedName = index.getPackage().appendSegment(traitFuncName);
-                    if (funcName.getName().matches(qualifiedName)) {
-                        alternatives.add(new FuncAlternative(qualifiedName, func));
-                    }
-                });
+                Index.FuncDefinition traitFunc = trait.getTraitFuncDefinitions().get(simpleName);
+                if (traitFunc != null)
+                    alternatives.add(new FuncAlternative(qualifiedName, traitFunc));
             });
             return alternatives;
         });
@@ -456,14 +459,15 @@ public class Resolver {
      * @param where Where should errors be emitted from?
      */
     public static ResolveResult<TraitImplAlternative> resolveTraitImpl(Compiler compiler, Script script, ArrayList<Message> messages, Range where, VariableType thisType, QualifiedName trait) {
-        ResolveResult<TraitImplAlternative> implResolved = resolveGlobalScope(compiler, script, index -> {
-            ArrayList<TraitImplAlternative> alternatives = new ArrayList<>(0);
-            index.getTraitImplDefinitions().forEach((name, impls) -> {
-                if (impls.containsKey(thisType)) {
-                    alternatives.add(new TraitImplAlternative(impls.get(thisType)));
-                }
-            });
-            return alternatives;
+        UsedDefinitions.searchedTraitImpls();
+        // Only packages with an impl of a trait with this name can implement it, so the indices of other packages are
+        // never built just to find out that they do not.
+        Set<BundleQualifiedName> candidates = compiler.getIndices().getCandidates(SimpleNameIndex.Kind.TRAIT_IMPL, trait.lastSegment());
+        ResolveResult<TraitImplAlternative> implResolved = resolveGlobalScope(compiler, script, candidates, index -> {
+            Map<VariableType, Index.TraitImplDefinition> impls = index.getTraitImplDefinitions().get(trait);
+            if (impls == null || !impls.containsKey(thisType))
+                return List.of();
+            return List.of(new TraitImplAlternative(impls.get(thisType)));
         });
 
         if (implResolved.alternatives.isEmpty()) {
@@ -515,7 +519,8 @@ public class Resolver {
      * @param compiler The index must be built.
      */
     public static ResolveResult<StructFieldAlternative> resolveStructField(Compiler compiler, Script script, ArrayList<Message> messages, QualifiedName structName, NameLiteral fieldName) {
-        ResolveResult<StructFieldAlternative> fieldResolved = resolveGlobalScope(compiler, script, index -> {
+        Set<BundleQualifiedName> candidates = compiler.getIndices().getCandidates(SimpleNameIndex.Kind.STRUCT, structName.lastSegment());
+        ResolveResult<StructFieldAlternative> fieldResolved = resolveGlobalScope(compiler, script, candidates, index -> {
             ArrayList<StructFieldAlternative> alternatives = new ArrayList<>(0);
 
             // Check if we're even in the right package for the struct.
@@ -525,13 +530,12 @@ public class Resolver {
             Index.StructDefinition structDefinition = index.getStructDefinitions().get(structName.lastSegment());
             if (structDefinition != null) {
                 for (Map.Entry<String, Index.FieldDefinition> field : structDefinition.getFields().entrySet()) {
-                    QualifiedName qualifiedName = index.getPackage().appendSegment(field.getKey());
-                    if (fieldName.matches(qualifiedName)) {
+                    if (fieldName.matches(index.getPackage(), field.getKey())) {
                         Index.FieldDefinition fieldDefinition = field.getValue();
                         StructFieldAlternative alt = new StructFieldAlternative(
                                 fieldDefinition.getLocation(),
                                 fieldDefinition.getDocumentation(),
-                                qualifiedName, fieldDefinition.getVariableType()
+                                index.getPackage().appendSegment(field.getKey()), fieldDefinition.getVariableType()
                         );
                         alternatives.add(alt);
                     }
@@ -589,27 +593,35 @@ public class Resolver {
                 return typeParams.thisType;
             }
         } else if (type instanceof VariableType.Maybe) {
-            return new VariableType.Maybe(
-                    resolveTypeParameters(where, messages, ((VariableType.Maybe) type).getContentsType(), typeParams)
-            );
+            VariableType contentsType = ((VariableType.Maybe) type).getContentsType();
+            VariableType resolved = resolveTypeParameters(where, messages, contentsType, typeParams);
+            return resolved == contentsType ? type : VariableType.Maybe.of(resolved);
         } else if (type instanceof VariableType.List) {
-            return new VariableType.List(
-                    resolveTypeParameters(where, messages, ((VariableType.List) type).getElementType(), typeParams)
-            );
+            VariableType elementType = ((VariableType.List) type).getElementType();
+            VariableType resolved = resolveTypeParameters(where, messages, elementType, typeParams);
+            return resolved == elementType ? type : VariableType.List.of(resolved);
         } else if (type instanceof VariableType.Map) {
-            return new VariableType.Map(
-                    resolveTypeParameters(where, messages, ((VariableType.Map) type).getKeyType(), typeParams),
-                    resolveTypeParameters(where, messages, ((VariableType.Map) type).getValueType(), typeParams)
-            );
+            VariableType keyType = ((VariableType.Map) type).getKeyType();
+            VariableType valueType = ((VariableType.Map) type).getValueType();
+            VariableType resolvedKey = resolveTypeParameters(where, messages, keyType, typeParams);
+            VariableType resolvedValue = resolveTypeParameters(where, messages, valueType, typeParams);
+            return resolvedKey == keyType && resolvedValue == valueType ? type : VariableType.Map.of(resolvedKey, resolvedValue);
         } else if (type instanceof VariableType.Function) {
-            VariableType.Function result = new VariableType.Function(
-                    ((VariableType.Function) type).isReceiverStyle(),
-                    ((VariableType.Function) type).getParams().stream().map(vt -> resolveTypeParameters(where, messages, vt, typeParams)).collect(Collectors.toCollection(ArrayList::new)),
-                    resolveTypeParameters(where, messages, ((VariableType.Function) type).getReturnType(), typeParams)
-            );
-            result.setPurity(((VariableType.Function) type).getPurity());
-            result.setNative(((VariableType.Function) type).isNative());
-            return result;
+            // Types are canonical, so if none of the parts of the function changed, the function type can be reused.
+            VariableType.Function function = (VariableType.Function) type;
+            boolean changed = false;
+            ArrayList<VariableType> params = new ArrayList<>(function.getParams().size());
+            for (VariableType param : function.getParams()) {
+                VariableType resolved = resolveTypeParameters(where, messages, param, typeParams);
+                changed |= resolved != param;
+                params.add(resolved);
+            }
+            VariableType returnType = resolveTypeParameters(where, messages, function.getReturnType(), typeParams);
+            changed |= returnType != function.getReturnType();
+            if (!changed)
+                return type;
+            return VariableType.Function.of(function.isReceiverStyle(), params, returnType, function.getPurity())
+                    .withNative(function.isNative());
         }
 
         // No conversion is necessary.
@@ -634,7 +646,7 @@ public class Resolver {
     public static TypeParameterInfo generateTypeParameterInfo(Node where) {
         // Compute the This type.
         VariableType thisType = where.getContainerOfType(Trait.class).map(trait ->
-                (VariableType) new VariableType.This()
+                (VariableType) VariableType.This.INSTANCE
         ).or(() -> where.getContainerOfType(TraitImpl.class).map(traitImpl ->
                 traitImpl.getType().getResolvedType()
         )).orElse(null);
@@ -0,0 +1,120 @@
+package com.thirds.qss.compiler.resolve;
+
+import com.thirds.qss.BundleQualifiedName;
+import com.thirds.qss.compiler.ScriptPath;
+import com.thirds.qss.compiler.indexer.SimpleNameIndex;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Records which definitions were looked up while some code ran on the current thread: each simple name that was
+ * looked up in a {@link SimpleNameIndex}, and whether trait impls were searched. Every definition the
+ * {@link Resolver} can find is found through one of these, whether or not a definition was actually found.
+ *
+ * The dependencies that the resolver added to the {@link DependencyGraph} are recorded too, so that they can be added
+ * again if the code is skipped because its result was cached.
+ */
+public final class UsedDefinitions {
+    private static final ThreadLocal<UsedDefinitions> current = new ThreadLocal<>();
+
+    private final Map<SimpleNameIndex.Kind, Set<String>> names = new EnumMap<>(SimpleNameIndex.Kind.class);
+    private boolean traitImpls = false;
+    private final Set<BundleQualifiedName> resolved = new HashSet<>();
+    private boolean unresolved = false;
+
+    private UsedDefinitions() {
+    }
+
+    /**
+     * Runs the given action, recording the definitions that it looked up.
+     */
+    public static UsedDefinitions record(Runnable action) {
+        UsedDefinitions previous = current.get();
+        UsedDefinitions used = new UsedDefinitions();
+        current.set(used);
+        try {
+            action.run();
+        } finally {
+            if (previous == null) {
+                current.remove();
+            } else {
+                // Anything that was recording before also used these definitions.
+                used.names.forEach((kind, names) -> previous.names.computeIfAbsent(kind, k -> new HashSet<>()).addAll(names));
+                previous.traitImpls |= used.traitImpls;
+                previous.resolved.addAll(used.resolved);
+                previous.unresolved |= used.unresolved;
+                current.set(previous);
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Runs the given action without recording anything it looks up. This is used when an index is built lazily
+     * while something is being recorded, since resolving the index's own definitions is not a use of them.
+     */
+    public static <T> T untracked(Supplier<T> action) {
+        UsedDefinitions previous = current.get();
+        if (previous == null)
+            return action.get();
+        current.remove();
+        try {
+            return action.get();
+        } finally {
+            current.set(previous);
+        }
+    }
+
+    /**
+     * Called whenever a simple name index is searched.
+     */
+    public static void lookedUp(SimpleNameIndex.Kind kind, String name) {
+        UsedDefinitions used = current.get();
+        if (used != null)
+            used.names.computeIfAbsent(kind, k -> new HashSet<>()).add(name);
+    }
+
+    static void searchedTraitImpls() {
+        UsedDefinitions used = current.get();
+        if (used != null)
+            used.traitImpls = true;
+    }
+
+    static void resolved(BundleQualifiedName thePackage) {
+        UsedDefinitions used = current.get();
+        if (used != null)
+            used.resolved.add(thePackage);
+    }
+
+    static void unresolved() {
+        UsedDefinitions used = current.get();
+        if (used != null)
+            used.unresolved = true;
+    }
+
+    /**
+     * @return Maps each kind of name onto the simple names of that kind that were looked up.
+     */
+    public Map<SimpleNameIndex.Kind, Set<String>> getNames() {
+        return Collections.unmodifiableMap(names);
+    }
+
+    /**
+     * @return True if the trait impls in every package were searched.
+     */
+    public boolean usedTraitImpls() {
+        return traitImpls;
+    }
+
+    /**
+     * Adds the dependencies that the resolver recorded for the given script to the dependency graph again.
+     */
+    public void replay(DependencyGraph dependencyGraph, ScriptPath script) {
+        for (BundleQualifiedName thePackage : resolved) {
+            dependencyGraph.recordResolved(script, thePackage);
+        }
+        if (unresolved)
+            dependencyGraph.recordUnresolved(script);
+    }
+}
@@ -13,7 +13,7 @@ public class Documentable<T extends Node> extends Node {
     /**
      * Nullable.
      */
-    private final Token documentation;
+    private Token documentation;
     private final T content;
 
     /**
@@ -37,4 +37,9 @@ public class Documentable<T extends Node> extends Node {
     public void forChildren(Consumer<Node> consumer) {
         consumer.accept(content);
     }
+
+    @Override
+    protected void moveTokens(LineMove move) {
+        documentation = move.apply(documentation);
+    }
 }
@@ -0,0 +1,81 @@
+package com.thirds.qss.compiler.tree;
+
+import com.thirds.qss.compiler.Location;
+import com.thirds.qss.compiler.Message;
+import com.thirds.qss.compiler.Range;
+import com.thirds.qss.compiler.ScriptPath;
+import com.thirds.qss.compiler.lexer.Token;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Moves a top-level item down by some number of lines, after lines were inserted or removed above it. This lets the
+ * parser reuse an item whose tokens only moved, instead of parsing it again (see
+ * {@link com.thirds.qss.compiler.parser.ParsedItems}).
+ */
+public final class LineMove {
+    private final ScriptPath filePath;
+    /**
+     * The range of the item before it was moved.
+     */
+    private final Range item;
+    private final int lineDelta;
+    /**
+     * Some nodes are children of more than one node, such as the struct name of a hook, which is also the type of the
+     * hook's <code>this</code> parameter. Each node must only be moved once.
+     */
+    private final Set<Node> moved = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * @param filePath The script the item is in.
+     * @param item The range of the item before it was moved.
+     */
+    public LineMove(ScriptPath filePath, Range item, int lineDelta) {
+        this.filePath = filePath;
+        this.item = item;
+        this.lineDelta = lineDelta;
+    }
+
+    /**
+     * @return False if the node was already moved.
+     */
+    boolean markMoved(Node node) {
+        return moved.add(node);
+    }
+
+    public Range apply(Range range) {
+        return range.moveLines(lineDelta);
+    }
+
+    /**
+     * @return Null if the token was null.
+     */
+    public Token apply(Token token) {
+        if (token == null)
+            return null;
+        return new Token(token.type, token.contents, apply(token.getRange()));
+    }
+
+    /**
+     * Only locations inside the item, such as the declarations of local variables, are moved. Other items that moved
+     * are moved separately, and their new locations are found by resolving names again.
+     * @return Null if the location was null.
+     */
+    public Location apply(Location location) {
+        if (location == null || !location.getFilePath().equals(filePath)
+                || !item.contains(location.getRange().getPackedStart()))
+            return location;
+        return new Location(filePath, apply(location.getRange()));
+    }
+
+    public Message apply(Message message) {
+        Message result = new Message(apply(message.range), message.severity, message.message)
+                .setSource(message.getSource());
+        for (Message.MessageRelatedInformation info : message.infos) {
+            result.addInfo(new Message.MessageRelatedInformation(apply(info.location), info.message));
+        }
+        return result;
+    }
+}
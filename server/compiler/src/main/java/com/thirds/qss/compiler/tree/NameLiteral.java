@@ -15,7 +15,7 @@ import java.util.stream.Collectors;
  * This can represent a qualified name such as <code>std::entity::spawn</code>, or a local name like <code>foo</code>.
  */
 public class NameLiteral extends Node implements Symbol {
-    private final List<Token> segments;
+    private List<Token> segments;
 
     /**
      * What does this name literal point to?
@@ -41,6 +41,13 @@ public class NameLiteral extends Node implements Symbol {
         return segments;
     }
 
+    /**
+     * @return The contents of the last segment of this name. Only items whose names end with this segment can match.
+     */
+    public String lastSegment() {
+        return segments.get(segments.size() - 1).contents;
+    }
+
     public QualifiedName getTargetQualifiedName() {
         return targetQualifiedName;
     }
@@ -61,20 +68,39 @@ public class NameLiteral extends Node implements Symbol {
         this.targetDocumentation = targetDocumentation;
     }
 
+    @Override
+    protected void moveTokens(LineMove move) {
+        segments = segments.stream().map(move::apply).collect(Collectors.toUnmodifiableList());
+        targetLocation = move.apply(targetLocation);
+    }
+
     /**
      * Does this name literal match the given fully qualified name?
      * @return true if there is a matching tail - i.e, if one or more segments from the end of the qualified name
      * match the entire name literal.
      */
     public boolean matches(QualifiedName qualifiedName) {
-        // TODO test the match functions
-        if (qualifiedName.getSegments().size() < segments.size())
+        if (qualifiedName.isEmpty())
+            return segments.isEmpty();
+        return matches(qualifiedName.trimLastSegment(), qualifiedName.lastSegment());
+    }
+
+    /**
+     * Does this name literal match the name <code>thePackage::simpleName</code>? This is the same as
+     * {@link #matches(QualifiedName)}, but does not need the qualified name to be created, which matters when
+     * checking every item with a given simple name.
+     */
+    public boolean matches(QualifiedName thePackage, String simpleName) {
+        if (segments.isEmpty())
+            return true;
+        if (!segments.get(segments.size() - 1).contents.equals(simpleName))
             return false;
-        // Match the segments in reverse.
-        for (int i = 1; i <= segments.size(); i++) {
-            if (!qualifiedName.getSegments().get(qualifiedName.getSegments().size() - i).equals(segments.get(segments.size() - i).contents)) {
+        // Match the rest of the segments in reverse.
+        QualifiedName name = thePackage;
+        for (int i = segments.size() - 2; i >= 0; i--) {
+            if (name.isEmpty() || !name.lastSegment().equals(segments.get(i).contents))
                 return false;
-            }
+            name = name.trimLastSegment();
         }
         return true;
     }
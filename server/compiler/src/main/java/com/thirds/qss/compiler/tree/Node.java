@@ -17,7 +17,7 @@ public class Node implements Ranged {
      */
     private Node container;
 
-    private final Range range;
+    private Range range;
 
     public Node(Range range) {
         this.range = range;
@@ -56,9 +56,28 @@ public class Node implements Ranged {
         return container.getContainerOfType(clazz);
     }
 
+    /**
+     * Moves this node and all of its children, so that an item parsed before lines were inserted or removed above it
+     * can be reused. Each node is only moved once, even if it is a child of more than one node.
+     * This should never be overridden; override {@link #moveTokens} instead.
+     */
+    public final void moveLines(LineMove move) {
+        if (!move.markMoved(this))
+            return;
+        range = move.apply(range);
+        moveTokens(move);
+        forChildren(node -> node.moveLines(move));
+    }
+
+    /**
+     * Moves the tokens and locations stored in this node, but not in its children.
+     * Should be overridden by subclasses that store tokens or locations.
+     */
+    protected void moveTokens(LineMove move) {}
+
     /**
      * Executes the given function for each direct <i>non-null</i> child of this node.
-     * Should be overridden by subclasses.
+     * Should be overridden by subclasses, and must report every child, or {@link #moveLines} would not move it.
      */
     public void forChildren(Consumer<Node> consumer) {}
 
@@ -1,37 +1,92 @@
 package com.thirds.qss.compiler.tree;
 
+import com.thirds.qss.compiler.Location;
 import com.thirds.qss.compiler.Position;
+import com.thirds.qss.compiler.Range;
 import com.thirds.qss.compiler.Symbol;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Optional;
-import java.util.TreeMap;
 
 /**
  * Maps a position in the document to the smallest possible node that intersects the position.
  * Used for jump-to-definition and hover, by locating which symbol we're currently looking at.
+ *
+ * The map copies each symbol's range and target when it is built, so it does not change if the script's nodes are
+ * resolved again later, and it may be read from any thread.
  */
 public class SymbolMap {
     /**
-     * Maps the starting position of each symbol to the symbol.
-     * Once this map is built, it is a very fast operation to detect which symbol was clicked.
+     * The symbols, sorted by their (packed) starting positions. If several symbols start at the same position, only
+     * the first one found is kept.
+     * Once these arrays are built, it is a very fast operation to detect which symbol was clicked.
      */
-    private final TreeMap<Position, Symbol> symbolMap = new TreeMap<>();
+    private final long[] starts;
+    private final Symbol[] symbols;
+
+    /**
+     * A copy of a symbol's range and target, taken when the map was built.
+     */
+    private static final class FrozenSymbol implements Symbol {
+        private final Range range;
+        private final Location targetLocation;
+        private final String targetDocumentation;
+
+        private FrozenSymbol(Symbol symbol) {
+            this.range = symbol.getRange();
+            this.targetLocation = symbol.getTargetLocation().orElse(null);
+            this.targetDocumentation = symbol.getTargetDocumentation().orElse(null);
+        }
+
+        @Override
+        public Range getRange() {
+            return range;
+        }
+
+        @Override
+        public Optional<Location> getTargetLocation() {
+            return Optional.ofNullable(targetLocation);
+        }
+
+        @Override
+        public Optional<String> getTargetDocumentation() {
+            return Optional.ofNullable(targetDocumentation);
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(targetLocation);
+        }
+    }
 
     /**
      * Computes the symbol map from the given script.
      */
     public SymbolMap(Script script) {
+        ArrayList<Symbol> found = new ArrayList<>();
         script.forAllChildren(n -> {
             if (n instanceof Symbol) {
-                emplace((Symbol) n);
+                found.add((Symbol) n);
             }
         });
-    }
+        // The sort is stable, so the first symbol found at each position comes first.
+        found.sort(Comparator.comparingLong(symbol -> symbol.getRange().getPackedStart()));
 
-    private void emplace(Symbol symbol) {
-        if (!symbolMap.containsKey(symbol.getRange().start))
-            symbolMap.put(symbol.getRange().start, symbol);
+        long[] starts = new long[found.size()];
+        Symbol[] symbols = new Symbol[found.size()];
+        int size = 0;
+        for (Symbol symbol : found) {
+            long start = symbol.getRange().getPackedStart();
+            if (size == 0 || starts[size - 1] != start) {
+                starts[size] = start;
+                symbols[size] = new FrozenSymbol(symbol);
+                size++;
+            }
+        }
+        this.starts = Arrays.copyOf(starts, size);
+        this.symbols = Arrays.copyOf(symbols, size);
     }
 
     /**
@@ -39,17 +94,27 @@ public class SymbolMap {
      * @return Optional.empty() if no symbol was under the caret.
      */
     public Optional<Symbol> getSelected(Position caretPosition) {
-        Map.Entry<Position, Symbol> symbolEntry = symbolMap.floorEntry(caretPosition);
-        if (symbolEntry == null)
+        long caret = caretPosition.pack();
+        // Find the last symbol starting at or before the caret.
+        int index = Arrays.binarySearch(starts, caret);
+        if (index < 0)
+            index = -index - 2;
+        if (index < 0)
             return Optional.empty();
-        if (symbolEntry.getValue().getRange().contains(caretPosition)) {
-            return Optional.of(symbolEntry.getValue());
+        if (symbols[index].getRange().contains(caret)) {
+            return Optional.of(symbols[index]);
         }
         return Optional.empty();
     }
 
     @Override
     public String toString() {
-        return symbolMap.toString();
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < starts.length; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(Position.unpack(starts[i])).append('=').append(symbols[i]);
+        }
+        return sb.append('}').toString();
     }
 }
@@ -77,7 +77,7 @@ public abstract class Type extends Node {
     }
 
     public static class PrimitiveType extends Type {
-        private final Token token;
+        private Token token;
 
         public PrimitiveType(Token token) {
             super(token.getRange());
@@ -110,10 +110,15 @@ public abstract class Type extends Node {
             }
             throw new UnsupportedOperationException(token.toString());
         }
+
+        @Override
+        protected void moveTokens(LineMove move) {
+            token = move.apply(token);
+        }
     }
 
     public static class ThisType extends Type {
-        private final Token token;
+        private Token token;
 
         public ThisType(Token token) {
             super(token.getRange());
@@ -123,7 +128,12 @@ public abstract class Type extends Node {
         @Override
         public ResolveResult<VariableType> resolveImpl(Compiler compiler, Script script) {
             // The keyword 'This' is resolved to an actual type in the type parameter substitution stage.
-            return ResolveResult.success(List.of(new ResolveAlternative<>(new VariableType.This(), List.of())));
+            return ResolveResult.success(List.of(new ResolveAlternative<>(VariableType.This.INSTANCE, List.of())));
+        }
+
+        @Override
+        protected void moveTokens(LineMove move) {
+            token = move.apply(token);
         }
     }
 
@@ -142,12 +152,12 @@ public abstract class Type extends Node {
             if (result.alternatives.size() >= 1) {
                 return ResolveResult.success(result.alternatives
                         .stream()
-                        .map(alt -> new ResolveAlternative<>((VariableType) new VariableType.Struct(alt.value.name), alt.imports))
+                        .map(alt -> new ResolveAlternative<>((VariableType) VariableType.Struct.of(alt.value.name), alt.imports))
                         .collect(Collectors.toList()));
             } else {
                 return ResolveResult.nonImported(result.nonImportedAlternatives
                         .stream()
-                        .map(alt -> new ResolveAlternative<>((VariableType) new VariableType.Struct(alt.value.name), alt.imports))
+                        .map(alt -> new ResolveAlternative<>((VariableType) VariableType.Struct.of(alt.value.name), alt.imports))
                         .collect(Collectors.toList()));
             }
         }
@@ -178,13 +188,13 @@ public abstract class Type extends Node {
 
             for (ResolveAlternative<VariableType> alternative : contentsTypeResolved.alternatives) {
                 alternatives.add(new ResolveAlternative<>(
-                        new VariableType.Maybe(alternative.value),
+                        VariableType.Maybe.of(alternative.value),
                         alternative.imports
                 ));
             }
             for (ResolveAlternative<VariableType> alternative : contentsTypeResolved.nonImportedAlternatives) {
                 nonImportedAlternatives.add(new ResolveAlternative<>(
-                        new VariableType.Maybe(alternative.value),
+                        VariableType.Maybe.of(alternative.value),
                         alternative.imports
                 ));
             }
@@ -214,13 +224,13 @@ public abstract class Type extends Node {
 
             for (ResolveAlternative<VariableType> alternative : elementTypeResolved.alternatives) {
                 alternatives.add(new ResolveAlternative<>(
-                        new VariableType.List(alternative.value),
+                        VariableType.List.of(alternative.value),
                         alternative.imports
                 ));
             }
             for (ResolveAlternative<VariableType> alternative : elementTypeResolved.nonImportedAlternatives) {
                 nonImportedAlternatives.add(new ResolveAlternative<>(
-                        new VariableType.List(alternative.value),
+                        VariableType.List.of(alternative.value),
                         alternative.imports
                 ));
             }
@@ -256,7 +266,7 @@ public abstract class Type extends Node {
             for (ResolveAlternative<VariableType> alternative : keyTypeResolved.alternatives) {
                 for (ResolveAlternative<VariableType> alternative2 : valueTypeResolved.alternatives) {
                     alternatives.add(new ResolveAlternative<>(
-                            new VariableType.Map(alternative.value, alternative2.value),
+                            VariableType.Map.of(alternative.value, alternative2.value),
                             new ArrayList<>() {{
                                 addAll(alternative.imports);
                                 addAll(alternative2.imports);
@@ -265,7 +275,7 @@ public abstract class Type extends Node {
                 }
                 for (ResolveAlternative<VariableType> alternative2 : valueTypeResolved.nonImportedAlternatives) {
                     nonImportedAlternatives.add(new ResolveAlternative<>(
-                            new VariableType.Map(alternative.value, alternative2.value),
+                            VariableType.Map.of(alternative.value, alternative2.value),
                             new ArrayList<>() {{
                                 addAll(alternative.imports);
                                 addAll(alternative2.imports);
@@ -276,7 +286,7 @@ public abstract class Type extends Node {
             for (ResolveAlternative<VariableType> alternative : keyTypeResolved.nonImportedAlternatives) {
                 for (ResolveAlternative<VariableType> alternative2 : valueTypeResolved.alternatives) {
                     nonImportedAlternatives.add(new ResolveAlternative<>(
-                            new VariableType.Map(alternative.value, alternative2.value),
+                            VariableType.Map.of(alternative.value, alternative2.value),
                             new ArrayList<>() {{
                                 addAll(alternative.imports);
                                 addAll(alternative2.imports);
@@ -285,7 +295,7 @@ public abstract class Type extends Node {
                 }
                 for (ResolveAlternative<VariableType> alternative2 : valueTypeResolved.nonImportedAlternatives) {
                     nonImportedAlternatives.add(new ResolveAlternative<>(
-                            new VariableType.Map(alternative.value, alternative2.value),
+                            VariableType.Map.of(alternative.value, alternative2.value),
                             new ArrayList<>() {{
                                 addAll(alternative.imports);
                                 addAll(alternative2.imports);
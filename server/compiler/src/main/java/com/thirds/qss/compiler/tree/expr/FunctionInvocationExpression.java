@@ -5,10 +5,13 @@ import com.thirds.qss.compiler.Message;
 import com.thirds.qss.compiler.Messenger;
 import com.thirds.qss.compiler.Range;
 import com.thirds.qss.compiler.resolve.Resolver;
+import com.thirds.qss.compiler.tree.Node;
 import com.thirds.qss.compiler.type.ExpressionTypeDeducer;
 import com.thirds.qss.compiler.type.VariableTracker;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 
 public class FunctionInvocationExpression extends Expression {
     private final Expression function;
@@ -55,7 +58,7 @@ public class FunctionInvocationExpression extends Expression {
             argTypes.add(arg.getVariableType().get());
         }
 
-        ArrayList<VariableType> paramTypes = funcType.getParams();
+        List<VariableType> paramTypes = funcType.getParams();
 
         int parameterCount = funcType.isReceiverStyle() ? paramTypes.size() - 1 : paramTypes.size();
         int argumentCount = isReceiverStyle ? argTypes.size() - 1 : argTypes.size();
@@ -144,4 +147,12 @@ public class FunctionInvocationExpression extends Expression {
     public boolean isReceiverStyle() {
         return isReceiverStyle;
     }
+
+    @Override
+    public void forChildren(Consumer<Node> consumer) {
+        consumer.accept(function);
+        for (Expression arg : args) {
+            consumer.accept(arg);
+        }
+    }
 }
@@ -20,12 +20,12 @@ public class IndexExpression extends TypeDeducerBinaryExpression {
         if (left instanceof VariableType.List) {
             VariableType elementType = ((VariableType.List) left).getElementType();
             Messenger<Object> downcast = expressionTypeDeducer.getCastChecker().attemptDowncast(getRight().getRange(), right, VariableType.Primitive.TYPE_INT);
-            return downcast.then(() -> Messenger.success(new VariableType.Maybe(elementType)));
+            return downcast.then(() -> Messenger.success(VariableType.Maybe.of(elementType)));
         } else if (left instanceof VariableType.Map && !requireList) {
             VariableType keyType = ((VariableType.Map) left).getKeyType();
             VariableType valueType = ((VariableType.Map) left).getValueType();
             Messenger<Object> downcast = expressionTypeDeducer.getCastChecker().attemptDowncast(getRight().getRange(), right, keyType);
-            return downcast.then(() -> Messenger.success(new VariableType.Maybe(valueType)));
+            return downcast.then(() -> Messenger.success(VariableType.Maybe.of(valueType)));
         } else {
             if (requireList) {
                 String messageSuffix = (left instanceof VariableType.Map) ? "; try using 'for key => value in map' syntax" : "";
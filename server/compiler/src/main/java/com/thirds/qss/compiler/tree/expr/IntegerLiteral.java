@@ -3,11 +3,12 @@ package com.thirds.qss.compiler.tree.expr;
 import com.thirds.qss.VariableType;
 import com.thirds.qss.compiler.lexer.Token;
 import com.thirds.qss.compiler.lexer.TokenType;
+import com.thirds.qss.compiler.tree.LineMove;
 import com.thirds.qss.compiler.type.ExpressionTypeDeducer;
 import com.thirds.qss.compiler.type.VariableTracker;
 
 public class IntegerLiteral extends Expression {
-    private final Token integer;
+    private Token integer;
 
     public IntegerLiteral(Token integer) {
         super(integer.getRange());
@@ -20,4 +21,9 @@ public class IntegerLiteral extends Expression {
     protected VariableType deduceVariableType(ExpressionTypeDeducer expressionTypeDeducer, VariableTracker.ScopeTree scopeTree) {
         return VariableType.Primitive.TYPE_INT;
     }
+
+    @Override
+    protected void moveTokens(LineMove move) {
+        integer = move.apply(integer);
+    }
 }
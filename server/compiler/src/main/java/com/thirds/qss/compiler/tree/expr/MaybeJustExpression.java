@@ -17,6 +17,6 @@ public class MaybeJustExpression extends UnaryExpression {
     @Override
     protected VariableType deduceVariableType(ExpressionTypeDeducer expressionTypeDeducer, VariableTracker.ScopeTree scopeTree) {
         getArgument().deduceAndAssignVariableType(expressionTypeDeducer, scopeTree);
-        return getArgument().getVariableType().map(contentsType -> (VariableType) new VariableType.Maybe(contentsType)).orElse(VariableType.Primitive.TYPE_UNKNOWN);
+        return getArgument().getVariableType().map(contentsType -> (VariableType) VariableType.Maybe.of(contentsType)).orElse(VariableType.Primitive.TYPE_UNKNOWN);
     }
 }
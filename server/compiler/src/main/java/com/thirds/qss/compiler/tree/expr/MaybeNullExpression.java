@@ -4,10 +4,13 @@ import com.thirds.qss.VariableType;
 import com.thirds.qss.compiler.Range;
 import com.thirds.qss.compiler.lexer.Token;
 import com.thirds.qss.compiler.resolve.Resolver;
+import com.thirds.qss.compiler.tree.Node;
 import com.thirds.qss.compiler.tree.Type;
 import com.thirds.qss.compiler.type.ExpressionTypeDeducer;
 import com.thirds.qss.compiler.type.VariableTracker;
 
+import java.util.function.Consumer;
+
 /**
  * Creates a new maybe value containing no value.
  */
@@ -22,6 +25,11 @@ public class MaybeNullExpression extends Expression {
     @Override
     protected VariableType deduceVariableType(ExpressionTypeDeducer expressionTypeDeducer, VariableTracker.ScopeTree scopeTree) {
         Resolver.resolveType(expressionTypeDeducer.getCompiler(), expressionTypeDeducer.getScript(), expressionTypeDeducer.getMessages(), "null", type);
-        return new VariableType.Maybe(type.getResolvedType());
+        return VariableType.Maybe.of(type.getResolvedType());
+    }
+
+    @Override
+    public void forChildren(Consumer<Node> consumer) {
+        consumer.accept(type);
     }
 }
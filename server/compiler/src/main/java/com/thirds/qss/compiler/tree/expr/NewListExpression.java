@@ -31,6 +31,9 @@ public class NewListExpression extends Expression {
         if (!(type.getResolvedType() instanceof VariableType.List)) {
             throw new UnsupportedOperationException(type.getResolvedType().toString());
         }
+        for (Expression value : values) {
+            value.deduceAndAssignVariableType(expressionTypeDeducer, scopeTree);
+        }
         return type.getResolvedType();
     }
 
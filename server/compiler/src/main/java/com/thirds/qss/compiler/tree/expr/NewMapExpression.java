@@ -30,6 +30,10 @@ public class NewMapExpression extends Expression {
         if (!(type.getResolvedType() instanceof VariableType.Map)) {
             throw new UnsupportedOperationException(type.getResolvedType().toString());
         }
+        for (MapField value : values) {
+            value.getKey().deduceAndAssignVariableType(expressionTypeDeducer, scopeTree);
+            value.getValue().deduceAndAssignVariableType(expressionTypeDeducer, scopeTree);
+        }
         return type.getResolvedType();
     }
 
@@ -1,10 +1,13 @@
 package com.thirds.qss.compiler.tree.expr;
 
+import com.thirds.qss.BundleQualifiedName;
 import com.thirds.qss.QualifiedName;
 import com.thirds.qss.VariableType;
+import com.thirds.qss.compiler.Compiler;
 import com.thirds.qss.compiler.Message;
 import com.thirds.qss.compiler.Range;
 import com.thirds.qss.compiler.indexer.Index;
+import com.thirds.qss.compiler.indexer.SimpleNameIndex;
 import com.thirds.qss.compiler.resolve.ResolveResult;
 import com.thirds.qss.compiler.resolve.Resolver;
 import com.thirds.qss.compiler.tree.NameLiteral;
@@ -16,6 +19,7 @@ import com.thirds.qss.compiler.type.VariableTracker;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
 
 /**
@@ -63,13 +67,17 @@ public class NewStructExpression extends Expression {
                             type, fieldType
                     ));
                 }
+            } else {
+                field.getValue().deduceAndAssignVariableType(expressionTypeDeducer, scopeTree);
             }
         }
 
         // Ensure that all fields of the struct are assigned.
         // To do this, we need to find the original definition of the struct.
         NameLiteral structNameLiteral = ((Type.StructType) type).getStructName();
-        ResolveResult<Map<String, Index.FieldDefinition>> structFields = Resolver.resolveGlobalScope(expressionTypeDeducer.getCompiler(), expressionTypeDeducer.getScript(), index -> {
+        Compiler compiler = expressionTypeDeducer.getCompiler();
+        Set<BundleQualifiedName> candidates = compiler.getIndices().getCandidates(SimpleNameIndex.Kind.STRUCT, structName.lastSegment());
+        ResolveResult<Map<String, Index.FieldDefinition>> structFields = Resolver.resolveGlobalScope(compiler, expressionTypeDeducer.getScript(), candidates, index -> {
             if (!index.getPackage().equals(structName.trimLastSegment()))
                 return List.of();
             Index.StructDefinition structDefinition = index.getStructDefinitions().get(structName.lastSegment());
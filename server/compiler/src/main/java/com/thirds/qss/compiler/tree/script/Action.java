@@ -3,6 +3,8 @@ package com.thirds.qss.compiler.tree.script;
 import com.thirds.qss.compiler.Range;
 import com.thirds.qss.compiler.tree.Node;
 
+import java.util.function.Consumer;
+
 public class Action extends Node {
     private final Struct struct;
     private final Func func;
@@ -20,4 +22,10 @@ public class Action extends Node {
     public Func getFunc() {
         return func;
     }
+
+    @Override
+    public void forChildren(Consumer<Node> consumer) {
+        consumer.accept(struct);
+        consumer.accept(func);
+    }
 }
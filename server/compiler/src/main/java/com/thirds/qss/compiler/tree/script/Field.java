@@ -2,6 +2,7 @@ package com.thirds.qss.compiler.tree.script;
 
 import com.thirds.qss.compiler.Range;
 import com.thirds.qss.compiler.lexer.Token;
+import com.thirds.qss.compiler.tree.LineMove;
 import com.thirds.qss.compiler.tree.Node;
 import com.thirds.qss.compiler.tree.Type;
 
@@ -11,7 +12,7 @@ import java.util.function.Consumer;
  * Represents a field of a struct.
  */
 public class Field extends Node {
-    private final Token name;
+    private Token name;
     private final Type type;
 
     public Field(Range range, Token name, Type type) {
@@ -32,4 +33,9 @@ public class Field extends Node {
     public void forChildren(Consumer<Node> consumer) {
         consumer.accept(type);
     }
+
+    @Override
+    protected void moveTokens(LineMove move) {
+        name = move.apply(name);
+    }
 }
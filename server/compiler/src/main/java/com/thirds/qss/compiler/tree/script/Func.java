@@ -3,13 +3,14 @@ package com.thirds.qss.compiler.tree.script;
 import com.thirds.qss.VariableType;
 import com.thirds.qss.compiler.Range;
 import com.thirds.qss.compiler.lexer.Token;
+import com.thirds.qss.compiler.tree.LineMove;
 import com.thirds.qss.compiler.tree.Node;
 import com.thirds.qss.compiler.tree.Type;
 
 import java.util.function.Consumer;
 
 public class Func extends FuncOrHook {
-    private final Token name;
+    private Token name;
 
     public Func(Range range, VariableType.Function.Purity purity, Token name, ParamList paramList, Type returnType, FuncBlock funcBlock) {
         super(range, purity, paramList, returnType, funcBlock);
@@ -19,4 +20,9 @@ public class Func extends FuncOrHook {
     public Token getName() {
         return name;
     }
+
+    @Override
+    protected void moveTokens(LineMove move) {
+        name = move.apply(name);
+    }
 }
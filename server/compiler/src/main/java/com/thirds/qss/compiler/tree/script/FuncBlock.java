@@ -5,9 +5,15 @@ import com.thirds.qss.compiler.tree.Node;
 import com.thirds.qss.compiler.tree.statement.CompoundStatement;
 
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public class FuncBlock extends Node {
-    private final CompoundStatement block;
+    private CompoundStatement block;
+    /**
+     * If the block was skipped by a skeleton parse (see {@link com.thirds.qss.compiler.parser.Parser#parseSkeleton}),
+     * parses the block. This is null once the block has been parsed.
+     */
+    private Supplier<CompoundStatement> unparsed;
 
     /**
      * @param block If null, the statement is considered "native" and has a native Java implementation but no QSS
@@ -18,23 +24,54 @@ public class FuncBlock extends Node {
         this.block = block;
     }
 
-    public boolean isNative() {
-        return block == null;
+    private FuncBlock(Range range, Supplier<CompoundStatement> unparsed) {
+        super(range);
+        this.unparsed = unparsed;
+    }
+
+    /**
+     * @param unparsed Parses the block the first time it is needed.
+     * @return A block that has not been parsed yet.
+     */
+    public static FuncBlock unparsed(Range range, Supplier<CompoundStatement> unparsed) {
+        return new FuncBlock(range, unparsed);
+    }
+
+    public synchronized boolean isNative() {
+        return block == null && unparsed == null;
     }
 
-    public CompoundStatement getBlock() {
+    /**
+     * @return False if the block was skipped by a skeleton parse and has not been parsed since.
+     */
+    public synchronized boolean isParsed() {
+        return unparsed == null;
+    }
+
+    /**
+     * Parses the block if it was skipped by a skeleton parse.
+     */
+    public synchronized CompoundStatement getBlock() {
+        if (unparsed != null) {
+            block = unparsed.get();
+            unparsed = null;
+            updateAllContainers();
+        }
         return block;
     }
 
     @Override
     public String toString() {
         return "FuncBlock{" +
-                "block=" + block +
+                "block=" + (isParsed() ? block : "<unparsed>") +
                 '}';
     }
 
+    /**
+     * A block that has not been parsed yet has no children, so walking the tree does not parse it.
+     */
     @Override
-    public void forChildren(Consumer<Node> consumer) {
+    public synchronized void forChildren(Consumer<Node> consumer) {
         if (block != null)
             consumer.accept(block);
     }
@@ -3,6 +3,7 @@ package com.thirds.qss.compiler.tree.script;
 import com.thirds.qss.VariableType;
 import com.thirds.qss.compiler.Range;
 import com.thirds.qss.compiler.lexer.Token;
+import com.thirds.qss.compiler.tree.LineMove;
 import com.thirds.qss.compiler.tree.NameLiteral;
 import com.thirds.qss.compiler.tree.Node;
 import com.thirds.qss.compiler.tree.Type;
@@ -17,7 +18,7 @@ public class FuncHook extends FuncOrHook {
     /**
      * When should the hook execute? Either KW_BEFORE or KW_AFTER.
      */
-    private final Token time;
+    private Token time;
     private final Identifier name;
 
     public FuncHook(Range range, VariableType.Function.Purity purity, Token time, NameLiteral name, ParamList paramList, Type returnType, FuncBlock funcBlock) {
@@ -39,4 +40,9 @@ public class FuncHook extends FuncOrHook {
         super.forChildren(consumer);
         consumer.accept(name);
     }
+
+    @Override
+    protected void moveTokens(LineMove move) {
+        time = move.apply(time);
+    }
 }
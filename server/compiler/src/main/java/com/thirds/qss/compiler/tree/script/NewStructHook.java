@@ -4,6 +4,7 @@ import com.thirds.qss.VariableType;
 import com.thirds.qss.compiler.Range;
 import com.thirds.qss.compiler.lexer.Token;
 import com.thirds.qss.compiler.lexer.TokenType;
+import com.thirds.qss.compiler.tree.LineMove;
 import com.thirds.qss.compiler.tree.NameLiteral;
 import com.thirds.qss.compiler.tree.Node;
 import com.thirds.qss.compiler.tree.Type;
@@ -19,7 +20,7 @@ public class NewStructHook extends FuncOrHook {
     /**
      * When should the hook execute? Either KW_BEFORE or KW_AFTER.
      */
-    private final Token time;
+    private Token time;
     private final NameLiteral structName;
 
     public NewStructHook(Range range, Token time, Token getToken, NameLiteral structName, FuncBlock funcBlock) {
@@ -46,4 +47,9 @@ public class NewStructHook extends FuncOrHook {
         super.forChildren(consumer);
         consumer.accept(structName);
     }
+
+    @Override
+    protected void moveTokens(LineMove move) {
+        time = move.apply(time);
+    }
 }
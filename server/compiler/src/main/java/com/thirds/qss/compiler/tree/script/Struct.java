@@ -4,13 +4,14 @@ import com.thirds.qss.compiler.Range;
 import com.thirds.qss.compiler.lexer.Token;
 import com.thirds.qss.compiler.lexer.TokenType;
 import com.thirds.qss.compiler.tree.Documentable;
+import com.thirds.qss.compiler.tree.LineMove;
 import com.thirds.qss.compiler.tree.Node;
 
 import java.util.ArrayList;
 import java.util.function.Consumer;
 
 public class Struct extends Node {
-    private final Token name;
+    private Token name;
     private final ArrayList<Documentable<Field>> fields;
     private ActionInfo info;
 
@@ -36,6 +37,8 @@ public class Struct extends Node {
         for (Documentable<Field> field : fields) {
             consumer.accept(field);
         }
+        if (info != null && info.getShortcut() != null)
+            consumer.accept(info.getShortcut());
     }
 
     @Override
@@ -46,4 +49,9 @@ public class Struct extends Node {
     public void setAction(ActionInfo info) {
         this.info = info;
     }
+
+    @Override
+    protected void moveTokens(LineMove move) {
+        name = move.apply(name);
+    }
 }
@@ -4,13 +4,14 @@ import com.thirds.qss.compiler.Range;
 import com.thirds.qss.compiler.lexer.Token;
 import com.thirds.qss.compiler.lexer.TokenType;
 import com.thirds.qss.compiler.tree.Documentable;
+import com.thirds.qss.compiler.tree.LineMove;
 import com.thirds.qss.compiler.tree.Node;
 
 import java.util.ArrayList;
 import java.util.function.Consumer;
 
 public class Trait extends Node {
-    private final Token name;
+    private Token name;
     private final ArrayList<Documentable<TraitFunc>> traitFuncs;
 
     public Trait(Range range, Token name, ArrayList<Documentable<TraitFunc>> traitFuncs) {
@@ -41,4 +42,9 @@ public class Trait extends Node {
     public String toString() {
         return "trait " + name.contents + "@" + getRange();
     }
+
+    @Override
+    protected void moveTokens(LineMove move) {
+        name = move.apply(name);
+    }
 }
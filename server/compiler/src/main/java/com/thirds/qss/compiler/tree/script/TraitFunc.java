@@ -3,13 +3,14 @@ package com.thirds.qss.compiler.tree.script;
 import com.thirds.qss.VariableType;
 import com.thirds.qss.compiler.Range;
 import com.thirds.qss.compiler.lexer.Token;
+import com.thirds.qss.compiler.tree.LineMove;
 import com.thirds.qss.compiler.tree.Type;
 
 /**
  * Represents a function in a trait definition. This is unique in the sense that it has no function body.
  */
 public class TraitFunc extends FuncOrHook {
-    private final Token name;
+    private Token name;
 
     public TraitFunc(Range range, VariableType.Function.Purity purity, Token name, ParamList paramList, Type returnType) {
         super(range, purity, paramList, returnType, null);
@@ -19,4 +20,9 @@ public class TraitFunc extends FuncOrHook {
     public Token getName() {
         return name;
     }
+
+    @Override
+    protected void moveTokens(LineMove move) {
+        name = move.apply(name);
+    }
 }
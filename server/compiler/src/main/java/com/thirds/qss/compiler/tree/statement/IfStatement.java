@@ -1,8 +1,11 @@
 package com.thirds.qss.compiler.tree.statement;
 
 import com.thirds.qss.compiler.Range;
+import com.thirds.qss.compiler.tree.Node;
 import com.thirds.qss.compiler.tree.expr.Expression;
 
+import java.util.function.Consumer;
+
 public class IfStatement extends Statement {
     private final Expression condition;
     private final Statement trueBlock;
@@ -31,4 +34,12 @@ public class IfStatement extends Statement {
     public Statement getFalseBlock() {
         return falseBlock;
     }
+
+    @Override
+    public void forChildren(Consumer<Node> consumer) {
+        consumer.accept(condition);
+        consumer.accept(trueBlock);
+        if (falseBlock != null)
+            consumer.accept(falseBlock);
+    }
 }
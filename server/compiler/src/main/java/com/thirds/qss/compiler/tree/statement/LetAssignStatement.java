@@ -2,6 +2,7 @@ package com.thirds.qss.compiler.tree.statement;
 
 import com.thirds.qss.compiler.Range;
 import com.thirds.qss.compiler.lexer.Token;
+import com.thirds.qss.compiler.tree.LineMove;
 import com.thirds.qss.compiler.tree.Node;
 import com.thirds.qss.compiler.tree.Type;
 import com.thirds.qss.compiler.tree.expr.Expression;
@@ -12,7 +13,7 @@ import java.util.function.Consumer;
  * <code>let name = rvalue;</code>
  */
 public class LetAssignStatement extends Statement {
-    private final Token name;
+    private Token name;
     private final Expression rvalue;
 
     public LetAssignStatement(Range range, Token name, Expression rvalue) {
@@ -33,4 +34,9 @@ public class LetAssignStatement extends Statement {
     public void forChildren(Consumer<Node> consumer) {
         consumer.accept(rvalue);
     }
+
+    @Override
+    protected void moveTokens(LineMove move) {
+        name = move.apply(name);
+    }
 }
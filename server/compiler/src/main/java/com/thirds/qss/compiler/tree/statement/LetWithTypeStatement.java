@@ -2,6 +2,7 @@ package com.thirds.qss.compiler.tree.statement;
 
 import com.thirds.qss.compiler.Range;
 import com.thirds.qss.compiler.lexer.Token;
+import com.thirds.qss.compiler.tree.LineMove;
 import com.thirds.qss.compiler.tree.Node;
 import com.thirds.qss.compiler.tree.Type;
 
@@ -11,7 +12,7 @@ import java.util.function.Consumer;
  * <code>let name: type;</code>
  */
 public class LetWithTypeStatement extends Statement {
-    private final Token name;
+    private Token name;
     private final Type type;
 
     public LetWithTypeStatement(Range range, Token name, Type type) {
@@ -30,6 +31,11 @@ public class LetWithTypeStatement extends Statement {
 
     @Override
     public void forChildren(Consumer<Node> consumer) {
-        type.forChildren(consumer);
+        consumer.accept(type);
+    }
+
+    @Override
+    protected void moveTokens(LineMove move) {
+        name = move.apply(name);
     }
 }
@@ -2,8 +2,11 @@ package com.thirds.qss.compiler.tree.statement;
 
 import com.thirds.qss.compiler.Range;
 import com.thirds.qss.compiler.lexer.Token;
+import com.thirds.qss.compiler.tree.Node;
 import com.thirds.qss.compiler.tree.expr.Expression;
 
+import java.util.function.Consumer;
+
 public class WhileStatement extends Statement {
     private final Expression condition;
     private final CompoundStatement block;
@@ -21,4 +24,10 @@ public class WhileStatement extends Statement {
     public CompoundStatement getBlock() {
         return block;
     }
+
+    @Override
+    public void forChildren(Consumer<Node> consumer) {
+        consumer.accept(condition);
+        consumer.accept(block);
+    }
 }
@@ -28,6 +28,10 @@ public class CastChecker {
         if (expression == VariableType.Primitive.TYPE_UNKNOWN || target == VariableType.Primitive.TYPE_UNKNOWN)
             return Messenger.fail(new ArrayList<>(0));
 
+        // Types are canonical, so identical types are the same object, and a type can always be cast to itself.
+        if (expression == target)
+            return Messenger.success(new Object());
+
         if (expression instanceof VariableType.Primitive) {
             if (target instanceof VariableType.Primitive) {
                 if (expression == target) {
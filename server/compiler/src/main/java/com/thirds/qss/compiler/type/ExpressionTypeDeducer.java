@@ -6,10 +6,12 @@ import com.thirds.qss.compiler.Location;
 import com.thirds.qss.compiler.Message;
 import com.thirds.qss.compiler.ScriptPath;
 import com.thirds.qss.compiler.resolve.Resolver;
+import com.thirds.qss.compiler.lexer.Token;
 import com.thirds.qss.compiler.tree.Script;
 import com.thirds.qss.compiler.tree.expr.Identifier;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Calculates the type of an expression based on the types of its arguments.
@@ -21,6 +23,10 @@ public class ExpressionTypeDeducer {
     private final ArrayList<Message> messages;
     private final CastChecker castChecker;
     private final TraitChecker traitChecker;
+    /**
+     * How many identifiers have been resolved by {@link #resolveIdentifier}.
+     */
+    private long identifierLookups = 0;
 
     public ExpressionTypeDeducer(Compiler compiler, Script script, ScriptPath filePath, ArrayList<Message> messages) {
         this.compiler = compiler;
@@ -55,10 +61,20 @@ public class ExpressionTypeDeducer {
         return traitChecker;
     }
 
+    public long getIdentifierLookups() {
+        return identifierLookups;
+    }
+
     public void resolveIdentifier(VariableTracker.ScopeTree scopeTree, Identifier identifier) {
-        for (String variableName : scopeTree.allVariableNames()) {
-            if (identifier.getName().matches(variableName)) {
-                VariableTracker.VariableUsageState state = scopeTree.getState(variableName);
+        identifierLookups++;
+
+        // Local variables always have single-segment names, so they can be looked up directly.
+        // Qualified names can only refer to functions.
+        List<Token> segments = identifier.getName().getSegments();
+        if (segments.size() == 1) {
+            String variableName = segments.get(0).contents;
+            VariableTracker.VariableUsageState state = scopeTree.getState(variableName);
+            if (state != null) {
                 identifier.getName().setTarget(new QualifiedName(variableName), new Location(filePath, state.variable.getRange()), null);
                 identifier.setLocal(true);
                 scopeTree.getVariableType(variableName).ifPresent(identifier::setVariableType);
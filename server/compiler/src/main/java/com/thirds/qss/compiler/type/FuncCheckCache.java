@@ -0,0 +1,151 @@
+package com.thirds.qss.compiler.type;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.thirds.qss.BundleQualifiedName;
+import com.thirds.qss.QualifiedName;
+import com.thirds.qss.compiler.Compiler;
+import com.thirds.qss.compiler.Message;
+import com.thirds.qss.compiler.Range;
+import com.thirds.qss.compiler.indexer.Index;
+import com.thirds.qss.compiler.indexer.Indices;
+import com.thirds.qss.compiler.indexer.SimpleNameIndex;
+import com.thirds.qss.compiler.resolve.UsedDefinitions;
+import com.thirds.qss.compiler.tree.LineMove;
+import com.thirds.qss.compiler.tree.Script;
+import com.thirds.qss.compiler.tree.script.FuncOrHook;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Remembers the messages from type checking each function body, so that a function is not checked again if neither
+ * its body nor any definition it used has changed.
+ *
+ * Functions are keyed by their node. When a script is edited, the parser only reuses the nodes of a top-level item if
+ * none of the item's tokens changed (see {@link com.thirds.qss.compiler.parser.ParsedItems}), so a node identifies
+ * the exact text of its body. The nodes still hold the types and name targets that were deduced when the body was
+ * last checked, so only the messages need to be stored here. If lines were inserted or removed above the function,
+ * the parser moved its nodes, so the messages are moved by the same number of lines.
+ *
+ * The definitions a function used are identified by the script's imports, and a fingerprint of every definition that
+ * each simple name the function looked up could refer to (see {@link UsedDefinitions}). Editing a definition the
+ * function did not look up, such as the body of another function, does not affect the function.
+ */
+public class FuncCheckCache {
+    private final Cache<FuncOrHook, Entry> entries = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build();
+
+    private static class Entry {
+        /**
+         * The range of the function when it was checked.
+         */
+        private final Range range;
+        private final Set<QualifiedName> imports;
+        private final UsedDefinitions used;
+        private final Fingerprint fingerprint;
+        private final List<Message> messages;
+
+        private Entry(Range range, Set<QualifiedName> imports, UsedDefinitions used, Fingerprint fingerprint, List<Message> messages) {
+            this.range = range;
+            this.imports = imports;
+            this.used = used;
+            this.fingerprint = fingerprint;
+            this.messages = messages;
+        }
+    }
+
+    /**
+     * Describes the definitions that some simple names could refer to.
+     */
+    private static class Fingerprint {
+        /**
+         * Maps kinds -> simple names -> each package that defines that name, followed by a description of its
+         * definitions with that name (see {@link Index#describeDefinitions}).
+         */
+        private final Map<SimpleNameIndex.Kind, Map<String, List<Object>>> definitions = new EnumMap<>(SimpleNameIndex.Kind.class);
+        /**
+         * Maps every package onto the version of its trait impls, or null if trait impls were not used.
+         */
+        private final Map<BundleQualifiedName, Long> traitImpls;
+
+        private Fingerprint(Compiler compiler, UsedDefinitions used) {
+            Indices indices = compiler.getIndices();
+            used.getNames().forEach((kind, names) -> {
+                Map<String, List<Object>> kindDefinitions = new HashMap<>();
+                for (String name : names) {
+                    List<Object> description = new ArrayList<>();
+                    for (BundleQualifiedName thePackage : indices.getCandidates(kind, name)) {
+                        description.add(thePackage);
+                        Index index = getIndex(indices, thePackage);
+                        description.add(index == null ? null : index.describeDefinitions(kind, name));
+                    }
+                    kindDefinitions.put(name, description);
+                }
+                definitions.put(kind, kindDefinitions);
+            });
+
+            if (used.usedTraitImpls()) {
+                traitImpls = new HashMap<>();
+                indices.getBundles().forEach((bundleName, bundle) -> bundle.getPackages().forEach((packageName, index) ->
+                        traitImpls.put(new BundleQualifiedName(bundleName, packageName), index.getTraitImplsVersion())));
+            } else {
+                traitImpls = null;
+            }
+        }
+
+        private static Index getIndex(Indices indices, BundleQualifiedName thePackage) {
+            Indices.Bundle bundle = indices.get(thePackage.getBundle());
+            return bundle == null ? null : bundle.getPackages().get(thePackage.getName());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Fingerprint that = (Fingerprint) o;
+            return definitions.equals(that.definitions) &&
+                    Objects.equals(traitImpls, that.traitImpls);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(definitions, traitImpls);
+        }
+    }
+
+    /**
+     * If the function does not need to be checked again, adds the dependencies it recorded when it was last checked
+     * to the compiler's dependency graph, just as checking it would.
+     * @return The messages from the last time the function was checked, or empty if it must be checked again.
+     */
+    public Optional<List<Message>> get(Compiler compiler, Script script, FuncOrHook func) {
+        Entry entry = entries.getIfPresent(func);
+        if (entry == null
+                || !entry.imports.equals(script.getImportedPackages())
+                || !entry.fingerprint.equals(new Fingerprint(compiler, entry.used)))
+            return Optional.empty();
+        entry.used.replay(compiler.getDependencyGraph(), script.getFilePath());
+
+        int lineDelta = func.getRange().getStartLine() - entry.range.getStartLine();
+        if (lineDelta == 0)
+            return Optional.of(entry.messages);
+        LineMove move = new LineMove(script.getFilePath(), entry.range, lineDelta);
+        return Optional.of(entry.messages.stream().map(move::apply).collect(Collectors.toList()));
+    }
+
+    /**
+     * @param used The definitions that were looked up while checking the function.
+     * @param messages The messages from checking the function.
+     */
+    public void put(Compiler compiler, Script script, FuncOrHook func, UsedDefinitions used, List<Message> messages) {
+        entries.put(func, new Entry(
+                func.getRange(),
+                Set.copyOf(script.getImportedPackages()),
+                used,
+                new Fingerprint(compiler, used),
+                List.copyOf(messages)
+        ));
+    }
+}
@@ -47,8 +47,7 @@ public class FuncType extends Type {
             if (returnTypeResolved.alternatives.size() == 1) {
                 VariableType returnTypeVariableType = returnTypeResolved.alternatives.get(0).value;
                 imports.addAll(returnTypeResolved.alternatives.get(0).imports);
-                VariableType.Function funcType = new VariableType.Function(false, paramTypes, returnTypeVariableType);
-                funcType.setPurity(purity);
+                VariableType.Function funcType = VariableType.Function.of(false, paramTypes, returnTypeVariableType, purity);
                 return ResolveResult.success(List.of(
                         new ResolveAlternative<>(
                                 funcType,
@@ -59,8 +58,7 @@ public class FuncType extends Type {
                 return ResolveResult.nonImported(List.of());
             }
         } else {
-            VariableType.Function funcType = new VariableType.Function(false, paramTypes, null);
-            funcType.setPurity(purity);
+            VariableType.Function funcType = VariableType.Function.of(false, paramTypes, null, purity);
             return ResolveResult.success(List.of(
                     new ResolveAlternative<>(
                             funcType,
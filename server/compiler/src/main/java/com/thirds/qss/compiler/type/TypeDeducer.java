@@ -1,14 +1,19 @@
 package com.thirds.qss.compiler.type;
 
+import com.thirds.qss.compiler.CancellationToken;
 import com.thirds.qss.compiler.Compiler;
 import com.thirds.qss.compiler.Message;
 import com.thirds.qss.compiler.ScriptPath;
+import com.thirds.qss.compiler.resolve.UsedDefinitions;
 import com.thirds.qss.compiler.tree.Script;
 import com.thirds.qss.compiler.tree.script.Func;
 import com.thirds.qss.compiler.tree.script.FuncHook;
 import com.thirds.qss.compiler.tree.script.FuncOrHook;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Deduces types of each expression in a function body.
@@ -17,17 +22,72 @@ public class TypeDeducer {
     private final Compiler compiler;
     private final Script script;
     private final ScriptPath filePath;
+    private final CancellationToken cancellationToken;
+    private long identifierLookups = 0;
 
-    public TypeDeducer(Compiler compiler, Script script, ScriptPath filePath) {
+    public TypeDeducer(Compiler compiler, Script script, ScriptPath filePath, CancellationToken cancellationToken) {
         this.compiler = compiler;
         this.script = script;
         this.filePath = filePath;
+        this.cancellationToken = cancellationToken;
     }
 
     public void computeTypesIn(FuncOrHook func, ArrayList<Message> messages) {
         if (func.getFuncBlock().isNative())
             return;
 
-        new VariableTracker(compiler, script, filePath, messages, func);
+        // Skip the function if it was checked before, and neither it nor anything it used has changed since.
+        FuncCheckCache cache = compiler.getFuncCheckCache();
+        Optional<List<Message>> cached = cache.get(compiler, script, func);
+        if (cached.isPresent()) {
+            messages.addAll(cached.get());
+            return;
+        }
+
+        ArrayList<Message> funcMessages = new ArrayList<>();
+        VariableTracker[] variableTracker = new VariableTracker[1];
+        UsedDefinitions used = UsedDefinitions.record(() ->
+                variableTracker[0] = new VariableTracker(compiler, script, filePath, funcMessages, func, cancellationToken));
+        identifierLookups += variableTracker[0].getIdentifierLookups();
+        cache.put(compiler, script, func, used, funcMessages);
+        messages.addAll(funcMessages);
+    }
+
+    /**
+     * Deduces the types in each of the given functions. Once the indices are built, each function body can be checked
+     * independently of the others, so if <code>parallel</code> is true the functions are checked concurrently (in the
+     * current fork-join pool, or the common pool if this is not called from a pool). Each function's messages are
+     * collected separately, then added in the order the functions were given, so the result is the same either way.
+     */
+    public void computeTypesIn(List<? extends FuncOrHook> funcs, ArrayList<Message> messages, boolean parallel) {
+        if (!parallel || funcs.size() < 2) {
+            for (FuncOrHook func : funcs) {
+                computeTypesIn(func, messages);
+            }
+            return;
+        }
+
+        List<ForkJoinTask<TypeDeducer>> tasks = new ArrayList<>(funcs.size());
+        List<ArrayList<Message>> funcMessages = new ArrayList<>(funcs.size());
+        for (FuncOrHook func : funcs) {
+            ArrayList<Message> buffer = new ArrayList<>();
+            funcMessages.add(buffer);
+            // Each function gets its own type deducer so that the counters are not shared between threads.
+            TypeDeducer funcDeducer = new TypeDeducer(compiler, script, filePath, cancellationToken);
+            tasks.add(ForkJoinTask.adapt(() -> funcDeducer.computeTypesIn(func, buffer), funcDeducer));
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        for (int i = 0; i < tasks.size(); i++) {
+            messages.addAll(funcMessages.get(i));
+            identifierLookups += tasks.get(i).join().identifierLookups;
+        }
+    }
+
+    /**
+     * @return How many identifiers were resolved in all the functions checked by this type deducer.
+     */
+    public long getIdentifierLookups() {
+        return identifierLookups;
     }
 }
@@ -32,21 +32,31 @@ public class VariableTracker {
     private final ArrayList<Message> messages;
     private final FuncOrHook func;
     private final ExpressionTypeDeducer expressionTypeDeducer;
+    private final CancellationToken cancellationToken;
 
     public VariableTracker(Compiler compiler,
                            Script script,
                            ScriptPath filePath,
                            ArrayList<Message> messages,
-                           FuncOrHook func) {
+                           FuncOrHook func,
+                           CancellationToken cancellationToken) {
         this.compiler = compiler;
         this.script = script;
         this.filePath = filePath;
         this.messages = messages;
         this.func = func;
+        this.cancellationToken = cancellationToken;
         expressionTypeDeducer = new ExpressionTypeDeducer(compiler, script, filePath, messages);
         track();
     }
 
+    /**
+     * @return How many identifiers were resolved while tracking this function.
+     */
+    public long getIdentifierLookups() {
+        return expressionTypeDeducer.getIdentifierLookups();
+    }
+
     /**
      * Traverses each statement in the function looking for where and how variables are used, throwing error and warning
      * messages on invalid code.
@@ -60,8 +70,8 @@ public class VariableTracker {
             VariableUsageState duplicateState = scopeTree.getState(param.getName().contents);
             if (duplicateState == null) {
                 VariableUsageState state = new VariableUsageState(param, param.getName().contents, func.getFuncBlock().getBlock())
-                        .assign(func.getFuncBlock().getBlock());
-                state.variableType = param.getType().getResolvedType();
+                        .assign(func.getFuncBlock().getBlock())
+                        .withVariableType(param.getType().getResolvedType());
                 scopeTree.put(param.getName().contents, state);
             } else {
                 messages.add(new Message(
@@ -81,7 +91,7 @@ public class VariableTracker {
             VariableUsageState state = new VariableUsageState(returnType, "result", func.getFuncBlock().getBlock());
             VariableType returnType2 = returnType.getResolvedType();
             if (returnType2 != null) {
-                state.variableType = returnType2;
+                state = state.withVariableType(returnType2);
                 if (func instanceof Func)
                     trackResult = true;
             }
@@ -154,6 +164,9 @@ public class VariableTracker {
         if (statement == null)
             return scopeTree;
 
+        // Long functions can take a while to check, so stop between statements if the result is no longer needed.
+        cancellationToken.checkCancelled();
+
         if (scopeTree.functionState.returnedValue) {
             messages.add(new Message(
                     statement.getRange(),
@@ -328,25 +341,29 @@ public class VariableTracker {
     private Optional<VariableType> deduceVariableUsageRvalue(Expression expr, ScopeTree scopeTree) {
         expr.deduceAndAssignVariableType(expressionTypeDeducer, scopeTree);
         Optional<VariableType> type = expr.getVariableType();
-        if (expr instanceof Identifier) {
-            Identifier identifier = (Identifier) expr;
+        useVariablesIn(expr, scopeTree);
+        return type;
+    }
+
+    /**
+     * Marks the local variables read by this rvalue expr as used. The types of the expression and its subexpressions
+     * must already have been deduced; deducing the type of an expression deduces the types of its subexpressions.
+     */
+    private void useVariablesIn(Node node, ScopeTree scopeTree) {
+        if (node instanceof Identifier) {
+            Identifier identifier = (Identifier) node;
             if (identifier.isLocal()) {
                 String variableName = identifier.getName().getSegments().get(0).contents;
                 VariableUsageState state = scopeTree.getState(variableName);
                 if (state != null) {
-                    scopeTree.setState(variableName, state.use(expr));
+                    scopeTree.setState(variableName, state.use(identifier));
                 }
             }
-        } else if (expr instanceof ResultExpression) {
-            checkResultUsage(expr.getRange());
+        } else if (node instanceof ResultExpression) {
+            checkResultUsage(node.getRange());
         } else {
-            expr.forAllChildren(n -> {
-                if (n instanceof Expression)
-                    deduceVariableUsageRvalue((Expression) n, scopeTree);
-            });
+            node.forChildren(n -> useVariablesIn(n, scopeTree));
         }
-
-        return type;
     }
 
     /**
@@ -391,10 +408,7 @@ public class VariableTracker {
                 ));
             }
         } else {
-            expr.forAllChildren(n -> {
-                if (n instanceof Expression)
-                    deduceVariableUsageRvalue((Expression) n, scopeTree);
-            });
+            expr.forChildren(n -> useVariablesIn(n, scopeTree));
         }
 
         if (!localVariable) {
@@ -495,19 +509,8 @@ public class VariableTracker {
         if (scopes.size() == 1)
             return scopes.get(0);
 
-        // Check that all scopes have the same variable list.
-        ScopeTree baseTree = scopes.get(0);
-        Set<String> names = baseTree.allVariableNames();
-        for (int i = 1; i < scopes.size(); i++) {
-            ScopeTree scope = scopes.get(i);
-            if (!scope.allVariableNames().equals(names)) {
-                QssLogger.logger.atSevere().log("The variables in two scopes could not be matched (this is a compiler bug): " + baseTree + "; " + scope);
-                throw new UnsupportedOperationException(baseTree + " ; " + scope);
-                //return null;
-            }
-        }
-
         // Now, execute the scope states in parallel.
+        ScopeTree baseTree = scopes.get(0);
         FunctionState functionState = baseTree.functionState.copy();
         for (int i = 1; i < scopes.size(); i++) {
             ScopeTree scope = scopes.get(i);
@@ -516,13 +519,17 @@ public class VariableTracker {
         }
         baseTree.functionState = functionState;
 
-        for (String name : names) {
-            VariableUsageState state = baseTree.getState(name);
-            for (int i = 1; i < scopes.size(); i++) {
-                ScopeTree scope = scopes.get(i);
-                state = state.parallel(scope.getState(name));
-            }
-            baseTree.setState(name, state);
+        // The scopes share every variable state that neither branch changed, so only the changed states are merged.
+        for (int i = 1; i < scopes.size(); i++) {
+            ScopeTree scope = scopes.get(i);
+            baseTree.stateMap.forEachDifference(scope.stateMap, (name, state, otherState) -> {
+                if (state == null || otherState == null) {
+                    // Check that all scopes have the same variable list.
+                    QssLogger.logger.atSevere().log("The variables in two scopes could not be matched (this is a compiler bug): " + baseTree + "; " + scope);
+                    throw new UnsupportedOperationException(baseTree + " ; " + scope);
+                }
+                baseTree.setState(name, state.parallel(otherState));
+            });
         }
 
         return baseTree;
@@ -531,21 +538,23 @@ public class VariableTracker {
     /**
      * Represents the state of each locally scoped variable in a given scope.
      * It also encapsulates the state of the function's execution at this point in the function.
+     *
+     * The variable states are held in a persistent map, and the states themselves are never modified, so a nested
+     * scope shares its outer scope's map until a variable is changed; entering a scope does not copy anything.
      */
     public static class ScopeTree {
-        private final Map<String, VariableUsageState> stateMap = new HashMap<>();
+        private PersistentMap<String, VariableUsageState> stateMap;
         private FunctionState functionState;
         private VariableType.Function.Purity purity;
 
         public ScopeTree(FunctionState functionState, VariableType.Function.Purity purity) {
+            this.stateMap = PersistentMap.empty();
             this.functionState = functionState;
             this.purity = purity;
         }
 
         public ScopeTree(ScopeTree outerScopes) {
-            for (Map.Entry<String, VariableUsageState> entry : outerScopes.stateMap.entrySet()) {
-                stateMap.put(entry.getKey(), entry.getValue().duplicate());
-            }
+            stateMap = outerScopes.stateMap;
             functionState = outerScopes.functionState.copy();
             purity = outerScopes.purity;
         }
@@ -554,11 +563,11 @@ public class VariableTracker {
             QssLogger.logger.atInfo().log("Set VT for %s: %s", variable, type);
             if (getState(variable) == null)
                 QssLogger.logger.atSevere().log("No state for %s: %s", variable, stateMap);
-            getState(variable).variableType = type;
+            setState(variable, getState(variable).withVariableType(type));
         }
 
         public void put(String name, VariableUsageState state) {
-            stateMap.put(name, state);
+            stateMap = stateMap.put(name, state);
         }
 
         public VariableUsageState getState(String variableName) {
@@ -566,7 +575,8 @@ public class VariableTracker {
         }
 
         private void removeName(String name) {
-            VariableUsageState state = stateMap.remove(name);
+            VariableUsageState state = stateMap.get(name);
+            stateMap = stateMap.remove(name);
             state.warnIfNotUsed();
         }
 
@@ -587,7 +597,7 @@ public class VariableTracker {
         }
 
         public void setState(String name, VariableUsageState state) {
-            stateMap.put(name, state);
+            stateMap = stateMap.put(name, state);
         }
 
         @Override
@@ -611,30 +621,32 @@ public class VariableTracker {
         }
     }
 
-    private void assignVariableInBlocks(StringBuilder sb, ArrayList<Node> nonAssignedBlocks) {
+    private void assignVariableInBlocks(StringBuilder sb, List<Node> nonAssignedBlocks) {
         sb.append(". You must assign the variable in the following blocks: ");
         for (int i = 0; i < nonAssignedBlocks.size(); i++) {
             Node nonAssignedBlock = nonAssignedBlocks.get(i);
             if (i != 0)
                 sb.append(", ");
-            sb.append("lines ").append(nonAssignedBlock.getRange().start.line).append("-").append(nonAssignedBlock.getRange().end.line);
+            sb.append("lines ").append(nonAssignedBlock.getRange().getStartLine()).append("-").append(nonAssignedBlock.getRange().getEndLine());
         }
     }
 
     /**
      * Represents the state of the usage of a single variable after a particular block of code has been executed.
      * A variable might have been declared without assignment, conditionally assigned, assigned, or used.
+     *
+     * States are immutable, since they are shared between scopes; each change creates a new state.
      */
     public class VariableUsageState {
         /**
          * The list of blocks in which the variable is assigned. If this is non-empty, the variable has been
          * conditionally assigned.
          */
-        public final ArrayList<Node> assignedBlocks = new ArrayList<>();
+        public final List<Node> assignedBlocks;
         /**
          * The list of blocks in which the variable is not assigned.
          */
-        public final ArrayList<Node> nonAssignedBlocks = new ArrayList<>();
+        public final List<Node> nonAssignedBlocks;
         /**
          * The node that defines this variable. E.g. the "a" in <code>let a = 1;</code>
          */
@@ -646,7 +658,7 @@ public class VariableTracker {
         /**
          * In which block is this variable state valid?
          */
-        public Statement block;
+        public final Statement block;
         /**
          * This flag is given to variables when they have been used. For example, in the following fragment of QSS:
          * <code><pre>
@@ -656,16 +668,26 @@ public class VariableTracker {
          * the variable <code>a</code> has been declared, assigned and used; the variable <code>b</code> has been declared
          * and assigned but not used.
          */
-        public boolean usedAnywhere = false;
+        public final boolean usedAnywhere;
         /**
          * Null if no type has been deduced yet.
          */
-        public VariableType variableType;
+        public final VariableType variableType;
 
         public VariableUsageState(Ranged variable, String variableName, Statement block) {
+            this(variable, variableName, block, List.of(), List.of(), false, null);
+        }
+
+        private VariableUsageState(Ranged variable, String variableName, Statement block,
+                                   List<Node> assignedBlocks, List<Node> nonAssignedBlocks,
+                                   boolean usedAnywhere, VariableType variableType) {
             this.variable = variable;
             this.variableName = variableName;
             this.block = block;
+            this.assignedBlocks = assignedBlocks;
+            this.nonAssignedBlocks = nonAssignedBlocks;
+            this.usedAnywhere = usedAnywhere;
+            this.variableType = variableType;
         }
 
         /**
@@ -698,38 +720,40 @@ public class VariableTracker {
          * conditional statement, like the two branches of an <code>if</code> or arms of a <code>match</code>?
          */
         public VariableUsageState parallel(VariableUsageState other) {
-            VariableUsageState result = new VariableUsageState(variable, variableName, block);
+            // A state merged with itself is unchanged.
+            if (other == this)
+                return this;
+
+            ArrayList<Node> assignedBlocks = new ArrayList<>();
+            ArrayList<Node> nonAssignedBlocks = new ArrayList<>();
 
             if (isUnconditionallyAssigned()) {
-                result.assignedBlocks.add(block);
-            } else if (isUnconditionallyAssigned()) {
-                result.assignedBlocks.addAll(assignedBlocks);
-                result.nonAssignedBlocks.addAll(nonAssignedBlocks);
+                assignedBlocks.add(block);
+            } else if (isConditionallyAssigned()) {
+                assignedBlocks.addAll(this.assignedBlocks);
+                nonAssignedBlocks.addAll(this.nonAssignedBlocks);
             } else {
-                result.nonAssignedBlocks.add(block);
+                nonAssignedBlocks.add(block);
             }
 
             if (other.isUnconditionallyAssigned()) {
-                result.assignedBlocks.add(other.block);
-            } else if (other.isUnconditionallyAssigned()) {
-                result.assignedBlocks.addAll(other.assignedBlocks);
-                result.nonAssignedBlocks.addAll(other.nonAssignedBlocks);
+                assignedBlocks.add(other.block);
+            } else if (other.isConditionallyAssigned()) {
+                assignedBlocks.addAll(other.assignedBlocks);
+                nonAssignedBlocks.addAll(other.nonAssignedBlocks);
             } else {
-                result.nonAssignedBlocks.add(other.block);
+                nonAssignedBlocks.add(other.block);
             }
 
-            result.usedAnywhere = usedAnywhere || other.usedAnywhere;
-            result.variableType = variableType;
-
-            return result;
+            return new VariableUsageState(variable, variableName, block, assignedBlocks, nonAssignedBlocks,
+                    usedAnywhere || other.usedAnywhere, variableType);
         }
 
         /**
-         * Replaces the current 'block' to the new container. Used to specify that a variable usage state is valid
-         * at the end of the execution of the container.
+         * @return A copy of this state with the given deduced type.
          */
-        public void setBlock(Statement container) {
-            block = container;
+        public VariableUsageState withVariableType(VariableType type) {
+            return new VariableUsageState(variable, variableName, block, assignedBlocks, nonAssignedBlocks, usedAnywhere, type);
         }
 
         /**
@@ -737,18 +761,13 @@ public class VariableTracker {
          * provided <code>ctx</code>.
          */
         public VariableUsageState assign(Node where) {
-            VariableUsageState state = duplicate();
-            state.assignedBlocks.clear();
-            state.nonAssignedBlocks.clear();
-            state.assignedBlocks.add(where);
-            return state;
+            return new VariableUsageState(variable, variableName, block, List.of(where), List.of(), usedAnywhere, variableType);
         }
 
         /**
          * Call this method whenever the variable is used.
          */
         public VariableUsageState use(Node where) {
-            VariableUsageState state = duplicate();
 
             if (isConditionallyAssigned()) {
                 StringBuilder sb = new StringBuilder().append("Variable ").append(variableName);
@@ -775,8 +794,9 @@ public class VariableTracker {
                 ));
             }
 
-            state.usedAnywhere = true;
-            return state;
+            if (usedAnywhere)
+                return this;
+            return new VariableUsageState(variable, variableName, block, assignedBlocks, nonAssignedBlocks, true, variableType);
         }
 
         public void warnIfNotUsed() {
@@ -797,15 +817,6 @@ public class VariableTracker {
             }
         }
 
-        public VariableUsageState duplicate() {
-            VariableUsageState result = new VariableUsageState(variable, variableName, block);
-            result.usedAnywhere = usedAnywhere;
-            result.assignedBlocks.addAll(assignedBlocks);
-            result.nonAssignedBlocks.addAll(nonAssignedBlocks);
-            result.variableType = variableType;
-            return result;
-        }
-
         @Override
         public String toString() {
             return "VariableUsageState{" +
@@ -2,6 +2,7 @@ package com.thirds.qss.compiler.validator;
 
 import com.thirds.qss.QualifiedName;
 import com.thirds.qss.VariableType;
+import com.thirds.qss.compiler.CancellationToken;
 import com.thirds.qss.compiler.Compiler;
 import com.thirds.qss.compiler.Message;
 import com.thirds.qss.compiler.ScriptPath;
@@ -15,6 +16,7 @@ import com.thirds.qss.compiler.tree.Type;
 import com.thirds.qss.compiler.tree.script.*;
 
 import java.util.ArrayList;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 public class Validator {
@@ -22,16 +24,19 @@ public class Validator {
     private final Script script;
     private final ScriptPath filePath;
     private final ArrayList<Message> messages = new ArrayList<>();
+    private final CancellationToken cancellationToken;
 
-    public Validator(Compiler compiler, Script script, ScriptPath filePath) {
+    public Validator(Compiler compiler, Script script, ScriptPath filePath, CancellationToken cancellationToken) {
         this.compiler = compiler;
         this.script = script;
         this.filePath = filePath;
+        this.cancellationToken = cancellationToken;
     }
 
     /**
      * Execute some validation checks on the script that was passed in via the constructor.
      * @return A list of error/warning/info messages to display to the user.
+     * @throws com.thirds.qss.compiler.CompileCancelledException If the cancellation token was cancelled.
      */
     public ArrayList<Message> validate() {
         messages.clear();
@@ -45,16 +50,16 @@ public class Validator {
     }
 
     private VariableType.Function generateFunctionType(FuncOrHook func) {
+        // Duplicate parameters are never resolved by the indexer, so their types are still null.
         ArrayList<VariableType> params = func.getParamList().getParams()
-                .stream().map(param -> param.getType().getResolvedType())
+                .stream().map(param -> Objects.requireNonNullElse(param.getType().getResolvedType(), VariableType.Primitive.TYPE_UNKNOWN))
                 .collect(Collectors.toCollection(ArrayList::new));
-        VariableType.Function function = new VariableType.Function(
+        return VariableType.Function.of(
                 false,
                 params,
-                func.getReturnType() == null ? null : func.getReturnType().getResolvedType()
+                func.getReturnType() == null ? null : func.getReturnType().getResolvedType(),
+                func.getPurity()
         );
-        function.setPurity(func.getPurity());
-        return function;
     }
 
     /**
@@ -63,6 +68,7 @@ public class Validator {
      */
     private void checkFuncHookType() {
         for (Documentable<FuncHook> funcHook : script.getFuncHooks()) {
+            cancellationToken.checkCancelled();
             ResolveResult<Resolver.FuncAlternative> result = Resolver.resolveFunc(compiler, script, messages, funcHook.getContent().getName(), "func");
             if (result.alternatives.size() == 1) {
                 // The resolve succeeded.
@@ -88,6 +94,7 @@ public class Validator {
      */
     private void checkGetSetHookType() {
         for (Documentable<GetHook> getHook : script.getGetHooks()) {
+            cancellationToken.checkCancelled();
             checkGetSetHookType(
                     getHook.getContent().getStructName(),
                     getHook.getContent().getFieldName(),
@@ -95,6 +102,7 @@ public class Validator {
             );
         }
         for (Documentable<SetHook> setHook : script.getSetHooks()) {
+            cancellationToken.checkCancelled();
             checkGetSetHookType(
                     setHook.getContent().getStructName(),
                     setHook.getContent().getFieldName(),
@@ -148,6 +156,8 @@ public class Validator {
      */
     private void checkTraitImpl() {
         for (Documentable<TraitImpl> traitImpl : script.getTraitImpls()) {
+            cancellationToken.checkCancelled();
+
             // We need to re-resolve the trait name using the normal index not the name index.
             // By doing this we can see the names and types of all the trait functions.
             QualifiedName originalTraitName = traitImpl.getContent().getTrait().getTargetQualifiedName();
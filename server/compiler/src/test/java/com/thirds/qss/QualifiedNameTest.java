@@ -0,0 +1,60 @@
+package com.thirds.qss;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QualifiedNameTest {
+    @Test
+    void emptyNames() {
+        QualifiedName empty = new QualifiedName();
+        assertTrue(empty.isEmpty());
+        assertEquals(new QualifiedName(), empty);
+        assertEquals(new QualifiedName(List.of()), empty);
+        assertEquals(new QualifiedName("a").trimLastSegment(), empty);
+        assertEquals(new QualifiedName().hashCode(), empty.hashCode());
+        assertEquals("", empty.toString());
+
+        // Empty names are used as the package name of scripts in the root of a bundle.
+        Map<QualifiedName, String> map = new HashMap<>();
+        map.put(new QualifiedName(), "root");
+        assertEquals("root", map.get(new QualifiedName()));
+    }
+
+    @Test
+    void equalNames() {
+        QualifiedName name = new QualifiedName("std", "entity", "spawn");
+        assertEquals(name, new QualifiedName("std::entity::spawn"));
+        assertEquals(name, new QualifiedName().appendSegment("std").appendSegment("entity").appendSegment("spawn"));
+        assertEquals(name, new QualifiedName("std", "entity").appendSegment("spawn"));
+        assertEquals(name, new QualifiedName("entity", "spawn").prependSegment("std"));
+        assertEquals(name.hashCode(), List.of("std", "entity", "spawn").hashCode());
+        assertEquals(new QualifiedName("x"), new QualifiedName().appendSegment("x"));
+
+        assertNotEquals(name, new QualifiedName("std", "entity"));
+        assertNotEquals(name, new QualifiedName("std", "entity", "despawn"));
+        assertNotEquals(name, new QualifiedName("core", "entity", "spawn"));
+        assertNotEquals(new QualifiedName(), new QualifiedName("x"));
+    }
+
+    @Test
+    void segments() {
+        QualifiedName name = new QualifiedName("std", "entity", "spawn");
+        assertEquals(3, name.size());
+        assertEquals(List.of("std", "entity", "spawn"), name.getSegments());
+        assertEquals("std", name.firstSegment());
+        assertEquals("spawn", name.lastSegment());
+        assertEquals(new QualifiedName("std", "entity"), name.trimLastSegment());
+        assertEquals(new QualifiedName("entity", "spawn"), name.trimFirstSegment());
+        assertEquals("std::entity::spawn", name.toString());
+
+        QualifiedName empty = new QualifiedName();
+        assertThrows(IndexOutOfBoundsException.class, empty::trimLastSegment);
+        assertThrows(IndexOutOfBoundsException.class, empty::firstSegment);
+        assertThrows(IndexOutOfBoundsException.class, empty::lastSegment);
+    }
+}
@@ -0,0 +1,109 @@
+package com.thirds.qss;
+
+import com.thirds.qss.compiler.Compiler;
+import com.thirds.qss.compiler.Messenger;
+import com.thirds.qss.compiler.ScriptPath;
+import com.thirds.qss.compiler.TestBundle;
+import com.thirds.qss.compiler.tree.Script;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VariableTypeTest {
+    private static final VariableType INT = VariableType.Primitive.TYPE_INT;
+    private static final VariableType STRING = VariableType.Primitive.TYPE_STRING;
+
+    private static VariableType.Function function(VariableType... params) {
+        // A fresh list each time, so that the function types are not the same just because their lists are.
+        return VariableType.Function.of(false, new ArrayList<>(Arrays.asList(params)), STRING, VariableType.Function.Purity.PURE);
+    }
+
+    @Test
+    void equalTypesAreSameInstance() {
+        assertSame(VariableType.Struct.of(new QualifiedName("a", "S")), VariableType.Struct.of(new QualifiedName("a", "S")));
+        assertSame(VariableType.Maybe.of(INT), VariableType.Maybe.of(INT));
+        assertSame(VariableType.List.of(VariableType.Maybe.of(INT)), VariableType.List.of(VariableType.Maybe.of(INT)));
+        assertSame(VariableType.Map.of(STRING, VariableType.List.of(INT)), VariableType.Map.of(STRING, VariableType.List.of(INT)));
+        assertSame(function(INT, VariableType.Maybe.of(STRING)), function(INT, VariableType.Maybe.of(STRING)));
+
+        assertNotSame(VariableType.Maybe.of(INT), VariableType.Maybe.of(STRING));
+        assertNotSame(VariableType.Map.of(STRING, INT), VariableType.Map.of(INT, STRING));
+        assertNotEquals(VariableType.Map.of(STRING, INT), VariableType.Map.of(INT, STRING));
+        assertNotSame(function(INT), function(INT, INT));
+    }
+
+    @Test
+    void containerTraitAndNativeAreDistinct() {
+        VariableType.Function function = function(INT);
+        QualifiedName trait = new QualifiedName("a", "Debug");
+
+        VariableType.Function traitFunction = function.withContainerTrait(trait);
+        assertNotSame(function, traitFunction);
+        assertSame(traitFunction, function(INT).withContainerTrait(trait));
+        assertNotSame(traitFunction, function.withContainerTrait(new QualifiedName("a", "Other")));
+        assertEquals(trait, traitFunction.getContainerTrait().orElseThrow());
+        assertTrue(function.getContainerTrait().isEmpty());
+
+        VariableType.Function nativeFunction = function.withNative(true);
+        assertNotSame(function, nativeFunction);
+        assertSame(nativeFunction, function(INT).withNative(true));
+        assertSame(function, nativeFunction.withNative(false));
+        assertTrue(nativeFunction.isNative());
+        assertFalse(function.isNative());
+
+        // The container trait and whether the function is native do not affect equality.
+        assertEquals(function, traitFunction);
+        assertEquals(function, nativeFunction);
+        assertEquals(VariableType.Maybe.of(function), VariableType.Maybe.of(traitFunction));
+    }
+
+    @Test
+    void nullChildTypesAreRejected() {
+        NullPointerException exception = assertThrows(NullPointerException.class, () -> VariableType.Maybe.of(null));
+        assertTrue(exception.getMessage().contains("TYPE_UNKNOWN"), exception.getMessage());
+        assertThrows(NullPointerException.class, () -> VariableType.List.of(null));
+        assertThrows(NullPointerException.class, () -> VariableType.Map.of(INT, null));
+        assertThrows(NullPointerException.class, () -> function(INT, null));
+    }
+
+    private static List<String> compile(String contents) throws IOException {
+        try (TestBundle bundle = new TestBundle("variable_type").write("src/a/a.qss", contents)) {
+            Compiler compiler = bundle.compiler();
+            Messenger<Script> script = compiler.compile(new ScriptPath("src", "a", "a.qss"));
+            assertTrue(script.getValue().isPresent());
+            return script.getMessages().stream().map(message -> message.message).collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    void unresolvedParametersDoNotThrow() throws IOException {
+        // Duplicate parameters are never resolved by the indexer, so validating the types of the hook and the trait
+        // implementation must not assume that every parameter has a type.
+        List<String> messages = compile(String.join("\n",
+                "func f(a: Int, b: Int) {",
+                "}",
+                "",
+                "before func f(a: Int, a: Int) {",
+                "}",
+                "",
+                "trait Debug {",
+                "    func[pure] debug(this: This, a: Int) -> String",
+                "}",
+                "",
+                "impl Debug for Int {",
+                "    func[pure] debug(this: This, this: This) -> String {",
+                "        return \"int\"",
+                "    }",
+                "}",
+                ""
+        ));
+        assertTrue(messages.contains("Parameter a was already defined"), messages.toString());
+        assertTrue(messages.contains("Parameter this was already defined"), messages.toString());
+    }
+}
@@ -0,0 +1,143 @@
+package com.thirds.qss.compiler;
+
+import com.github.jezza.Toml;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BundleGraphTest {
+    private Path root;
+
+    @BeforeEach
+    void createRoot() throws IOException {
+        root = Files.createTempDirectory("bundle_graph");
+    }
+
+    @AfterEach
+    void deleteRoot() throws IOException {
+        TestBundle.delete(root);
+    }
+
+    /**
+     * Writes a bundle.toml file in the given directory, relative to the root bundle's root.
+     * @param dependencies Alternating bundle names and paths, relative to this bundle.
+     */
+    private void bundle(String directory, String... dependencies) throws IOException {
+        StringBuilder sb = new StringBuilder("[dependencies]\n");
+        for (int i = 0; i < dependencies.length; i += 2) {
+            sb.append(dependencies[i]).append(" = { path = \"").append(dependencies[i + 1]).append("\" }\n");
+        }
+        Path bundleRoot = root.resolve(directory);
+        Files.createDirectories(bundleRoot);
+        Files.writeString(bundleRoot.resolve("bundle.toml"), sb.toString());
+    }
+
+    private BundleGraph graph() throws IOException {
+        return new BundleGraph(root, Messenger.success(Toml.from(new StringReader(Files.readString(root.resolve("bundle.toml"))))));
+    }
+
+    private static List<String> messages(BundleGraph graph) {
+        for (Message message : graph.getMessages()) {
+            assertEquals("qss-bundle", message.getSource(), message.message);
+        }
+        return graph.getMessages().stream().map(message -> message.message).collect(Collectors.toList());
+    }
+
+    @Test
+    void cycle() throws IOException {
+        bundle("", "a", "a");
+        bundle("a", "b", "../b");
+        bundle("b", "a", "../a");
+
+        BundleGraph graph = graph();
+        assertEquals(List.of("Bundle dependencies form a cycle: a -> b -> a"), messages(graph));
+        assertEquals(List.of("b", "a"), List.copyOf(graph.getDependencies().keySet()));
+        // The dependency that completes the cycle is ignored.
+        assertEquals(Set.of("a", "b"), graph.getClosure("a"));
+        assertEquals(Set.of("b"), graph.getClosure("b"));
+        assertEquals(List.of(List.of("b"), List.of("a"), List.of(BundleGraph.ROOT)), graph.getLayers());
+    }
+
+    @Test
+    void nameClash() throws IOException {
+        bundle("", "a", "one", "b", "two", "c", "one");
+        bundle("one");
+        bundle("two", "a", "../three");
+        bundle("three");
+
+        BundleGraph graph = graph();
+        assertEquals(List.of("Bundle a in " + Path.of("two", "bundle.toml") + " has the same name as a different bundle"), messages(graph));
+        // The directory "one" keeps the name it was first given.
+        assertEquals(List.of("a", "b"), List.copyOf(graph.getDependencies().keySet()));
+        assertEquals(new ScriptPath("one"), graph.getDependencies().get("a"));
+    }
+
+    @Test
+    void diamond() throws IOException {
+        bundle("", "left", "left", "right", "right");
+        bundle("left", "base", "../base");
+        bundle("right", "base", "../base");
+        bundle("base");
+
+        BundleGraph graph = graph();
+        assertEquals(List.of(), messages(graph));
+        assertEquals(List.of("base", "left", "right"), List.copyOf(graph.getDependencies().keySet()));
+        assertEquals(new ScriptPath("base"), graph.getDependencies().get("base"));
+        assertEquals(List.of(List.of("base"), List.of("left", "right"), List.of(BundleGraph.ROOT)), graph.getLayers());
+        assertEquals(Set.of("left", "base"), graph.getClosure("left"));
+        assertEquals(Set.of(BundleGraph.ROOT, "left", "right", "base"), graph.getClosure(BundleGraph.ROOT));
+        assertEquals(Set.of(), graph.getClosure("missing"));
+    }
+
+    @Test
+    void invalidDependencies() throws IOException {
+        Files.writeString(root.resolve("bundle.toml"), String.join("\n",
+                "[dependencies]",
+                "missing = { path = \"missing\" }",
+                "nopath = { version = \"1\" }",
+                "string = \"string\"",
+                ""
+        ));
+
+        BundleGraph graph = graph();
+        assertEquals(List.of(
+                "Bundle missing in bundle.toml had an invalid \"path\" key; missing was not a directory containing a Quest Sage bundle",
+                "Bundle nopath in bundle.toml should have a \"path\" key that is the directory of the bundle root",
+                "Bundle string in bundle.toml should be a table containing the \"path\" key"
+        ), messages(graph));
+        assertTrue(graph.getDependencies().isEmpty());
+    }
+
+    @Test
+    void isStale() throws IOException {
+        bundle("", "a", "a");
+        bundle("a", "b", "../b");
+        bundle("b");
+
+        BundleGraph graph = graph();
+        assertFalse(graph.isStale());
+
+        // The root bundle's bundle.toml is not checked; the compiler is told when it changes.
+        Files.setLastModifiedTime(root.resolve("bundle.toml"), FileTime.fromMillis(0));
+        assertFalse(graph.isStale());
+
+        Path dependencyFile = root.resolve("b").resolve("bundle.toml");
+        Files.setLastModifiedTime(dependencyFile, FileTime.fromMillis(Files.getLastModifiedTime(dependencyFile).toMillis() - 10000));
+        assertTrue(graph.isStale());
+        assertFalse(graph().isStale());
+
+        Files.delete(dependencyFile);
+        assertTrue(graph.isStale());
+    }
+}
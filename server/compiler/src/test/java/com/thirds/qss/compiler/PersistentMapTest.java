@@ -0,0 +1,189 @@
+package com.thirds.qss.compiler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PersistentMapTest {
+    /**
+     * A key with a chosen hash code, so that keys can be made to collide.
+     */
+    private static final class Key {
+        private final String name;
+        private final int hash;
+
+        private Key(String name, int hash) {
+            this.name = name;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).name.equals(name);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static <K, V> void assertMatches(Map<K, V> expected, PersistentMap<K, V> map) {
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected.isEmpty(), map.isEmpty());
+        Map<K, V> actual = new HashMap<>();
+        map.forEach((k, v) -> assertNull(actual.put(k, v), "Key listed twice: " + k));
+        assertEquals(expected, actual);
+        expected.forEach((k, v) -> assertSame(v, map.get(k)));
+    }
+
+    /**
+     * @return Maps each key whose value differs between the maps onto its value in the left and right map.
+     */
+    private static <K, V> Map<K, List<V>> differences(PersistentMap<K, V> left, PersistentMap<K, V> right) {
+        Map<K, List<V>> differences = new HashMap<>();
+        left.forEachDifference(right, (k, l, r) -> assertNull(differences.put(k, Arrays.asList(l, r)), "Key listed twice: " + k));
+        return differences;
+    }
+
+    @Test
+    void putAndRemove() {
+        PersistentMap<String, String> empty = PersistentMap.empty();
+        PersistentMap<String, String> map = empty;
+        Map<String, String> expected = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            String value = "v" + i;
+            map = map.put("k" + i, value);
+            expected.put("k" + i, value);
+        }
+        assertMatches(expected, map);
+        assertMatches(Map.of(), empty);
+
+        // Putting the same value or removing a missing key changes nothing.
+        assertSame(map, map.put("k5", expected.get("k5")));
+        assertSame(map, map.remove("missing"));
+        assertNull(map.get("missing"));
+        assertFalse(map.containsKey("missing"));
+
+        PersistentMap<String, String> full = map;
+        for (int i = 0; i < 1000; i += 2) {
+            map = map.remove("k" + i);
+            expected.remove("k" + i);
+        }
+        assertMatches(expected, map);
+        assertEquals(1000, full.size());
+
+        for (int i = 1; i < 1000; i += 2) {
+            map = map.remove("k" + i);
+        }
+        assertTrue(map.isEmpty());
+        assertMatches(Map.of(), map);
+    }
+
+    @Test
+    void hashCollisions() {
+        Key a = new Key("a", 42), b = new Key("b", 42), c = new Key("c", 42);
+        // Shares every bit of the others' hash except the highest.
+        Key d = new Key("d", 42 | (1 << 31));
+        Key e = new Key("e", 7);
+
+        PersistentMap<Key, String> map = PersistentMap.<Key, String>empty()
+                .put(a, "a").put(b, "b").put(d, "d").put(c, "c").put(e, "e");
+        assertMatches(Map.of(a, "a", b, "b", c, "c", d, "d", e, "e"), map);
+        assertNull(map.get(new Key("f", 42)));
+
+        PersistentMap<Key, String> replaced = map.put(b, "b2");
+        assertMatches(Map.of(a, "a", b, "b2", c, "c", d, "d", e, "e"), replaced);
+        assertEquals("b", map.get(b));
+
+        PersistentMap<Key, String> removed = map.remove(a).remove(c);
+        assertMatches(Map.of(b, "b", d, "d", e, "e"), removed);
+        removed = removed.remove(b);
+        assertMatches(Map.of(d, "d", e, "e"), removed);
+        assertSame(removed, removed.remove(new Key("f", 42)));
+
+        // A key that only shares part of its hash with a collision node moves the node down a level.
+        PersistentMap<Key, String> collisionsFirst = PersistentMap.<Key, String>empty().put(a, "a").put(b, "b").put(d, "d");
+        assertMatches(Map.of(a, "a", b, "b", d, "d"), collisionsFirst);
+    }
+
+    @Test
+    void differences() {
+        Key a = new Key("a", 1), b = new Key("b", 1), c = new Key("c", 33);
+        PersistentMap<Key, String> base = PersistentMap.<Key, String>empty().put(a, "a").put(b, "b").put(c, "c");
+        for (int i = 0; i < 100; i++) {
+            base = base.put(new Key("k" + i, i * 31), "k" + i);
+        }
+
+        assertEquals(Map.of(), differences(base, base));
+
+        PersistentMap<Key, String> left = base.put(b, "b-left").remove(c);
+        PersistentMap<Key, String> right = base.put(new Key("new", 1), "new").remove(new Key("k5", 5 * 31));
+        assertEquals(Map.of(
+                b, Arrays.asList("b-left", "b"),
+                c, Arrays.asList(null, "c"),
+                new Key("new", 1), Arrays.asList(null, "new"),
+                new Key("k5", 5 * 31), Arrays.asList("k5", null)
+        ), differences(left, right));
+
+        // Equal values that are different objects are reported.
+        String copy = new String("a");
+        assertEquals(Map.of(a, Arrays.asList("a", copy)), differences(base, base.put(a, copy)));
+    }
+
+    @Test
+    void randomOperationsMatchHashMap() {
+        Random random = new Random(0);
+        // Few distinct hashes, so that there are many collisions and partly shared hashes.
+        List<Key> keys = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            keys.add(new Key("k" + i, random.nextInt(16) * (1 << random.nextInt(32))));
+        }
+
+        PersistentMap<Key, Object> base = PersistentMap.empty();
+        Map<Key, Object> expectedBase = new HashMap<>();
+        for (int round = 0; round < 50; round++) {
+            // Derive two maps from the same base, as the branches of an if statement would.
+            List<PersistentMap<Key, Object>> maps = new ArrayList<>();
+            List<Map<Key, Object>> expected = new ArrayList<>();
+            for (int branch = 0; branch < 2; branch++) {
+                PersistentMap<Key, Object> map = base;
+                Map<Key, Object> expectedMap = new HashMap<>(expectedBase);
+                for (int i = random.nextInt(40); i > 0; i--) {
+                    Key key = keys.get(random.nextInt(keys.size()));
+                    if (random.nextInt(3) == 0) {
+                        map = map.remove(key);
+                        expectedMap.remove(key);
+                    } else {
+                        Object value = new Object();
+                        map = map.put(key, value);
+                        expectedMap.put(key, value);
+                    }
+                }
+                assertMatches(expectedMap, map);
+                maps.add(map);
+                expected.add(expectedMap);
+            }
+
+            Map<Key, List<Object>> expectedDifferences = new HashMap<>();
+            Set<Key> allKeys = new HashSet<>(expected.get(0).keySet());
+            allKeys.addAll(expected.get(1).keySet());
+            for (Key key : allKeys) {
+                Object left = expected.get(0).get(key), right = expected.get(1).get(key);
+                if (left != right)
+                    expectedDifferences.put(key, Arrays.asList(left, right));
+            }
+            assertEquals(expectedDifferences, differences(maps.get(0), maps.get(1)));
+
+            base = maps.get(random.nextInt(2));
+            expectedBase = expected.get(maps.indexOf(base));
+        }
+    }
+}
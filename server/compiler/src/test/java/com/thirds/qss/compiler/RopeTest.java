@@ -0,0 +1,182 @@
+package com.thirds.qss.compiler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RopeTest {
+
+    /**
+     * Text long enough to be split into several chunks, with line breaks in each chunk.
+     */
+    private static String longText(int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < length; i++) {
+            sb.append("line ").append(i).append('\n');
+        }
+        return sb.substring(0, length);
+    }
+
+    private static void assertMatches(String expected, Rope rope) {
+        assertEquals(expected, rope.toString());
+        assertEquals(expected.length(), rope.length());
+        assertEquals(expected.chars().filter(c -> c == '\n').count(), rope.lineBreaks());
+    }
+
+    @Test
+    void emptyRope() {
+        assertSame(Rope.EMPTY, Rope.of(""));
+        assertMatches("", Rope.EMPTY);
+        assertEquals(0, Rope.EMPTY.offsetOf(new Position(0, 5)));
+        assertEquals(0, Rope.EMPTY.offsetOf(new Position(3, 0)));
+        assertEquals(new Position(0, 0), Rope.EMPTY.positionOf(10));
+        assertThrows(IndexOutOfBoundsException.class, () -> Rope.EMPTY.charAt(0));
+
+        assertMatches("abc", Rope.EMPTY.replace(0, 0, "abc"));
+        assertMatches("", Rope.of("abc").replace(0, 3, ""));
+        assertMatches("", Rope.of(longText(5000)).replace(0, 5000, ""));
+    }
+
+    @Test
+    void replaceAcrossChunkBoundaries() {
+        String text = longText(5000);
+        Rope rope = Rope.of(text);
+
+        // Spans the boundary between the first two chunks.
+        Rope replaced = rope.replace(1000, 1100, "a\nb");
+        assertMatches(text.substring(0, 1000) + "a\nb" + text.substring(1100), replaced);
+
+        // Spans several chunks, and is replaced by text longer than a chunk.
+        String replacement = longText(3000);
+        replaced = rope.replace(500, 4500, replacement);
+        assertMatches(text.substring(0, 500) + replacement + text.substring(4500), replaced);
+        assertEquals(text.charAt(4700), replaced.charAt(500 + 3000 + 200));
+        assertEquals(text.substring(400, 500) + replacement.substring(0, 100), replaced.substring(400, 600));
+
+        // The original rope is unchanged.
+        assertMatches(text, rope);
+    }
+
+    @Test
+    void surrogatePairsAreNotSplit() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            sb.appendCodePoint(0x1F600);
+        }
+        String text = sb.toString();
+        Rope rope = Rope.of(text);
+        assertMatches(text, rope);
+        for (int i = 0; i < rope.length(); i += 511) {
+            assertEquals(text.charAt(i), rope.charAt(i));
+        }
+        assertMatches(text.substring(0, 2048) + "x" + text.substring(2050), rope.replace(2048, 2050, "x"));
+    }
+
+    @Test
+    void clampedPositions() {
+        Rope rope = Rope.of("ab\ncd");
+        assertEquals(2, rope.offsetOf(new Position(0, 10)));
+        assertEquals(3, rope.offsetOf(new Position(1, -1)));
+        assertEquals(5, rope.offsetOf(new Position(1, 10)));
+        assertEquals(5, rope.offsetOf(new Position(5, 0)));
+        assertEquals(new Position(0, 0), rope.positionOf(-3));
+        assertEquals(new Position(0, 2), rope.positionOf(2));
+        assertEquals(new Position(1, 0), rope.positionOf(3));
+        assertEquals(new Position(1, 2), rope.positionOf(100));
+    }
+
+    @Test
+    void crlfInput() {
+        Rope rope = Rope.of("ab\r\ncd\r\n");
+        assertEquals(2, rope.lineBreaks());
+        assertEquals(1, rope.offsetOf(new Position(0, 1)));
+        // Positions past the end of a line are clamped to before the whole line break.
+        assertEquals(2, rope.offsetOf(new Position(0, 10)));
+        assertEquals(4, rope.offsetOf(new Position(1, 0)));
+        assertEquals(6, rope.offsetOf(new Position(1, 3)));
+        assertEquals(8, rope.offsetOf(new Position(2, 0)));
+        assertEquals(new Position(0, 3), rope.positionOf(3));
+        assertEquals(new Position(1, 0), rope.positionOf(4));
+        assertEquals(new Position(2, 0), rope.positionOf(8));
+
+        TextEdit edit = TextEdit.of(rope, new Range(new Position(0, 10), new Position(1, 1)), "x\r\ny");
+        assertEquals(new Range(new Position(0, 2), new Position(1, 1)), edit.oldRange);
+        assertEquals(new Position(1, 1), edit.newEnd);
+        assertMatches("abx\r\nyd\r\n", rope.apply(edit));
+    }
+
+    /**
+     * Converts a position to an offset in the same way as {@link Rope#offsetOf}.
+     */
+    private static int offsetOf(String text, Position position) {
+        int lineStart = 0;
+        for (int line = 0; line < position.line; line++) {
+            int lineBreak = text.indexOf('\n', lineStart);
+            if (lineBreak < 0)
+                return text.length();
+            lineStart = lineBreak + 1;
+        }
+        int lineEnd = text.indexOf('\n', lineStart);
+        if (lineEnd < 0)
+            lineEnd = text.length();
+        else if (lineEnd > lineStart && text.charAt(lineEnd - 1) == '\r')
+            lineEnd--;
+        return Math.min(lineStart + Math.max(position.character, 0), lineEnd);
+    }
+
+    private static Position positionOf(String text, int offset) {
+        offset = Math.max(0, Math.min(offset, text.length()));
+        int lineStart = text.lastIndexOf('\n', offset - 1) + 1;
+        int line = (int) text.substring(0, offset).chars().filter(c -> c == '\n').count();
+        return new Position(line, offset - lineStart);
+    }
+
+    @Test
+    void randomEditsMatchStringBuilder() {
+        Random random = new Random(0);
+        String alphabet = "abc \n\r\t{}\uD83D\uDE00";
+        StringBuilder expected = new StringBuilder(longText(3000));
+        Rope rope = Rope.of(expected.toString());
+
+        for (int i = 0; i < 2000; i++) {
+            // Mostly small edits, like typing, with the occasional large paste or deletion.
+            int maxLength = random.nextInt(20) == 0 ? 3000 : 10;
+            StringBuilder text = new StringBuilder();
+            int textLength = random.nextInt(maxLength + 1);
+            for (int j = 0; j < textLength; j++) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+
+            // Some positions are past the last line.
+            int lines = rope.lineBreaks() + 2;
+            Range range = new Range(
+                    new Position(random.nextInt(lines), random.nextInt(40)),
+                    new Position(random.nextInt(lines), random.nextInt(40))
+            );
+            if (range.getStart().compareTo(range.getEnd()) > 0)
+                range = new Range(range.getEnd(), range.getStart());
+
+            String before = expected.toString();
+            TextEdit edit = TextEdit.of(rope, range, text.toString());
+            assertEquals(offsetOf(before, range.getStart()), edit.startOffset);
+            assertEquals(Math.max(edit.startOffset, offsetOf(before, range.getEnd())), edit.oldEndOffset);
+
+            expected.replace(edit.startOffset, edit.oldEndOffset, edit.text);
+            rope = rope.apply(edit);
+            String after = expected.toString();
+            assertMatches(after, rope);
+            assertEquals(positionOf(after, edit.newEndOffset), edit.newEnd);
+
+            for (int j = 0; j < 5; j++) {
+                int offset = random.nextInt(after.length() + 3) - 1;
+                assertEquals(positionOf(after, offset), rope.positionOf(offset));
+                Position position = new Position(random.nextInt(lines), random.nextInt(40));
+                assertEquals(offsetOf(after, position), rope.offsetOf(position));
+                if (offset >= 0 && offset < after.length())
+                    assertEquals(after.charAt(offset), rope.charAt(offset));
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.thirds.qss.compiler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A bundle in a new temporary directory, for tests that compile scripts. Closing the bundle closes the compilers
+ * created for it and deletes the directory, including any index files that were cached in it. JUnit 5.3 cannot
+ * create temporary directories for tests, so each test must close its bundle, usually in an <code>@AfterEach</code>
+ * method.
+ */
+public class TestBundle implements AutoCloseable {
+    private final Path root;
+    private final List<Compiler> compilers = new ArrayList<>();
+
+    /**
+     * Creates a bundle with an empty bundle.toml file and no scripts.
+     * @param prefix The prefix of the name of the temporary directory.
+     */
+    public TestBundle(String prefix) throws IOException {
+        root = Files.createTempDirectory(prefix);
+        Files.writeString(root.resolve("bundle.toml"), "");
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Writes a file, creating the directories it is in.
+     * @param path The path of the file, relative to the bundle root, such as <code>src/a/a.qss</code>.
+     * @return <code>this</code> for chaining.
+     */
+    public TestBundle write(String path, String contents) throws IOException {
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, contents);
+        return this;
+    }
+
+    /**
+     * @return A new compiler for this bundle that does not write index files. It is closed when the bundle is closed.
+     */
+    public Compiler compiler() {
+        Compiler compiler = new Compiler(root, false);
+        compilers.add(compiler);
+        return compiler;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Compiler compiler : compilers) {
+            compiler.close();
+        }
+        compilers.clear();
+        delete(root);
+    }
+
+    /**
+     * Deletes a directory and everything in it, if it exists.
+     */
+    public static void delete(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory))
+            return;
+        try (Stream<Path> files = Files.walk(directory)) {
+            // Delete the contents of each directory before the directory itself.
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
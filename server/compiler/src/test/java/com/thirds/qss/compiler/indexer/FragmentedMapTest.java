@@ -0,0 +1,78 @@
+package com.thirds.qss.compiler.indexer;
+
+import com.thirds.qss.compiler.ScriptPath;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FragmentedMapTest {
+    private static final ScriptPath A = new ScriptPath("src", "p", "a.qss");
+    private static final ScriptPath B = new ScriptPath("src", "p", "b.qss");
+    private static final ScriptPath C = new ScriptPath("src", "p", "c.qss");
+
+    private FragmentedMap<String, String> map;
+    private List<String> changes;
+
+    @BeforeEach
+    void createMap() {
+        map = new FragmentedMap<>();
+        changes = new ArrayList<>();
+        map.setListener((key, oldValue, newValue) -> changes.add(key + ": " + oldValue + " -> " + newValue));
+    }
+
+    @Test
+    void mostRecentlyAddedDefinitionIsMerged() {
+        assertTrue(map.replace(A, Map.of("x", "a", "y", "a")));
+        assertFalse(map.replace(B, Map.of("x", "b")));
+        assertFalse(map.replace(C, Map.of("x", "c")));
+        assertEquals(Map.of("x", "c", "y", "a"), map.getMerged());
+        assertEquals(List.of(A, B), map.getOtherOwners("x", C));
+
+        // B was added after A, so its definition is restored.
+        changes.clear();
+        assertFalse(map.remove(C));
+        assertEquals(Map.of("x", "b", "y", "a"), map.getMerged());
+        assertEquals(List.of("x: c -> b"), changes);
+
+        assertFalse(map.remove(B));
+        assertEquals(Map.of("x", "a", "y", "a"), map.getMerged());
+
+        assertTrue(map.remove(A));
+        assertEquals(Map.of(), map.getMerged());
+        assertFalse(map.remove(A));
+    }
+
+    @Test
+    void replacedScriptBecomesMostRecent() {
+        map.replace(A, Map.of("x", "a"));
+        map.replace(B, Map.of("x", "b"));
+        assertFalse(map.replace(A, Map.of("x", "a2")));
+        assertEquals(Map.of("x", "a2"), map.getMerged());
+
+        assertFalse(map.remove(A));
+        assertEquals(Map.of("x", "b"), map.getMerged());
+    }
+
+    @Test
+    void replaceReportsKeyChanges() {
+        map.replace(A, Map.of("x", "a"));
+        map.replace(B, Map.of("x", "b", "y", "b"));
+
+        // x is still defined by A, but y is no longer defined at all.
+        assertTrue(map.replace(B, Map.of("z", "b")));
+        assertEquals(Map.of("x", "a", "z", "b"), map.getMerged());
+        assertEquals("a", map.get(A, "x"));
+        assertNull(map.get(B, "x"));
+
+        // Only the values changed.
+        changes.clear();
+        assertFalse(map.replace(B, Map.of("x", "b2", "z", "b2")));
+        assertEquals(Map.of("x", "b2", "z", "b2"), map.getMerged());
+        assertTrue(changes.contains("x: a -> b2"), changes.toString());
+    }
+}
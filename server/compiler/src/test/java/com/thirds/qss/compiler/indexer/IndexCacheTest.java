@@ -0,0 +1,192 @@
+package com.thirds.qss.compiler.indexer;
+
+import com.thirds.qss.BundleQualifiedName;
+import com.thirds.qss.QualifiedName;
+import com.thirds.qss.VariableType;
+import com.thirds.qss.compiler.Compiler;
+import com.thirds.qss.compiler.ScriptPath;
+import com.thirds.qss.compiler.TestBundle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexCacheTest {
+    private static final QualifiedName A = new QualifiedName("a");
+    private static final QualifiedName B = new QualifiedName("b");
+
+    private TestBundle bundle;
+    private Path indexRoot;
+    private Compiler compiler;
+    private IndexCache cache;
+
+    @BeforeEach
+    void compileBundle() throws IOException {
+        bundle = new TestBundle("index_cache");
+        bundle.write("src/a/a.qss", String.join("\n",
+                "import b",
+                "",
+                "struct S {",
+                "    known: Int",
+                "    other: T",
+                "    missing: Missing",
+                "}",
+                "",
+                "func[pure] pure_func(this: S) -> Int {",
+                "    return 1",
+                "}",
+                "",
+                "func impure_func() {",
+                "}",
+                "",
+                "trait Debug {",
+                "    func[pure] debug(this: This) -> String",
+                "}",
+                "",
+                "impl Debug for Int {",
+                "    func[pure] debug(this: This) -> String {",
+                "        return \"int\"",
+                "    }",
+                "}",
+                ""
+        ));
+        bundle.write("src/b/b.qss", "struct T {\n}\n");
+
+        compiler = bundle.compiler();
+        compiler.compileAll();
+        indexRoot = Files.createTempDirectory("index_cache_files");
+        cache = new IndexCache(indexRoot);
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        bundle.close();
+        TestBundle.delete(indexRoot);
+    }
+
+    private Index index() {
+        return compiler.getIndices().get("bundle").getPackages().get(A);
+    }
+
+    private NameIndex nameIndex() {
+        return compiler.getNameIndices().get("bundle").getPackages().get(A);
+    }
+
+    private Path cachedFile(String extension) throws IOException {
+        try (Stream<Path> files = Files.walk(indexRoot)) {
+            List<Path> matching = files.filter(file -> file.toString().endsWith("." + extension)).collect(Collectors.toList());
+            assertEquals(1, matching.size(), "Cached files: " + matching);
+            return matching.get(0);
+        }
+    }
+
+    private boolean canRead(String extension) {
+        if (extension.equals("names"))
+            return cache.readNameIndex("bundle", A, "content").isPresent();
+        try (Compiler reader = new Compiler(bundle.getRoot(), false)) {
+            return cache.readIndex(reader, "bundle", A, "content", "names").isPresent();
+        }
+    }
+
+    @Test
+    void incompleteFilesAreNotRead() throws IOException {
+        cache.writeIndex("bundle", A, "content", "names", index(), compiler.getDependencyGraph());
+        cache.writeNameIndex("bundle", A, "content", nameIndex());
+        try (Stream<Path> files = Files.walk(indexRoot)) {
+            assertTrue(files.noneMatch(file -> file.toString().endsWith(".tmp")), "Temporary files were left behind");
+        }
+
+        for (String extension : new String[] {"index", "names"}) {
+            Path file = cachedFile(extension);
+            byte[] bytes = Files.readAllBytes(file);
+            // Cutting off any part of the file must stop it being read, even if what is left still parses, as it does
+            // when exactly the checksum field (a tag, a length and 64 hex digits) is cut off.
+            for (int length : new int[] {bytes.length - 1, bytes.length - 66, bytes.length / 2}) {
+                Files.write(file, Arrays.copyOf(bytes, length));
+                assertFalse(canRead(extension), extension + " file cut off at " + length + " of " + bytes.length + " bytes");
+            }
+            Files.write(file, bytes);
+            assertTrue(canRead(extension));
+        }
+    }
+
+    @Test
+    void roundTrip() {
+        cache.writeIndex("bundle", A, "content", "names", index(), compiler.getDependencyGraph());
+        cache.writeNameIndex("bundle", A, "content", nameIndex());
+
+        NameIndex nameIndex = cache.readNameIndex("bundle", A, "content").orElseThrow();
+        assertEquals(nameIndex().serialise(), nameIndex.serialise());
+        assertEquals(Set.of("S"), nameIndex.getStructDefinitions().keySet());
+
+        try (Compiler reader = new Compiler(bundle.getRoot(), false)) {
+            BundleQualifiedName packageB = new BundleQualifiedName("bundle", B);
+            assertEquals(Set.of(), reader.getDependencyGraph().getDependents(packageB, true));
+
+            Index index = cache.readIndex(reader, "bundle", A, "content", "names").orElseThrow();
+            assertEquals(index().serialise(), index.serialise());
+
+            // Types are canonical, so they can be compared by identity.
+            Index.StructDefinition struct = index.getStructDefinitions().get("S");
+            assertSame(VariableType.Primitive.TYPE_INT, struct.getFields().get("known").getVariableType());
+            assertSame(VariableType.Struct.of(new QualifiedName("b", "T")), struct.getFields().get("other").getVariableType());
+            assertSame(VariableType.Primitive.TYPE_UNKNOWN, struct.getFields().get("missing").getVariableType());
+
+            VariableType.Function pureFunc = index.getFuncDefinitions().get("pure_func").getType();
+            assertEquals(VariableType.Function.Purity.PURE, pureFunc.getPurity());
+            assertTrue(pureFunc.isReceiverStyle());
+            assertEquals(VariableType.Function.Purity.IMPURE, index.getFuncDefinitions().get("impure_func").getType().getPurity());
+
+            QualifiedName debug = new QualifiedName("a", "Debug");
+            VariableType.Function traitFunc = index.getTraitDefinitions().get("Debug").getTraitFuncDefinitions().get("debug").getType();
+            assertSame(VariableType.This.INSTANCE, traitFunc.getParams().get(0));
+            assertEquals(VariableType.Function.Purity.PURE, traitFunc.getPurity());
+            assertEquals(debug, traitFunc.getContainerTrait().orElseThrow());
+            assertSame(traitFunc, index().getTraitDefinitions().get("Debug").getTraitFuncDefinitions().get("debug").getType());
+            assertTrue(index.getTraitImplDefinitions().get(debug).get(VariableType.Primitive.TYPE_INT).getFuncImplDefinitions().containsKey("debug"));
+
+            // The script resolved T into package b, so it must be invalidated when b changes.
+            assertEquals(Set.of(new ScriptPath("src", "a", "a.qss")), reader.getDependencyGraph().getDependents(packageB, true));
+        }
+    }
+
+    @Test
+    void hashMismatch() {
+        cache.writeIndex("bundle", A, "content", "names", index(), compiler.getDependencyGraph());
+        cache.writeNameIndex("bundle", A, "content", nameIndex());
+
+        assertTrue(cache.readNameIndex("bundle", A, "other content").isEmpty());
+        try (Compiler reader = new Compiler(bundle.getRoot(), false)) {
+            assertTrue(cache.readIndex(reader, "bundle", A, "other content", "names").isEmpty());
+            assertTrue(cache.readIndex(reader, "bundle", A, "content", "other names").isEmpty());
+            assertTrue(cache.readIndex(reader, "bundle", B, "content", "names").isEmpty());
+        }
+    }
+
+    @Test
+    void changedPackageRebuilt() throws IOException {
+        ScriptPath script = new ScriptPath("src", "a", "a.qss");
+        try (Compiler writer = new Compiler(bundle.getRoot())) {
+            writer.compileAll();
+        }
+        assertTrue(Files.isRegularFile(bundle.getRoot().resolve(".qss/index/bundle/b.index")));
+
+        // The cached index of b no longer matches the contents of its script, so it must be built again.
+        bundle.write("src/b/b.qss", "struct T {\n    field: Int\n}\n");
+        try (Compiler reader = new Compiler(bundle.getRoot())) {
+            reader.compile(script);
+            Index index = reader.getIndices().getIndex(new BundleQualifiedName("bundle", B));
+            assertEquals(Set.of("field"), index.getStructDefinitions().get("T").getFields().keySet());
+        }
+    }
+}
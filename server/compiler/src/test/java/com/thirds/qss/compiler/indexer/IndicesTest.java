@@ -0,0 +1,120 @@
+package com.thirds.qss.compiler.indexer;
+
+import com.thirds.qss.QualifiedName;
+import com.thirds.qss.compiler.Compiler;
+import com.thirds.qss.compiler.ScriptPath;
+import com.thirds.qss.compiler.TestBundle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndicesTest {
+    private static final QualifiedName B = new QualifiedName("b");
+    private static final QualifiedName C = new QualifiedName("c");
+    private static final ScriptPath SCRIPT = new ScriptPath("src", "a", "a.qss");
+    private static final String SCRIPT_CONTENTS = "import b\n\nfunc f() -> Int {\n    return g()\n}\n";
+
+    private TestBundle testBundle;
+    private Compiler compiler;
+
+    @BeforeEach
+    void createBundle() throws IOException {
+        testBundle = new TestBundle("indices")
+                .write("src/a/a.qss", SCRIPT_CONTENTS)
+                .write("src/b/b.qss", "func g() -> Int {\n    return 1\n}\n")
+                .write("src/c/c.qss", "func h() -> Int {\n    return 2\n}\n");
+        compiler = testBundle.compiler();
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        testBundle.close();
+    }
+
+    @Test
+    void unimportedPackageIsNotBuilt() {
+        compiler.compile(SCRIPT);
+        Indices.Bundle bundle = compiler.getIndices().get("bundle");
+        assertTrue(bundle.getPackages().containsKey(B));
+        assertFalse(bundle.getPackages().containsKey(C));
+        assertTrue(bundle.isDeclared(C));
+
+        // Looking up a name that is only in c builds c, to suggest importing it.
+        compiler.overwriteCachedFileContent(SCRIPT, SCRIPT_CONTENTS.replace("g()", "h()"));
+        compiler.compile(SCRIPT);
+        assertFalse(bundle.isDeclared(C));
+        Index index = bundle.getPackages().get(C);
+        assertNotNull(index);
+        assertTrue(index.getFuncDefinitions().containsKey("h"));
+
+        // Later lookups use the same index.
+        compiler.compile(SCRIPT);
+        assertSame(index, bundle.getIndex(C));
+    }
+
+    @Test
+    void missingTraitImplOnlyBuildsImplementingPackages() throws IOException {
+        testBundle.write("src/t/t.qss", "trait Debug {\n    func[pure] debug(this: This) -> String\n}\n");
+        testBundle.write("src/d/d.qss", "import t\n\nimpl Debug for Int {\n    func[pure] debug(this: This) -> String {\n        return \"int\"\n    }\n}\n");
+        ScriptPath script = new ScriptPath("src", "t", "use.qss");
+        testBundle.write("src/t/use.qss", "func[pure] f(x: Bool) -> String {\n    return x.debug()\n}\n");
+
+        List<String> messages = compiler.compile(script).getMessages().stream().map(message -> message.message).collect(Collectors.toList());
+        assertTrue(messages.contains("Could not resolve impl of t::Debug for Bool"), messages.toString());
+
+        // Only d implements Debug, so it is the only package that had to be searched.
+        Indices.Bundle bundle = compiler.getIndices().get("bundle");
+        assertTrue(bundle.getPackages().containsKey(new QualifiedName("d")));
+        assertTrue(bundle.isDeclared(B));
+        assertTrue(bundle.isDeclared(C));
+    }
+
+    @Test
+    void declaredIndexIsBuiltOnce() throws InterruptedException, ExecutionException {
+        Indices.Bundle bundle = new Indices.Bundle("bundle", new ScriptPath(), new SimpleNameIndex());
+        AtomicInteger builds = new AtomicInteger();
+        bundle.declare(C, () -> {
+            builds.incrementAndGet();
+            return new Index(compiler, C);
+        });
+        assertEquals(0, builds.get());
+        assertTrue(bundle.isDeclared(C));
+
+        // Every thread that asks for the index at once gets the same one.
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Callable<Index>> tasks = IntStream.range(0, 8).<Callable<Index>>mapToObj(i -> () -> bundle.getIndex(C)).collect(Collectors.toList());
+            List<Future<Index>> results = executor.invokeAll(tasks);
+            Index index = results.get(0).get();
+            for (Future<Index> result : results) {
+                assertSame(index, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, builds.get());
+        assertFalse(bundle.isDeclared(C));
+
+        // Declaring a package that has already been built does nothing.
+        bundle.declare(C, () -> {
+            builds.incrementAndGet();
+            return new Index(compiler, C);
+        });
+        assertFalse(bundle.isDeclared(C));
+        bundle.getIndex(C);
+        assertEquals(1, builds.get());
+    }
+}
@@ -0,0 +1,155 @@
+package com.thirds.qss.compiler.indexer;
+
+import com.thirds.qss.QualifiedName;
+import com.thirds.qss.VariableType;
+import com.thirds.qss.compiler.Compiler;
+import com.thirds.qss.compiler.ScriptPath;
+import com.thirds.qss.compiler.TestBundle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SharedIndicesTest {
+    private static final QualifiedName PACKAGE = new QualifiedName("p");
+
+    /**
+     * The directory containing the bundles of a test.
+     */
+    private Path root;
+
+    @BeforeEach
+    void createRoot() throws IOException {
+        root = Files.createTempDirectory("shared_indices");
+    }
+
+    @AfterEach
+    void deleteRoot() throws IOException {
+        TestBundle.delete(root);
+    }
+
+    private static void bundle(Path bundleRoot, String dependencyPath) throws IOException {
+        Files.createDirectories(bundleRoot.resolve("src/main"));
+        Files.writeString(bundleRoot.resolve("bundle.toml"), "[dependencies]\ndep = { path = \"" + dependencyPath + "\" }\n");
+        Files.writeString(bundleRoot.resolve("src/main/main.qss"), "import p\n\nfunc main(s: S) {\n}\n");
+    }
+
+    private static Index dependencyIndex(Compiler compiler) {
+        compiler.compileAll();
+        return compiler.getIndices().get("dep").getPackages().get(PACKAGE);
+    }
+
+    @Test
+    void acquireAndRelease() {
+        // Other tests may hold shared indices, so only the change in size is checked.
+        int before = SharedIndices.size();
+        SharedIndices.Key key = new SharedIndices.Key(Path.of("dep", "src", "p").toAbsolutePath(), new ScriptPath("..", "dep", "src", "p"), "dep", PACKAGE, "content", null);
+        AtomicInteger built = new AtomicInteger();
+        Supplier<NameIndex> build = () -> {
+            built.incrementAndGet();
+            return new NameIndex("dep", PACKAGE);
+        };
+
+        NameIndex first = SharedIndices.acquireNameIndex(key, build);
+        assertTrue(first.isFrozen());
+        assertSame(first, SharedIndices.acquireNameIndex(key, build));
+        assertEquals(1, built.get());
+        assertEquals(before + 1, SharedIndices.size());
+
+        SharedIndices.releaseNameIndex(key);
+        assertEquals(before + 1, SharedIndices.size());
+        SharedIndices.releaseNameIndex(key);
+        assertEquals(before, SharedIndices.size());
+
+        // Once every holder has released it, it is built again.
+        NameIndex second = SharedIndices.acquireNameIndex(key, build);
+        assertNotSame(first, second);
+        assertEquals(2, built.get());
+        SharedIndices.releaseNameIndex(key);
+        assertEquals(before, SharedIndices.size());
+
+        // An index that could not be built is not held.
+        assertThrows(IllegalStateException.class, () -> SharedIndices.acquireNameIndex(key, () -> {
+            throw new IllegalStateException();
+        }));
+        assertEquals(before, SharedIndices.size());
+    }
+
+    @Test
+    void supersededIndicesReleased() throws IOException {
+        for (String dependency : new String[] {"dep", "dep2"}) {
+            Files.createDirectories(root.resolve(dependency + "/src/p"));
+            Files.writeString(root.resolve(dependency + "/bundle.toml"), "");
+            Files.writeString(root.resolve(dependency + "/src/p/p.qss"), "struct S {\n}\n");
+        }
+        bundle(root.resolve("a"), "../dep");
+
+        int before = SharedIndices.size();
+        try (Compiler a = new Compiler(root.resolve("a"), false)) {
+            dependencyIndex(a);
+            // The name index and index of the dependency's package.
+            assertEquals(before + 2, SharedIndices.size());
+
+            a.overwriteBundleFileContents("[dependencies]\ndep = { path = \"../dep2\" }\n");
+            Index index = dependencyIndex(a);
+            assertEquals(Set.of(new ScriptPath("..", "dep2", "src", "p", "p.qss")), index.getScripts());
+            assertEquals(before + 2, SharedIndices.size());
+        }
+        assertEquals(before, SharedIndices.size());
+    }
+
+    @Test
+    void sameDependencyReachedByDifferentPaths() throws IOException {
+        Files.createDirectories(root.resolve("dep/src/p"));
+        Files.writeString(root.resolve("dep/bundle.toml"), "");
+        Files.writeString(root.resolve("dep/src/p/p.qss"), "struct S {\n}\n");
+        bundle(root.resolve("a"), "../dep");
+        bundle(root.resolve("b"), "../dep");
+        bundle(root.resolve("nested/c"), "../../dep");
+
+        try (Compiler a = new Compiler(root.resolve("a"), false);
+             Compiler b = new Compiler(root.resolve("b"), false);
+             Compiler c = new Compiler(root.resolve("nested/c"), false)) {
+            Index aIndex = dependencyIndex(a);
+            ScriptPath siblingScript = new ScriptPath("..", "dep", "src", "p", "p.qss");
+            assertEquals(Set.of(siblingScript), aIndex.getScripts());
+            assertSame(aIndex, dependencyIndex(b));
+
+            // The index of a compiler that reaches the dependency by another path must refer to the script by that path.
+            Index cIndex = dependencyIndex(c);
+            assertNotSame(aIndex, cIndex);
+            ScriptPath nestedScript = new ScriptPath("..", "..", "dep", "src", "p", "p.qss");
+            assertEquals(Set.of(nestedScript), cIndex.getScripts());
+            assertEquals(nestedScript, cIndex.getStructDefinitions().get("S").getLocation().getFilePath());
+            assertEquals(nestedScript, c.getNameIndices().get("dep").getPackages().get(PACKAGE).getStructDefinitions().get("S").getLocation().getFilePath());
+        }
+    }
+
+    @Test
+    void dependencyOnlyResolvedAgainstItsOwnBundles() throws IOException {
+        Files.createDirectories(root.resolve("dep/src/p"));
+        Files.writeString(root.resolve("dep/bundle.toml"), "");
+        // The dependency imports a package that it does not have, but one of the bundles that depends on it does.
+        Files.writeString(root.resolve("dep/src/p/p.qss"), "import q\n\nstruct S {\n    t: T\n}\n");
+        bundle(root.resolve("a"), "../dep");
+        bundle(root.resolve("b"), "../dep");
+        Files.createDirectories(root.resolve("a/src/q"));
+        Files.writeString(root.resolve("a/src/q/q.qss"), "struct T {\n}\n");
+
+        try (Compiler a = new Compiler(root.resolve("a"), false);
+             Compiler b = new Compiler(root.resolve("b"), false)) {
+            // Whichever compiler builds the shared index first, the field's type is not found.
+            Index aIndex = dependencyIndex(a);
+            assertEquals(VariableType.Primitive.TYPE_UNKNOWN, aIndex.getStructDefinitions().get("S").getFields().get("t").getVariableType());
+            assertSame(aIndex, dependencyIndex(b));
+        }
+    }
+}
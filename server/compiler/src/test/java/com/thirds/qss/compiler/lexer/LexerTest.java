@@ -5,6 +5,7 @@ import com.thirds.qss.compiler.Compiler;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import static org.hamcrest.MatcherAssert.*;
 import static org.hamcrest.Matchers.*;
@@ -26,4 +27,22 @@ class LexerTest {
         ArrayList<Message> messages = new Lexer().process("test").getMessages();
         assertThat(messages, empty());
     }
-}
\ No newline at end of file
+
+    @Test
+    void relexMatchesLex() {
+        String before = "func a() {\n    let x = 1\n}\n\n/* comment\n*/\nfunc b() {\n}\n";
+        Rope rope = Rope.of(before);
+        LexedScript previous = new Lexer().lex(before);
+
+        // Add a documentation comment, then split the first line in two.
+        TextEdit edit1 = TextEdit.of(rope, new Range(new Position(1, 4), new Position(1, 4)), "** doc **");
+        rope = rope.apply(edit1);
+        TextEdit edit2 = TextEdit.of(rope, new Range(new Position(0, 10), new Position(0, 10)), "\n");
+        rope = rope.apply(edit2);
+
+        LexedScript relexed = new Lexer().relex(previous, rope.toString(), List.of(edit1, edit2));
+        LexedScript lexed = new Lexer().lex(rope.toString());
+        assertThat(relexed.tokens.toString(), equalTo(lexed.tokens.toString()));
+        assertThat(relexed.messages, equalTo(lexed.messages));
+    }
+}
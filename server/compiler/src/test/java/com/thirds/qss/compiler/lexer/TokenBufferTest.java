@@ -0,0 +1,72 @@
+package com.thirds.qss.compiler.lexer;
+
+import com.thirds.qss.compiler.Position;
+import com.thirds.qss.compiler.Range;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBufferTest {
+
+    @Test
+    void addAndGet() {
+        // Start with a capacity of one so that the buffer must grow.
+        TokenBuffer tokens = new TokenBuffer(1);
+        assertTrue(tokens.isEmpty());
+        TokenType[] types = TokenType.values();
+        for (int i = 0; i < types.length; i++) {
+            tokens.add(types[i], "t" + i, i, 2 * i, i + 1, 0);
+        }
+
+        assertEquals(types.length, tokens.size());
+        for (int i = 0; i < types.length; i++) {
+            assertEquals(types[i], tokens.type(i));
+            assertEquals("t" + i, tokens.contents(i));
+            assertEquals(i, tokens.startLine(i));
+            assertEquals(i + 1, tokens.endLine(i));
+            assertEquals(new Range(new Position(i, 2 * i), new Position(i + 1, 0)), tokens.range(i));
+
+            Token token = tokens.get(i);
+            assertEquals(types[i], token.type);
+            assertEquals("t" + i, token.contents);
+            assertEquals(tokens.range(i), token.getRange());
+        }
+    }
+
+    @Test
+    void addAllMovesLines() {
+        TokenBuffer source = new TokenBuffer();
+        source.add(TokenType.KW_FUNC, "func", 4, 0, 4, 4);
+        source.add(TokenType.IDENTIFIER, "a", 4, 5, 4, 6);
+        source.add(TokenType.STRING_LITERAL, "multi\nline", 5, 8, 6, 5);
+
+        TokenBuffer moved = new TokenBuffer(1);
+        moved.add(TokenType.LBRACE, "{", 0, 0, 0, 1);
+        moved.addAll(source, 1, 3, -2);
+        moved.addAll(source, 0, 1, 3);
+
+        assertEquals(4, moved.size());
+        assertEquals(new Range(new Position(0, 0), new Position(0, 1)), moved.range(0));
+        assertEquals(new Range(new Position(2, 5), new Position(2, 6)), moved.range(1));
+        assertEquals(new Range(new Position(3, 8), new Position(4, 5)), moved.range(2));
+        assertEquals(new Range(new Position(7, 0), new Position(7, 4)), moved.range(3));
+        assertEquals(TokenType.STRING_LITERAL, moved.type(2));
+        assertEquals("multi\nline", moved.contents(2));
+
+        // The source is unchanged.
+        assertEquals(new Range(new Position(4, 5), new Position(4, 6)), source.range(1));
+    }
+
+    @Test
+    void lexedTokensMatchBuffer() {
+        TokenStream stream = new Lexer().process("struct A {\n    b: Int\n}\n").getValue().orElseThrow();
+        TokenStream slice = stream.slice(1, 3);
+        assertTrue(slice.hasNext());
+        Token name = slice.next();
+        assertEquals(TokenType.IDENTIFIER, name.type);
+        assertEquals("A", name.contents);
+        assertEquals(new Range(new Position(0, 7), new Position(0, 8)), name.getRange());
+        assertEquals(TokenType.LBRACE, slice.next().type);
+        assertFalse(slice.hasNext());
+    }
+}
@@ -1,13 +1,19 @@
 package com.thirds.qss.compiler.parser;
 
 import com.thirds.qss.compiler.Compiler;
-import com.thirds.qss.compiler.ScriptPath;
+import com.thirds.qss.compiler.*;
+import com.thirds.qss.compiler.lexer.LexedScript;
 import com.thirds.qss.compiler.lexer.Lexer;
+import com.thirds.qss.compiler.lexer.Token;
 import com.thirds.qss.compiler.lexer.TokenStream;
+import com.thirds.qss.compiler.tree.NameLiteral;
+import com.thirds.qss.compiler.tree.Node;
 import com.thirds.qss.compiler.tree.Script;
 import org.junit.jupiter.api.Test;
 
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -20,4 +26,65 @@ class ParserTest {
         Optional<Script> script = new Parser(new ScriptPath(Paths.get("unit_test.qss"))).parse(tokens.get()).getValue();
         assertTrue(script.isPresent());
     }
-}
\ No newline at end of file
+
+    @Test
+    void reparseReusesUnchangedItems() {
+        ScriptPath filePath = new ScriptPath(Paths.get("unit_test.qss"));
+        String before = "struct A {\n}\n\nfunc b() {\n}\n\nstruct C {\n}\n";
+        Rope rope = Rope.of(before);
+        LexedScript lexed = new Lexer().lex(before);
+        Parser parser = new Parser(filePath);
+        Script previous = parser.parseIncrementally(lexed, null).getValue().orElseThrow();
+
+        // Rename the function without adding or removing any lines.
+        TextEdit edit = TextEdit.of(rope, new Range(new Position(3, 5), new Position(3, 6)), "renamed");
+        rope = rope.apply(edit);
+        LexedScript relexed = new Lexer().relex(lexed, rope.toString(), List.of(edit));
+        Script script = new Parser(filePath).parseIncrementally(relexed, parser.getItems()).getValue().orElseThrow();
+
+        assertSame(previous.getStructs().get(0), script.getStructs().get(0));
+        assertSame(previous.getStructs().get(1), script.getStructs().get(1));
+        assertEquals("renamed", script.getFuncs().get(0).getContent().getName().contents);
+    }
+
+    @Test
+    void reparseMovesItemsBelowInsertedLines() {
+        ScriptPath filePath = new ScriptPath(Paths.get("unit_test.qss"));
+        String before = "struct A {\n}\n\nfunc b(x: Int) -> Int {\n    if x > 0 {\n        result = f(x)\n    }\n}\n\nfunc f(x: Int) -> Int {\n    return x\n}\n";
+        Rope rope = Rope.of(before);
+        LexedScript lexed = new Lexer().lex(before);
+        Parser parser = new Parser(filePath);
+        Script previous = parser.parseIncrementally(lexed, null).getValue().orElseThrow();
+
+        // Insert a line between the struct and the first function.
+        TextEdit edit = TextEdit.of(rope, new Range(new Position(2, 0), new Position(2, 0)), "\n");
+        rope = rope.apply(edit);
+        LexedScript relexed = new Lexer().relex(lexed, rope.toString(), List.of(edit));
+        Script script = new Parser(filePath).parseIncrementally(relexed, parser.getItems()).getValue().orElseThrow();
+        Script fresh = new Parser(filePath).parse(new Lexer().process(rope.toString()).getValue().orElseThrow()).getValue().orElseThrow();
+
+        // The functions were moved rather than parsed again, including the nodes inside the if statement and the call.
+        for (int i = 0; i < 2; i++) {
+            assertSame(previous.getFuncs().get(i), script.getFuncs().get(i));
+            assertEquals(fresh.getFuncs().get(i).getRange(), script.getFuncs().get(i).getRange());
+            assertEquals(fresh.getFuncs().get(i).getContent().getName().getRange(), script.getFuncs().get(i).getContent().getName().getRange());
+            assertEquals(positions(fresh.getFuncs().get(i)), positions(script.getFuncs().get(i)));
+        }
+    }
+
+    /**
+     * @return The type and range of every node inside the given node, and the ranges of the segments of names.
+     */
+    private static List<String> positions(Node node) {
+        List<String> positions = new ArrayList<>();
+        node.forAllChildren(child -> {
+            positions.add(child.getClass().getSimpleName() + " " + child.getRange());
+            if (child instanceof NameLiteral) {
+                for (Token segment : ((NameLiteral) child).getSegments()) {
+                    positions.add(segment.contents + " " + segment.getRange());
+                }
+            }
+        });
+        return positions;
+    }
+}
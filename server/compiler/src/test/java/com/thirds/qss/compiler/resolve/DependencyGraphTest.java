@@ -0,0 +1,66 @@
+package com.thirds.qss.compiler.resolve;
+
+import com.thirds.qss.compiler.Compiler;
+import com.thirds.qss.compiler.ScriptPath;
+import com.thirds.qss.compiler.TestBundle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DependencyGraphTest {
+    private static final ScriptPath CALLEE = new ScriptPath("src", "a", "a.qss");
+    private static final ScriptPath CALLER = new ScriptPath("src", "b", "b.qss");
+    private static final ScriptPath UNRELATED = new ScriptPath("src", "c", "c.qss");
+    private static final String CALLEE_CONTENTS = "func callee(x: Int) -> Int {\n    return x\n}\n";
+    private static final String CALLER_CONTENTS = "import a\n\nfunc caller() -> Int {\n    return callee(1)\n}\n";
+    private static final String UNRELATED_CONTENTS = "func other() -> Int {\n    return 1\n}\n";
+
+    private TestBundle bundle;
+    private Compiler compiler;
+
+    @BeforeEach
+    void compileBundle() throws IOException {
+        bundle = new TestBundle("dependency_graph")
+                .write("src/a/a.qss", CALLEE_CONTENTS)
+                .write("src/b/b.qss", CALLER_CONTENTS)
+                .write("src/c/c.qss", UNRELATED_CONTENTS);
+
+        compiler = bundle.compiler();
+        compiler.compileAll();
+        compiler.takeStaleScripts();
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        bundle.close();
+    }
+
+    private Set<ScriptPath> edit(ScriptPath script, String contents) {
+        compiler.overwriteCachedFileContent(script, contents);
+        compiler.compile(script);
+        return compiler.takeStaleScripts();
+    }
+
+    @Test
+    void usedDefinitionChangeMarksDependentStale() {
+        assertEquals(Set.of(CALLER), edit(CALLEE, CALLEE_CONTENTS.replace("-> Int {\n    return x", "-> Bool {\n    return true")));
+
+        // The caller only refers to the callee in a function body. It was re-indexed but not compiled again, so it
+        // must still be invalidated by the next change.
+        assertEquals(Set.of(CALLER), edit(CALLEE, CALLEE_CONTENTS.replace("x: Int", "x: String")));
+    }
+
+    @Test
+    void unrelatedChangeKeepsDependent() {
+        // A changed definition, then a new name, in a package the caller does not use.
+        assertEquals(Set.of(), edit(UNRELATED, UNRELATED_CONTENTS.replace("-> Int {\n    return 1", "-> Bool {\n    return true")));
+        assertEquals(Set.of(), edit(UNRELATED, UNRELATED_CONTENTS + "\nfunc another() {\n}\n"));
+
+        assertEquals(Set.of(CALLER), edit(CALLEE, CALLEE_CONTENTS.replace("-> Int {\n    return x", "-> Bool {\n    return true")));
+    }
+}
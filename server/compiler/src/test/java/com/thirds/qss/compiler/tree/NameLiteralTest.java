@@ -0,0 +1,57 @@
+package com.thirds.qss.compiler.tree;
+
+import com.thirds.qss.QualifiedName;
+import com.thirds.qss.compiler.Range;
+import com.thirds.qss.compiler.lexer.Token;
+import com.thirds.qss.compiler.lexer.TokenType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NameLiteralTest {
+    private static NameLiteral name(String... segments) {
+        List<Token> tokens = new ArrayList<>();
+        for (String segment : segments)
+            tokens.add(new Token(TokenType.IDENTIFIER, segment, new Range(0)));
+        return new NameLiteral(new Range(0), tokens);
+    }
+
+    @Test
+    void matchesQualifiedName() {
+        QualifiedName spawn = new QualifiedName("std", "entity", "spawn");
+        assertTrue(name("spawn").matches(spawn));
+        assertTrue(name("entity", "spawn").matches(spawn));
+        assertTrue(name("std", "entity", "spawn").matches(spawn));
+
+        assertFalse(name("despawn").matches(spawn));
+        assertFalse(name("std", "spawn").matches(spawn));
+        assertFalse(name("core", "std", "entity", "spawn").matches(spawn));
+
+        assertTrue(name().matches(new QualifiedName()));
+        assertFalse(name("spawn").matches(new QualifiedName()));
+    }
+
+    @Test
+    void matchesPackageAndSimpleName() {
+        QualifiedName entity = new QualifiedName("std", "entity");
+        assertTrue(name("spawn").matches(entity, "spawn"));
+        assertTrue(name("entity", "spawn").matches(entity, "spawn"));
+        assertTrue(name("std", "entity", "spawn").matches(entity, "spawn"));
+        assertFalse(name("entity", "spawn").matches(entity, "despawn"));
+        assertFalse(name("std", "spawn").matches(entity, "spawn"));
+
+        // Items in the root package only match unqualified names.
+        assertTrue(name("spawn").matches(new QualifiedName(), "spawn"));
+        assertFalse(name("std", "spawn").matches(new QualifiedName(), "spawn"));
+    }
+
+    @Test
+    void matchesLocalName() {
+        assertTrue(name("x").matches("x"));
+        assertFalse(name("y").matches("x"));
+        assertFalse(name("std", "x").matches("x"));
+    }
+}
@@ -0,0 +1,81 @@
+package com.thirds.qss.compiler.type;
+
+import com.thirds.qss.compiler.Compiler;
+import com.thirds.qss.compiler.*;
+import com.thirds.qss.compiler.tree.Script;
+import com.thirds.qss.compiler.tree.script.Func;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FuncCheckCacheTest {
+    private static final ScriptPath CALLEE = new ScriptPath("src/a/a.qss");
+    private static final ScriptPath CALLER = new ScriptPath("src/b/b.qss");
+    private static final String CALLEE_CONTENTS = "func callee(x: Int) -> Int {\n    return x\n}\n\nfunc other() -> Int {\n    return 1\n}\n";
+    private static final String CALLER_CONTENTS = "import a\n\nfunc caller() {\n    let y: Bool\n    y = callee(1)\n}\n";
+
+    private TestBundle bundle;
+    private Compiler compiler;
+    private Script callerScript;
+    private Func callerFunc;
+
+    @BeforeEach
+    void compileCaller() throws IOException {
+        bundle = new TestBundle("func_check_cache")
+                .write("src/a/a.qss", CALLEE_CONTENTS)
+                .write("src/b/b.qss", CALLER_CONTENTS);
+
+        compiler = bundle.compiler();
+        compiler.compileAll();
+        // Open the caller as the client would, so that its functions are reused when it is compiled again.
+        compiler.overwriteCachedFileContent(CALLER, Rope.of(CALLER_CONTENTS), List.of());
+        Messenger<Script> caller = compiler.compile(CALLER);
+        assertEquals(List.of("Expected an expression of type Bool, got Int", "Variable y was never used"), messages(caller));
+        callerScript = caller.getValue().orElseThrow();
+        callerFunc = callerScript.getFuncs().get(0).getContent();
+        assertTrue(compiler.getFuncCheckCache().get(compiler, callerScript, callerFunc).isPresent());
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        bundle.close();
+    }
+
+    private static List<String> messages(Messenger<Script> script) {
+        return script.getMessages().stream().map(message -> message.message).collect(Collectors.toList());
+    }
+
+    private long identifierLookups() {
+        return compiler.getLastCompileTimings().getCounts().get(PhaseTimings.IDENTIFIER_LOOKUPS);
+    }
+
+    @Test
+    void calleeSignatureChangeInvalidatesCaller() {
+        compiler.overwriteCachedFileContent(CALLEE, CALLEE_CONTENTS.replace("-> Int {\n    return x", "-> Bool {\n    return true"));
+        compiler.compile(CALLEE);
+        assertTrue(compiler.getFuncCheckCache().get(compiler, callerScript, callerFunc).isEmpty());
+
+        // The error was about the callee's old return type.
+        assertEquals(List.of("Variable y was never used"), messages(compiler.compile(CALLER)));
+        assertTrue(identifierLookups() > 0);
+    }
+
+    @Test
+    void otherFunctionBodyChangeKeepsCaller() {
+        compiler.overwriteCachedFileContent(CALLEE, CALLEE_CONTENTS.replace("return 1", "return 2"));
+        compiler.compile(CALLEE);
+        assertTrue(compiler.getFuncCheckCache().get(compiler, callerScript, callerFunc).isPresent());
+
+        Messenger<Script> caller = compiler.compile(CALLER);
+        assertSame(callerFunc, caller.getValue().orElseThrow().getFuncs().get(0).getContent());
+        assertEquals(List.of("Expected an expression of type Bool, got Int", "Variable y was never used"), messages(caller));
+        // The caller was not checked again, so no identifiers were looked up.
+        assertEquals(0, identifierLookups());
+    }
+}
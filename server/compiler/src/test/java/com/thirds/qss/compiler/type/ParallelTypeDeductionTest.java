@@ -0,0 +1,107 @@
+package com.thirds.qss.compiler.type;
+
+import com.thirds.qss.compiler.Compiler;
+import com.thirds.qss.compiler.Message;
+import com.thirds.qss.compiler.Messenger;
+import com.thirds.qss.compiler.ScriptPath;
+import com.thirds.qss.compiler.TestBundle;
+import com.thirds.qss.compiler.tree.Script;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that type checking the functions in each script concurrently gives exactly the same messages as checking
+ * them one at a time. In parallel, the indices of packages are built lazily and the bodies of functions are parsed
+ * from many threads at once.
+ */
+class ParallelTypeDeductionTest {
+    private static final List<String> BUNDLES = List.of("test", "bundle1", "bundle2", "bundle3");
+
+    /**
+     * A copy of the repository's sample bundles, so that the compiler does not write into the repository.
+     */
+    private static Path bundles;
+
+    @BeforeAll
+    static void copyBundles() throws IOException {
+        // Tests may be run from the repository root or from any directory below it.
+        Path source = Paths.get("").toAbsolutePath();
+        while (!Files.isDirectory(source.resolve("bundles").resolve("test"))) {
+            source = source.getParent();
+            assertNotNull(source, "Could not find the sample bundles");
+        }
+        source = source.resolve("bundles");
+
+        bundles = Files.createTempDirectory("parallel_type_deduction");
+        try (Stream<Path> files = Files.walk(source)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Path target = bundles.resolve(source.relativize(file).toString());
+                if (Files.isDirectory(file)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(file, target);
+                }
+            }
+        }
+    }
+
+    @AfterAll
+    static void deleteBundles() throws IOException {
+        TestBundle.delete(bundles);
+    }
+
+    private static List<String> describe(Messenger<Script> script) {
+        List<String> result = new ArrayList<>();
+        for (Message message : script.getMessages()) {
+            StringBuilder sb = new StringBuilder(message.toString());
+            message.infos.forEach(info -> sb.append("; ").append(info.location).append(' ').append(info.message));
+            result.add(sb.toString());
+        }
+        return result;
+    }
+
+    private static Map<ScriptPath, List<String>> compileAll(String bundle, boolean parallel) {
+        Compiler compiler = new Compiler(bundles.resolve(bundle), false);
+        compiler.setParallelTypeDeduction(parallel);
+        Map<ScriptPath, List<String>> result = new HashMap<>();
+        compiler.compileAll().forEach((filePath, script) -> result.put(filePath, describe(script)));
+        compiler.close();
+        return result;
+    }
+
+    /**
+     * Compiles each script on its own, so that the indices of other packages are only built when they are needed.
+     */
+    private static Map<ScriptPath, List<String>> compileEach(String bundle, Set<ScriptPath> scripts, boolean parallel) {
+        Compiler compiler = new Compiler(bundles.resolve(bundle), false);
+        compiler.setParallelTypeDeduction(parallel);
+        Map<ScriptPath, List<String>> result = new HashMap<>();
+        for (ScriptPath filePath : scripts) {
+            result.put(filePath, describe(compiler.compile(filePath)));
+        }
+        compiler.close();
+        return result;
+    }
+
+    @Test
+    void parallelMatchesSequential() {
+        for (String bundle : BUNDLES) {
+            Map<ScriptPath, List<String>> sequential = compileAll(bundle, false);
+            assertFalse(sequential.isEmpty(), "No scripts in bundle " + bundle);
+            assertEquals(sequential, compileAll(bundle, true), "compileAll of bundle " + bundle);
+
+            Map<ScriptPath, List<String>> sequentialEach = compileEach(bundle, sequential.keySet(), false);
+            assertEquals(sequentialEach, compileEach(bundle, sequential.keySet(), true), "compile of bundle " + bundle);
+        }
+    }
+}
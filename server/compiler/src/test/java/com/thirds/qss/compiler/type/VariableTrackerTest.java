@@ -0,0 +1,55 @@
+package com.thirds.qss.compiler.type;
+
+import com.thirds.qss.compiler.Compiler;
+import com.thirds.qss.compiler.Message;
+import com.thirds.qss.compiler.ScriptPath;
+import com.thirds.qss.compiler.TestBundle;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VariableTrackerTest {
+
+    @Test
+    void conditionallyAssignedVariableMerged() throws IOException {
+        try (TestBundle bundle = new TestBundle("variable_tracker")) {
+            bundle.write("src/a/a.qss", String.join("\n",
+                    "func if_else(a: Bool) -> Int {",
+                    "    let x: Int",
+                    "    if a {",
+                    "    } else {",
+                    "        if a {",
+                    "            x = 1",
+                    "            result = 1",
+                    "        }",
+                    "    }",
+                    "}",
+                    "",
+                    "func while_loop(a: Bool) {",
+                    "    let x: Int",
+                    "    while a {",
+                    "        if a {",
+                    "            x = 1",
+                    "        }",
+                    "    }",
+                    "    let y = x",
+                    "}",
+                    ""
+            ));
+
+            Compiler compiler = bundle.compiler();
+            List<Message> messages = compiler.compileAll().get(new ScriptPath("src/a/a.qss")).getMessages();
+            // The variables were assigned on some paths, so they must not be reported as never assigned.
+            assertEquals(List.of(
+                    "2:9 Variable x was never used",
+                    "1:26 A value was not returned at the end of this function on all paths",
+                    "19:13 Variable x was not assigned before use",
+                    "19:9 Variable y was never used"
+            ), messages.stream().map(message -> message.range.getStart() + " " + message.message).collect(Collectors.toList()));
+        }
+    }
+}
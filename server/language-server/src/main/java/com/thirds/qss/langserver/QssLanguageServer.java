@@ -54,7 +54,7 @@ public class QssLanguageServer implements LanguageServer, LanguageClientAware {
         ServerCapabilities capabilities = new ServerCapabilities();
 
         // Set the capabilities of the LS to inform the client.
-        capabilities.setTextDocumentSync(TextDocumentSyncKind.Full);
+        capabilities.setTextDocumentSync(TextDocumentSyncKind.Incremental);
         capabilities.setDefinitionProvider(true);
         capabilities.setHoverProvider(true);
         CompletionOptions completionOptions = new CompletionOptions();
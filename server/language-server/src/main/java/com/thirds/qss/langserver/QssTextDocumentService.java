@@ -9,22 +9,93 @@ import org.eclipse.lsp4j.*;
 import org.eclipse.lsp4j.Location;
 import org.eclipse.lsp4j.Position;
 import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.TextEdit;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import org.eclipse.lsp4j.services.TextDocumentService;
 
 import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class QssTextDocumentService implements TextDocumentService {
     private Compiler compiler;
 
+    /**
+     * The scripts that are currently open in the client. Only these have diagnostics displayed.
+     */
+    private final Set<ScriptPath> openScripts = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Maps open scripts onto their current text. The client sends each change as an edit to this text.
+     * Only used on the message thread.
+     */
+    private final Map<ScriptPath, Rope> documents = new HashMap<>();
+
+    /**
+     * Every compile runs on this thread, so that the message thread is free to answer other requests while a
+     * script is being compiled. Requests are answered from the compiler's latest snapshot, which does not wait for
+     * the compile to finish. Only one compile runs at a time, since the compiler would only run them one by one.
+     */
+    private final ExecutorService compileExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "qss-compiler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Maps scripts onto the latest text that the client sent for them, if that text has not started compiling yet.
+     * If the client sends several changes to a script before it is compiled, only the latest text is compiled.
+     * Guarded by itself.
+     */
+    private final Map<ScriptPath, PendingCompile> pendingCompiles = new HashMap<>();
+
+    /**
+     * The script that is currently being compiled on the compile thread, and the token that cancels its compile.
+     * Guarded by {@link #pendingCompiles}.
+     */
+    private ScriptPath compilingScript;
+    private CancellationToken compilingToken;
+
+    /**
+     * Open scripts whose definitions changed since they were last compiled. Only used on the compile thread.
+     */
+    private final Set<ScriptPath> staleScripts = new LinkedHashSet<>();
+
+    private static class PendingCompile {
+        private final String textDocumentUri;
+        private final Rope fileContents;
+        /**
+         * The edits made since the text was last sent to the compiler, or null if the text was replaced entirely.
+         */
+        private final List<com.thirds.qss.compiler.TextEdit> edits;
+
+        private PendingCompile(String textDocumentUri, Rope fileContents, List<com.thirds.qss.compiler.TextEdit> edits) {
+            this.textDocumentUri = textDocumentUri;
+            this.fileContents = fileContents;
+            this.edits = edits;
+        }
+
+        /**
+         * Combines this compile with a later one of the same script.
+         */
+        private PendingCompile then(PendingCompile later) {
+            List<com.thirds.qss.compiler.TextEdit> combined = null;
+            if (edits != null && later.edits != null) {
+                combined = new ArrayList<>(edits);
+                combined.addAll(later.edits);
+            }
+            return new PendingCompile(later.textDocumentUri, later.fileContents, combined);
+        }
+    }
+
     public void initialise(Path rootDir) {
         compiler = new Compiler(rootDir);
+        compiler.setParallelTypeDeduction(true);
     }
 
     @Override
@@ -66,7 +137,7 @@ public class QssTextDocumentService implements TextDocumentService {
     @Override
     public CompletableFuture<Hover> hover(TextDocumentPositionParams textDocumentPositionParams) {
         ScriptPath scriptPath = pathFromUri(textDocumentPositionParams.getTextDocument().getUri());
-        SymbolMap symbolMap = compiler.getSymbolMap(scriptPath);
+        SymbolMap symbolMap = compiler.getSnapshot().getSymbolMap(scriptPath);
         if (symbolMap == null) {
             return CompletableFuture.completedFuture(null);
         }
@@ -94,7 +165,7 @@ public class QssTextDocumentService implements TextDocumentService {
     @Override
     public CompletableFuture<List<? extends Location>> definition(TextDocumentPositionParams textDocumentPositionParams) {
         ScriptPath scriptPath = pathFromUri(textDocumentPositionParams.getTextDocument().getUri());
-        SymbolMap symbolMap = compiler.getSymbolMap(scriptPath);
+        SymbolMap symbolMap = compiler.getSnapshot().getSymbolMap(scriptPath);
         if (symbolMap == null)
             return CompletableFuture.completedFuture(List.of());
 
@@ -162,16 +233,19 @@ public class QssTextDocumentService implements TextDocumentService {
         return QssLanguageServer.getRootDir().resolve(filePath.toPath()).toUri();
     }
 
-    private Position from(com.thirds.qss.compiler.Position position) {
-        return new Position(position.line, position.character);
-    }
-
     private com.thirds.qss.compiler.Position from(Position position) {
         return new com.thirds.qss.compiler.Position(position.getLine(), position.getCharacter());
     }
 
     private Range from(com.thirds.qss.compiler.Range range) {
-        return new Range(from(range.start), from(range.end));
+        return new Range(
+                new Position(range.getStartLine(), range.getStartCharacter()),
+                new Position(range.getEndLine(), range.getEndCharacter())
+        );
+    }
+
+    private com.thirds.qss.compiler.Range from(Range range) {
+        return new com.thirds.qss.compiler.Range(from(range.getStart()), from(range.getEnd()));
     }
 
     private Location from(com.thirds.qss.compiler.Location location) {
@@ -184,7 +258,13 @@ public class QssTextDocumentService implements TextDocumentService {
     @Override
     public void didOpen(DidOpenTextDocumentParams didOpenTextDocumentParams) {
         try {
-            compileAndPublishDiagnostics(didOpenTextDocumentParams.getTextDocument().getUri(), didOpenTextDocumentParams.getTextDocument().getText());
+            String textDocumentUri = didOpenTextDocumentParams.getTextDocument().getUri();
+            ScriptPath filePath = scriptInBundle(textDocumentUri);
+            if (filePath == null)
+                return;
+            Rope document = Rope.of(didOpenTextDocumentParams.getTextDocument().getText());
+            documents.put(filePath, document);
+            scheduleCompile(filePath, new PendingCompile(textDocumentUri, document, null));
         } catch (Exception e) {
             QssLogger.logger.atSevere().withCause(e).log("Uncaught exception");
         }
@@ -193,33 +273,163 @@ public class QssTextDocumentService implements TextDocumentService {
     @Override
     public void didChange(DidChangeTextDocumentParams params) {
         try {
+            String textDocumentUri = params.getTextDocument().getUri();
+            ScriptPath filePath = scriptInBundle(textDocumentUri);
+            if (filePath == null)
+                return;
+
+            Rope document = documents.get(filePath);
+            List<com.thirds.qss.compiler.TextEdit> edits = new ArrayList<>();
+            if (document == null) {
+                // The document was not opened, so apply the changes to the text the compiler will see next. That
+                // may not be the text the compiler last lexed, so the result is sent as a new text.
+                document = nextCompiledText(filePath);
+                edits = null;
+            }
             for (TextDocumentContentChangeEvent change : params.getContentChanges()) {
-                if (change.getRange() != null || change.getRangeLength() != null) {
-                    QssLogger.logger.atSevere().log("Incremental file change not supported: %s", params);
+                if (change.getRange() == null) {
+                    // The whole document was replaced.
+                    document = Rope.of(change.getText());
+                    edits = null;
+                } else if (document == null) {
+                    QssLogger.logger.atWarning().log("Dropped a change to %s, since its previous text is unknown", filePath);
+                    return;
+                } else {
+                    com.thirds.qss.compiler.TextEdit edit = com.thirds.qss.compiler.TextEdit.of(document, from(change.getRange()), change.getText());
+                    document = document.apply(edit);
+                    if (edits != null)
+                        edits.add(edit);
                 }
-
-                compileAndPublishDiagnostics(params.getTextDocument().getUri(), change.getText());
             }
+            if (document == null)
+                return;
+            documents.put(filePath, document);
+            scheduleCompile(filePath, new PendingCompile(textDocumentUri, document, edits));
         } catch (Exception e) {
             QssLogger.logger.atSevere().withCause(e).log("Uncaught exception");
         }
     }
 
-    private void compileAndPublishDiagnostics(String textDocumentUri, String fileContents) {
-        URI uri = QssLanguageServer.relativize(textDocumentUri);
+    /**
+     * @return The text that the compiler will compile next for the given script, or null if the script could not be
+     * read.
+     */
+    private Rope nextCompiledText(ScriptPath filePath) {
+        synchronized (pendingCompiles) {
+            PendingCompile queued = pendingCompiles.get(filePath);
+            if (queued != null)
+                return queued.fileContents;
+        }
+        String contents = compiler.getFileContent(filePath);
+        return contents == null ? null : Rope.of(contents);
+    }
 
-        // Don't parse or validate any files not in the bundle root of the currently compiled bundle.
+    /**
+     * @return Null if the given document is not inside the bundle root of the currently compiled bundle. We don't
+     * parse or validate any such files.
+     */
+    private ScriptPath scriptInBundle(String textDocumentUri) {
         if (QssLanguageServer.getInstance().rootUri.relativize(URI.create(textDocumentUri)).equals(URI.create(textDocumentUri))) {
             // The given URI was not a child of the root URI.
+            return null;
+        }
+        return pathFromUri(textDocumentUri);
+    }
+
+    /**
+     * Queues the given text to be compiled on the compile thread, combining it with any text for the same script
+     * that has not started compiling yet. If the script is already being compiled, that compile is cancelled since
+     * its diagnostics would be out of date.
+     */
+    private void scheduleCompile(ScriptPath filePath, PendingCompile compile) {
+        openScripts.add(filePath);
+        synchronized (pendingCompiles) {
+            PendingCompile queued = pendingCompiles.get(filePath);
+            pendingCompiles.put(filePath, queued == null ? compile : queued.then(compile));
+            if (filePath.equals(compilingScript))
+                compilingToken.cancel();
+            if (queued == null)
+                compileExecutor.execute(() -> compilePending(filePath));
+        }
+    }
+
+    /**
+     * Compiles the latest text of the given script and publishes its diagnostics. This runs on the compile thread.
+     */
+    private void compilePending(ScriptPath filePath) {
+        CancellationToken cancellationToken = new CancellationToken();
+        PendingCompile pending;
+        synchronized (pendingCompiles) {
+            pending = pendingCompiles.remove(filePath);
+            if (pending == null)
+                return;
+            compilingScript = filePath;
+            compilingToken = cancellationToken;
+        }
+
+        try {
+            QssLogger.logger.atInfo().log("Compiling %s", filePath);
+            compiler.overwriteCachedFileContent(filePath, pending.fileContents, pending.edits);
+            Messenger<Script> result = compiler.compile(filePath, cancellationToken);
+            QssLogger.logger.atInfo().log("Compile result: %s %s", compiler, result);
+            publishDiagnostics(pending.textDocumentUri, result);
+            staleScripts.remove(filePath);
+            staleScripts.addAll(compiler.takeStaleScripts());
+        } catch (CompileCancelledException e) {
+            // A newer version of this script has already been queued.
+            QssLogger.logger.atInfo().log("Compile of %s was cancelled", filePath);
             return;
+        } catch (Exception e) {
+            QssLogger.logger.atSevere().withCause(e).log("Uncaught exception");
+        } finally {
+            synchronized (pendingCompiles) {
+                compilingScript = null;
+                compilingToken = null;
+            }
         }
 
-        QssLogger.logger.atInfo().log("Compiling %s", uri);
-        ScriptPath filePath = new ScriptPath(Paths.get(uri.getPath()));
-        compiler.overwriteCachedFileContent(filePath, fileContents);
-        Messenger<Script> result = compiler.compile(filePath);
-        QssLogger.logger.atInfo().log("Compile result: %s %s", compiler, result);
+        recompileStaleScripts();
+    }
+
+    /**
+     * Other open scripts may have depended on definitions that just changed, so update their diagnostics too.
+     * This stops as soon as the client sends another change, since that change may make the scripts stale again;
+     * the remaining scripts are recompiled after the change has been compiled.
+     */
+    private void recompileStaleScripts() {
+        Iterator<ScriptPath> it = staleScripts.iterator();
+        while (it.hasNext()) {
+            ScriptPath stale = it.next();
+            CancellationToken cancellationToken = new CancellationToken();
+            synchronized (pendingCompiles) {
+                if (!pendingCompiles.isEmpty())
+                    return;
+                compilingScript = stale;
+                compilingToken = cancellationToken;
+            }
 
+            try {
+                if (openScripts.contains(stale)) {
+                    QssLogger.logger.atInfo().log("Recompiling stale script %s", stale);
+                    publishDiagnostics(uriOf(stale).toString(), compiler.compile(stale, cancellationToken));
+                }
+                it.remove();
+            } catch (CompileCancelledException e) {
+                // The client changed this script, so it will be compiled again anyway.
+                return;
+            } catch (Exception e) {
+                QssLogger.logger.atSevere().withCause(e).log("Uncaught exception");
+                it.remove();
+            } finally {
+                synchronized (pendingCompiles) {
+                    compilingScript = null;
+                    compilingToken = null;
+                }
+            }
+        }
+    }
+
+    private void publishDiagnostics(String textDocumentUri, Messenger<Script> result) {
         PublishDiagnosticsParams diagnostics = new PublishDiagnosticsParams();
         diagnostics.setUri(textDocumentUri);
         for (Message message : result.getMessages()) {
@@ -240,7 +450,7 @@ public class QssTextDocumentService implements TextDocumentService {
                     break;
             }
             diagnostic.setMessage(message.message);
-            diagnostic.setSource("qss");
+            diagnostic.setSource(message.getSource());
             ArrayList<DiagnosticRelatedInformation> infos = new ArrayList<>();
             for (Message.MessageRelatedInformation info : message.infos) {
                 infos.add(new DiagnosticRelatedInformation(
@@ -256,7 +466,9 @@ public class QssTextDocumentService implements TextDocumentService {
 
     @Override
     public void didClose(DidCloseTextDocumentParams didCloseTextDocumentParams) {
-
+        ScriptPath filePath = pathFromUri(didCloseTextDocumentParams.getTextDocument().getUri());
+        openScripts.remove(filePath);
+        documents.remove(filePath);
     }
 
     @Override
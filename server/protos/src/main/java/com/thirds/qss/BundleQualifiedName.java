@@ -24,4 +24,19 @@ public class BundleQualifiedName {
     public String toString() {
         return bundle + "$" + name;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        BundleQualifiedName that = (BundleQualifiedName) o;
+
+        return bundle.equals(that.bundle) && name.equals(that.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * bundle.hashCode() + name.hashCode();
+    }
 }
@@ -0,0 +1,25 @@
+package com.thirds.qss;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * A table of identifiers shared by the whole compiler. The lexer, the index caches and {@link QualifiedName} all
+ * pass identifiers through {@link #intern}, so each distinct identifier is stored once however many scripts and
+ * bundles use it, and comparing two equal identifiers usually finds that they are the same string.
+ *
+ * Identifiers are held weakly, so names that are no longer used anywhere (e.g. ones that were only half typed in
+ * the client) do not stay in the table.
+ */
+public final class Identifiers {
+    private static final Interner<String> IDENTIFIERS = Interners.newWeakInterner();
+
+    private Identifiers() {}
+
+    /**
+     * @return The canonical string equal to the given identifier. This is safe to call from any thread.
+     */
+    public static String intern(String identifier) {
+        return IDENTIFIERS.intern(identifier);
+    }
+}
@@ -4,13 +4,43 @@ import com.thirds.qss.protos.NameProtos;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.stream.Collectors;
-
-public class QualifiedName {
-    private final ArrayList<String> segments = new ArrayList<>();
+import java.util.List;
+
+/**
+ * An immutable name made of segments, such as <code>std::entity::spawn</code>.
+ *
+ * A name is stored as the name without its last segment (its prefix) plus the last segment, so names in the same
+ * package share their prefix, and {@link #appendSegment} and {@link #trimLastSegment} do not copy anything.
+ * The hash code is computed once, when the name is created.
+ */
+public final class QualifiedName {
+    private static final QualifiedName EMPTY = new QualifiedName(null, null);
+
+    /**
+     * Null if this name is empty.
+     */
+    private final QualifiedName prefix;
+    /**
+     * Null if this name is empty. Segments are interned by {@link Identifiers}.
+     */
+    private final String last;
+    private final int size;
+    private final int hash;
+
+    private QualifiedName(QualifiedName prefix, String last) {
+        this.prefix = prefix;
+        this.last = last;
+        if (prefix == null) {
+            size = 0;
+            hash = 1;
+        } else {
+            size = prefix.size + 1;
+            // The same hash code as a list of the segments.
+            hash = 31 * prefix.hash + last.hashCode();
+        }
+    }
 
     public QualifiedName(NameProtos.QualifiedName qn) {
         this(qn.getSegmentsList());
@@ -21,84 +51,141 @@ public class QualifiedName {
     }
 
     public QualifiedName(Collection<String> segments) {
+        this(of(segments));
+    }
+
+    private QualifiedName(QualifiedName copy) {
+        this(copy.prefix, copy.last);
+    }
+
+    private static QualifiedName of(Collection<String> segments) {
+        QualifiedName name = EMPTY;
         if (segments.size() == 1) {
             // Implicitly splits a single string like "std::entity" into ["std", "entity"].
-            this.segments.addAll(Arrays.asList(segments.iterator().next().split("::")));
+            for (String segment : segments.iterator().next().split("::"))
+                name = name.appendSegment(segment);
         } else {
-            this.segments.addAll(segments);
+            for (String segment : segments)
+                name = name.appendSegment(segment);
         }
+        return name;
     }
 
     public NameProtos.QualifiedName toProtobufName() {
-        return NameProtos.QualifiedName.newBuilder().addAllSegments(segments).build();
+        return NameProtos.QualifiedName.newBuilder().addAllSegments(getSegments()).build();
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < segments.size(); i++) {
-            if (i != 0)
-                sb.append("::");
-            sb.append(segments.get(i));
-        }
+        appendTo(sb);
         return sb.toString();
     }
 
+    private void appendTo(StringBuilder sb) {
+        if (size == 0)
+            return;
+        if (prefix.size != 0) {
+            prefix.appendTo(sb);
+            sb.append("::");
+        }
+        sb.append(last);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
 
         QualifiedName that = (QualifiedName) o;
-
-        return segments.equals(that.segments);
+        if (size != that.size || hash != that.hash)
+            return false;
+
+        // Compare the segments from the end, stopping if both names share the rest of their prefix. Names built by
+        // the public constructors do not share the empty root, so also stop when the names run out of segments.
+        QualifiedName a = this, b = that;
+        while (a != b && a.size != 0) {
+            if (!a.last.equals(b.last))
+                return false;
+            a = a.prefix;
+            b = b.prefix;
+        }
+        return true;
     }
 
     @Override
     public int hashCode() {
-        return segments.hashCode();
+        return hash;
+    }
+
+    /**
+     * @return The number of segments in this name.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
     }
 
     public QualifiedName prependSegment(String name) {
-        ArrayList<String> segments2 = new ArrayList<>();
-        segments2.add(name);
-        segments2.addAll(segments);
-        return new QualifiedName(segments2);
+        QualifiedName result = EMPTY.appendSegment(name);
+        for (String segment : getSegments())
+            result = result.appendSegment(segment);
+        return result;
     }
 
     public QualifiedName appendSegment(String name) {
-        ArrayList<String> segments2 = new ArrayList<>(segments);
-        segments2.add(name);
-        return new QualifiedName(segments2);
+        return new QualifiedName(this, Identifiers.intern(name));
     }
 
     public QualifiedName trimFirstSegment() {
-        ArrayList<String> segments2 = new ArrayList<>(segments);
-        segments2.remove(0);
-        return new QualifiedName(segments2);
+        List<String> segments = getSegments();
+        QualifiedName result = EMPTY;
+        for (int i = 1; i < segments.size(); i++)
+            result = result.appendSegment(segments.get(i));
+        return result;
     }
 
     public QualifiedName trimLastSegment() {
-        ArrayList<String> segments2 = new ArrayList<>(segments);
-        segments2.remove(segments2.size() - 1);
-        return new QualifiedName(segments2);
+        if (size == 0)
+            throw new IndexOutOfBoundsException("Cannot trim a segment from an empty name");
+        return prefix;
     }
 
     public String firstSegment() {
-        return segments.get(0);
+        if (size == 0)
+            throw new IndexOutOfBoundsException("An empty name has no first segment");
+        QualifiedName name = this;
+        while (name.size > 1)
+            name = name.prefix;
+        return name.last;
     }
 
     public String lastSegment() {
-        return segments.get(segments.size() - 1);
+        if (size == 0)
+            throw new IndexOutOfBoundsException("An empty name has no last segment");
+        return last;
     }
 
-    public ArrayList<String> getSegments() {
-        return segments;
+    /**
+     * @return An unmodifiable list of the segments of this name.
+     */
+    public List<String> getSegments() {
+        String[] segments = new String[size];
+        QualifiedName name = this;
+        for (int i = size - 1; i >= 0; i--) {
+            segments[i] = name.last;
+            name = name.prefix;
+        }
+        return List.of(segments);
     }
 
     public Path toPath() {
+        List<String> segments = getSegments();
         if (segments.isEmpty())
             return Paths.get(".");
-        return Paths.get(segments.get(0), trimFirstSegment().segments.toArray(new String[0]));
+        return Paths.get(segments.get(0), segments.subList(1, segments.size()).toArray(new String[0]));
     }
 }
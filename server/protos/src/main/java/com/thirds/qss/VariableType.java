@@ -1,5 +1,7 @@
 package com.thirds.qss;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.thirds.qss.protos.ScriptProtos;
 import com.thirds.qss.protos.TypeProtos;
 
@@ -8,25 +10,119 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
+/**
+ * Variable types are immutable and hash-consed: each type is created through a factory method such as
+ * {@link Maybe#of}, which returns an existing instance if an identical type already exists. Since the child types of
+ * a type are also canonical, checking whether two types are identical only needs to compare their fields by identity,
+ * and the hash code of each type is computed once.
+ *
+ * Equality of function types ignores some of their fields (see {@link Function#equalTo}), so two different instances
+ * can still be equal if either of them contains a function type. Otherwise, types are equal only if they are the same
+ * instance.
+ */
 public abstract class VariableType {
+    /**
+     * The canonical instance of every type that is still in use. Types are held weakly, so this does not grow forever
+     * as the client edits scripts. This is safe to use from any thread.
+     */
+    private static final Interner<Canonical> TYPES = Interners.newWeakInterner();
+
+    private final int hash;
+    private final boolean containsFunction;
+    /**
+     * The key for this type in {@link #TYPES}. This keeps the key alive for as long as the type is in use.
+     */
+    private final Canonical canonical = new Canonical(this);
+
+    private VariableType(int hash, boolean containsFunction) {
+        this.hash = hash;
+        this.containsFunction = containsFunction;
+    }
+
+    /**
+     * @return The canonical instance of the given type.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends VariableType> T canonicalise(T type) {
+        return (T) TYPES.intern(((VariableType) type).canonical).type;
+    }
+
+    /**
+     * Child types must be resolved before a type containing them is created. A type that could not be resolved should
+     * be given as {@link Primitive#TYPE_UNKNOWN}, not null.
+     */
+    private static VariableType requireType(VariableType type, String role) {
+        return Objects.requireNonNull(type, () -> "The " + role + " type was null; use Primitive.TYPE_UNKNOWN for types that could not be resolved");
+    }
+
     public static VariableType.Function fromFunction(ScriptProtos.Func value) {
         // TODO serialise function purity
-        return new VariableType.Function(false,
+        return VariableType.Function.of(false,
                 value.getParamsList().stream().map(VariableType::from).collect(Collectors.toCollection(ArrayList::new)),
-                value.getReturnType().getValueCase() == TypeProtos.Type.ValueCase.VALUE_NOT_SET ? null : VariableType.from(value.getReturnType()));
+                value.getReturnType().getValueCase() == TypeProtos.Type.ValueCase.VALUE_NOT_SET ? null : VariableType.from(value.getReturnType()),
+                Function.Purity.IMPURE);
     }
 
+    public abstract TypeProtos.Type serialise();
+
     /**
-     * Creates a semantically identical deep copy of this variable type.
+     * Is this type identical to the given type in every field? The other type has the same class as this one, and
+     * child types are compared by identity since they are canonical.
      */
-    protected abstract VariableType copy();
+    abstract boolean identicalTo(VariableType other);
 
-    public abstract TypeProtos.Type serialise();
+    /**
+     * A hash code that is consistent with {@link #identicalTo}.
+     */
+    int identicalHash() {
+        return hash;
+    }
+
+    /**
+     * Is this type equal to the given type? The other type has the same class as this one.
+     */
+    abstract boolean equalTo(VariableType other);
+
+    @Override
+    public final boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof VariableType)) return false;
+        VariableType other = (VariableType) o;
+        // Different canonical instances can only be equal if function types are involved.
+        if (hash != other.hash || (!containsFunction && !other.containsFunction)) return false;
+        return getClass() == other.getClass() && equalTo(other);
+    }
+
+    @Override
+    public final int hashCode() {
+        return hash;
+    }
+
+    private static final class Canonical {
+        final VariableType type;
+
+        Canonical(VariableType type) {
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Canonical)) return false;
+            VariableType other = ((Canonical) o).type;
+            return type.getClass() == other.getClass() && type.identicalTo(other);
+        }
+
+        @Override
+        public int hashCode() {
+            return type.identicalHash();
+        }
+    }
 
     public static VariableType from(TypeProtos.Type type) {
         switch (type.getValueCase()) {
             case STRUCT:
-                return new Struct(new QualifiedName(type.getStruct()));
+                return Struct.of(new QualifiedName(type.getStruct()));
             case BOOL:
                 return Primitive.TYPE_BOOL;
             case INT:
@@ -58,17 +154,21 @@ public abstract class VariableType {
                 if (type.getFunc().hasReturnType()) {
                     result = from(type.getFunc().getReturnType());
                 }
-                return new VariableType.Function(type.getFunc().getReceiverStyle(), args, result);
+                return VariableType.Function.of(type.getFunc().getReceiverStyle(), args, result, Function.Purity.from(type.getFunc().getPurity()));
             case MAYBE:
-                return new Maybe(from(type.getMaybe()));
+                return Maybe.of(from(type.getMaybe()));
             case LIST:
-                return new List(from(type.getList()));
+                return List.of(from(type.getList()));
             case MAP:
-                return new Map(from(type.getMap().getKeyType()), from(type.getMap().getValueType()));
+                return Map.of(from(type.getMap().getKeyType()), from(type.getMap().getValueType()));
             case ANYSTRUCT:
                 return Primitive.TYPE_ANY_STRUCT;
             case TRAIT:
-                return new Trait(new QualifiedName(type.getTrait()));
+                return Trait.of(new QualifiedName(type.getTrait()));
+            case THISTYPE:
+                return This.INSTANCE;
+            case UNKNOWN:
+                return Primitive.TYPE_UNKNOWN;
             case VALUE_NOT_SET:
             default:
                 throw new UnsupportedOperationException(type.toString());
@@ -79,6 +179,7 @@ public abstract class VariableType {
         final QualifiedName name;
 
         private Qualified(QualifiedName name) {
+            super(Objects.hash("Qualified", name), false);
             this.name = name;
         }
 
@@ -92,27 +193,23 @@ public abstract class VariableType {
         }
 
         @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            Qualified qualified = (Qualified) o;
-            return Objects.equals(name, qualified.name);
+        boolean identicalTo(VariableType other) {
+            return name.equals(((Qualified) other).name);
         }
 
         @Override
-        public int hashCode() {
-            return Objects.hash("Qualified", name);
+        boolean equalTo(VariableType other) {
+            return identicalTo(other);
         }
     }
 
     public static class Struct extends Qualified {
-        public Struct(QualifiedName name) {
+        private Struct(QualifiedName name) {
             super(name);
         }
 
-        @Override
-        protected VariableType copy() {
-            return new Struct(name);
+        public static Struct of(QualifiedName name) {
+            return canonicalise(new Struct(name));
         }
 
         @Override
@@ -126,13 +223,12 @@ public abstract class VariableType {
      * TODO rename to Any
      */
     public static class Trait extends Qualified {
-        public Trait(QualifiedName name) {
+        private Trait(QualifiedName name) {
             super(name);
         }
 
-        @Override
-        protected VariableType copy() {
-            return new Trait(name);
+        public static Trait of(QualifiedName name) {
+            return canonicalise(new Trait(name));
         }
 
         @Override
@@ -147,17 +243,18 @@ public abstract class VariableType {
      * defined to be any specific type.
      */
     public static class This extends VariableType {
-        public This() {
-        }
+        public static final This INSTANCE = new This();
 
-        @Override
-        protected VariableType copy() {
-            return new This();
+        private This() {
+            super("This".hashCode(), false);
         }
 
+        /**
+         * The This data type should never be found in compiled code! This is only used when caching indices.
+         */
         @Override
         public TypeProtos.Type serialise() {
-            throw new UnsupportedOperationException("The This data type should never be found in compiled code!");
+            return TypeProtos.Type.newBuilder().setThisType(true).build();
         }
 
         @Override
@@ -166,13 +263,13 @@ public abstract class VariableType {
         }
 
         @Override
-        public boolean equals(Object obj) {
-            return obj instanceof This;
+        boolean identicalTo(VariableType other) {
+            return true;
         }
 
         @Override
-        public int hashCode() {
-            return "This".hashCode();
+        boolean equalTo(VariableType other) {
+            return true;
         }
     }
 
@@ -194,7 +291,11 @@ public abstract class VariableType {
 
         private final String name;
 
+        /**
+         * The primitive types are only created once, above, so they are already canonical.
+         */
         private Primitive(String name) {
+            super(Objects.hash("Primitive", name), false);
             this.name = name;
         }
 
@@ -203,11 +304,6 @@ public abstract class VariableType {
             return name;
         }
 
-        @Override
-        protected VariableType copy() {
-            return new Primitive(name);
-        }
-
         @Override
         public TypeProtos.Type serialise() {
             TypeProtos.Type.Builder b = TypeProtos.Type.newBuilder();
@@ -223,31 +319,36 @@ public abstract class VariableType {
                 case "Stat": return b.setStat(true).build();
                 case "Texture": return b.setTexture(true).build();
                 case "Player": return b.setPlayer(true).build();
+                case "AnyStruct": return b.setAnyStruct(true).build();
+                // Unknown types are never found in compiled code, only in cached indices.
+                case "<unknown>": return b.setUnknown(true).build();
             }
             throw new UnsupportedOperationException(this.toString());
         }
 
         @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            Primitive primitive = (Primitive) o;
-            return Objects.equals(name, primitive.name);
+        boolean identicalTo(VariableType other) {
+            return this == other;
         }
 
         @Override
-        public int hashCode() {
-            return Objects.hash("Primitive", name);
+        boolean equalTo(VariableType other) {
+            return this == other;
         }
     }
 
     public static class Maybe extends VariableType {
         private final VariableType contentsType;
 
-        public Maybe(VariableType contentsType) {
+        private Maybe(VariableType contentsType) {
+            super(Objects.hash("Maybe", contentsType), requireType(contentsType, "contents").containsFunction);
             this.contentsType = contentsType;
         }
 
+        public static Maybe of(VariableType contentsType) {
+            return canonicalise(new Maybe(contentsType));
+        }
+
         public VariableType getContentsType() {
             return contentsType;
         }
@@ -257,37 +358,34 @@ public abstract class VariableType {
             return contentsType + "?";
         }
 
-        @Override
-        protected VariableType copy() {
-            return new Maybe(contentsType.copy());
-        }
-
         @Override
         public TypeProtos.Type serialise() {
             return TypeProtos.Type.newBuilder().setMaybe(contentsType.serialise()).build();
         }
 
         @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            Maybe maybe = (Maybe) o;
-            return Objects.equals(contentsType, maybe.contentsType);
+        boolean identicalTo(VariableType other) {
+            return contentsType == ((Maybe) other).contentsType;
         }
 
         @Override
-        public int hashCode() {
-            return Objects.hash("Maybe", contentsType);
+        boolean equalTo(VariableType other) {
+            return contentsType.equals(((Maybe) other).contentsType);
         }
     }
 
     public static class List extends VariableType {
         private final VariableType elementType;
 
-        public List(VariableType elementType) {
+        private List(VariableType elementType) {
+            super(Objects.hash("List", elementType), requireType(elementType, "element").containsFunction);
             this.elementType = elementType;
         }
 
+        public static List of(VariableType elementType) {
+            return canonicalise(new List(elementType));
+        }
+
         public VariableType getElementType() {
             return elementType;
         }
@@ -298,21 +396,13 @@ public abstract class VariableType {
         }
 
         @Override
-        protected VariableType copy() {
-            return new List(elementType.copy());
+        boolean identicalTo(VariableType other) {
+            return elementType == ((List) other).elementType;
         }
 
         @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            List list = (List) o;
-            return elementType.equals(list.elementType);
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash("List", elementType);
+        boolean equalTo(VariableType other) {
+            return elementType.equals(((List) other).elementType);
         }
 
         @Override
@@ -324,11 +414,17 @@ public abstract class VariableType {
     public static class Map extends VariableType {
         private final VariableType keyType, valueType;
 
-        public Map(VariableType keyType, VariableType valueType) {
+        private Map(VariableType keyType, VariableType valueType) {
+            super(Objects.hash(keyType, valueType),
+                    requireType(keyType, "key").containsFunction || requireType(valueType, "value").containsFunction);
             this.keyType = keyType;
             this.valueType = valueType;
         }
 
+        public static Map of(VariableType keyType, VariableType valueType) {
+            return canonicalise(new Map(keyType, valueType));
+        }
+
         public VariableType getKeyType() {
             return keyType;
         }
@@ -342,11 +438,6 @@ public abstract class VariableType {
             return "{" + keyType + " => " + valueType + "}";
         }
 
-        @Override
-        protected VariableType copy() {
-            return new Map(keyType.copy(), valueType.copy());
-        }
-
         @Override
         public TypeProtos.Type serialise() {
             return TypeProtos.Type.newBuilder().setMap(TypeProtos.Type.Map.newBuilder()
@@ -355,17 +446,16 @@ public abstract class VariableType {
         }
 
         @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            Map map = (Map) o;
-            return keyType.equals(map.keyType) &&
-                    valueType.equals(map.valueType);
+        boolean identicalTo(VariableType other) {
+            Map map = (Map) other;
+            return keyType == map.keyType && valueType == map.valueType;
         }
 
         @Override
-        public int hashCode() {
-            return Objects.hash(keyType, valueType);
+        boolean equalTo(VariableType other) {
+            Map map = (Map) other;
+            return keyType.equals(map.keyType) &&
+                    valueType.equals(map.valueType);
         }
     }
 
@@ -376,31 +466,63 @@ public abstract class VariableType {
          * This field is not taken into account when determining whether functions have equal types.
          */
         private final boolean receiverStyle;
-        private final ArrayList<VariableType> params;
+        private final java.util.List<VariableType> params;
         private final VariableType returnType;
 
         /**
          * If not null, this is the name of the trait that contains this function.
          */
-        private QualifiedName containerTrait;
-        private Purity purity = Purity.IMPURE;
-        private boolean isNative = false;
+        private final QualifiedName containerTrait;
+        private final Purity purity;
+        private final boolean isNative;
 
-        @Override
-        protected VariableType copy() {
-            Function function = new Function(receiverStyle, params.stream().map(VariableType::copy).collect(Collectors.toCollection(ArrayList::new)), returnType.copy());
-            function.purity = purity;
-            function.containerTrait = containerTrait;
-            return function;
+        private Function(boolean receiverStyle, java.util.List<VariableType> params, VariableType returnType, Purity purity,
+                         QualifiedName containerTrait, boolean isNative) {
+            super(Objects.hash("Func", params, returnType, purity), true);
+            this.receiverStyle = receiverStyle;
+            this.params = params;
+            this.returnType = returnType;
+            this.purity = purity;
+            this.containerTrait = containerTrait;
+            this.isNative = isNative;
         }
 
-        @Override
-        public TypeProtos.Type serialise() {
-            throw new UnsupportedOperationException("haven't done this yet");
+        /**
+         * @param params The parameter types. None of these may be null; unresolved parameters are TYPE_UNKNOWN.
+         * @param returnType Null or Primitive.TYPE_VOID (both are converted into VOID) if the function does not return a value.
+         */
+        public static Function of(boolean receiverStyle, java.util.List<VariableType> params, VariableType returnType, Purity purity) {
+            if (returnType == null)
+                returnType = Primitive.TYPE_VOID;
+            params.forEach(param -> requireType(param, "parameter"));
+            return canonicalise(new Function(receiverStyle, java.util.List.copyOf(params), returnType, purity, null, false));
         }
 
-        public void setContainerTrait(QualifiedName containerTrait) {
-            this.containerTrait = containerTrait;
+        /**
+         * @return This function type, but contained in the given trait.
+         */
+        public Function withContainerTrait(QualifiedName containerTrait) {
+            return canonicalise(new Function(receiverStyle, params, returnType, purity, containerTrait, isNative));
+        }
+
+        public Function withNative(boolean isNative) {
+            return canonicalise(new Function(receiverStyle, params, returnType, purity, containerTrait, isNative));
+        }
+
+        /**
+         * The container trait and whether the function is native are not serialised.
+         */
+        @Override
+        public TypeProtos.Type serialise() {
+            TypeProtos.Type.Func.Builder b = TypeProtos.Type.Func.newBuilder()
+                    .setReceiverStyle(receiverStyle)
+                    .setPurity(purity.serialise());
+            for (VariableType param : params) {
+                b.addParams(param.serialise());
+            }
+            if (returnType != Primitive.TYPE_VOID)
+                b.setReturnType(returnType.serialise());
+            return TypeProtos.Type.newBuilder().setFunc(b).build();
         }
 
         public Optional<QualifiedName> getContainerTrait() {
@@ -415,17 +537,6 @@ public abstract class VariableType {
             return isNative;
         }
 
-        /**
-         * @param returnType Null or Primitive.TYPE_VOID (both are converted into VOID) if the function does not return a value.
-         */
-        public Function(boolean receiverStyle, ArrayList<VariableType> params, VariableType returnType) {
-            this.receiverStyle = receiverStyle;
-            this.params = params;
-            if (returnType == null)
-                returnType = Primitive.TYPE_VOID;
-            this.returnType = returnType;
-        }
-
         public boolean isReceiverStyle() {
             return receiverStyle;
         }
@@ -463,7 +574,10 @@ public abstract class VariableType {
             return sb.toString();
         }
 
-        public ArrayList<VariableType> getParams() {
+        /**
+         * @return An unmodifiable list of the parameter types.
+         */
+        public java.util.List<VariableType> getParams() {
             return params;
         }
 
@@ -471,24 +585,44 @@ public abstract class VariableType {
             return returnType;
         }
 
-        public void setNative(boolean aNative) {
-            isNative = aNative;
-        }
-
         public Purity getPurity() {
             return purity;
         }
 
-        public void setPurity(Purity purity) {
-            this.purity = purity;
-        }
-
         public enum Purity {
             EAGER,
             UI,
             PURE,
             IMPURE;
 
+            public static Purity from(TypeProtos.Type.Purity purity) {
+                switch (purity) {
+                    case EAGER:
+                        return EAGER;
+                    case UI:
+                        return UI;
+                    case PURE:
+                        return PURE;
+                    case IMPURE:
+                    default:
+                        return IMPURE;
+                }
+            }
+
+            public TypeProtos.Type.Purity serialise() {
+                switch (this) {
+                    case EAGER:
+                        return TypeProtos.Type.Purity.EAGER;
+                    case UI:
+                        return TypeProtos.Type.Purity.UI;
+                    case PURE:
+                        return TypeProtos.Type.Purity.PURE;
+                    case IMPURE:
+                    default:
+                        return TypeProtos.Type.Purity.IMPURE;
+                }
+            }
+
             public boolean canExecuteInside(Purity containingFunc) {
                 switch (this) {
                     case EAGER:
@@ -526,18 +660,34 @@ public abstract class VariableType {
         }
 
         @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            Function function = (Function) o;
-            return Objects.equals(params, function.params) &&
-                    Objects.equals(returnType, function.returnType) &&
-                    purity == function.purity;
+        boolean identicalTo(VariableType other) {
+            Function function = (Function) other;
+            if (receiverStyle != function.receiverStyle || purity != function.purity || isNative != function.isNative
+                    || returnType != function.returnType || !Objects.equals(containerTrait, function.containerTrait)
+                    || params.size() != function.params.size())
+                return false;
+            for (int i = 0; i < params.size(); i++) {
+                if (params.get(i) != function.params.get(i))
+                    return false;
+            }
+            return true;
         }
 
         @Override
-        public int hashCode() {
-            return Objects.hash("Func", params, returnType, purity);
+        int identicalHash() {
+            return 31 * hashCode() + Objects.hash(receiverStyle, containerTrait, isNative);
+        }
+
+        /**
+         * Whether the function is receiver-style, its container trait and whether it is native are not taken into
+         * account when comparing function types.
+         */
+        @Override
+        boolean equalTo(VariableType other) {
+            Function function = (Function) other;
+            return params.equals(function.params) &&
+                    returnType.equals(function.returnType) &&
+                    purity == function.purity;
         }
     }
 }
@@ -0,0 +1,255 @@
+package com.thirds.qss;
+
+import com.thirds.qss.compiler.Compiler;
+import com.thirds.qss.compiler.*;
+import com.thirds.qss.compiler.tree.Script;
+
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.LogManager;
+
+/**
+ * Headless batch compiler. Compiles every script in each of the given bundles and prints the diagnostics, so that
+ * bundles can be checked (e.g. in continuous integration) without starting an editor.
+ *
+ * Usage: <code>qssc [--threads N] [--format text|json] [--index-cache] BUNDLE_ROOT...</code>
+ *
+ * Diagnostics are printed to standard output, one per line. In the text format each line looks like
+ * <code>path:line:column: severity: message</code>; in the json format each line is a JSON object. Lines and columns
+ * start at 1. Problems with bundle.toml files are reported once per bundle, against its bundle.toml file.
+ * A summary and the time spent in each compilation phase are printed to standard error.
+ *
+ * The bundles are only read, unless <code>--index-cache</code> is given; then the indices in each bundle's
+ * <code>.qss/index</code> directory are reused and updated, as the language server does.
+ *
+ * The exit code is 0 if there were no errors, 1 if any script had an error, and 2 if the arguments were invalid.
+ */
+public class Qssc {
+    private enum Format {
+        TEXT,
+        JSON
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * @return The exit code.
+     */
+    public static int run(String[] args, PrintStream out, PrintStream err) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        Format format = Format.TEXT;
+        boolean useIndexCache = false;
+        List<Path> bundleRoots = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--threads":
+                case "-j":
+                    if (i + 1 >= args.length)
+                        return usage(err, arg + " requires a value");
+                    try {
+                        threads = Integer.parseInt(args[++i]);
+                    } catch (NumberFormatException e) {
+                        return usage(err, "Invalid thread count " + args[i]);
+                    }
+                    if (threads < 1)
+                        return usage(err, "Thread count must be at least 1");
+                    break;
+                case "--format":
+                    if (i + 1 >= args.length)
+                        return usage(err, arg + " requires a value");
+                    try {
+                        format = Format.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                    } catch (IllegalArgumentException e) {
+                        return usage(err, "Unknown format " + args[i]);
+                    }
+                    break;
+                case "--index-cache":
+                    useIndexCache = true;
+                    break;
+                case "--help":
+                case "-h":
+                    usage(err, null);
+                    return 0;
+                default:
+                    if (arg.startsWith("-"))
+                        return usage(err, "Unknown option " + arg);
+                    bundleRoots.add(Paths.get(arg));
+            }
+        }
+
+        if (bundleRoots.isEmpty())
+            return usage(err, "No bundle roots were given");
+
+        // Don't write log files or log to the console; diagnostics are reported on standard output instead.
+        LogManager.getLogManager().reset();
+        QssLogger.initialise(null);
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        PhaseTimings timings = new PhaseTimings();
+        long start = System.nanoTime();
+        int scripts = 0, errors = 0, warnings = 0;
+        // Compilers are kept open until every bundle is compiled, so that bundles with common dependencies share them.
+        List<Compiler> compilers = new ArrayList<>();
+
+        try {
+            for (Path bundleRoot : bundleRoots) {
+                if (!bundleRoot.resolve("bundle.toml").toFile().isFile()) {
+                    printBundleError(out, format, bundleRoot, "Cannot find bundle.toml file; this file should be at the bundle root");
+                    errors++;
+                    continue;
+                }
+
+                Map<ScriptPath, Messenger<Script>> results;
+                List<Message> bundleMessages;
+                try {
+                    Compiler compiler = new Compiler(bundleRoot, useIndexCache);
+                    compilers.add(compiler);
+                    compiler.setParallelTypeDeduction(threads > 1);
+                    results = compiler.compileAll(pool, timings);
+                    bundleMessages = compiler.getBundleMessages();
+                } catch (RuntimeException e) {
+                    printBundleError(out, format, bundleRoot, "Internal compiler error: " + e);
+                    errors++;
+                    continue;
+                }
+
+                // Maps each file onto the messages to report against it.
+                Map<Path, List<Message>> messages = new LinkedHashMap<>();
+                messages.put(bundleRoot.resolve("bundle.toml").normalize(), bundleMessages);
+                results.forEach((filePath, result) -> messages.put(bundleRoot.resolve(filePath.toPath()).normalize(), result.getMessages()));
+                scripts += results.size();
+
+                for (Map.Entry<Path, List<Message>> file : messages.entrySet()) {
+                    for (Message message : file.getValue()) {
+                        if (message.severity == Message.MessageSeverity.ERROR)
+                            errors++;
+                        else if (message.severity == Message.MessageSeverity.WARNING)
+                            warnings++;
+                        printMessage(out, format, bundleRoot, file.getKey(), message);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+            compilers.forEach(Compiler::close);
+        }
+        out.flush();
+
+        err.printf("Compiled %d script(s) in %d bundle(s) with %d thread(s): %d error(s), %d warning(s)%n",
+                scripts, bundleRoots.size(), threads, errors, warnings);
+        for (Map.Entry<String, Duration> phase : timings.getDurations().entrySet()) {
+            err.printf("  %-12s %8d ms%n", phase.getKey(), phase.getValue().toMillis());
+        }
+        err.printf("  %-12s %8d ms%n", "total", Duration.ofNanos(System.nanoTime() - start).toMillis());
+        for (Map.Entry<String, Long> counter : timings.getCounts().entrySet()) {
+            err.printf("  %s: %d%n", counter.getKey(), counter.getValue());
+        }
+
+        return errors == 0 ? 0 : 1;
+    }
+
+    private static int usage(PrintStream err, String problem) {
+        if (problem != null)
+            err.println("qssc: " + problem);
+        err.println("Usage: qssc [--threads N] [--format text|json] [--index-cache] BUNDLE_ROOT...");
+        return 2;
+    }
+
+    private static void printMessage(PrintStream out, Format format, Path bundleRoot, Path file, Message message) {
+        String severity = message.severity.name().toLowerCase(Locale.ROOT);
+        switch (format) {
+            case TEXT:
+                out.println(file + ":" + (message.range.getStartLine() + 1) + ":" + (message.range.getStartCharacter() + 1) + ": "
+                        + severity + ": " + oneLine(message.message));
+                for (Message.MessageRelatedInformation info : message.infos) {
+                    Path infoFile = bundleRoot.resolve(info.location.getFilePath().toPath()).normalize();
+                    out.println(infoFile + ":" + (info.location.getRange().getStartLine() + 1) + ":" + (info.location.getRange().getStartCharacter() + 1) + ": "
+                            + "note: " + oneLine(info.message));
+                }
+                break;
+            case JSON:
+                StringBuilder sb = new StringBuilder("{");
+                appendLocation(sb, file, message.range);
+                sb.append(",\"severity\":").append(jsonString(severity));
+                sb.append(",\"message\":").append(jsonString(message.message));
+                sb.append(",\"related\":[");
+                for (int i = 0; i < message.infos.size(); i++) {
+                    Message.MessageRelatedInformation info = message.infos.get(i);
+                    if (i > 0)
+                        sb.append(',');
+                    sb.append('{');
+                    appendLocation(sb, bundleRoot.resolve(info.location.getFilePath().toPath()).normalize(), info.location.getRange());
+                    sb.append(",\"message\":").append(jsonString(info.message));
+                    sb.append('}');
+                }
+                sb.append("]}");
+                out.println(sb);
+                break;
+        }
+    }
+
+    /**
+     * Reports a problem with a whole bundle, rather than a specific script.
+     */
+    private static void printBundleError(PrintStream out, Format format, Path bundleRoot, String message) {
+        printMessage(out, format, bundleRoot, bundleRoot.resolve("bundle.toml").normalize(),
+                new Message(new Range(new Position(0, 0)), Message.MessageSeverity.ERROR, message));
+    }
+
+    private static void appendLocation(StringBuilder sb, Path file, Range range) {
+        sb.append("\"file\":").append(jsonString(file.toString()))
+                .append(",\"line\":").append(range.getStartLine() + 1)
+                .append(",\"column\":").append(range.getStartCharacter() + 1)
+                .append(",\"endLine\":").append(range.getEndLine() + 1)
+                .append(",\"endColumn\":").append(range.getEndCharacter() + 1);
+    }
+
+    /**
+     * Some messages (e.g. import suggestions) span several lines, but the text format has one message per line.
+     */
+    private static String oneLine(String message) {
+        return message.replace("\r", "").replace("\n", " ");
+    }
+
+    private static String jsonString(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
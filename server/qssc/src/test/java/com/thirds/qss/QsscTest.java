@@ -0,0 +1,134 @@
+package com.thirds.qss;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+class QsscTest {
+    private int exitCode;
+    private List<String> out;
+
+    /**
+     * Creates a bundle in a new temporary directory.
+     * @param files Maps paths relative to the bundle root onto the contents of the files.
+     */
+    private static Path bundle(Map<String, String> files) throws IOException {
+        Path bundleRoot = Files.createTempDirectory("qssc");
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            Path path = bundleRoot.resolve(file.getKey());
+            Files.createDirectories(path.getParent());
+            Files.writeString(path, file.getValue());
+        }
+        return bundleRoot;
+    }
+
+    private void run(String... args) {
+        ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+        PrintStream err = new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8);
+        exitCode = Qssc.run(args, new PrintStream(outBytes, true, StandardCharsets.UTF_8), err);
+        String output = outBytes.toString(StandardCharsets.UTF_8);
+        out = output.isEmpty() ? List.of() : Arrays.stream(output.split("\\R")).collect(Collectors.toList());
+    }
+
+    @Test
+    void invalidArguments() {
+        run();
+        assertThat(exitCode, is(2));
+        run("--threads", "0", "bundle");
+        assertThat(exitCode, is(2));
+        run("--format", "xml", "bundle");
+        assertThat(exitCode, is(2));
+        run("--unknown", "bundle");
+        assertThat(exitCode, is(2));
+    }
+
+    @Test
+    void validBundle() throws IOException {
+        Path bundleRoot = bundle(Map.of(
+                "bundle.toml", "",
+                "src/a/a.qss", "struct A {\n    q: Int\n}\n"
+        ));
+        run("--threads", "1", bundleRoot.toString());
+        assertThat(exitCode, is(0));
+        assertThat(out, empty());
+    }
+
+    @Test
+    void textFormat() throws IOException {
+        Path bundleRoot = bundle(Map.of(
+                "bundle.toml", "",
+                "src/a/a.qss", "struct A {\n}\n\nstruct A {\n}\n"
+        ));
+        run("--threads", "1", bundleRoot.toString());
+        assertThat(exitCode, is(1));
+        Path file = bundleRoot.resolve("src/a/a.qss");
+        assertThat(out, contains(
+                file + ":4:8: error: Struct A was already defined",
+                file + ":1:1: note: Previously defined here"
+        ));
+    }
+
+    @Test
+    void jsonFormat() throws IOException {
+        Path bundleRoot = bundle(Map.of(
+                "bundle.toml", "",
+                "src/a/a.qss", "struct A {\n}\n\nstruct A {\n}\n"
+        ));
+        run("--threads", "1", "--format", "json", bundleRoot.toString());
+        assertThat(exitCode, is(1));
+        assertThat(out, hasSize(1));
+        assertThat(out.get(0), startsWith("{\"file\":"));
+        assertThat(out.get(0), containsString("\"line\":4,\"column\":8,"));
+        assertThat(out.get(0), containsString("\"severity\":\"error\",\"message\":\"Struct A was already defined\""));
+        assertThat(out.get(0), containsString("\"related\":[{"));
+    }
+
+    @Test
+    void missingBundleFile() throws IOException {
+        Path bundleRoot = bundle(Map.of("src/a/a.qss", ""));
+        run("--threads", "1", bundleRoot.toString());
+        assertThat(exitCode, is(1));
+        assertThat(out, contains(bundleRoot.resolve("bundle.toml") + ":1:1: error: Cannot find bundle.toml file; this file should be at the bundle root"));
+    }
+
+    @Test
+    void bundleErrorsReportedOnce() throws IOException {
+        Path bundleRoot = bundle(Map.of(
+                "bundle.toml", "[dependencies]\nmissing = { path = \"../missing\" }\n",
+                "src/a/a.qss", "struct A {\n}\n",
+                "src/a/b.qss", "struct B {\n}\n",
+                "src/c/c.qss", "struct C {\n}\n"
+        ));
+        run("--threads", "1", bundleRoot.toString());
+        assertThat(exitCode, is(1));
+        assertThat(out, hasSize(1));
+        assertThat(out.get(0), startsWith(bundleRoot.resolve("bundle.toml") + ":1:1: error: Bundle missing in bundle.toml had an invalid \"path\" key"));
+    }
+
+    @Test
+    void indexCacheOnlyWrittenWithFlag() throws IOException {
+        Path bundleRoot = bundle(Map.of(
+                "bundle.toml", "",
+                "src/a/a.qss", "struct A {\n}\n"
+        ));
+        run("--threads", "1", bundleRoot.toString());
+        assertThat(exitCode, is(0));
+        assertThat(Files.exists(bundleRoot.resolve(".qss").resolve("index")), is(false));
+
+        run("--threads", "1", "--index-cache", bundleRoot.toString());
+        assertThat(exitCode, is(0));
+        assertThat(Files.exists(bundleRoot.resolve(".qss").resolve("index")), is(true));
+    }
+}